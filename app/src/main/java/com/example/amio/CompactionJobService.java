@@ -0,0 +1,80 @@
+package com.example.amio;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.example.amio.store.HistoryStore;
+import com.example.amio.store.IoBudget;
+import com.example.amio.store.RetentionCompactor;
+
+import java.io.IOException;
+
+/**
+ * Runs a {@link RetentionCompactor} over the shared history store once a day, while the device
+ * is idle and the battery is not low. A job stopped by the system is rescheduled and picks up
+ * where it left off, since each compaction step is complete on its own.
+ */
+public class CompactionJobService extends JobService {
+
+    private static final String TAG = "CompactionJob";
+    private static final int JOB_ID = 1;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private RetentionCompactor compactor;
+
+    /** Schedules the daily job unless it is already pending. */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, CompactionJobService.class))
+                .setPeriodic(DAY_MILLIS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Resources res = getResources();
+        HistoryStore store = HistoryStores.get(this);
+        RetentionCompactor compactor = new RetentionCompactor(store,
+                new IoBudget(res.getInteger(R.integer.compaction_bytes_per_second)),
+                res.getInteger(R.integer.raw_retention_days) * DAY_MILLIS,
+                res.getInteger(R.integer.rollup_retention_days) * DAY_MILLIS);
+        synchronized (this) {
+            this.compactor = compactor;
+        }
+        Thread thread = new Thread(() -> {
+            boolean reschedule = false;
+            try {
+                reschedule = !compactor.run(System.currentTimeMillis());
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Compaction failed", e);
+                reschedule = true;
+            } catch (InterruptedException e) {
+                reschedule = true;
+            }
+            jobFinished(params, reschedule);
+        }, "amio-compaction");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean onStopJob(JobParameters params) {
+        if (compactor != null) {
+            compactor.stop();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.amio;
+
+import android.content.Context;
+
+import com.example.amio.store.HistoryStore;
+import com.example.amio.store.SegmentHistoryStore;
+import com.example.amio.store.SqliteHistoryStore;
+
+import java.io.File;
+
+/**
+ * The process-wide {@link HistoryStore}, shared by the activity and the compaction job so
+ * that only one instance ever touches the files. The backend is chosen by
+ * {@code R.bool.segment_history_store}. It stays open for the life of the process: every
+ * append reaches the page cache before it returns, so nothing is lost when the process dies.
+ */
+final class HistoryStores {
+
+    private static HistoryStore store;
+
+    private HistoryStores() {
+    }
+
+    static synchronized HistoryStore get(Context context) {
+        if (store == null) {
+            Context app = context.getApplicationContext();
+            store = app.getResources().getBoolean(R.bool.segment_history_store)
+                    ? new SegmentHistoryStore(new File(app.getFilesDir(), "history"))
+                    : new SqliteHistoryStore(app, "history.db");
+        }
+        return store;
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.amio;
 
+import android.content.res.Resources;
 import android.os.Bundle;
+import android.util.Log;
 
 import androidx.activity.EdgeToEdge;
 import androidx.appcompat.app.AppCompatActivity;
@@ -8,8 +10,81 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import com.example.amio.alert.AlertEngine;
+import com.example.amio.alert.AlertRule;
+import com.example.amio.alert.AlertRules;
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.data.SensorDictionary;
+import com.example.amio.detect.ChangeDetector;
+import com.example.amio.detect.LightsOnDetector;
+import com.example.amio.journal.JournaledListener;
+import com.example.amio.net.BackfillEngine;
+import com.example.amio.net.CursorStore;
+import com.example.amio.net.SensorClient;
+import com.example.amio.schedule.AdaptivePollScheduler;
+import com.example.amio.schedule.MonitoringWindow;
+import com.example.amio.schedule.WeekCalendar;
+import com.example.amio.stats.WindowStats;
+import com.example.amio.store.HistoryStore;
+import com.example.amio.store.LitIntervalIndex;
+import com.example.amio.store.OffHeapHistoryCache;
+import com.example.amio.store.RingBufferStore;
+import com.example.amio.store.RollupEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+
+    /** Typical change in lux between two readings of a light sensor. */
+    private static final double LIGHT_CHANGE_SCALE = 5;
+
+    /** Readings per off-heap cache slot: six hours of one reading a minute. */
+    private static final int CACHE_SLOT_READINGS = 360;
+
+    /** Rolling statistics windows: the last 5, 30 and 120 minutes. */
+    private static final long[] STATS_WINDOWS_MILLIS = {5 * 60_000L, 30 * 60_000L, 120 * 60_000L};
+    /** Readings kept per mote for the windows: two hours at up to two readings a minute. */
+    private static final int STATS_READINGS_PER_MOTE = 256;
+    private static final long STATS_PANE_MILLIS = 5 * 60_000L;
+    private static final double STATS_COMPRESSION = 50;
+
+    /** Backfill: two chunk requests at a time, of six hours of one mote each. */
+    private static final int BACKFILL_THREADS = 2;
+    private static final long BACKFILL_CHUNK_MILLIS = 6 * 3_600_000L;
+
+    private SensorClient sensorClient;
+    private SensorDictionary dictionary;
+    private RingBufferStore history;
+    private OffHeapHistoryCache historyCache;
+    private RollupEngine rollups;
+    private LitIntervalIndex litIntervals;
+    private LightsOnDetector lightsOn;
+    private ChangeDetector changes;
+    private AlertEngine alerts;
+    private WindowStats windowStats;
+    private HistoryStore store;
+    private JournaledListener journal;
+    private BackfillEngine backfill;
+    private SensorPoller poller;
+    private StreamingIngestor streamer;
+    private TelemetryReceiver telemetry;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -20,5 +95,172 @@ public class MainActivity extends AppCompatActivity {
             v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
             return insets;
         });
+
+        Resources res = getResources();
+        sensorClient = new SensorClient(getString(R.string.sensor_base_url));
+        List<LocalDate> holidays = loadHolidays();
+        // one compiled calendar, shared by the scheduler and the lights-on detector
+        MonitoringWindow window = new WeekCalendar.Builder(ZoneId.systemDefault())
+                .add(EnumSet.allOf(DayOfWeek.class), res.getInteger(R.integer.monitor_start_minute),
+                        res.getInteger(R.integer.monitor_end_minute))
+                .holidays(holidays)
+                .build();
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(window,
+                res.getInteger(R.integer.poll_window_interval_seconds) * 1000L,
+                res.getInteger(R.integer.poll_budget_per_hour),
+                LIGHT_CHANGE_SCALE);
+        CursorStore cursors = new CursorStore(new File(getFilesDir(), "sync-cursors.bin"));
+        // dense mote ids shared by the detectors and the stats, stable across restarts
+        dictionary = new SensorDictionary(new File(getFilesDir(), "sensor-dictionary.bin"));
+        SensorBatchListener recent;
+        if (res.getBoolean(R.bool.offheap_history_cache)) {
+            historyCache = new OffHeapHistoryCache(getString(R.string.sensor_label),
+                    res.getInteger(R.integer.history_cache_hours) * 3_600_000L,
+                    CACHE_SLOT_READINGS, res.getInteger(R.integer.history_cache_budget_kb) * 1024L);
+            recent = historyCache;
+        } else {
+            history = new RingBufferStore(getString(R.string.sensor_label),
+                    res.getInteger(R.integer.history_readings_per_mote));
+            recent = history;
+        }
+        store = HistoryStores.get(this);
+        // refilled from the store on the first batch, on the ingestion thread
+        rollups = new RollupEngine(getString(R.string.sensor_label), store);
+        litIntervals = new LitIntervalIndex(getString(R.string.sensor_label),
+                res.getInteger(R.integer.lit_threshold_lux),
+                LitIntervalIndex.DEFAULT_MAX_GAP_MILLIS,
+                new File(getFilesDir(), "lit-intervals.bin"));
+        lightsOn = new LightsOnDetector(getString(R.string.sensor_label),
+                res.getInteger(R.integer.lit_threshold_lux),
+                res.getInteger(R.integer.lights_off_lux),
+                res.getInteger(R.integer.lights_dwell_seconds) * 1000L,
+                res.getInteger(R.integer.lights_jump_lux),
+                dictionary,
+                new LightsOnDetector.Listener() {
+                    @Override
+                    public void onLightsOn(int mote, long since, float lux) {
+                        if (window.contains(since)) {
+                            Log.i(TAG, "Lights on at mote " + MoteId.toString(mote) + " since "
+                                    + Instant.ofEpochMilli(since));
+                        }
+                    }
+
+                    @Override
+                    public void onLightsOff(int mote, long since, float lux) {
+                    }
+                });
+        changes = new ChangeDetector(getString(R.string.sensor_label),
+                res.getInteger(R.integer.change_min_sigma_lux), dictionary,
+                (mote, timestamp, baseline, value) -> Log.i(TAG, "Level shift at mote "
+                        + MoteId.toString(mote) + " from " + baseline + " to " + value + " lux at "
+                        + Instant.ofEpochMilli(timestamp)));
+        alerts = new AlertEngine(loadAlertRules(holidays), (rule, mote, since, value) -> Log.i(TAG,
+                "Alert " + rule.getName() + " for " + rule.getTarget() + ": mote "
+                        + MoteId.toString(mote) + " at " + value + " since "
+                        + Instant.ofEpochMilli(since)));
+        windowStats = new WindowStats(getString(R.string.sensor_label), STATS_WINDOWS_MILLIS,
+                STATS_READINGS_PER_MOTE, STATS_PANE_MILLIS, STATS_COMPRESSION, dictionary);
+        // The store goes first: if it throws, no consumer has seen the batch, and the journal
+        // replays it, in order and before anything newer, on the next batch. The in-memory
+        // consumers only see batches the store has taken, so a replay never counts one twice.
+        SensorBatchListener sink = batch -> {
+            try {
+                store.append(batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // ids first, so every consumer after this only looks them up
+            dictionary.onBatch(batch);
+            recent.onBatch(batch);
+            rollups.onBatch(batch);
+            litIntervals.onBatch(batch);
+            lightsOn.onBatch(batch);
+            changes.onBatch(batch);
+            alerts.onBatch(batch);
+            windowStats.onBatch(batch);
+        };
+        journal = new JournaledListener(new File(getFilesDir(), "journal"), sink);
+        backfill = new BackfillEngine(sensorClient, cursors, BACKFILL_THREADS, BACKFILL_THREADS,
+                BACKFILL_CHUNK_MILLIS);
+        poller = new SensorPoller(sensorClient, cursors, scheduler,
+                getString(R.string.sensor_label), journal, backfill,
+                res.getInteger(R.integer.backfill_after_minutes) * 60_000L,
+                res.getInteger(R.integer.backfill_horizon_days) * 86_400_000L);
+        if (res.getBoolean(R.bool.stream_ingestion)) {
+            streamer = new StreamingIngestor(sensorClient, cursors, poller,
+                    getString(R.string.sensor_label), journal,
+                    res.getInteger(R.integer.stream_idle_timeout_seconds) * 1000);
+        }
+        CompactionJobService.schedule(this);
+        int udpPort = res.getInteger(R.integer.udp_telemetry_port);
+        if (udpPort != 0) {
+            telemetry = new TelemetryReceiver(this, udpPort, journal);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (streamer != null) {
+            streamer.start();
+        } else {
+            poller.start();
+        }
+        if (telemetry != null) {
+            telemetry.start();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        if (telemetry != null) {
+            telemetry.stop();
+        }
+        if (streamer != null) {
+            streamer.stop();
+        }
+        poller.stop();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        backfill.close();
+        sensorClient.close();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing journal failed", e);
+        }
+        try {
+            litIntervals.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing lit intervals failed", e);
+        }
+        try {
+            dictionary.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing sensor dictionary failed", e);
+        }
+        super.onDestroy();
+    }
+
+    /** The rules of res/raw/alert_rules.txt, or none if they cannot be read. */
+    private List<AlertRule> loadAlertRules(List<LocalDate> holidays) {
+        try (Reader in = new InputStreamReader(getResources().openRawResource(R.raw.alert_rules),
+                StandardCharsets.UTF_8)) {
+            return AlertRules.parse(in, ZoneId.systemDefault(), holidays);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Cannot load alert rules", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private List<LocalDate> loadHolidays() {
+        List<LocalDate> holidays = new ArrayList<>();
+        for (String date : getResources().getStringArray(R.array.holidays)) {
+            holidays.add(LocalDate.parse(date));
+        }
+        return holidays;
     }
-}
\ No newline at end of file
+}
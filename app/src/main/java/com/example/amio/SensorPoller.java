@@ -0,0 +1,226 @@
+package com.example.amio;
+
+import android.util.Log;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.net.BackfillEngine;
+import com.example.amio.net.CircuitOpenException;
+import com.example.amio.net.CursorStore;
+import com.example.amio.net.DeltaSync;
+import com.example.amio.net.SensorClient;
+import com.example.amio.net.SensorPaths;
+import com.example.amio.schedule.AdaptivePollScheduler;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the motes of one label on a background thread, asking the
+ * {@link AdaptivePollScheduler} which motes are due. Motes are discovered on the first pass
+ * from {@link SensorPaths#last(String)}; after that each mote is synced incrementally through
+ * {@link DeltaSync}. Every pass is handed to the listener as one batch. While the server's
+ * circuit breaker is open the poller sleeps until the next probe is allowed, instead of
+ * waking up only to be rejected.
+ *
+ * <p>Given a {@link BackfillEngine}, discovery first catches up on the motes whose cursor is
+ * missing or too old, on the poller thread, so history reaches the listener before the
+ * latest readings. A failed catch-up fails discovery, which the next pass retries; the
+ * backfill resumes where it stopped.
+ *
+ * <p>{@link #start()} and {@link #stop()} follow the hosting component's lifecycle.
+ */
+public class SensorPoller {
+
+    private static final String TAG = "SensorPoller";
+
+    /** Longest sleep between two passes, so the start of the monitoring window is not missed. */
+    private static final long MAX_SLEEP_MILLIS = AdaptivePollScheduler.MIN_INTERVAL_MILLIS;
+    private static final long MIN_SLEEP_MILLIS = 1_000;
+
+    private final SensorClient client;
+    private final CursorStore cursors;
+    private final DeltaSync deltaSync;
+    private final AdaptivePollScheduler scheduler;
+    private final String label;
+    private final SensorBatchListener listener;
+    private final BackfillEngine backfill;
+    private final long backfillAfterMillis;
+    private final long backfillHorizonMillis;
+
+    // guarded by passLock
+    private final Object passLock = new Object();
+    private final SensorBatch batch = new SensorBatch();
+    private final SensorBatch discovery = new SensorBatch();
+    private int[] due = new int[64];
+
+    private ScheduledExecutorService executor;
+
+    public SensorPoller(SensorClient client, CursorStore cursors, AdaptivePollScheduler scheduler,
+                        String label, SensorBatchListener listener) {
+        this(client, cursors, scheduler, label, listener, null, 0, 0);
+    }
+
+    /**
+     * @param backfill catches up on discovered motes whose cursor is missing or more than
+     *                 {@code backfillAfterMillis} old, over at most the last
+     *                 {@code backfillHorizonMillis}; null to start from their last readings
+     */
+    public SensorPoller(SensorClient client, CursorStore cursors, AdaptivePollScheduler scheduler,
+                        String label, SensorBatchListener listener, BackfillEngine backfill,
+                        long backfillAfterMillis, long backfillHorizonMillis) {
+        this.client = client;
+        this.cursors = cursors;
+        this.deltaSync = new DeltaSync(client, cursors, label);
+        this.scheduler = scheduler;
+        this.label = label;
+        this.listener = listener;
+        this.backfill = backfill;
+        this.backfillAfterMillis = backfillAfterMillis;
+        this.backfillHorizonMillis = backfillHorizonMillis;
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "amio-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        ScheduledExecutorService self = executor;
+        self.execute(() -> pass(self));
+    }
+
+    /**
+     * Stops polling without waiting: a pass still running, possibly blocked in a fetch that
+     * interrupts cannot cut short, finishes on the poller thread and does not reschedule.
+     * Safe to call from the main thread; see {@link #awaitIdle()}.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Waits for a pass still running after {@link #stop()} to finish, so the caller owns the
+     * cursors once this returns. A pass can take several request timeouts: never call this
+     * on the main thread.
+     */
+    public void awaitIdle() {
+        synchronized (passLock) {
+            // the pass has finished; the next one sees the executor gone and does not reschedule
+        }
+    }
+
+    private void pass(ScheduledExecutorService self) {
+        long minDelay = 0;
+        // a pass from a stopped executor may still be finishing when a new one starts
+        synchronized (passLock) {
+            try {
+                if (scheduler.moteCount() == 0) {
+                    discover();
+                } else {
+                    pollDue();
+                }
+            } catch (CircuitOpenException e) {
+                minDelay = e.getRetryAfterMillis();
+            } catch (IOException e) {
+                Log.w(TAG, "Polling " + label + " failed", e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Polling " + label + " crashed", e);
+            }
+        }
+        scheduleNext(self, minDelay);
+    }
+
+    private void discover() throws IOException {
+        long now = System.currentTimeMillis();
+        int status = client.fetchBatch(SensorPaths.last(label), discovery);
+        if (status < 200 || status >= 300) {
+            return;
+        }
+        if (backfill != null && !discovery.isEmpty()) {
+            catchUp(now);
+        }
+        for (int i = 0; i < discovery.size(); i++) {
+            scheduler.addMote(discovery.mote(i), now);
+            scheduler.onReading(discovery.mote(i), discovery.value(i), now);
+        }
+        retainUndelivered();
+        if (!discovery.isEmpty()) {
+            listener.onBatch(discovery);
+            // as in pollDue(): only once the listener has them, or the first poll refetches
+            deltaSync.commitDelivered(discovery);
+        }
+    }
+
+    private void catchUp(long now) throws IOException {
+        int[] motes = new int[discovery.size()];
+        for (int i = 0; i < motes.length; i++) {
+            motes[i] = discovery.mote(i);
+        }
+        long delivered = backfill.catchUp(label, motes, motes.length, cursors, now,
+                backfillAfterMillis, backfillHorizonMillis, listener);
+        if (delivered > 0) {
+            Log.i(TAG, "Backfilled " + delivered + " readings of " + label);
+        }
+    }
+
+    /** Drops discovered readings already delivered, by a backfill or before a restart. */
+    private void retainUndelivered() throws IOException {
+        int kept = 0;
+        for (int i = 0; i < discovery.size(); i++) {
+            String key = CursorStore.key(label, MoteId.toString(discovery.mote(i)));
+            if (discovery.timestamp(i) > cursors.get(key).getHighWaterMark()) {
+                discovery.set(kept++, discovery.timestamp(i), discovery.value(i),
+                        discovery.mote(i));
+            }
+        }
+        discovery.truncate(kept);
+    }
+
+    private void pollDue() throws IOException {
+        long now = System.currentTimeMillis();
+        if (due.length < scheduler.moteCount()) {
+            due = new int[scheduler.moteCount()];
+        }
+        int n = scheduler.pollDue(now, due);
+        if (n == 0) {
+            return;
+        }
+        try {
+            deltaSync.poll(due, n, batch);
+            for (int i = 0; i < batch.size(); i++) {
+                scheduler.onReading(batch.mote(i), batch.value(i), now);
+            }
+            for (int i = 0; i < n; i++) {
+                scheduler.onPolled(due[i], now);
+            }
+        } finally {
+            // a partial failure still delivers what the other motes returned
+            if (!batch.isEmpty()) {
+                listener.onBatch(batch);
+            }
+            // only once the listener has the readings: if it threw, the next pass refetches them
+            deltaSync.commit();
+        }
+    }
+
+    private synchronized void scheduleNext(ScheduledExecutorService self, long minDelay) {
+        if (executor != self) {
+            return; // stopped while this pass was running
+        }
+        long delay = scheduler.nextPollTime() - System.currentTimeMillis();
+        delay = Math.max(MIN_SLEEP_MILLIS, Math.min(MAX_SLEEP_MILLIS, delay));
+        delay = Math.max(delay, minDelay);
+        self.schedule(() -> pass(self), delay, TimeUnit.MILLISECONDS);
+    }
+}
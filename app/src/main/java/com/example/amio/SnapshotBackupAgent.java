@@ -0,0 +1,112 @@
+package com.example.amio;
+
+import android.app.backup.BackupAgent;
+import android.app.backup.BackupDataInput;
+import android.app.backup.BackupDataOutput;
+import android.app.backup.FullBackupDataOutput;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.amio.store.HistorySnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Backs up a {@link HistorySnapshot} instead of the raw history store, which the backup
+ * rules exclude. Before each full backup the snapshot, holding the hourly rollups and the
+ * sync cursors, is written to {@link #SNAPSHOT_FILE} so the system copies it with the other
+ * files; after a restore it is streamed back into the empty store and deleted.
+ */
+public class SnapshotBackupAgent extends BackupAgent {
+
+    private static final String TAG = "SnapshotBackup";
+
+    static final String SNAPSHOT_FILE = "history.snapshot";
+
+    /** Small files of {@code getFilesDir()} carried inside the snapshot. */
+    private static final String[] CONFIG_FILES = {"sync-cursors.bin"};
+
+    @Override
+    public void onFullBackup(FullBackupDataOutput data) throws IOException {
+        File snapshot = new File(getFilesDir(), SNAPSHOT_FILE);
+        try {
+            writeSnapshot(snapshot);
+            super.onFullBackup(data);
+        } finally {
+            if (snapshot.exists() && !snapshot.delete()) {
+                Log.w(TAG, "Cannot delete " + snapshot);
+            }
+        }
+    }
+
+    @Override
+    public void onRestoreFinished() {
+        File snapshot = new File(getFilesDir(), SNAPSHOT_FILE);
+        if (!snapshot.exists()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(snapshot))) {
+            Map<String, byte[]> config = HistorySnapshot.read(in, HistoryStores.get(this));
+            for (String name : CONFIG_FILES) {
+                byte[] content = config.get(name);
+                if (content != null) {
+                    replace(new File(getFilesDir(), name), content);
+                }
+            }
+            Log.i(TAG, "Restored " + snapshot.length() + " bytes in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Restoring history failed", e);
+        } finally {
+            if (!snapshot.delete()) {
+                Log.w(TAG, "Cannot delete " + snapshot);
+            }
+        }
+    }
+
+    /** Key/value backup is not used: the manifest asks for full backups only. */
+    @Override
+    public void onBackup(ParcelFileDescriptor oldState, BackupDataOutput data,
+                         ParcelFileDescriptor newState) {
+    }
+
+    @Override
+    public void onRestore(BackupDataInput data, int appVersionCode, ParcelFileDescriptor newState) {
+    }
+
+    private void writeSnapshot(File snapshot) throws IOException {
+        Map<String, byte[]> config = new LinkedHashMap<>();
+        for (String name : CONFIG_FILES) {
+            File file = new File(getFilesDir(), name);
+            if (file.exists()) {
+                config.put(name, Files.readAllBytes(file.toPath()));
+            }
+        }
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            HistorySnapshot.write(HistoryStores.get(this), getString(R.string.sensor_label),
+                    config, out);
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void replace(File file, byte[] content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(content);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
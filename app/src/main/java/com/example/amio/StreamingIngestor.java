@@ -0,0 +1,119 @@
+package com.example.amio;
+
+import android.util.Log;
+
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.net.CursorStore;
+import com.example.amio.net.SensorClient;
+import com.example.amio.net.SensorStream;
+
+import java.io.IOException;
+
+/**
+ * Ingests one label over a {@link SensorStream}, falling back to a {@link SensorPoller}
+ * while the stream is down.
+ *
+ * <p>The poller runs only between a dropped stream and the next successful reconnect, which
+ * is retried with exponential backoff. Both share the same cursors, so the poller fetches
+ * exactly the readings the stream missed and vice versa. The cursors change hands only once
+ * the poller's last pass has finished: a reconnected stream waits for it, on the stream
+ * thread, before its first event. {@link #stop()} never waits for a pass.
+ *
+ * <p>{@link #start()} and {@link #stop()} follow the hosting component's lifecycle.
+ */
+public class StreamingIngestor {
+
+    private static final String TAG = "StreamingIngestor";
+
+    private static final long MIN_RETRY_MILLIS = 1_000;
+    private static final long MAX_RETRY_MILLIS = 5 * 60_000;
+
+    private final String baseUrl;
+    private final CursorStore cursors;
+    private final SensorPoller poller;
+    private final String label;
+    private final SensorBatchListener listener;
+    private final int idleTimeoutMillis;
+
+    private Thread thread;
+    private SensorStream stream;
+
+    public StreamingIngestor(SensorClient client, CursorStore cursors, SensorPoller poller,
+                             String label, SensorBatchListener listener, int idleTimeoutMillis) {
+        this.baseUrl = client.getBaseUrl();
+        this.cursors = cursors;
+        this.poller = poller;
+        this.label = label;
+        this.listener = listener;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        SensorStream s = new SensorStream(baseUrl, cursors, SensorClient.DEFAULT_TIMEOUT_MILLIS,
+                idleTimeoutMillis);
+        stream = s;
+        thread = new Thread(() -> run(s), "amio-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        stream.close();
+        thread.interrupt();
+        poller.stop();
+        thread = null;
+        stream = null;
+    }
+
+    private void run(SensorStream s) {
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (true) {
+            boolean[] opened = new boolean[1];
+            try {
+                s.run(label, () -> {
+                    opened[0] = true;
+                    onStreamOpen(s);
+                }, listener);
+            } catch (IOException e) {
+                Log.w(TAG, "Stream for " + label + " dropped, polling", e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Stream for " + label + " crashed, polling", e);
+            }
+            if (!onStreamLost(s)) {
+                return;
+            }
+            retryMillis = opened[0] ? MIN_RETRY_MILLIS : Math.min(MAX_RETRY_MILLIS, retryMillis * 2);
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void onStreamOpen(SensorStream s) {
+        synchronized (this) {
+            if (stream != s) {
+                return;
+            }
+            poller.stop();
+        }
+        // outside the lock, so stop() on the main thread never queues behind a slow pass
+        poller.awaitIdle();
+    }
+
+    /** Falls back to polling, unless this stream has been stopped. */
+    private synchronized boolean onStreamLost(SensorStream s) {
+        if (stream != s) {
+            return false;
+        }
+        poller.start();
+        return true;
+    }
+}
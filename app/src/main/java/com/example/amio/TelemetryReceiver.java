@@ -0,0 +1,69 @@
+package com.example.amio;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.util.Log;
+
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.net.UdpTelemetryListener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Receives readings broadcast by LAN-attached motes through a {@link UdpTelemetryListener} on
+ * a background thread. Many Wi-Fi drivers filter broadcast frames while the screen is off, so
+ * a multicast lock is held while receiving.
+ *
+ * <p>{@link #start()} and {@link #stop()} follow the hosting component's lifecycle.
+ */
+public class TelemetryReceiver {
+
+    private static final String TAG = "TelemetryReceiver";
+
+    private final WifiManager.MulticastLock multicastLock;
+    private final int port;
+    private final SensorBatchListener listener;
+
+    private UdpTelemetryListener udp;
+
+    public TelemetryReceiver(Context context, int port, SensorBatchListener listener) {
+        WifiManager wifi = (WifiManager) context.getApplicationContext()
+                .getSystemService(Context.WIFI_SERVICE);
+        this.multicastLock = wifi.createMulticastLock(TAG);
+        this.multicastLock.setReferenceCounted(false);
+        this.port = port;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (udp != null) {
+            return;
+        }
+        try {
+            udp = new UdpTelemetryListener(new InetSocketAddress(port));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot listen on UDP port " + port, e);
+            return;
+        }
+        multicastLock.acquire();
+        UdpTelemetryListener self = udp;
+        Thread thread = new Thread(() -> {
+            try {
+                self.run(listener);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Telemetry listener on port " + port + " failed", e);
+            }
+        }, "amio-udp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (udp != null) {
+            udp.close();
+            udp = null;
+            multicastLock.release();
+        }
+    }
+}
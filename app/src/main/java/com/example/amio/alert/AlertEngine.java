@@ -0,0 +1,283 @@
+package com.example.amio.alert;
+
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.schedule.MonitoringWindow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a fixed set of {@link AlertRule}s against incoming batches, compiled into a flat
+ * plan instead of interpreting every rule against every reading.
+ *
+ * <p>Compilation groups the rules by label, then by mote: each label has a {@link MoteIndex}
+ * of its motes, and each mote a contiguous run of entries, one per rule subscribed to it (its
+ * own rules followed by the label's any-mote rules), holding the rule's id and the state of
+ * that rule on that mote. Thresholds, comparisons, holds and windows live in arrays indexed by
+ * rule id. A batch looks its label up once, and a reading then touches only the entries of its
+ * mote: O(subscribed rules) work and no allocation, once a mote has been seen. A mote first
+ * seen at run time gets entries for the any-mote rules of its label, or none at all.
+ *
+ * <p>A rule fires once its comparison has held, inside its window, on every reading of a mote
+ * for {@code holdMillis}, and does not fire again on that mote until a reading breaks the
+ * streak. Windows are assumed to open and close on minute boundaries, like
+ * {@link com.example.amio.schedule.WeekCalendar}: each distinct window is asked at most once
+ * per minute and its answer reused by every rule sharing it.
+ *
+ * <p>Readings not newer than a mote's last one are ignored. Batches are fed from one thread at
+ * a time; the listener is called on that thread.
+ */
+public final class AlertEngine implements SensorBatchListener {
+
+    /** Receives fired rules. Called on the feeding thread; keep it short. */
+    public interface Listener {
+
+        /**
+         * @param since timestamp of the first reading of the streak
+         * @param value the reading that completed the hold
+         */
+        void onAlert(AlertRule rule, int mote, long since, float value);
+    }
+
+    private static final long MINUTE = 60_000L;
+    private static final long IDLE = Long.MIN_VALUE;
+
+    private static final byte ABOVE = 0;
+    private static final byte AT_LEAST = 1;
+    private static final byte BELOW = 2;
+    private static final byte AT_MOST = 3;
+
+    private final Listener listener;
+    private final AlertRule[] rules;
+
+    // per rule
+    private final byte[] comparisons;
+    private final float[] thresholds;
+    private final long[] holds;
+    private final int[] windowIds;
+
+    // per distinct window, -1 being always open: answer for the minute last asked
+    private final MonitoringWindow[] windows;
+    private final long[] windowMinutes;
+    private final boolean[] windowOpen;
+
+    private final Map<String, LabelPlan> plans = new HashMap<>();
+
+    public AlertEngine(List<AlertRule> rules, Listener listener) {
+        this.listener = listener;
+        this.rules = rules.toArray(new AlertRule[0]);
+        int n = this.rules.length;
+        comparisons = new byte[n];
+        thresholds = new float[n];
+        holds = new long[n];
+        windowIds = new int[n];
+
+        Map<MonitoringWindow, Integer> windowIndex = new IdentityHashMap<>();
+        List<MonitoringWindow> distinct = new ArrayList<>();
+        Map<String, List<Integer>> byLabel = new HashMap<>();
+        for (int r = 0; r < n; r++) {
+            AlertRule rule = this.rules[r];
+            comparisons[r] = (byte) rule.getComparison().ordinal();
+            thresholds[r] = rule.getThreshold();
+            holds[r] = rule.getHoldMillis();
+            MonitoringWindow window = rule.getWindow();
+            if (window == MonitoringWindow.ALWAYS) {
+                windowIds[r] = -1;
+            } else {
+                Integer id = windowIndex.get(window);
+                if (id == null) {
+                    id = distinct.size();
+                    windowIndex.put(window, id);
+                    distinct.add(window);
+                }
+                windowIds[r] = id;
+            }
+            List<Integer> labelRules = byLabel.get(rule.getLabel());
+            if (labelRules == null) {
+                labelRules = new ArrayList<>();
+                byLabel.put(rule.getLabel(), labelRules);
+            }
+            labelRules.add(r);
+        }
+        windows = distinct.toArray(new MonitoringWindow[0]);
+        windowMinutes = new long[windows.length];
+        Arrays.fill(windowMinutes, Long.MIN_VALUE);
+        windowOpen = new boolean[windows.length];
+        for (Map.Entry<String, List<Integer>> e : byLabel.entrySet()) {
+            plans.put(e.getKey(), new LabelPlan(e.getValue()));
+        }
+    }
+
+    /** Evaluates the rules of the batch's label; a batch without a label is skipped. */
+    @Override
+    public void onBatch(SensorBatch batch) {
+        LabelPlan plan = batch.getLabel() == null ? null : plans.get(batch.getLabel());
+        if (plan == null) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            plan.accept(batch.mote(i), batch.timestamp(i), batch.value(i));
+        }
+    }
+
+    /** Feeds one reading of {@code label}. */
+    public void accept(String label, int mote, long timestamp, float value) {
+        LabelPlan plan = plans.get(label);
+        if (plan != null) {
+            plan.accept(mote, timestamp, value);
+        }
+    }
+
+    public int ruleCount() {
+        return rules.length;
+    }
+
+    /** Rule entries compiled so far, one per (rule, mote) pair. */
+    public int entryCount() {
+        int entries = 0;
+        for (LabelPlan plan : plans.values()) {
+            entries += plan.entryCount;
+        }
+        return entries;
+    }
+
+    /** The compiled rules of one label. */
+    private final class LabelPlan {
+
+        private final int[] anyMoteRules;
+        private final MoteIndex motes = new MoteIndex();
+        private int[] firstEntries = new int[16];
+        private int[] entryCounts = new int[16];
+        private long[] lastTimestamps = new long[16];
+
+        // per entry, grouped by mote
+        private int[] entryRules;
+        private long[] since;
+        private boolean[] fired;
+        private int entryCount;
+
+        LabelPlan(List<Integer> ruleIds) {
+            Map<Integer, List<Integer>> byMote = new HashMap<>();
+            int anyMote = 0;
+            for (int r : ruleIds) {
+                int mote = rules[r].getMote();
+                if (mote == AlertRule.ANY_MOTE) {
+                    anyMote++;
+                    continue;
+                }
+                List<Integer> moteRules = byMote.get(mote);
+                if (moteRules == null) {
+                    moteRules = new ArrayList<>();
+                    byMote.put(mote, moteRules);
+                }
+                moteRules.add(r);
+            }
+            anyMoteRules = new int[anyMote];
+            int a = 0;
+            for (int r : ruleIds) {
+                if (rules[r].getMote() == AlertRule.ANY_MOTE) {
+                    anyMoteRules[a++] = r;
+                }
+            }
+            int capacity = ruleIds.size() - anyMote + byMote.size() * anyMote;
+            entryRules = new int[Math.max(16, capacity)];
+            since = new long[entryRules.length];
+            fired = new boolean[entryRules.length];
+            for (Map.Entry<Integer, List<Integer>> e : byMote.entrySet()) {
+                List<Integer> own = e.getValue();
+                int slot = addMote(e.getKey(), own.size());
+                int entry = firstEntries[slot];
+                for (int r : own) {
+                    entryRules[entry++] = r;
+                }
+            }
+        }
+
+        void accept(int mote, long timestamp, float value) {
+            int slot = motes.slotOf(mote);
+            if (slot < 0) {
+                if (anyMoteRules.length == 0) {
+                    return;
+                }
+                slot = addMote(mote, 0);
+            } else if (timestamp <= lastTimestamps[slot]) {
+                return;
+            }
+            lastTimestamps[slot] = timestamp;
+            long minute = Math.floorDiv(timestamp, MINUTE);
+            int end = firstEntries[slot] + entryCounts[slot];
+            for (int e = firstEntries[slot]; e < end; e++) {
+                int r = entryRules[e];
+                if (!matches(comparisons[r], value, thresholds[r])
+                        || !inWindow(windowIds[r], minute, timestamp)) {
+                    since[e] = IDLE;
+                    fired[e] = false;
+                    continue;
+                }
+                if (since[e] == IDLE) {
+                    since[e] = timestamp;
+                }
+                if (!fired[e] && timestamp - since[e] >= holds[r]) {
+                    fired[e] = true;
+                    listener.onAlert(rules[r], mote, since[e], value);
+                }
+            }
+        }
+
+        /** Adds {@code mote} with {@code own} entries to fill in, then the any-mote rules. */
+        private int addMote(int mote, int own) {
+            int slot = motes.add(mote);
+            if (slot == firstEntries.length) {
+                int capacity = slot * 2;
+                firstEntries = Arrays.copyOf(firstEntries, capacity);
+                entryCounts = Arrays.copyOf(entryCounts, capacity);
+                lastTimestamps = Arrays.copyOf(lastTimestamps, capacity);
+            }
+            int count = own + anyMoteRules.length;
+            if (entryCount + count > entryRules.length) {
+                int capacity = Math.max(entryRules.length * 2, entryCount + count);
+                entryRules = Arrays.copyOf(entryRules, capacity);
+                since = Arrays.copyOf(since, capacity);
+                fired = Arrays.copyOf(fired, capacity);
+            }
+            firstEntries[slot] = entryCount;
+            entryCounts[slot] = count;
+            lastTimestamps[slot] = Long.MIN_VALUE;
+            System.arraycopy(anyMoteRules, 0, entryRules, entryCount + own, anyMoteRules.length);
+            Arrays.fill(since, entryCount, entryCount + count, IDLE);
+            entryCount += count;
+            return slot;
+        }
+    }
+
+    private boolean inWindow(int window, long minute, long timestamp) {
+        if (window < 0) {
+            return true;
+        }
+        if (windowMinutes[window] != minute) {
+            windowOpen[window] = windows[window].contains(timestamp);
+            windowMinutes[window] = minute;
+        }
+        return windowOpen[window];
+    }
+
+    private static boolean matches(byte comparison, float value, float threshold) {
+        switch (comparison) {
+            case ABOVE:
+                return value > threshold;
+            case AT_LEAST:
+                return value >= threshold;
+            case BELOW:
+                return value < threshold;
+            case AT_MOST:
+            default:
+                return value <= threshold;
+        }
+    }
+}
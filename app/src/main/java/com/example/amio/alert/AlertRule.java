@@ -0,0 +1,124 @@
+package com.example.amio.alert;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.schedule.MonitoringWindow;
+
+/**
+ * One declarative alert rule, such as "on weekdays from 19:00 to 23:00, light1 above 250 lux
+ * for 10 minutes notifies facilities". Rules are plain values: {@link AlertRules} reads them
+ * from text and {@link AlertEngine} compiles a list of them into its evaluation plan.
+ */
+public final class AlertRule {
+
+    /** Mote of a rule that applies to every mote reporting its label. */
+    public static final int ANY_MOTE = -1;
+
+    /** How a reading is compared with the threshold. */
+    public enum Comparison {
+        ABOVE(">"), AT_LEAST(">="), BELOW("<"), AT_MOST("<=");
+
+        private final String symbol;
+
+        Comparison(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String symbol() {
+            return symbol;
+        }
+
+        public boolean test(float value, float threshold) {
+            switch (this) {
+                case ABOVE:
+                    return value > threshold;
+                case AT_LEAST:
+                    return value >= threshold;
+                case BELOW:
+                    return value < threshold;
+                default:
+                    return value <= threshold;
+            }
+        }
+
+        /** The comparison written {@code symbol}, or null if there is none. */
+        public static Comparison of(String symbol) {
+            for (Comparison c : values()) {
+                if (c.symbol.equals(symbol)) {
+                    return c;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String name;
+    private final String label;
+    private final int mote;
+    private final Comparison comparison;
+    private final float threshold;
+    private final long holdMillis;
+    private final MonitoringWindow window;
+    private final String target;
+
+    /**
+     * @param mote       packed {@link MoteId}, or {@link #ANY_MOTE}
+     * @param holdMillis how long the comparison must keep holding before the rule fires; 0
+     *                   fires on the first matching reading
+     * @param window     when the rule is armed; readings outside it never match
+     * @param target     who is notified, e.g. {@code "facilities"}
+     */
+    public AlertRule(String name, String label, int mote, Comparison comparison, float threshold,
+                     long holdMillis, MonitoringWindow window, String target) {
+        if (label == null || comparison == null || window == null || holdMillis < 0) {
+            throw new IllegalArgumentException("Need a label, a comparison, a window and a "
+                    + "non-negative hold");
+        }
+        this.name = name;
+        this.label = label;
+        this.mote = mote;
+        this.comparison = comparison;
+        this.threshold = threshold;
+        this.holdMillis = holdMillis;
+        this.window = window;
+        this.target = target;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getMote() {
+        return mote;
+    }
+
+    public Comparison getComparison() {
+        return comparison;
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    public long getHoldMillis() {
+        return holdMillis;
+    }
+
+    public MonitoringWindow getWindow() {
+        return window;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + label + (mote == ANY_MOTE ? "" : "@" + MoteId.toString(mote)) + " "
+                + comparison.symbol() + " " + threshold + " for " + holdMillis / 1000 + "s -> "
+                + target;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.amio.alert;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.schedule.MonitoringWindow;
+import com.example.amio.schedule.WeekCalendar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads {@link AlertRule}s from text, one per line:
+ *
+ * <pre>
+ * # name: label[@mote] op threshold [for duration] [days] [HH:MM-HH:MM] -&gt; target
+ * evening-lights: light1 &gt; 250 for 10m weekdays 19:00-23:00 -&gt; facilities
+ * lab-dark: light1@9.138 &lt;= 5 for 1h sat,sun -&gt; security
+ * </pre>
+ *
+ * <p>{@code op} is one of {@code > >= < <=}; a duration is a number of seconds, minutes or
+ * hours ({@code 30s}, {@code 10m}, {@code 2h}); days are {@code daily}, {@code weekdays},
+ * {@code weekends}, or a comma-separated list of days and day ranges such as
+ * {@code mon,wed-fri}. Without days a rule is armed every day, and without a time range all
+ * day. A time range ending before it starts wraps past midnight. {@code #} starts a comment.
+ *
+ * <p>Schedules compile to {@link WeekCalendar}s, on which holidays follow the Sunday
+ * schedule: a weekday rule is not armed on a holiday. Equal schedules share one calendar,
+ * which {@link AlertEngine} then evaluates once.
+ */
+public final class AlertRules {
+
+    private static final String[] DAY_NAMES = {"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+
+    private AlertRules() {
+    }
+
+    /** Parses rules without holidays. */
+    public static List<AlertRule> parse(Reader text, ZoneId zone) throws IOException {
+        return parse(text, zone, Collections.<LocalDate>emptySet());
+    }
+
+    /**
+     * @param zone time zone of the schedules
+     * @throws IllegalArgumentException naming the line of the first malformed rule
+     */
+    public static List<AlertRule> parse(Reader text, ZoneId zone, Collection<LocalDate> holidays)
+            throws IOException {
+        List<AlertRule> rules = new ArrayList<>();
+        Map<MonitoringWindow, MonitoringWindow> windows = new HashMap<>();
+        BufferedReader in = new BufferedReader(text);
+        String line;
+        for (int number = 1; (line = in.readLine()) != null; number++) {
+            int comment = line.indexOf('#');
+            line = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                AlertRule rule = parseRule(line, zone, holidays);
+                // share equal windows, so the engine evaluates each schedule once
+                MonitoringWindow window = windows.get(rule.getWindow());
+                if (window == null) {
+                    windows.put(rule.getWindow(), rule.getWindow());
+                } else if (window != rule.getWindow()) {
+                    rule = new AlertRule(rule.getName(), rule.getLabel(), rule.getMote(),
+                            rule.getComparison(), rule.getThreshold(), rule.getHoldMillis(),
+                            window, rule.getTarget());
+                }
+                rules.add(rule);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return rules;
+    }
+
+    private static AlertRule parseRule(String line, ZoneId zone,
+                                       Collection<LocalDate> holidays) {
+        int colon = line.indexOf(':');
+        int arrow = line.lastIndexOf("->");
+        if (colon <= 0 || arrow < colon) {
+            throw new IllegalArgumentException("Expected 'name: condition -> target'");
+        }
+        String name = line.substring(0, colon).trim();
+        String target = line.substring(arrow + 2).trim();
+        String[] tokens = line.substring(colon + 1, arrow).trim().split("\\s+");
+        if (tokens.length < 3 || target.isEmpty()) {
+            throw new IllegalArgumentException("Expected 'label op threshold -> target'");
+        }
+
+        String label = tokens[0];
+        int mote = AlertRule.ANY_MOTE;
+        int at = label.indexOf('@');
+        if (at >= 0) {
+            mote = MoteId.pack(label.substring(at + 1));
+            label = label.substring(0, at);
+        }
+        AlertRule.Comparison comparison = AlertRule.Comparison.of(tokens[1]);
+        if (comparison == null) {
+            throw new IllegalArgumentException("Unknown comparison " + tokens[1]);
+        }
+        float threshold = Float.parseFloat(tokens[2]);
+
+        long holdMillis = 0;
+        EnumSet<DayOfWeek> days = null;
+        int startMinute = -1;
+        int endMinute = -1;
+        for (int i = 3; i < tokens.length; i++) {
+            String token = tokens[i].toLowerCase(Locale.ROOT);
+            if (token.equals("for") && i + 1 < tokens.length) {
+                holdMillis = parseDuration(tokens[++i]);
+            } else if (Character.isDigit(token.charAt(0)) && startMinute < 0) {
+                int dash = token.indexOf('-');
+                if (dash < 0) {
+                    throw new IllegalArgumentException("Expected HH:MM-HH:MM, got " + token);
+                }
+                startMinute = parseTime(token.substring(0, dash));
+                endMinute = parseTime(token.substring(dash + 1));
+            } else if (days == null) {
+                days = parseDays(token);
+            } else {
+                throw new IllegalArgumentException("Unexpected " + tokens[i]);
+            }
+        }
+        MonitoringWindow window = MonitoringWindow.ALWAYS;
+        if (days != null || startMinute >= 0) {
+            window = new WeekCalendar.Builder(zone)
+                    .add(days != null ? days : EnumSet.allOf(DayOfWeek.class),
+                            Math.max(0, startMinute), startMinute >= 0 ? endMinute : 1440)
+                    .holidays(holidays)
+                    .build();
+        }
+        return new AlertRule(name, label, mote, comparison, threshold, holdMillis, window,
+                target);
+    }
+
+    private static long parseDuration(String token) {
+        char unit = token.charAt(token.length() - 1);
+        long amount = Long.parseLong(token.substring(0, token.length() - 1));
+        switch (unit) {
+            case 's':
+                return amount * 1000;
+            case 'm':
+                return amount * 60_000;
+            case 'h':
+                return amount * 3_600_000;
+            default:
+                throw new IllegalArgumentException("Expected a duration such as 10m, got "
+                        + token);
+        }
+    }
+
+    /** Minute of the day of {@code HH:MM}; 24:00 is midnight at the end of the day. */
+    private static int parseTime(String token) {
+        int colon = token.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected HH:MM, got " + token);
+        }
+        int hour = Integer.parseInt(token.substring(0, colon));
+        int minute = Integer.parseInt(token.substring(colon + 1));
+        if (hour < 0 || minute < 0 || minute >= 60 || hour * 60 + minute > 1440) {
+            throw new IllegalArgumentException("No such time " + token);
+        }
+        return hour * 60 + minute;
+    }
+
+    private static EnumSet<DayOfWeek> parseDays(String token) {
+        switch (token) {
+            case "daily":
+                return EnumSet.allOf(DayOfWeek.class);
+            case "weekdays":
+                return EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+            case "weekends":
+                return EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY);
+            default:
+                break;
+        }
+        EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String item : token.split(",")) {
+            int dash = item.indexOf('-');
+            DayOfWeek first = parseDay(dash < 0 ? item : item.substring(0, dash));
+            DayOfWeek last = dash < 0 ? first : parseDay(item.substring(dash + 1));
+            // a range such as fri-mon wraps past Sunday
+            for (DayOfWeek day = first; ; day = day.plus(1)) {
+                days.add(day);
+                if (day == last) {
+                    break;
+                }
+            }
+        }
+        return days;
+    }
+
+    private static DayOfWeek parseDay(String name) {
+        for (int i = 0; i < DAY_NAMES.length; i++) {
+            if (DAY_NAMES[i].equals(name)) {
+                return DayOfWeek.of(i + 1);
+            }
+        }
+        throw new IllegalArgumentException("Unknown day " + name);
+    }
+}
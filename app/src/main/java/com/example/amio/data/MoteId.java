@@ -0,0 +1,36 @@
+package com.example.amio.data;
+
+/**
+ * Packs IoTLab mote identifiers such as {@code "9.138"} into a single int:
+ * the part before the dot in the high 16 bits, the part after it in the low 16 bits.
+ */
+public final class MoteId {
+
+    private MoteId() {
+    }
+
+    public static int pack(int major, int minor) {
+        return (major << 16) | (minor & 0xFFFF);
+    }
+
+    public static int pack(String mote) {
+        int dot = mote.indexOf('.');
+        if (dot < 0) {
+            return pack(0, Integer.parseInt(mote));
+        }
+        return pack(Integer.parseInt(mote.substring(0, dot)),
+                Integer.parseInt(mote.substring(dot + 1)));
+    }
+
+    public static int major(int id) {
+        return id >>> 16;
+    }
+
+    public static int minor(int id) {
+        return id & 0xFFFF;
+    }
+
+    public static String toString(int id) {
+        return major(id) + "." + minor(id);
+    }
+}
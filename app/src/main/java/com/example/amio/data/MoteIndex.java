@@ -0,0 +1,97 @@
+package com.example.amio.data;
+
+import java.util.Arrays;
+
+/**
+ * Maps mote ids to dense slots {@code 0..size()-1} without boxing, so per-mote state can
+ * live in parallel primitive arrays. Open addressing with linear probing; slots are never
+ * removed.
+ *
+ * <p>Not thread-safe.
+ */
+public final class MoteIndex {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] slots;
+    private int[] motes;
+    private int size;
+
+    public MoteIndex() {
+        this(16);
+    }
+
+    public MoteIndex(int expectedMotes) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedMotes * 2 - 1)) << 1;
+        keys = new int[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        motes = new int[Math.max(4, expectedMotes)];
+    }
+
+    /** Returns the slot of {@code mote}, or -1 if it has never been added. */
+    public int slotOf(int mote) {
+        int mask = keys.length - 1;
+        for (int i = mix(mote) & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == EMPTY) {
+                return EMPTY;
+            }
+            if (keys[i] == mote) {
+                return slot;
+            }
+        }
+    }
+
+    /** Returns the slot of {@code mote}, assigning the next free one if it is new. */
+    public int add(int mote) {
+        int slot = slotOf(mote);
+        if (slot != EMPTY) {
+            return slot;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        slot = size++;
+        if (slot == motes.length) {
+            motes = Arrays.copyOf(motes, slot * 2);
+        }
+        motes[slot] = mote;
+        insert(mote, slot);
+        return slot;
+    }
+
+    /** Returns the mote id stored at {@code slot}. */
+    public int moteAt(int slot) {
+        return motes[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void insert(int mote, int slot) {
+        int mask = keys.length - 1;
+        int i = mix(mote) & mask;
+        while (slots[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = mote;
+        slots[i] = slot;
+    }
+
+    private void rehash(int capacity) {
+        keys = new int[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        for (int s = 0; s < size; s++) {
+            insert(motes[s], s);
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.amio.data;
+
+import java.util.Arrays;
+
+/**
+ * Columnar batch of readings for one label. Backing arrays grow as needed and are kept
+ * across {@link #clear()} so one instance can be reused poll after poll.
+ *
+ * <p>{@link #clear()} keeps the label so a decoder refilling the batch with the same label
+ * does not allocate a new string. The raw arrays returned by {@link #timestamps()}, {@link #values()} and {@link #motes()}
+ * are only valid up to {@link #size()}.
+ */
+public final class SensorBatch {
+
+    private String label;
+    private long[] timestamps;
+    private float[] values;
+    private int[] motes;
+    private int size;
+
+    public SensorBatch() {
+        this(64);
+    }
+
+    public SensorBatch(int initialCapacity) {
+        timestamps = new long[initialCapacity];
+        values = new float[initialCapacity];
+        motes = new int[initialCapacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(long timestamp, float value, int mote) {
+        if (size == timestamps.length) {
+            int capacity = Math.max(16, size * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+            motes = Arrays.copyOf(motes, capacity);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        motes[size] = mote;
+        size++;
+    }
+
+    /** Overwrites reading {@code i}, which must be below {@link #size()}. */
+    public void set(int i, long timestamp, float value, int mote) {
+        timestamps[i] = timestamp;
+        values[i] = value;
+        motes[i] = mote;
+    }
+
+    /** Drops every reading from index {@code size} on. */
+    public void truncate(int size) {
+        if (size < this.size) {
+            this.size = Math.max(0, size);
+        }
+    }
+
+    /** Sorts the readings by timestamp in place (heapsort: no allocation, not stable). */
+    public void sortByTimestamp() {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = timestamps[i - 1] <= timestamps[i];
+        }
+        if (sorted) {
+            return;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public long timestamp(int i) {
+        return timestamps[i];
+    }
+
+    public float value(int i) {
+        return values[i];
+    }
+
+    public int mote(int i) {
+        return motes[i];
+    }
+
+    public long[] timestamps() {
+        return timestamps;
+    }
+
+    public float[] values() {
+        return values;
+    }
+
+    public int[] motes() {
+        return motes;
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && timestamps[child + 1] > timestamps[child]) {
+                child++;
+            }
+            if (timestamps[i] >= timestamps[child]) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long t = timestamps[a];
+        timestamps[a] = timestamps[b];
+        timestamps[b] = t;
+        float v = values[a];
+        values[a] = values[b];
+        values[b] = v;
+        int m = motes[a];
+        motes[a] = motes[b];
+        motes[b] = m;
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.amio.data;
+
+/**
+ * Receives each batch of readings produced by an ingestion source. The batch is reused by
+ * the source once the call returns, so implementations must copy anything they keep.
+ */
+public interface SensorBatchListener {
+
+    void onBatch(SensorBatch batch);
+}
@@ -0,0 +1,285 @@
+package com.example.amio.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ingest-time dictionary giving every mote and every label a dense int, {@code 0..count-1},
+ * in order of first sight, so downstream state can live in arrays indexed by those ints
+ * instead of maps keyed by strings or packed {@link MoteId}s.
+ *
+ * <p>Ids are stable across restarts: each new entry is appended to {@code file}, if given,
+ * as {@code [byte kind][int mote]} or {@code [byte kind][UTF label]}, and written before the
+ * id is handed out. A torn last record is dropped on load.
+ *
+ * <p>Lookups are lock-free: the tables are immutable and published through a volatile
+ * field, and the rare writer that adds an entry copies them under a lock. Feed it as the
+ * first {@link SensorBatchListener} so every mote and label of a batch has its id before
+ * anything downstream asks for it. I/O failures surface as {@link UncheckedIOException}.
+ *
+ * <p>The lights-on and change detectors and the window statistics index their per-mote
+ * arrays by these ids; consumers not moved over yet still keep their own {@link MoteIndex}.
+ * Without a {@code file}, a dictionary is private and in memory only.
+ */
+public final class SensorDictionary implements SensorBatchListener, Closeable {
+
+    public static final int NONE = -1;
+
+    private static final byte MOTE = 1;
+    private static final byte LABEL = 2;
+
+    private final File file;
+    private volatile Tables tables = new Tables();
+    private FileOutputStream log;
+
+    /** Loads {@code file}, if given and present; entries added later are appended to it. */
+    public SensorDictionary(File file) {
+        this.file = file;
+        if (file != null && file.exists()) {
+            load();
+        }
+    }
+
+    /** Interns every mote and the label of {@code batch}. */
+    @Override
+    public void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null) {
+            labelId(batch.getLabel());
+        }
+        Tables t = tables;
+        for (int i = 0; i < batch.size(); i++) {
+            int mote = batch.mote(i);
+            if (t.moteId(mote) == NONE) {
+                moteId(mote);
+                t = tables;
+            }
+        }
+    }
+
+    /** Dense id of {@code mote} (a packed {@link MoteId}), assigning the next one if new. */
+    public int moteId(int mote) {
+        int id = tables.moteId(mote);
+        return id != NONE ? id : add(MOTE, mote, null);
+    }
+
+    /** Dense id of {@code mote}, or {@link #NONE} if it was never seen. Lock-free. */
+    public int moteIdOf(int mote) {
+        return tables.moteId(mote);
+    }
+
+    /** The packed {@link MoteId} with dense id {@code id}. */
+    public int moteAt(int id) {
+        return tables.motes[id];
+    }
+
+    public int moteCount() {
+        return tables.moteCount;
+    }
+
+    /** Dense id of {@code label}, assigning the next one if new. */
+    public int labelId(String label) {
+        int id = labelIdOf(label);
+        return id != NONE ? id : add(LABEL, 0, label);
+    }
+
+    /** Dense id of {@code label}, or {@link #NONE} if it was never seen. Lock-free. */
+    public int labelIdOf(String label) {
+        Integer id = tables.labelIds.get(label);
+        return id != null ? id : NONE;
+    }
+
+    public String labelAt(int id) {
+        return tables.labels[id];
+    }
+
+    public int labelCount() {
+        return tables.labels.length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Immutable once published. Motes use open addressing with linear probing over packed
+     * ids, as {@link MoteIndex} does, so a lookup neither boxes nor allocates.
+     */
+    private static final class Tables {
+
+        final int[] keys;
+        final int[] ids;
+        final int[] motes;
+        final int moteCount;
+        final String[] labels;
+        final Map<String, Integer> labelIds;
+
+        Tables() {
+            this(new int[16], filled(16), new int[0], 0, new String[0],
+                    new HashMap<String, Integer>());
+        }
+
+        Tables(int[] keys, int[] ids, int[] motes, int moteCount, String[] labels,
+               Map<String, Integer> labelIds) {
+            this.keys = keys;
+            this.ids = ids;
+            this.motes = motes;
+            this.moteCount = moteCount;
+            this.labels = labels;
+            this.labelIds = labelIds;
+        }
+
+        int moteId(int mote) {
+            int mask = keys.length - 1;
+            for (int i = mix(mote) & mask; ; i = (i + 1) & mask) {
+                int id = ids[i];
+                if (id == NONE || keys[i] == mote) {
+                    return id;
+                }
+            }
+        }
+
+        Tables withMote(int mote) {
+            int capacity = keys.length;
+            if ((moteCount + 1) * 2 > capacity) {
+                capacity *= 2;
+            }
+            int[] newKeys = new int[capacity];
+            int[] newIds = filled(capacity);
+            int[] newMotes = Arrays.copyOf(motes, moteCount + 1);
+            newMotes[moteCount] = mote;
+            for (int id = 0; id <= moteCount; id++) {
+                insert(newKeys, newIds, newMotes[id], id);
+            }
+            return new Tables(newKeys, newIds, newMotes, moteCount + 1, labels, labelIds);
+        }
+
+        Tables withLabel(String label) {
+            String[] newLabels = Arrays.copyOf(labels, labels.length + 1);
+            newLabels[labels.length] = label;
+            Map<String, Integer> newIds = new HashMap<>(labelIds);
+            newIds.put(label, labels.length);
+            return new Tables(keys, ids, motes, moteCount, newLabels, newIds);
+        }
+
+        private static void insert(int[] keys, int[] ids, int mote, int id) {
+            int mask = keys.length - 1;
+            int i = mix(mote) & mask;
+            while (ids[i] != NONE) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = mote;
+            ids[i] = id;
+        }
+
+        private static int[] filled(int capacity) {
+            int[] ids = new int[capacity];
+            Arrays.fill(ids, NONE);
+            return ids;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /** Assigns the next id of {@code kind} unless another thread got there first. */
+    private synchronized int add(byte kind, int mote, String label) {
+        Tables t = tables;
+        int id = kind == MOTE ? t.moteId(mote) : labelIdOf(label);
+        if (id != NONE) {
+            return id;
+        }
+        writeLog(kind, mote, label);
+        if (kind == MOTE) {
+            tables = t.withMote(mote);
+            return t.moteCount;
+        }
+        tables = t.withLabel(label);
+        return t.labels.length;
+    }
+
+    private void load() {
+        Tables t = tables;
+        long intact = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == MOTE) {
+                    t = t.withMote(in.readInt());
+                    intact += 1 + 4;
+                } else if (kind == LABEL) {
+                    String label = in.readUTF();
+                    t = t.withLabel(label);
+                    intact = intact + 1 + 2 + utfLength(label);
+                } else {
+                    break; // garbage: keep what came before
+                }
+            }
+        } catch (EOFException e) {
+            // end of log
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+        tables = t;
+        if (intact != file.length()) {
+            // drop the torn record so the next append starts on a record boundary
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(intact);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot repair " + file, e);
+            }
+        }
+    }
+
+    private void writeLog(byte kind, int mote, String label) {
+        if (file == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(kind);
+            if (kind == MOTE) {
+                record.writeInt(mote);
+            } else {
+                record.writeUTF(label);
+            }
+            if (log == null) {
+                log = new FileOutputStream(file, true);
+            }
+            // one write per record, so a crash leaves at most one torn record
+            log.write(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + file, e);
+        }
+    }
+
+    /** Bytes of the modified UTF-8 that {@link DataOutputStream#writeUTF} writes for {@code s}. */
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+}
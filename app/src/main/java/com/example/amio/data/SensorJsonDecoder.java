@@ -0,0 +1,442 @@
+package com.example.amio.data;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder for IoTLab payloads of the form
+ * {@code {"data":[{"timestamp":..,"label":"light1","value":..,"mote":"9.138"}, ...]}}.
+ *
+ * <p>Readings are scanned straight from the raw UTF-8 bytes into a {@link SensorBatch}; no
+ * tree, token or intermediate string is built. The decoder's only allocation is the label
+ * string, and only when it differs from the label already held by the batch; getting the
+ * bytes, inflating a gzip body for one, is the caller's cost. Escapes in the label are
+ * unescaped; other strings are only compared or skipped. Unknown fields are skipped. Mote
+ * ids are packed with {@link MoteId}.
+ *
+ * <p>Instances keep a cursor and are not thread-safe; keep one per thread.
+ */
+public final class SensorJsonDecoder {
+
+    private static final byte[] KEY_DATA = {'d', 'a', 't', 'a'};
+    private static final byte[] KEY_TIMESTAMP = {'t', 'i', 'm', 'e', 's', 't', 'a', 'm', 'p'};
+    private static final byte[] KEY_VALUE = {'v', 'a', 'l', 'u', 'e'};
+    private static final byte[] KEY_LABEL = {'l', 'a', 'b', 'e', 'l'};
+    private static final byte[] KEY_MOTE = {'m', 'o', 't', 'e'};
+
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    private boolean labelSeen;
+
+    // scratch results of the last scanned string / number
+    private int strStart;
+    private int strEnd;
+    private boolean strEscaped;
+    private double number;
+
+    /**
+     * Decodes {@code len} bytes starting at {@code off} and appends every reading to
+     * {@code out}. The batch is not cleared first.
+     *
+     * @return the number of readings appended
+     */
+    public int decode(byte[] buf, int off, int len, SensorBatch out) throws IOException {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+        this.labelSeen = false;
+        int before = out.size();
+        try {
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    scanString();
+                    expect(':');
+                    if (keyEquals(KEY_DATA) && peek() == '[') {
+                        readDataArray(out);
+                    } else {
+                        skipValue();
+                    }
+                } while (nextMember('}'));
+            } else {
+                pos++;
+            }
+        } finally {
+            this.buf = null;
+        }
+        return out.size() - before;
+    }
+
+    public int decode(byte[] buf, SensorBatch out) throws IOException {
+        return decode(buf, 0, buf.length, out);
+    }
+
+    private void readDataArray(SensorBatch out) throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        do {
+            readReading(out);
+        } while (nextMember(']'));
+    }
+
+    private void readReading(SensorBatch out) throws IOException {
+        long timestamp = 0;
+        float value = Float.NaN;
+        int mote = 0;
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            scanString();
+            expect(':');
+            if (keyEquals(KEY_TIMESTAMP)) {
+                scanNumber();
+                timestamp = (long) number;
+            } else if (keyEquals(KEY_VALUE)) {
+                scanNumber();
+                value = (float) number;
+            } else if (keyEquals(KEY_MOTE)) {
+                mote = scanMote();
+            } else if (keyEquals(KEY_LABEL)) {
+                scanString();
+                updateLabel(out);
+            } else {
+                skipValue();
+            }
+        } while (nextMember('}'));
+        out.add(timestamp, value, mote);
+    }
+
+    /**
+     * The API answers one label per request, so only the first label of a payload is kept.
+     * A new string is only created when it differs from the label the batch already holds.
+     */
+    private void updateLabel(SensorBatch out) throws IOException {
+        if (labelSeen) {
+            return;
+        }
+        labelSeen = true;
+        String current = out.getLabel();
+        if (strEscaped) {
+            String label = unescape(strStart, strEnd);
+            if (!label.equals(current)) {
+                out.setLabel(label);
+            }
+            return;
+        }
+        int len = strEnd - strStart;
+        if (current != null && current.length() == len) {
+            int i = 0;
+            while (i < len && current.charAt(i) == (char) (buf[strStart + i] & 0xFF)) {
+                i++;
+            }
+            if (i == len) {
+                return;
+            }
+        }
+        out.setLabel(new String(buf, strStart, len, StandardCharsets.UTF_8));
+    }
+
+    /** Decodes a string holding escapes; rare enough to build it through a StringBuilder. */
+    private String unescape(int start, int stop) throws IOException {
+        StringBuilder sb = new StringBuilder(stop - start);
+        int run = start;
+        int i = start;
+        while (i < stop) {
+            if (buf[i] != '\\') {
+                i++;
+                continue;
+            }
+            sb.append(new String(buf, run, i - run, StandardCharsets.UTF_8));
+            byte escape = buf[i + 1];
+            i += 2;
+            switch (escape) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append((char) escape);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    // a surrogate pair arrives as two escapes, appended one UTF-16 unit each
+                    int unit = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int digit = i + k < stop ? Character.digit(buf[i + k], 16) : -1;
+                        if (digit < 0) {
+                            throw error("Bad \\u escape");
+                        }
+                        unit = unit << 4 | digit;
+                    }
+                    sb.append((char) unit);
+                    i += 4;
+                    break;
+                default:
+                    throw error("Bad escape \\" + (char) escape);
+            }
+            run = i;
+        }
+        sb.append(new String(buf, run, stop - run, StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    /** Reads a mote id given either as {@code "9.138"} or as a bare number. */
+    private int scanMote() throws IOException {
+        int start;
+        int stop;
+        skipWhitespace();
+        if (peek() == '"') {
+            scanString();
+            start = strStart;
+            stop = strEnd;
+        } else {
+            start = pos;
+            while (pos < end && isNumberChar(buf[pos])) {
+                pos++;
+            }
+            stop = pos;
+        }
+        int major = 0;
+        int minor = 0;
+        boolean dot = false;
+        for (int i = start; i < stop; i++) {
+            byte b = buf[i];
+            if (b == '.') {
+                if (dot) {
+                    throw error("Bad mote id");
+                }
+                dot = true;
+            } else if (b >= '0' && b <= '9') {
+                if (dot) {
+                    minor = minor * 10 + (b - '0');
+                } else {
+                    major = major * 10 + (b - '0');
+                }
+            } else {
+                throw error("Bad mote id");
+            }
+        }
+        return dot ? MoteId.pack(major, minor) : MoteId.pack(0, major);
+    }
+
+    private void scanNumber() throws IOException {
+        skipWhitespace();
+        boolean negative = false;
+        if (pos < end && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (fraction) {
+                        scale--;
+                    }
+                } else if (!fraction) {
+                    scale++;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            pos++;
+            boolean negativeExp = false;
+            if (pos < end && (buf[pos] == '+' || buf[pos] == '-')) {
+                negativeExp = buf[pos] == '-';
+                pos++;
+            }
+            int exp = 0;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                exp = exp * 10 + (buf[pos] - '0');
+                pos++;
+            }
+            scale += negativeExp ? -exp : exp;
+        }
+        if (digits == 0) {
+            if (matches("null")) {
+                number = Double.NaN;
+                return;
+            }
+            throw error("Expected number");
+        }
+        double v = mantissa;
+        if (scale > 0) {
+            v = scale < POW10.length ? v * POW10[scale] : v * Math.pow(10, scale);
+        } else if (scale < 0) {
+            v = -scale < POW10.length ? v / POW10[-scale] : v / Math.pow(10, -scale);
+        }
+        number = negative ? -v : v;
+    }
+
+    private void scanString() throws IOException {
+        expect('"');
+        strStart = pos;
+        strEscaped = false;
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b == '"') {
+                strEnd = pos;
+                pos++;
+                return;
+            }
+            if (b == '\\') {
+                strEscaped = true;
+                pos += 2;
+            } else {
+                pos++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private void skipValue() throws IOException {
+        skipWhitespace();
+        if (pos >= end) {
+            throw error("Expected value");
+        }
+        byte b = buf[pos];
+        if (b == '"') {
+            scanString();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < end) {
+                b = buf[pos];
+                if (b == '"') {
+                    scanString();
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        pos++;
+                        return;
+                    }
+                }
+                pos++;
+            }
+            throw error("Unterminated container");
+        } else {
+            while (pos < end && buf[pos] != ',' && buf[pos] != '}' && buf[pos] != ']') {
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Consumes a separator: returns {@code true} after a comma, {@code false} after the
+     * closing character.
+     */
+    private boolean nextMember(char close) throws IOException {
+        skipWhitespace();
+        if (pos < end) {
+            byte b = buf[pos++];
+            if (b == ',') {
+                return true;
+            }
+            if (b == close) {
+                return false;
+            }
+        }
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private boolean keyEquals(byte[] key) {
+        if (strEnd - strStart != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buf[strStart + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(String literal) {
+        if (end - pos < literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (buf[pos + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        pos += literal.length();
+        return true;
+    }
+
+    private void expect(char c) throws IOException {
+        skipWhitespace();
+        if (pos >= end || buf[pos] != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private byte peek() throws IOException {
+        skipWhitespace();
+        if (pos >= end) {
+            throw error("Unexpected end of payload");
+        }
+        return buf[pos];
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '.';
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at offset " + pos);
+    }
+}
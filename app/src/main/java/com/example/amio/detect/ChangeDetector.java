@@ -0,0 +1,200 @@
+package com.example.amio.detect;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.data.SensorDictionary;
+
+import java.util.Arrays;
+
+/**
+ * Streaming change-point detector: flags a mote whose level shifts away from its own
+ * baseline, instead of comparing it with a fixed threshold that a drifting or sunlit
+ * sensor would keep crossing.
+ *
+ * <p>Each mote keeps an EWMA baseline of its mean and variance and two-sided CUSUM
+ * statistics of its standardised readings {@code z = (x - mean) / sigma}: {@code up =
+ * max(0, up + z - slack)} and {@code down = max(0, down - z - slack)}. A shift is flagged
+ * once either exceeds {@code threshold}, after which the baseline restarts from the new
+ * level. {@code z} is clipped to {@code threshold / 2}, so a one- or two-sample spike does
+ * not raise an alarm, while a shift of a few sigmas is flagged after about
+ * {@code threshold / (min(shift, threshold / 2) - slack)} readings. The baseline moves
+ * {@code alpha} of the way towards each reading, but by no more than {@code alpha * slack}
+ * sigmas: a slow drift, such as the sun creeping across a sensor, is absorbed as long as it
+ * stays under that rate, while a step cannot drag the baseline along before it is flagged.
+ *
+ * <p>The first {@code warmup} readings of a mote only seed its baseline. Sigma never drops
+ * below {@code minSigma}, so the flat readings of a dark room do not turn every flicker
+ * into a huge {@code z}. O(1) work and no allocation per reading once a mote has been seen;
+ * state lives in primitive arrays indexed by the mote's dense id in a
+ * {@link SensorDictionary}, shared with the rest of ingestion or private to the detector.
+ * Readings of other labels, and readings not newer than a mote's last one, are ignored.
+ * Batches are fed from one thread at a time; the listener is called on that thread.
+ */
+public final class ChangeDetector implements SensorBatchListener {
+
+    public static final double DEFAULT_ALPHA = 0.02;
+    public static final double DEFAULT_SLACK = 1;
+    public static final double DEFAULT_THRESHOLD = 6;
+    public static final int DEFAULT_WARMUP = 20;
+
+    /** Receives flagged shifts. Called on the feeding thread; keep it short. */
+    public interface Listener {
+
+        /**
+         * @param baseline the mote's level before the shift
+         * @param value    the reading that confirmed it
+         */
+        void onShift(int mote, long timestamp, float baseline, float value);
+    }
+
+    private final String label;
+    private final double alpha;
+    private final double slack;
+    private final double threshold;
+    private final double clip;
+    private final double minVariance;
+    private final int warmup;
+    private final Listener listener;
+
+    private final SensorDictionary motes;
+    private int moteCount;
+    private double[] means = new double[16];
+    private double[] variances = new double[16];
+    private double[] ups = new double[16];
+    private double[] downs = new double[16];
+    private int[] seen = new int[16];
+    private long[] lastTimestamps = new long[16];
+
+    /** A detector with the default smoothing, slack, threshold and warm-up. */
+    public ChangeDetector(String label, float minSigma, Listener listener) {
+        this(label, minSigma, new SensorDictionary(null), listener);
+    }
+
+    /**
+     * A detector with the default smoothing, slack, threshold and warm-up.
+     *
+     * @param motes the ingest dictionary whose dense mote ids index the state, so detectors
+     *              fed from one sink share a single id per mote
+     */
+    public ChangeDetector(String label, float minSigma, SensorDictionary motes,
+                          Listener listener) {
+        this(label, DEFAULT_ALPHA, DEFAULT_SLACK, DEFAULT_THRESHOLD, minSigma, DEFAULT_WARMUP,
+                motes, listener);
+    }
+
+    /**
+     * @param slack     shift, in sigmas, below which CUSUM does not accumulate
+     * @param threshold CUSUM level, in sigmas, at which a shift is flagged
+     */
+    public ChangeDetector(String label, double alpha, double slack, double threshold,
+                          float minSigma, int warmup, Listener listener) {
+        this(label, alpha, slack, threshold, minSigma, warmup, new SensorDictionary(null),
+                listener);
+    }
+
+    /** As above, with the state indexed by the ids of {@code motes}. */
+    public ChangeDetector(String label, double alpha, double slack, double threshold,
+                          float minSigma, int warmup, SensorDictionary motes,
+                          Listener listener) {
+        if (alpha <= 0 || alpha >= 1 || threshold <= 2 * slack || minSigma <= 0) {
+            throw new IllegalArgumentException("Need 0 < alpha < 1, threshold > 2 * slack "
+                    + "and minSigma > 0");
+        }
+        this.label = label;
+        this.alpha = alpha;
+        this.slack = slack;
+        this.threshold = threshold;
+        this.clip = threshold / 2;
+        this.minVariance = (double) minSigma * minSigma;
+        this.warmup = Math.max(1, warmup);
+        this.motes = motes;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            accept(batch.mote(i), batch.timestamp(i), batch.value(i));
+        }
+    }
+
+    /** Feeds one reading. */
+    public void accept(int mote, long timestamp, float value) {
+        int slot = motes.moteId(mote);
+        if (slot >= seen.length || seen[slot] == 0) {
+            add(slot);
+        } else if (timestamp <= lastTimestamps[slot]) {
+            return;
+        }
+        lastTimestamps[slot] = timestamp;
+        if (seen[slot] < warmup) {
+            // seed the baseline with plain running moments
+            int n = ++seen[slot];
+            double delta = value - means[slot];
+            means[slot] += delta / n;
+            variances[slot] += (delta * (value - means[slot]) - variances[slot]) / n;
+            return;
+        }
+
+        double mean = means[slot];
+        double sigma = Math.sqrt(Math.max(variances[slot], minVariance));
+        double z = Math.max(-clip, Math.min(clip, (value - mean) / sigma));
+        double up = Math.max(0, ups[slot] + z - slack);
+        double down = Math.max(0, downs[slot] - z - slack);
+        if (up > threshold || down > threshold) {
+            listener.onShift(mote, timestamp, (float) mean, value);
+            // restart from the new level, keeping the noise estimate
+            means[slot] = value;
+            ups[slot] = 0;
+            downs[slot] = 0;
+            return;
+        }
+        ups[slot] = up;
+        downs[slot] = down;
+        double delta = z * sigma;
+        means[slot] = mean + alpha * Math.max(-slack, Math.min(slack, z)) * sigma;
+        variances[slot] = (1 - alpha) * (variances[slot] + alpha * delta * delta);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** Current baseline level of {@code mote}, or NaN if it has never reported. */
+    public float baseline(int mote) {
+        int slot = slotOf(mote);
+        return slot < 0 ? Float.NaN : (float) means[slot];
+    }
+
+    /** Current noise estimate of {@code mote}, floored at minSigma; NaN if never reported. */
+    public float sigma(int mote) {
+        int slot = slotOf(mote);
+        return slot < 0 ? Float.NaN : (float) Math.sqrt(Math.max(variances[slot], minVariance));
+    }
+
+    public int moteCount() {
+        return moteCount;
+    }
+
+    /** Id of {@code mote} if it has reported to this detector, else -1. */
+    private int slotOf(int mote) {
+        int slot = motes.moteIdOf(mote);
+        return slot >= 0 && slot < seen.length && seen[slot] > 0 ? slot : -1;
+    }
+
+    private void add(int slot) {
+        moteCount++;
+        if (slot >= means.length) {
+            int capacity = Math.max(slot + 1, means.length * 2);
+            means = Arrays.copyOf(means, capacity);
+            variances = Arrays.copyOf(variances, capacity);
+            ups = Arrays.copyOf(ups, capacity);
+            downs = Arrays.copyOf(downs, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+            lastTimestamps = Arrays.copyOf(lastTimestamps, capacity);
+        }
+    }
+}
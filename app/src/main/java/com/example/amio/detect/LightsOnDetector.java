@@ -0,0 +1,219 @@
+package com.example.amio.detect;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.data.SensorDictionary;
+
+import java.util.Arrays;
+
+/**
+ * Incremental per-mote lights-on detector, fed reading by reading instead of rescanning
+ * history. Each mote runs a four-state machine with hysteresis and debounce:
+ *
+ * <ul>
+ *     <li>a reading at or above {@code onLux} starts a pending switch-on, confirmed once the
+ *     level has stayed above {@code offLux} for {@code dwellMillis};</li>
+ *     <li>a reading at or below {@code offLux} starts a pending switch-off, confirmed once
+ *     the level has stayed below {@code onLux} for {@code dwellMillis};</li>
+ *     <li>a rise of at least {@code jumpLux} since the previous reading, ending above
+ *     {@code offLux}, is taken as a switch flipped on and confirmed at once; a fall of as
+ *     much, ending below {@code onLux}, as one flipped off.</li>
+ * </ul>
+ *
+ * <p>Levels between the two thresholds never change a settled state, so a room hovering
+ * around one threshold does not flap. A switch-on is reported from the reading that started
+ * it, a switch-off likewise.
+ *
+ * <p>O(1) work and no allocation per reading once a mote has been seen: the state lives in
+ * parallel primitive arrays indexed by the mote's dense id in a {@link SensorDictionary},
+ * shared with the rest of ingestion or private to the detector. Readings of other labels,
+ * and readings not newer than a mote's last one, are ignored. Batches are fed from one
+ * thread at a time; the listener is called on that thread.
+ */
+public final class LightsOnDetector implements SensorBatchListener {
+
+    /** Receives confirmed switches. Called on the feeding thread; keep it short. */
+    public interface Listener {
+
+        void onLightsOn(int mote, long since, float lux);
+
+        void onLightsOff(int mote, long since, float lux);
+    }
+
+    private static final byte OFF = 0;
+    private static final byte PENDING_ON = 1;
+    private static final byte ON = 2;
+    private static final byte PENDING_OFF = 3;
+
+    private final String label;
+    private final float onLux;
+    private final float offLux;
+    private final long dwellMillis;
+    private final float jumpLux;
+    private final Listener listener;
+
+    private final SensorDictionary motes;
+    // ids of the motes reported so far, in order of first report
+    private int[] reported = new int[16];
+    private int moteCount;
+    private boolean[] known = new boolean[16];
+    private byte[] states = new byte[16];
+    private long[] sinces = new long[16];
+    private long[] lastTimestamps = new long[16];
+    private float[] lastValues = new float[16];
+
+    public LightsOnDetector(String label, float onLux, float offLux, long dwellMillis,
+                            float jumpLux, Listener listener) {
+        this(label, onLux, offLux, dwellMillis, jumpLux, new SensorDictionary(null), listener);
+    }
+
+    /**
+     * @param motes the ingest dictionary whose dense mote ids index the state, so detectors
+     *              fed from one sink share a single id per mote
+     */
+    public LightsOnDetector(String label, float onLux, float offLux, long dwellMillis,
+                            float jumpLux, SensorDictionary motes, Listener listener) {
+        if (offLux >= onLux) {
+            throw new IllegalArgumentException("offLux must be below onLux");
+        }
+        this.label = label;
+        this.onLux = onLux;
+        this.offLux = offLux;
+        this.dwellMillis = dwellMillis;
+        this.jumpLux = jumpLux;
+        this.motes = motes;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            accept(batch.mote(i), batch.timestamp(i), batch.value(i));
+        }
+    }
+
+    /** Feeds one reading. */
+    public void accept(int mote, long timestamp, float value) {
+        int slot = motes.moteId(mote);
+        if (slot >= known.length || !known[slot]) {
+            add(slot);
+            lastTimestamps[slot] = timestamp;
+            lastValues[slot] = value;
+            // no previous reading to jump from: thresholds and dwell only
+            step(slot, mote, timestamp, value, 0);
+            return;
+        }
+        if (timestamp <= lastTimestamps[slot]) {
+            return;
+        }
+        float delta = value - lastValues[slot];
+        lastTimestamps[slot] = timestamp;
+        lastValues[slot] = value;
+        step(slot, mote, timestamp, value, delta);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** True if {@code mote} is confirmed lit, including while a switch-off is pending. */
+    public boolean isOn(int mote) {
+        int slot = motes.moteIdOf(mote);
+        return slot >= 0 && slot < known.length && known[slot]
+                && (states[slot] == ON || states[slot] == PENDING_OFF);
+    }
+
+    /**
+     * Writes into {@code out} the motes confirmed lit, in order of first report.
+     * {@code out} must have room for {@link #moteCount()} motes.
+     *
+     * @return the number of motes written
+     */
+    public int litMotes(int[] out) {
+        int n = 0;
+        for (int i = 0; i < moteCount; i++) {
+            int slot = reported[i];
+            if (states[slot] == ON || states[slot] == PENDING_OFF) {
+                out[n++] = motes.moteAt(slot);
+            }
+        }
+        return n;
+    }
+
+    public int moteCount() {
+        return moteCount;
+    }
+
+    private void step(int slot, int mote, long timestamp, float value, float delta) {
+        switch (states[slot]) {
+            case OFF:
+                if (delta >= jumpLux && value > offLux) {
+                    switchOn(slot, mote, timestamp, value);
+                } else if (value >= onLux) {
+                    pend(slot, PENDING_ON, timestamp);
+                    if (dwellMillis <= 0) {
+                        switchOn(slot, mote, timestamp, value);
+                    }
+                }
+                break;
+            case PENDING_ON:
+                if (value <= offLux) {
+                    states[slot] = OFF;
+                } else if (delta >= jumpLux || timestamp - sinces[slot] >= dwellMillis) {
+                    switchOn(slot, mote, sinces[slot], value);
+                }
+                break;
+            case ON:
+                if (-delta >= jumpLux && value < onLux) {
+                    switchOff(slot, mote, timestamp, value);
+                } else if (value <= offLux) {
+                    pend(slot, PENDING_OFF, timestamp);
+                    if (dwellMillis <= 0) {
+                        switchOff(slot, mote, timestamp, value);
+                    }
+                }
+                break;
+            default: // PENDING_OFF
+                if (value >= onLux) {
+                    states[slot] = ON;
+                } else if (-delta >= jumpLux || timestamp - sinces[slot] >= dwellMillis) {
+                    switchOff(slot, mote, sinces[slot], value);
+                }
+                break;
+        }
+    }
+
+    private void pend(int slot, byte state, long timestamp) {
+        states[slot] = state;
+        sinces[slot] = timestamp;
+    }
+
+    private void switchOn(int slot, int mote, long since, float value) {
+        states[slot] = ON;
+        listener.onLightsOn(mote, since, value);
+    }
+
+    private void switchOff(int slot, int mote, long since, float value) {
+        states[slot] = OFF;
+        listener.onLightsOff(mote, since, value);
+    }
+
+    private void add(int slot) {
+        if (slot >= states.length) {
+            int capacity = Math.max(slot + 1, states.length * 2);
+            known = Arrays.copyOf(known, capacity);
+            states = Arrays.copyOf(states, capacity);
+            sinces = Arrays.copyOf(sinces, capacity);
+            lastTimestamps = Arrays.copyOf(lastTimestamps, capacity);
+            lastValues = Arrays.copyOf(lastValues, capacity);
+        }
+        if (moteCount == reported.length) {
+            reported = Arrays.copyOf(reported, moteCount * 2);
+        }
+        known[slot] = true;
+        reported[moteCount++] = slot;
+    }
+}
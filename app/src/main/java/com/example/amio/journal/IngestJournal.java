@@ -0,0 +1,276 @@
+package com.example.amio.journal;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of decoded batches, written through memory-mapped segment files.
+ *
+ * <p>Every batch is appended before it is processed; once processing is done the consumer
+ * calls {@link #commit(long)} with the offset returned by {@link #append(SensorBatch)}. After
+ * the process is killed, {@link #replay(SensorBatchListener)} hands back every entry past the
+ * last commit. Writes land in the page cache as soon as {@code append} returns, so they
+ * survive the process being killed; {@link #sync()} additionally forces them to flash for
+ * power loss.
+ *
+ * <p>Layout: fixed-size segment files {@code <seq>.seg}, each a run of records
+ * {@code [int length][int crc32][payload]} terminated by a zero length. A payload is
+ * {@code [short labelLength][label][int count]} followed by {@code count} readings of
+ * {@code [long timestamp][float value][int mote]}. A record that does not fit starts the next
+ * segment. The consumer position is a single long in the {@code checkpoint} file. Offsets
+ * are logical: {@code segment * segmentSize + position}.
+ *
+ * <p>Not thread-safe beyond the synchronisation of its public methods.
+ */
+public final class IngestJournal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final int HEADER = 8;
+    private static final int READING_BYTES = 16;
+    private static final String SUFFIX = ".seg";
+
+    private final File dir;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+    private final MappedByteBuffer checkpoint;
+    private final RandomAccessFile checkpointFile;
+
+    private long firstSegment;
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private int writePosition;
+    private long committed;
+
+    private String cachedLabel;
+    private byte[] cachedLabelBytes = new byte[0];
+
+    private IngestJournal(File dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        checkpointFile = new RandomAccessFile(new File(dir, "checkpoint"), "rw");
+        checkpoint = checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        committed = checkpoint.getLong(0);
+    }
+
+    public static IngestJournal open(File dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in {@code dir}, creating it if needed, and finds the end of the last
+     * intact record. A torn record left by a crash mid-append is discarded.
+     */
+    public static IngestJournal open(File dir, int segmentSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+        IngestJournal journal = new IngestJournal(dir, segmentSize);
+        journal.recover();
+        return journal;
+    }
+
+    /**
+     * Appends {@code batch} and returns the offset just past it, to be passed to
+     * {@link #commit(long)} once the batch has been processed.
+     */
+    public synchronized long append(SensorBatch batch) throws IOException {
+        byte[] label = labelBytes(batch.getLabel());
+        int length = 2 + label.length + 4 + batch.size() * READING_BYTES;
+        if (HEADER + length > segmentSize) {
+            throw new IOException("Batch of " + batch.size() + " readings exceeds journal segment");
+        }
+        if (writePosition + HEADER + length > segmentSize) {
+            mapWriteSegment(writeSegment + 1);
+        }
+        MappedByteBuffer buf = writeBuffer;
+        int start = writePosition + HEADER;
+        buf.position(start);
+        buf.putShort((short) label.length);
+        buf.put(label);
+        buf.putInt(batch.size());
+        long[] timestamps = batch.timestamps();
+        float[] values = batch.values();
+        int[] motes = batch.motes();
+        for (int i = 0; i < batch.size(); i++) {
+            buf.putLong(timestamps[i]);
+            buf.putFloat(values[i]);
+            buf.putInt(motes[i]);
+        }
+        // the length goes in last, so a record cut short by a crash is never seen as complete
+        buf.putInt(writePosition + 4, checksum(buf, start, length));
+        buf.putInt(writePosition, length);
+        writePosition = start + length;
+        return offset(writeSegment, writePosition);
+    }
+
+    /** Marks everything up to {@code offset} as processed and drops segments no longer needed. */
+    public synchronized void commit(long offset) {
+        if (offset <= committed) {
+            return;
+        }
+        committed = offset;
+        checkpoint.putLong(0, offset);
+        long segment = offset / segmentSize;
+        while (firstSegment < segment && firstSegment < writeSegment) {
+            segmentFile(firstSegment++).delete();
+        }
+    }
+
+    /**
+     * Hands every entry appended after the last commit to {@code listener}, committing each
+     * one after the listener returns.
+     *
+     * @return the number of entries replayed
+     */
+    public synchronized int replay(SensorBatchListener listener) throws IOException {
+        SensorBatch batch = new SensorBatch();
+        int replayed = 0;
+        long segment = Math.max(firstSegment, committed / segmentSize);
+        int position = segment == committed / segmentSize ? (int) (committed % segmentSize) : 0;
+        while (segment <= writeSegment) {
+            ByteBuffer buf = segment == writeSegment ? writeBuffer : map(segment);
+            int end = segment == writeSegment ? writePosition : segmentSize;
+            while (position + HEADER <= end) {
+                int length = buf.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                readPayload(buf, position + HEADER, batch);
+                position += HEADER + length;
+                listener.onBatch(batch);
+                commit(offset(segment, position));
+                replayed++;
+            }
+            segment++;
+            position = 0;
+        }
+        return replayed;
+    }
+
+    /** Forces appended records to the storage device. */
+    public synchronized void sync() {
+        writeBuffer.force();
+        checkpoint.force();
+    }
+
+    /** Offset up to which entries have been committed. */
+    public synchronized long committedOffset() {
+        return committed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        checkpointFile.close();
+        writeBuffer = null;
+    }
+
+    private void recover() throws IOException {
+        long[] segments = listSegments();
+        if (segments.length == 0) {
+            firstSegment = committed / segmentSize;
+            mapWriteSegment(firstSegment);
+            return;
+        }
+        firstSegment = segments[0];
+        long last = segments[segments.length - 1];
+        writeSegment = last;
+        writeBuffer = map(last);
+        int position = 0;
+        while (position + HEADER <= segmentSize) {
+            int length = writeBuffer.getInt(position);
+            if (length <= 0 || position + HEADER + length > segmentSize
+                    || checksum(writeBuffer, position + HEADER, length)
+                    != writeBuffer.getInt(position + 4)) {
+                break;
+            }
+            position += HEADER + length;
+        }
+        writePosition = position;
+        if (position + HEADER <= segmentSize) {
+            // drop the header of a torn record; its payload is overwritten by the next append
+            writeBuffer.putLong(position, 0);
+        }
+    }
+
+    private void mapWriteSegment(long segment) throws IOException {
+        writeSegment = segment;
+        writeBuffer = map(segment);
+        writePosition = 0;
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw")) {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format(Locale.ROOT, "%016x%s", segment, SUFFIX));
+    }
+
+    private long[] listSegments() {
+        String[] names = dir.list((d, name) -> name.endsWith(SUFFIX));
+        long[] segments = new long[names == null ? 0 : names.length];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = Long.parseLong(names[i].substring(0, names[i].length() - SUFFIX.length()), 16);
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private long offset(long segment, int position) {
+        return segment * segmentSize + position;
+    }
+
+    private int checksum(ByteBuffer buf, int start, int length) {
+        ByteBuffer slice = buf.duplicate();
+        slice.limit(start + length).position(start);
+        crc.reset();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private byte[] labelBytes(String label) {
+        if (label == null) {
+            return new byte[0];
+        }
+        if (!label.equals(cachedLabel)) {
+            cachedLabel = label;
+            cachedLabelBytes = label.getBytes(StandardCharsets.UTF_8);
+        }
+        return cachedLabelBytes;
+    }
+
+    private void readPayload(ByteBuffer buf, int position, SensorBatch out) {
+        out.clear();
+        int labelLength = buf.getShort(position);
+        position += 2;
+        if (labelLength > 0) {
+            byte[] label = new byte[labelLength];
+            for (int i = 0; i < labelLength; i++) {
+                label[i] = buf.get(position + i);
+            }
+            out.setLabel(new String(label, StandardCharsets.UTF_8));
+        }
+        position += labelLength;
+        int count = buf.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++) {
+            out.add(buf.getLong(position), buf.getFloat(position + 8), buf.getInt(position + 12));
+            position += READING_BYTES;
+        }
+    }
+}
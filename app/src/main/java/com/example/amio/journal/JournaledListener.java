@@ -0,0 +1,108 @@
+package com.example.amio.journal;
+
+import android.util.Log;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records every batch in an {@link IngestJournal} before handing it downstream, and commits
+ * it once downstream returns. The journal is opened on the ingestion thread when the first
+ * batch arrives after a start, and anything left uncommitted by a previous process is
+ * replayed downstream before that batch.
+ *
+ * <p>The journal commits a single high-water offset, so nothing may be committed past a batch
+ * downstream failed on. When downstream throws, the exception is rethrown and the listener
+ * falls behind: the next batch is journaled, then everything from the last commit, the failed
+ * batch included, is replayed in order before anything new is committed.
+ *
+ * <p>If the journal cannot be written, batches are still processed, just not protected.
+ */
+public final class JournaledListener implements SensorBatchListener, Closeable {
+
+    private static final String TAG = "JournaledListener";
+
+    private final File dir;
+    private final SensorBatchListener downstream;
+    private IngestJournal journal;
+    private boolean unavailable;
+    private boolean behind;
+
+    public JournaledListener(File dir, SensorBatchListener downstream) {
+        this.dir = dir;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public synchronized void onBatch(SensorBatch batch) {
+        IngestJournal journal = journal();
+        long offset = -1;
+        if (journal != null) {
+            try {
+                offset = journal.append(batch);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not journal batch", e);
+            }
+        }
+        if (behind) {
+            // replays from the last commit, this batch included if it was journaled
+            catchUp(journal, offset >= 0 ? 1 : 0);
+            if (offset >= 0) {
+                return;
+            }
+        }
+        try {
+            downstream.onBatch(batch);
+        } catch (RuntimeException e) {
+            behind = offset >= 0;
+            throw e;
+        }
+        if (offset >= 0) {
+            journal.commit(offset);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private IngestJournal journal() {
+        if (journal == null && !unavailable) {
+            try {
+                journal = IngestJournal.open(dir);
+                // whatever a previous process left uncommitted goes first
+                behind = true;
+            } catch (IOException e) {
+                Log.e(TAG, "Journal unavailable", e);
+                unavailable = true;
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Replays every uncommitted batch downstream. Stays behind if downstream throws again, so
+     * the next batch retries from the same commit.
+     */
+    private void catchUp(IngestJournal journal, int current) {
+        int replayed;
+        try {
+            replayed = journal.replay(downstream);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not replay journal", e);
+            return;
+        }
+        behind = false;
+        if (replayed > current) {
+            Log.i(TAG, "Replayed " + (replayed - current) + " unprocessed batches");
+        }
+    }
+}
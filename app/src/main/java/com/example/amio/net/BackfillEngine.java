@@ -0,0 +1,351 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches weeks of history after install or a long offline period.
+ *
+ * <p>Each mote's time range is split into fixed-size chunks fetched on a bounded pool, with
+ * at most {@code perHostLimit} requests in flight per host. Chunks may complete out of order;
+ * they are handed to the sink strictly in timestamp order per mote, and after each one the
+ * mote's progress cursor ({@code backfill/label/mote}) is saved. A backfill interrupted by
+ * process death therefore resumes after the last chunk delivered. A mote's chunks are fetched
+ * at most {@code chunksAhead} past the next one to deliver, so a slow chunk holds back a
+ * bounded number of finished ones in memory.
+ *
+ * <p>A chunk failing with an I/O error, a 5xx or a 429 is retried after an exponential
+ * backoff with full jitter; any other 4xx would fail again and is not retried.
+ *
+ * <p>The sink is called from pool threads, one call at a time.
+ */
+public final class BackfillEngine implements Closeable {
+
+    public static final int DEFAULT_CHUNKS_AHEAD = 4;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_MILLIS = 500;
+
+    private final SensorClient client;
+    private final CursorStore progress;
+    private final long chunkMillis;
+    private final int perHostLimit;
+    private final int chunksAhead;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final Object deliveryLock = new Object();
+
+    public BackfillEngine(SensorClient client, CursorStore progress, int threads,
+                          int perHostLimit, long chunkMillis) {
+        this(client, progress, threads, perHostLimit, chunkMillis, DEFAULT_CHUNKS_AHEAD);
+    }
+
+    public BackfillEngine(SensorClient client, CursorStore progress, int threads,
+                          int perHostLimit, long chunkMillis, int chunksAhead) {
+        if (threads < 1 || perHostLimit < 1 || chunkMillis < 1 || chunksAhead < 1) {
+            throw new IllegalArgumentException(
+                    "threads, perHostLimit, chunkMillis and chunksAhead must be >= 1");
+        }
+        this.client = client;
+        this.progress = progress;
+        this.perHostLimit = perHostLimit;
+        this.chunkMillis = chunkMillis;
+        this.chunksAhead = chunksAhead;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "amio-backfill-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static String progressKey(String label, String mote) {
+        return "backfill/" + CursorStore.key(label, mote);
+    }
+
+    /**
+     * Backfills {@code [from, to)} for every mote and blocks until done. If a chunk still
+     * fails after retries, or the sink throws, no further chunks are started and the first
+     * failure is rethrown once in-flight chunks have settled.
+     *
+     * @return the number of readings delivered
+     */
+    public long backfill(String label, int[] motes, long from, long to, SensorBatchListener sink)
+            throws IOException {
+        long[] froms = new long[motes.length];
+        Arrays.fill(froms, from);
+        return backfill(label, motes, froms, to, sink);
+    }
+
+    /** As the public overload, backfilling {@code [froms[i], to)} for {@code motes[i]}. */
+    private long backfill(String label, int[] motes, long[] froms, long to,
+                          SensorBatchListener sink) throws IOException {
+        Semaphore permits = hostPermits.computeIfAbsent(
+                new URL(client.getBaseUrl()).getAuthority(), host -> new Semaphore(perHostLimit));
+        Run run = new Run(label, sink, permits);
+        for (int m = 0; m < motes.length; m++) {
+            String moteName = MoteId.toString(motes[m]);
+            SyncCursor cursor = progress.get(progressKey(label, moteName));
+            long start = Math.max(froms[m], cursor.getHighWaterMark());
+            if (start >= to) {
+                continue;
+            }
+            MoteRange range = new MoteRange(moteName, cursor, start, to, chunkMillis);
+            synchronized (deliveryLock) {
+                while (range.submitted < Math.min(chunksAhead, range.chunks.length)) {
+                    submitNext(run, range);
+                }
+            }
+        }
+
+        synchronized (deliveryLock) {
+            try {
+                while (run.pending > 0) {
+                    deliveryLock.wait();
+                }
+            } catch (InterruptedException e) {
+                run.failed = true;
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during backfill", e);
+            }
+        }
+        if (run.failure != null) {
+            throw run.failure instanceof IOException
+                    ? (IOException) run.failure
+                    : new IOException("Backfill aborted", run.failure);
+        }
+        return run.delivered;
+    }
+
+    /**
+     * Backfills the first {@code count} of {@code motes} whose sync cursor in {@code cursors}
+     * is missing or more than {@code maxGapMillis} behind {@code now}, over at most the last
+     * {@code horizonMillis}, as after install or a long offline period. A mote's range starts
+     * just after its sync cursor, so what polling delivered is not fetched again; readings at
+     * or before the cursor that still arrive are dropped. The cursor is moved past every
+     * chunk the sink has taken, so incremental polling carries on where the backfill stopped.
+     *
+     * @return the number of readings delivered
+     */
+    public long catchUp(String label, int[] motes, int count, CursorStore cursors, long now,
+                        long maxGapMillis, long horizonMillis, SensorBatchListener sink)
+            throws IOException {
+        MoteIndex stale = new MoteIndex();
+        List<SyncCursor> syncCursors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SyncCursor cursor = cursors.get(CursorStore.key(label, MoteId.toString(motes[i])));
+            long highWaterMark = cursor.getHighWaterMark();
+            if ((highWaterMark == SyncCursor.NONE || highWaterMark < now - maxGapMillis)
+                    && stale.slotOf(motes[i]) < 0) {
+                stale.add(motes[i]);
+                syncCursors.add(cursor);
+            }
+        }
+        if (stale.size() == 0) {
+            return 0;
+        }
+        int[] selected = new int[stale.size()];
+        long[] froms = new long[selected.length];
+        for (int slot = 0; slot < selected.length; slot++) {
+            selected[slot] = stale.moteAt(slot);
+            long highWaterMark = syncCursors.get(slot).getHighWaterMark();
+            froms[slot] = highWaterMark == SyncCursor.NONE ? now - horizonMillis
+                    : Math.max(now - horizonMillis, highWaterMark + 1);
+        }
+        long delivered = backfill(label, selected, froms, now, batch -> {
+            SyncCursor cursor = syncCursors.get(stale.slotOf(batch.mote(0)));
+            // a chunk holds one mote: drop what polling has already delivered
+            long highWaterMark = cursor.getHighWaterMark();
+            int kept = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.timestamp(i) > highWaterMark) {
+                    batch.set(kept++, batch.timestamp(i), batch.value(i), batch.mote(i));
+                }
+            }
+            batch.truncate(kept);
+            if (batch.isEmpty()) {
+                return;
+            }
+            sink.onBatch(batch);
+            cursors.advance(cursor, batch.timestamp(batch.size() - 1));
+        });
+        cursors.save();
+        return delivered;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /** Starts the next chunk of {@code range}. Caller holds {@code deliveryLock}. */
+    private void submitNext(Run run, MoteRange range) {
+        int chunk = range.submitted++;
+        String path = SensorPaths.range(run.label, range.mote,
+                range.chunkStart(chunk), range.chunkEnd(chunk));
+        run.pending++;
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!run.failed) {
+                        SensorBatch batch = fetchChunk(path, run.permits);
+                        batch.sortByTimestamp();
+                        deliver(run, range, chunk, batch);
+                    }
+                } catch (Throwable t) {
+                    fail(run, t);
+                } finally {
+                    synchronized (deliveryLock) {
+                        run.pending--;
+                        deliveryLock.notifyAll();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            run.pending--;
+            fail(run, new IOException("Backfill engine closed", e));
+        }
+    }
+
+    private void fail(Run run, Throwable t) {
+        synchronized (deliveryLock) {
+            if (run.failure == null) {
+                run.failure = t;
+            }
+            run.failed = true;
+        }
+    }
+
+    private SensorBatch fetchChunk(String path, Semaphore permits) throws IOException {
+        SensorBatch batch = new SensorBatch();
+        IOException last = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                backOff(attempt);
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during backfill", e);
+            }
+            int status;
+            try {
+                status = client.fetchBatch(path, batch);
+            } catch (CircuitOpenException e) {
+                throw e; // retrying now would only be rejected again
+            } catch (IOException e) {
+                last = e;
+                continue;
+            } finally {
+                permits.release();
+            }
+            if (status >= 200 && status < 300) {
+                return batch;
+            }
+            last = new IOException("HTTP " + status + " for " + path);
+            if (status >= 400 && status < 500 && status != 429) {
+                throw last; // the same request would fail the same way
+            }
+        }
+        throw last;
+    }
+
+    /** Sleeps a random time up to {@code RETRY_BASE_MILLIS * 2^(attempt - 1)}. */
+    private static void backOff(int attempt) throws IOException {
+        long ceiling = RETRY_BASE_MILLIS << (attempt - 1);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during backfill", e);
+        }
+    }
+
+    private void deliver(Run run, MoteRange range, int chunk, SensorBatch batch) throws IOException {
+        synchronized (deliveryLock) {
+            range.chunks[chunk] = batch;
+            while (range.next < range.chunks.length && range.chunks[range.next] != null) {
+                if (run.failed) {
+                    return;
+                }
+                SensorBatch ready = range.chunks[range.next];
+                range.chunks[range.next] = null;
+                if (!ready.isEmpty()) {
+                    run.sink.onBatch(ready);
+                    run.delivered += ready.size();
+                }
+                progress.advance(range.cursor, range.chunkEnd(range.next));
+                range.next++;
+                progress.save();
+                if (range.submitted < range.chunks.length) {
+                    submitNext(run, range);
+                }
+            }
+        }
+    }
+
+    /** State shared by the chunks of one {@link #backfill} call. */
+    private static final class Run {
+        final String label;
+        final SensorBatchListener sink;
+        final Semaphore permits;
+        volatile boolean failed;
+        // guarded by deliveryLock
+        long delivered;
+        int pending;
+        Throwable failure;
+
+        Run(String label, SensorBatchListener sink, Semaphore permits) {
+            this.label = label;
+            this.sink = sink;
+            this.permits = permits;
+        }
+    }
+
+    /** Chunks of one mote, buffered until they can be delivered in order. */
+    private static final class MoteRange {
+        final String mote;
+        final SyncCursor cursor;
+        final long start;
+        final long end;
+        final long chunkMillis;
+        final SensorBatch[] chunks;
+        // guarded by deliveryLock
+        int next;
+        int submitted;
+
+        MoteRange(String mote, SyncCursor cursor, long start, long end, long chunkMillis) {
+            this.mote = mote;
+            this.cursor = cursor;
+            this.start = start;
+            this.end = end;
+            this.chunkMillis = chunkMillis;
+            this.chunks = new SensorBatch[(int) ((end - start + chunkMillis - 1) / chunkMillis)];
+        }
+
+        long chunkStart(int chunk) {
+            return start + chunk * chunkMillis;
+        }
+
+        long chunkEnd(int chunk) {
+            return Math.min(end, chunkStart(chunk) + chunkMillis);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.amio.net;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker guarding one endpoint of the sensor server.
+ *
+ * <p>{@code CLOSED}: calls go through; {@code failureThreshold} consecutive failures open the
+ * circuit. {@code OPEN}: calls are rejected with a {@link CircuitOpenException} without
+ * touching the network, for a backoff that doubles with every consecutive opening (capped
+ * at {@code maxBackoffMillis}) and is jittered over its upper half so that tablets which saw
+ * the same outage do not retry in lockstep. {@code HALF_OPEN}: once the backoff has elapsed,
+ * a single probe call is let through; its success closes the circuit, its failure reopens it
+ * with the next backoff.
+ *
+ * <p>Outcomes are recorded against the {@link Permit} that {@link #acquire} handed out, so a
+ * call admitted before the circuit last opened cannot close it, reopen it or stand in for the
+ * probe when it finishes late: with parallel fetches, stragglers of the failing batch are
+ * common.
+ *
+ * <p>Thread-safe.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** One admitted call; hand it back to {@link #onSuccess} or {@link #onFailure}. */
+    public static final class Permit {
+
+        final CircuitBreaker breaker;
+        /** The opening the call was admitted under: outcomes of earlier ones are ignored. */
+        final long generation;
+        final boolean probe;
+
+        private Permit(CircuitBreaker breaker, long generation, boolean probe) {
+            this.breaker = breaker;
+            this.generation = generation;
+            this.probe = probe;
+        }
+    }
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 1_000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60_000;
+
+    private final int failureThreshold;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final LongSupplier clock;
+    private final Random random;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveOpenings;
+    private long generation;
+    private long openedAt;
+    private long retryAt;
+    private boolean probeInFlight;
+    private long probeStartNanos;
+
+    // metrics, guarded by this
+    private long openMillis;
+    private long rejected;
+    private long opened;
+    private long probes;
+    private long probesCompleted;
+    private long probeNanos;
+    private long lastProbeNanos;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    public CircuitBreaker(int failureThreshold, long baseBackoffMillis, long maxBackoffMillis) {
+        this(failureThreshold, baseBackoffMillis, maxBackoffMillis,
+                System::currentTimeMillis, null);
+    }
+
+    /** With an explicit clock and jitter source; a null {@code random} uses the thread's. */
+    CircuitBreaker(int failureThreshold, long baseBackoffMillis, long maxBackoffMillis,
+                   LongSupplier clock, Random random) {
+        if (failureThreshold < 1 || baseBackoffMillis < 1 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        }
+        this.failureThreshold = failureThreshold;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Admits a call or rejects it. Every admitted call must be followed by exactly one
+     * {@link #onSuccess} or {@link #onFailure} with the returned permit, from a
+     * {@code finally} block: a probe never recorded keeps the circuit half-open, rejecting
+     * every call, for good.
+     *
+     * @throws CircuitOpenException if the circuit is open, or half-open with a probe in flight
+     */
+    public synchronized Permit acquire(String endpoint) throws CircuitOpenException {
+        long now = clock.getAsLong();
+        if (state == State.OPEN && now >= retryAt) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return new Permit(this, generation, false);
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            probeStartNanos = System.nanoTime();
+            probes++;
+            return new Permit(this, generation, true);
+        }
+        rejected++;
+        throw new CircuitOpenException(endpoint, Math.max(0, retryAt - now));
+    }
+
+    /** Records a success; ignored if the circuit opened since {@code permit} was handed out. */
+    public synchronized void onSuccess(Permit permit) {
+        if (!isCurrent(permit)) {
+            return;
+        }
+        if (permit.probe) {
+            recordProbe();
+            openMillis += clock.getAsLong() - openedAt;
+            state = State.CLOSED;
+            consecutiveOpenings = 0;
+        }
+        consecutiveFailures = 0;
+    }
+
+    /** Records a failure; ignored if the circuit opened since {@code permit} was handed out. */
+    public synchronized void onFailure(Permit permit) {
+        if (!isCurrent(permit)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        if (permit.probe) {
+            recordProbe();
+            open(now, false);
+            return;
+        }
+        if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            open(now, true);
+        }
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() >= retryAt) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /** Total time spent open or half-open, including the current outage. */
+    public synchronized long getOpenMillis() {
+        return state == State.CLOSED ? openMillis : openMillis + clock.getAsLong() - openedAt;
+    }
+
+    /** Calls rejected without touching the network. */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /** Number of times the circuit went from closed to open. */
+    public synchronized long getOpenCount() {
+        return opened;
+    }
+
+    public synchronized long getProbeCount() {
+        return probes;
+    }
+
+    /** Mean latency of completed half-open probes, or 0 if there was none. */
+    public synchronized long getMeanProbeLatencyNanos() {
+        return probesCompleted == 0 ? 0 : probeNanos / probesCompleted;
+    }
+
+    public synchronized long getLastProbeLatencyNanos() {
+        return lastProbeNanos;
+    }
+
+    private void open(long now, boolean fromClosed) {
+        if (fromClosed) {
+            openedAt = now;
+            opened++;
+        }
+        state = State.OPEN;
+        generation++;
+        retryAt = now + backoffMillis(consecutiveOpenings++);
+        consecutiveFailures = 0;
+    }
+
+    /** Upper half of {@code base * 2^n}, capped: grows with every opening but never in lockstep. */
+    private long backoffMillis(int openings) {
+        int shift = Math.min(openings, Long.numberOfLeadingZeros(baseBackoffMillis) - 1);
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << shift);
+        long half = cap / 2;
+        double jitter = random != null ? random.nextDouble() : ThreadLocalRandom.current().nextDouble();
+        return half + (long) (jitter * (cap - half));
+    }
+
+    private boolean isCurrent(Permit permit) {
+        if (permit.breaker != this) {
+            throw new IllegalArgumentException("Permit of another circuit breaker");
+        }
+        // the probe of the current opening is the only one in flight, until it is recorded
+        return permit.generation == generation && (!permit.probe || probeInFlight);
+    }
+
+    private void recordProbe() {
+        lastProbeNanos = System.nanoTime() - probeStartNanos;
+        probeNanos += lastProbeNanos;
+        probesCompleted++;
+        probeInFlight = false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.amio.net;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request while the {@link CircuitBreaker} of its endpoint is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(String endpoint, long retryAfterMillis) {
+        super("Circuit open for " + endpoint + ", retry in " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /** Time until the next probe will be let through; 0 if one is already in flight. */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
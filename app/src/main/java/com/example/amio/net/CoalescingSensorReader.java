@@ -0,0 +1,32 @@
+package com.example.amio.net;
+
+import com.example.amio.data.SensorBatch;
+
+import java.io.IOException;
+
+/**
+ * Front for the dashboard, widget and alert worker, which tend to ask for the same motes at
+ * the same moment. Concurrent reads of one (label, mote) share a single upstream request
+ * and its decoded batch.
+ *
+ * <p>The returned batch is shared between every caller of the same flight and must be
+ * treated as read-only.
+ */
+public final class CoalescingSensorReader {
+
+    private final SensorClient client;
+    private final SingleFlight<String, SensorBatch> flights = new SingleFlight<>();
+
+    public CoalescingSensorReader(SensorClient client) {
+        this.client = client;
+    }
+
+    /** Latest reading(s) of {@code mote}; empty if the server did not answer 2xx. */
+    public SensorBatch latest(String label, String mote) throws IOException {
+        return flights.execute(CursorStore.key(label, mote), () -> {
+            SensorBatch batch = new SensorBatch(1);
+            client.fetchBatch(SensorPaths.last(label, mote), batch);
+            return batch;
+        });
+    }
+}
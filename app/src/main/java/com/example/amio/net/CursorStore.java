@@ -0,0 +1,126 @@
+package com.example.amio.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable map of {@link SyncCursor}s, keyed by {@code label/mote}. The file is loaded on
+ * first access and rewritten atomically (temporary file then rename) by {@link #save()}.
+ * Cursors are only changed through the store, under its lock, so several ingestion paths may
+ * share one store without a save catching a cursor half-updated.
+ */
+public final class CursorStore {
+
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<String, SyncCursor> cursors = new HashMap<>();
+    private boolean loaded;
+
+    public CursorStore(File file) {
+        this.file = file;
+    }
+
+    public static String key(String label, String mote) {
+        return label + "/" + mote;
+    }
+
+    /** Returns the cursor for {@code key}, creating an empty one if needed. */
+    public synchronized SyncCursor get(String key) throws IOException {
+        load();
+        SyncCursor cursor = cursors.get(key);
+        if (cursor == null) {
+            cursor = new SyncCursor();
+            cursors.put(key, cursor);
+        }
+        return cursor;
+    }
+
+    /** Moves {@code cursor} to {@code timestamp}, if that is newer. */
+    synchronized void advance(SyncCursor cursor, long timestamp) {
+        cursor.advanceTo(timestamp);
+    }
+
+    /** Applies what the requests of a poll staged on {@code polled}. */
+    synchronized void commit(List<SyncCursor> polled) {
+        for (SyncCursor cursor : polled) {
+            cursor.commit();
+        }
+    }
+
+    /** Writes the cursors to disk if any changed since the last save. */
+    public synchronized void save() throws IOException {
+        load();
+        boolean dirty = false;
+        for (SyncCursor cursor : cursors.values()) {
+            dirty |= cursor.isDirty();
+        }
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(cursors.size());
+            for (Map.Entry<String, SyncCursor> entry : cursors.entrySet()) {
+                SyncCursor cursor = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(cursor.getHighWaterMark());
+                writeNullable(out, cursor.getEtag());
+                writeNullable(out, cursor.getLastModified());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (SyncCursor cursor : cursors.values()) {
+            cursor.markClean();
+        }
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return; // unknown format: start over with a full sync
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long highWaterMark = in.readLong();
+                String etag = readNullable(in);
+                String lastModified = readNullable(in);
+                cursors.put(key, new SyncCursor(highWaterMark, etag, lastModified));
+            }
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental polling of one label: each mote is asked only for readings newer than its
+ * durable high-water mark, conditionally on the validators of its last response.
+ *
+ * <p>A poll does not move the cursors: {@link #commit()} does, and saves them, once the
+ * readings of the poll have been handed over (to the ingest journal, typically). Readings
+ * lost to a crash or a failed hand-over in between are fetched again by the next poll.
+ * {@link #commitDelivered(SensorBatch)} does the same for readings fetched some other way.
+ */
+public final class DeltaSync {
+
+    private final SensorClient client;
+    private final CursorStore cursors;
+    private final String label;
+    private final List<SyncCursor> polled = new ArrayList<>();
+
+    public DeltaSync(SensorClient client, CursorStore cursors, String label) {
+        this.client = client;
+        this.cursors = cursors;
+        this.label = label;
+    }
+
+    /**
+     * Polls the first {@code count} motes of {@code motes} and replaces the content of
+     * {@code out} with their new readings.
+     */
+    public void poll(int[] motes, int count, SensorBatch out) throws IOException {
+        List<String> paths = new ArrayList<>(count);
+        polled.clear();
+        for (int i = 0; i < count; i++) {
+            String mote = MoteId.toString(motes[i]);
+            SyncCursor cursor = cursors.get(CursorStore.key(label, mote));
+            paths.add(SensorPaths.since(label, mote, cursor.getHighWaterMark()));
+            polled.add(cursor);
+        }
+        client.fetchBatches(paths, polled, out);
+    }
+
+    /**
+     * Moves the cursors of the last poll past the readings it returned, including those of a
+     * poll that failed for some motes only, and saves them.
+     */
+    public void commit() throws IOException {
+        cursors.commit(polled);
+        polled.clear();
+        cursors.save();
+    }
+
+    /**
+     * Moves the cursor of every mote in {@code delivered} to its newest reading there, and
+     * saves them: the {@link #commit()} of readings fetched outside a poll, such as those of
+     * a discovery pass, once they have been handed over.
+     */
+    public void commitDelivered(SensorBatch delivered) throws IOException {
+        for (int i = 0; i < delivered.size(); i++) {
+            String mote = MoteId.toString(delivered.mote(i));
+            cursors.advance(cursors.get(CursorStore.key(label, mote)), delivered.timestamp(i));
+        }
+        cursors.save();
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.amio.net;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorJsonDecoder;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client for the IoTLab sensor REST API.
+ *
+ * <p>Connections are kept alive and reused: every body is read to the end and its stream
+ * closed (never {@code disconnect()}), which returns the socket to the platform connection
+ * pool. {@link #fetchAll(List)} spreads a whole polling pass over at most
+ * {@code maxConnections} workers, so a pass over hundreds of motes runs over a handful of
+ * warm sockets instead of one handshake per mote. {@code HttpURLConnection} cannot pipeline
+ * several requests on one socket, so the pass is pipelined across connections instead.
+ *
+ * <p>The platform pool keeps 5 idle connections per host by default ({@code http.maxConnections}),
+ * so {@code maxConnections} should stay at or below that.
+ *
+ * <p>Every endpoint ({@code label/last}, {@code label/range}, ...) has its own
+ * {@link CircuitBreaker}. I/O errors and 5xx/429 responses count as failures; while a
+ * breaker is open, requests to its endpoint fail fast with a {@link CircuitOpenException}.
+ */
+public class SensorClient implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final String baseUrl;
+    private final int timeoutMillis;
+    private final ExecutorService executor;
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final Supplier<CircuitBreaker> breakerFactory;
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<byte[]> readBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+    private final ThreadLocal<SensorBatch> scratchBatches = new ThreadLocal<SensorBatch>() {
+        @Override
+        protected SensorBatch initialValue() {
+            return new SensorBatch();
+        }
+    };
+    private final ThreadLocal<SensorJsonDecoder> decoders = new ThreadLocal<SensorJsonDecoder>() {
+        @Override
+        protected SensorJsonDecoder initialValue() {
+            return new SensorJsonDecoder();
+        }
+    };
+
+    public SensorClient(String baseUrl) {
+        this(baseUrl, DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public SensorClient(String baseUrl, int maxConnections, int timeoutMillis) {
+        this(baseUrl, maxConnections, timeoutMillis, CircuitBreaker::new);
+    }
+
+    SensorClient(String baseUrl, int maxConnections, int timeoutMillis,
+                 Supplier<CircuitBreaker> breakerFactory) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be >= 1");
+        }
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.timeoutMillis = timeoutMillis;
+        this.breakerFactory = breakerFactory;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConnections, r -> {
+            Thread t = new Thread(r, "amio-sensor-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Performs a single GET on the calling thread.
+     */
+    public SensorResponse fetch(String path) throws IOException {
+        long start = System.nanoTime();
+        CircuitBreaker.Permit permit = admit(path);
+        HttpURLConnection conn;
+        int status = 0;
+        int len = 0;
+        boolean answered = false;
+        try {
+            conn = open(path);
+            status = conn.getResponseCode();
+            len = readBody(conn, status);
+            answered = true;
+        } finally {
+            // anything thrown, unchecked too, must not leave a half-open probe in flight
+            record(permit, answered ? status : -1);
+        }
+        byte[] body = Arrays.copyOf(readBuffers.get(), len);
+        return new SensorResponse(path, status, body, System.nanoTime() - start);
+    }
+
+    /**
+     * Performs a single GET on the calling thread and decodes the body straight from this
+     * thread's read buffer into {@code out}, which is cleared first. The body is not copied
+     * and decoding allocates next to nothing; what a request still allocates is the
+     * connection's own objects and, for a gzip body, an {@code Inflater} and its buffers,
+     * released as soon as the body has been read.
+     *
+     * @return the HTTP status; {@code out} is left empty unless it is 2xx
+     */
+    public int fetchBatch(String path, SensorBatch out) throws IOException {
+        return fetchBatch(path, null, out);
+    }
+
+    /**
+     * Like {@link #fetchBatch(String, SensorBatch)}, but conditional on {@code cursor}: its
+     * validators are sent as {@code If-None-Match} / {@code If-Modified-Since}, so an unchanged
+     * mote costs a bodiless 304 and no decoding. Readings at or before the cursor's high-water
+     * mark are dropped. The newest one kept and the new validators are only staged on the
+     * cursor, replacing whatever an earlier request staged: it moves when {@link DeltaSync}
+     * commits it, once the readings have been handed over.
+     */
+    public int fetchBatch(String path, SyncCursor cursor, SensorBatch out) throws IOException {
+        out.clear();
+        if (cursor != null) {
+            cursor.discardStaged();
+        }
+        CircuitBreaker.Permit permit = admit(path);
+        HttpURLConnection conn;
+        int status = 0;
+        int len = 0;
+        boolean answered = false;
+        try {
+            conn = open(path);
+            if (cursor != null) {
+                if (cursor.getEtag() != null) {
+                    conn.setRequestProperty("If-None-Match", cursor.getEtag());
+                }
+                if (cursor.getLastModified() != null) {
+                    conn.setRequestProperty("If-Modified-Since", cursor.getLastModified());
+                }
+            }
+            status = conn.getResponseCode();
+            len = readBody(conn, status);
+            answered = true;
+        } finally {
+            record(permit, answered ? status : -1);
+        }
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            notModified.increment();
+            return status;
+        }
+        if (status < 200 || status >= 300) {
+            return status;
+        }
+        if (len > 0) {
+            long start = System.nanoTime();
+            decoders.get().decode(readBuffers.get(), 0, len, out);
+            decodeNanos.add(System.nanoTime() - start);
+        }
+        if (cursor != null) {
+            cursor.stageValidators(conn.getHeaderField("ETag"),
+                    conn.getHeaderField("Last-Modified"));
+            retainNewer(cursor, out);
+        }
+        return status;
+    }
+
+    /**
+     * Runs {@link #fetchBatch(String, SyncCursor, SensorBatch)} for every path over the pooled
+     * connections and appends all readings to {@code out}, which is cleared first.
+     * {@code cursors} is either null or parallel to {@code paths}. If any request fails, the
+     * first failure is rethrown once all requests have finished; readings from the others
+     * are still in {@code out}.
+     */
+    public void fetchBatches(List<String> paths, List<SyncCursor> cursors, SensorBatch out)
+            throws IOException {
+        out.clear();
+        List<Future<Integer>> futures = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            SyncCursor cursor = cursors == null ? null : cursors.get(i);
+            futures.add(executor.submit(() -> {
+                SensorBatch scratch = scratchBatches.get();
+                int status = fetchBatch(path, cursor, scratch);
+                synchronized (out) {
+                    if (out.getLabel() == null) {
+                        out.setLabel(scratch.getLabel());
+                    }
+                    for (int r = 0; r < scratch.size(); r++) {
+                        out.add(scratch.timestamp(r), scratch.value(r), scratch.mote(r));
+                    }
+                }
+                return status;
+            }));
+        }
+        awaitAll(futures, null);
+    }
+
+    /**
+     * Fetches every path over the pooled connections. Responses are returned in the order of
+     * {@code paths}; if any request fails, the first failure is rethrown once all requests
+     * have finished.
+     */
+    public List<SensorResponse> fetchAll(List<String> paths) throws IOException {
+        List<Future<SensorResponse>> futures = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            futures.add(executor.submit(() -> fetch(path)));
+        }
+        List<SensorResponse> responses = new ArrayList<>(paths.size());
+        awaitAll(futures, responses);
+        return responses;
+    }
+
+    /** Response body bytes received so far, before decompression; headers are not counted. */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /** Time spent decoding JSON bodies so far, in nanoseconds. */
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    /** Number of 304 responses so far. */
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    /** Circuit breakers by endpoint, for health metrics. */
+    public Map<String, CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /** Endpoint of a request path: its first two segments, e.g. {@code light1/last}. */
+    public static String endpointOf(String path) {
+        int end = path.indexOf('?');
+        if (end < 0) {
+            end = path.length();
+        }
+        int slash = path.indexOf('/');
+        if (slash >= 0 && slash < end) {
+            int second = path.indexOf('/', slash + 1);
+            if (second >= 0 && second < end) {
+                end = second;
+            }
+        }
+        return path.substring(0, end);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static <T> void awaitAll(List<Future<T>> futures, List<T> results) throws IOException {
+        IOException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                T result = future.get();
+                if (results != null) {
+                    results.add(result);
+                }
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while polling sensors", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void retainNewer(SyncCursor cursor, SensorBatch batch) {
+        long highWaterMark = cursor.getHighWaterMark();
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long timestamp = batch.timestamp(i);
+            if (timestamp > highWaterMark) {
+                batch.set(kept++, timestamp, batch.value(i), batch.mote(i));
+            }
+        }
+        batch.truncate(kept);
+        for (int i = 0; i < kept; i++) {
+            cursor.stage(batch.timestamp(i));
+        }
+    }
+
+    /** Admits a request to the endpoint of {@code path}, or throws if its circuit is open. */
+    private CircuitBreaker.Permit admit(String path) throws CircuitOpenException {
+        String endpoint = endpointOf(path);
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            breaker = breakers.computeIfAbsent(endpoint, e -> breakerFactory.get());
+        }
+        return breaker.acquire(endpoint);
+    }
+
+    /** Records the outcome of an admitted request; {@code status} is -1 if it threw. */
+    private static void record(CircuitBreaker.Permit permit, int status) {
+        if (status < 0 || status >= 500 || status == 429) {
+            permit.breaker.onFailure(permit);
+        } else {
+            permit.breaker.onSuccess(permit);
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        conn.setConnectTimeout(timeoutMillis);
+        conn.setReadTimeout(timeoutMillis);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        return conn;
+    }
+
+    /**
+     * Reads the whole body into this thread's scratch buffer and returns its length.
+     * The raw stream is drained to EOF before closing so the connection can be reused.
+     */
+    private int readBody(HttpURLConnection conn, int status) throws IOException {
+        InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (stream == null) {
+            return 0;
+        }
+        InputStream raw = new CountingInputStream(stream, bytesReceived);
+        boolean gzip = "gzip".equalsIgnoreCase(conn.getContentEncoding());
+        byte[] buf = readBuffers.get();
+        int len = 0;
+        InputStream in = raw;
+        try {
+            if (gzip) {
+                in = new GZIPInputStream(raw);
+            }
+            int n;
+            while ((n = in.read(buf, len, buf.length - len)) != -1) {
+                len += n;
+                if (len == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    readBuffers.set(buf);
+                }
+            }
+            if (gzip) {
+                drain(raw);
+            }
+        } finally {
+            // closes raw too, and ends the Inflater now rather than when it is collected
+            in.close();
+        }
+        return len;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] skip = new byte[256];
+        while (in.read(skip) != -1) {
+            // discard trailing bytes so the socket goes back to the pool clean
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final LongAdder counter;
+
+        CountingInputStream(InputStream in, LongAdder counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.add(n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.amio.net;
+
+/**
+ * Builds request paths relative to the IoTLab REST base URL
+ * (e.g. {@code http://host:8080/iotlab/rest/data/1/}).
+ */
+public final class SensorPaths {
+
+    private SensorPaths() {
+    }
+
+    /** Last reading of every mote publishing {@code label}. */
+    public static String last(String label) {
+        return label + "/last";
+    }
+
+    /** Last reading of a single mote, e.g. {@code light1/last/9.138}. */
+    public static String last(String label, String mote) {
+        return label + "/last/" + mote;
+    }
+
+    /**
+     * Readings of a single mote newer than {@code timestamp}, or its last readings when
+     * nothing has been received yet ({@link SyncCursor#NONE}).
+     */
+    public static String since(String label, String mote, long timestamp) {
+        if (timestamp == SyncCursor.NONE) {
+            return last(label, mote);
+        }
+        return last(label, mote) + "?since=" + timestamp;
+    }
+
+    /** Readings of a single mote with {@code from <= timestamp < to}. */
+    public static String range(String label, String mote, long from, long to) {
+        return label + "/range/" + mote + "?from=" + from + "&to=" + to;
+    }
+
+    /** Server-sent event stream of new readings from every mote publishing {@code label}. */
+    public static String stream(String label) {
+        return label + "/stream";
+    }
+}
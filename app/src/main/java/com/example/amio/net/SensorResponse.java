@@ -0,0 +1,39 @@
+package com.example.amio.net;
+
+/**
+ * Result of one request made by {@link SensorClient}. The body is already decompressed.
+ */
+public final class SensorResponse {
+
+    private final String path;
+    private final int status;
+    private final byte[] body;
+    private final long latencyNanos;
+
+    SensorResponse(String path, int status, byte[] body, long latencyNanos) {
+        this.path = path;
+        this.status = status;
+        this.body = body;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isSuccessful() {
+        return status >= 200 && status < 300;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.data.SensorJsonDecoder;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * Long-lived server-sent event connection to {@link SensorPaths#stream(String)}.
+ *
+ * <p>Each event carries the usual {@code {"data":[...]}} payload in its {@code data} field and
+ * is decoded as soon as its terminating blank line arrives, so a reading reaches the
+ * listener one network hop after it is published instead of up to a full polling interval
+ * later. Comment lines are treated as heartbeats; a connection silent for longer than the
+ * idle timeout is considered dead.
+ *
+ * <p>The id of the last event is sent back as {@code Last-Event-ID} on reconnect. Once the
+ * listener has returned from a batch, its readings advance their mote's {@link SyncCursor} in
+ * the shared {@link CursorStore}, so {@link DeltaSync} picks up exactly where the stream
+ * stopped when ingestion falls back to polling, and refetches a batch the listener failed.
+ * Readings at or before their cursor, already delivered by the poller, are dropped.
+ *
+ * <p>{@link #run} blocks the calling thread; {@link #close()} may be called from any thread.
+ */
+public final class SensorStream implements Closeable {
+
+    public static final long NO_EVENT_ID = -1;
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final long SAVE_INTERVAL_MILLIS = 10_000;
+
+    private final String baseUrl;
+    private final CursorStore cursors;
+    private final int connectTimeoutMillis;
+    private final int idleTimeoutMillis;
+    private final SensorJsonDecoder decoder = new SensorJsonDecoder();
+    private final SensorBatch batch = new SensorBatch();
+    private final MoteIndex moteSlots = new MoteIndex();
+
+    private SyncCursor[] moteCursors = new SyncCursor[16];
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] data = new byte[INITIAL_BUFFER_SIZE];
+    private int dataLength;
+    private long eventId = NO_EVENT_ID;
+    private long pendingId = NO_EVENT_ID;
+    private long lastSave;
+
+    // guarded by this
+    private HttpURLConnection connection;
+    private boolean closed;
+
+    public SensorStream(String baseUrl, CursorStore cursors, int connectTimeoutMillis,
+                        int idleTimeoutMillis) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.cursors = cursors;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Connects and hands every event to {@code listener} until the stream fails. This never
+     * returns normally: a stream ended by the server, an idle timeout or {@link #close()} all
+     * surface as an {@link IOException}.
+     *
+     * @param onOpen run once the server has accepted the stream, before the first event
+     */
+    public void run(String label, Runnable onOpen, SensorBatchListener listener) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + SensorPaths.stream(label))
+                .openConnection();
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(idleTimeoutMillis);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Accept", "text/event-stream");
+        conn.setRequestProperty("Cache-Control", "no-cache");
+        if (eventId != NO_EVENT_ID) {
+            conn.setRequestProperty("Last-Event-ID", Long.toString(eventId));
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            connection = conn;
+        }
+        try {
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + SensorPaths.stream(label));
+            }
+            onOpen.run();
+            try (InputStream in = conn.getInputStream()) {
+                readEvents(in, label, listener);
+            }
+        } finally {
+            synchronized (this) {
+                connection = null;
+            }
+            // a stream cannot go back to the pool mid-body
+            conn.disconnect();
+            cursors.save();
+        }
+    }
+
+    /** Id of the last event received, or {@link #NO_EVENT_ID}. */
+    public long getLastEventId() {
+        return eventId;
+    }
+
+    @Override
+    public void close() {
+        HttpURLConnection conn;
+        synchronized (this) {
+            closed = true;
+            conn = connection;
+        }
+        if (conn != null) {
+            conn.disconnect();
+        }
+    }
+
+    private void readEvents(InputStream in, String label, SensorBatchListener listener)
+            throws IOException {
+        dataLength = 0;
+        pendingId = NO_EVENT_ID;
+        int start = 0;
+        int scanned = 0;
+        int filled = 0;
+        while (true) {
+            for (int i = scanned; i < filled; i++) {
+                if (buf[i] == '\n') {
+                    int end = i > start && buf[i - 1] == '\r' ? i - 1 : i;
+                    onLine(start, end, label, listener);
+                    start = i + 1;
+                }
+            }
+            scanned = filled;
+            if (start > 0) {
+                scanned -= start;
+                System.arraycopy(buf, start, buf, 0, filled - start);
+                filled -= start;
+                start = 0;
+            }
+            if (filled == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int n = in.read(buf, filled, buf.length - filled);
+            if (n == -1) {
+                throw new EOFException("Stream ended by server");
+            }
+            filled += n;
+        }
+    }
+
+    private void onLine(int start, int end, String label, SensorBatchListener listener)
+            throws IOException {
+        if (start == end) {
+            dispatch(label, listener);
+            return;
+        }
+        if (buf[start] == ':') {
+            return; // comment, sent as a heartbeat
+        }
+        int colon = start;
+        while (colon < end && buf[colon] != ':') {
+            colon++;
+        }
+        int value = colon < end ? colon + 1 : end;
+        if (value < end && buf[value] == ' ') {
+            value++;
+        }
+        if (fieldEquals(start, colon, "data")) {
+            appendData(value, end);
+        } else if (fieldEquals(start, colon, "id")) {
+            pendingId = parseId(value, end);
+        }
+    }
+
+    private void dispatch(String label, SensorBatchListener listener) throws IOException {
+        if (pendingId != NO_EVENT_ID) {
+            eventId = pendingId;
+            pendingId = NO_EVENT_ID;
+        }
+        if (dataLength == 0) {
+            return;
+        }
+        batch.clear();
+        decoder.decode(data, 0, dataLength, batch);
+        dataLength = 0;
+        // drop what the poller already delivered while the stream was down
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long timestamp = batch.timestamp(i);
+            if (timestamp > cursor(label, batch.mote(i)).getHighWaterMark()) {
+                batch.set(kept++, timestamp, batch.value(i), batch.mote(i));
+            }
+        }
+        batch.truncate(kept);
+        if (batch.isEmpty()) {
+            return;
+        }
+        listener.onBatch(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            cursors.advance(cursor(label, batch.mote(i)), batch.timestamp(i));
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSave >= SAVE_INTERVAL_MILLIS) {
+            lastSave = now;
+            cursors.save();
+        }
+    }
+
+    private SyncCursor cursor(String label, int mote) throws IOException {
+        int slot = moteSlots.slotOf(mote);
+        if (slot < 0) {
+            slot = moteSlots.add(mote);
+            if (slot >= moteCursors.length) {
+                moteCursors = Arrays.copyOf(moteCursors, moteCursors.length * 2);
+            }
+            moteCursors[slot] = cursors.get(CursorStore.key(label, MoteId.toString(mote)));
+        }
+        return moteCursors[slot];
+    }
+
+    private void appendData(int start, int end) {
+        int needed = dataLength + (dataLength > 0 ? 1 : 0) + end - start;
+        if (needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(needed, data.length * 2));
+        }
+        if (dataLength > 0) {
+            data[dataLength++] = '\n';
+        }
+        System.arraycopy(buf, start, data, dataLength, end - start);
+        dataLength += end - start;
+    }
+
+    private boolean fieldEquals(int start, int end, String field) {
+        if (end - start != field.length()) {
+            return false;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            if (buf[start + i] != field.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseId(int start, int end) {
+        long id = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_EVENT_ID; // not one of ours; keep resuming from the last numeric id
+            }
+            id = id * 10 + digit;
+        }
+        return start < end ? id : NO_EVENT_ID;
+    }
+}
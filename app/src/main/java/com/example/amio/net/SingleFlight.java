@@ -0,0 +1,57 @@
+package com.example.amio.net;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller runs the loader on
+ * its own thread, callers arriving while it is in flight wait for and share its result or
+ * failure. Once the call completes the key is forgotten, so the next call loads again.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(K key, Callable<V> loader) throws IOException {
+        FutureTask<V> task = new FutureTask<>(loader);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            return await(task);
+        }
+        return await(existing);
+    }
+
+    /** Number of keys currently being loaded. */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static <V> V await(FutureTask<V> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shared fetch", e);
+        }
+    }
+}
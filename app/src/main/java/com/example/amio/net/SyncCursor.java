@@ -0,0 +1,107 @@
+package com.example.amio.net;
+
+/**
+ * Per-mote synchronisation state: the newest reading timestamp seen and the validators of
+ * the last full response, used for conditional GETs.
+ *
+ * <p>A request does not move the cursor itself: it stages the newest timestamp and the
+ * validators it received, and {@link #commit()} applies them once the readings have been
+ * handed over. Until then a crash, or a failed hand-over, leaves the cursor where it was and
+ * the readings are fetched again.
+ *
+ * <p>The committed state is only changed under the lock of the {@link CursorStore}, which
+ * may be shared by the stream, the poller and a backfill; it can be read from any thread.
+ * The staged state belongs to the one request currently polling the mote.
+ */
+public final class SyncCursor {
+
+    public static final long NONE = Long.MIN_VALUE;
+
+    private volatile long highWaterMark = NONE;
+    private volatile String etag;
+    private volatile String lastModified;
+    private boolean dirty;
+
+    private long stagedHighWaterMark = NONE;
+    private String stagedEtag;
+    private String stagedLastModified;
+    private boolean stagedValidators;
+
+    SyncCursor() {
+    }
+
+    SyncCursor(long highWaterMark, String etag, String lastModified) {
+        this.highWaterMark = highWaterMark;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /** Timestamp of the newest reading received, or {@link #NONE}. */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    void advanceTo(long timestamp) {
+        if (timestamp > highWaterMark) {
+            highWaterMark = timestamp;
+            dirty = true;
+        }
+    }
+
+    void setValidators(String etag, String lastModified) {
+        if (!equal(this.etag, etag) || !equal(this.lastModified, lastModified)) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            dirty = true;
+        }
+    }
+
+    /** Stages {@code timestamp} as received, to be committed once it has been handed over. */
+    void stage(long timestamp) {
+        if (timestamp > stagedHighWaterMark) {
+            stagedHighWaterMark = timestamp;
+        }
+    }
+
+    void stageValidators(String etag, String lastModified) {
+        stagedEtag = etag;
+        stagedLastModified = lastModified;
+        stagedValidators = true;
+    }
+
+    /** Applies what was staged since the last commit or discard. */
+    void commit() {
+        advanceTo(stagedHighWaterMark);
+        if (stagedValidators) {
+            setValidators(stagedEtag, stagedLastModified);
+        }
+        discardStaged();
+    }
+
+    void discardStaged() {
+        stagedHighWaterMark = NONE;
+        stagedEtag = null;
+        stagedLastModified = null;
+        stagedValidators = false;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void markClean() {
+        dirty = false;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.amio.net;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Receives readings broadcast by LAN-attached motes as UDP datagrams.
+ *
+ * <p>Datagram layout, big-endian: {@code [u16 magic 'AM'][u8 version][u8 labelLength][label]
+ * [u16 count]} followed by {@code count} readings of {@code [i32 mote][i64 timestamp][f32 value]},
+ * the mote packed as by {@link com.example.amio.data.MoteId}.
+ *
+ * <p>Every datagram lands in one reused direct buffer and is decoded straight into a reused
+ * {@link SensorBatch}; the label string is only allocated when it changes. All datagrams
+ * queued in the socket are drained before the batch is handed on, so under load one
+ * listener call covers many packets. Malformed datagrams are counted and dropped.
+ *
+ * <p>{@link #run} blocks the calling thread; {@link #close()} may be called from any thread.
+ */
+public final class UdpTelemetryListener implements Closeable {
+
+    public static final int MAGIC = ('A' << 8) | 'M';
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 2 + 1 + 1 + 2;
+    public static final int READING_BYTES = 4 + 8 + 4;
+
+    private static final int MAX_DATAGRAM = 65_507;
+    private static final int RECEIVE_BUFFER_BYTES = 1 << 20;
+    /** Upper bound on readings per listener call while packets keep arriving. */
+    private static final int MAX_BATCH = 4096;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final SensorBatch batch = new SensorBatch();
+
+    private byte[] labelBytes = new byte[0];
+    private int labelLength = -1;
+    private String label;
+    private long packets;
+    private long dropped;
+    private volatile boolean closed;
+
+    /** Binds to {@code address}; port 0 picks a free port, see {@link #getLocalPort()}. */
+    public UdpTelemetryListener(InetSocketAddress address) throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+            channel.bind(address);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Receives datagrams and hands decoded readings to {@code listener} until {@link #close()}
+     * is called. The batch passed to the listener is reused after it returns.
+     */
+    public void run(SensorBatchListener listener) throws IOException {
+        try {
+            while (!closed) {
+                // the only key stays in the selected set: clearing it would allocate a set
+                // entry on every wake-up, while select() still returns when it is ready again
+                selector.select();
+                drain(listener);
+            }
+        } catch (ClosedSelectorException e) {
+            // closed while waiting
+        } finally {
+            selector.close();
+            channel.close();
+        }
+    }
+
+    /** Datagrams decoded so far. Read from the listener thread, or after {@link #run} returns. */
+    public long getPacketCount() {
+        return packets;
+    }
+
+    /** Malformed datagrams dropped so far, with the same visibility as {@link #getPacketCount()}. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void drain(SensorBatchListener listener) throws IOException {
+        batch.clear();
+        while (!closed) {
+            packet.clear();
+            if (channel.receive(packet) == null) {
+                break;
+            }
+            packet.flip();
+            if (!decode(listener)) {
+                dropped++;
+                continue;
+            }
+            packets++;
+            if (batch.size() >= MAX_BATCH) {
+                flush(listener);
+            }
+        }
+        flush(listener);
+    }
+
+    /** Appends the readings of the datagram in {@code packet}; false if it is malformed. */
+    private boolean decode(SensorBatchListener listener) {
+        ByteBuffer buf = packet;
+        if (buf.remaining() < HEADER_BYTES
+                || (buf.getShort() & 0xffff) != MAGIC
+                || (buf.get() & 0xff) != VERSION) {
+            return false;
+        }
+        int length = buf.get() & 0xff;
+        if (buf.remaining() < length + 2) {
+            return false;
+        }
+        int labelStart = buf.position();
+        buf.position(labelStart + length);
+        int count = buf.getShort() & 0xffff;
+        if (buf.remaining() != count * READING_BYTES) {
+            return false;
+        }
+        if (!sameLabel(labelStart, length)) {
+            flush(listener); // a batch carries one label
+            readLabel(labelStart, length);
+        }
+        if (batch.isEmpty()) {
+            batch.setLabel(label);
+        }
+        for (int i = 0; i < count; i++) {
+            int mote = buf.getInt();
+            long timestamp = buf.getLong();
+            batch.add(timestamp, buf.getFloat(), mote);
+        }
+        return true;
+    }
+
+    private boolean sameLabel(int start, int length) {
+        if (length != labelLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (packet.get(start + i) != labelBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readLabel(int start, int length) {
+        if (labelBytes.length < length) {
+            labelBytes = Arrays.copyOf(labelBytes, length);
+        }
+        for (int i = 0; i < length; i++) {
+            labelBytes[i] = packet.get(start + i);
+        }
+        labelLength = length;
+        label = new String(labelBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void flush(SensorBatchListener listener) {
+        if (!batch.isEmpty()) {
+            listener.onBatch(batch);
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.amio.schedule;
+
+import com.example.amio.data.MoteIndex;
+
+import java.util.Arrays;
+
+/**
+ * Chooses when each mote should be polled next.
+ *
+ * <p>Each mote keeps an exponentially weighted variance of the change between consecutive
+ * readings. A mote whose value does not move drifts towards {@link #MAX_INTERVAL_MILLIS};
+ * one that changes a lot is polled down to {@link #MIN_INTERVAL_MILLIS}. Inside the
+ * monitoring window no mote waits longer than the window interval, so a room lighting up
+ * is noticed within that delay. When the polls requested by all motes add up to more than
+ * the global budget, every interval is stretched by the same factor; the budget wins over
+ * the window interval.
+ *
+ * <p>The scheduler holds no clock: callers pass the current time, which keeps it
+ * deterministic for simulation. Not thread-safe.
+ */
+public final class AdaptivePollScheduler {
+
+    public static final long MIN_INTERVAL_MILLIS = 10_000;
+    public static final long MAX_INTERVAL_MILLIS = 15 * 60_000;
+
+    /** Weight of the newest change in the variance estimate. */
+    private static final double ALPHA = 0.3;
+
+    private final MonitoringWindow window;
+    private final long windowIntervalMillis;
+    private final double budgetPerMilli;
+    private final double changeScale;
+
+    private final MoteIndex index = new MoteIndex();
+    private long[] nextPollAt = new long[16];
+    private long[] lastPolledAt = new long[16];
+    private long[] intervals = new long[16];
+    private float[] lastValues = new float[16];
+    private double[] variances = new double[16];
+    private long[] lastReadAt = new long[16];
+
+    /** Sum of 1/interval over all motes, in polls per ms, outside / inside the window. */
+    private double requestedRate;
+    private double requestedWindowRate;
+    private boolean inWindow;
+
+    /**
+     * @param window               period during which intervals are capped
+     * @param windowIntervalMillis longest interval inside the window
+     * @param budgetPerHour        most polls per hour across all motes
+     * @param changeScale          typical change between readings, in sensor units; a
+     *                             mote changing by this much is polled twice as often as
+     *                             an idle one
+     */
+    public AdaptivePollScheduler(MonitoringWindow window, long windowIntervalMillis,
+                                 double budgetPerHour, double changeScale) {
+        if (windowIntervalMillis < MIN_INTERVAL_MILLIS) {
+            throw new IllegalArgumentException("windowIntervalMillis < MIN_INTERVAL_MILLIS");
+        }
+        this.window = window;
+        this.windowIntervalMillis = Math.min(windowIntervalMillis, MAX_INTERVAL_MILLIS);
+        this.budgetPerMilli = budgetPerHour / 3_600_000d;
+        this.changeScale = changeScale;
+    }
+
+    /** Registers {@code mote}; a new mote is due immediately. */
+    public void addMote(int mote, long now) {
+        int before = index.size();
+        int slot = index.add(mote);
+        if (slot < before) {
+            return;
+        }
+        if (slot == nextPollAt.length) {
+            int capacity = slot * 2;
+            nextPollAt = Arrays.copyOf(nextPollAt, capacity);
+            lastPolledAt = Arrays.copyOf(lastPolledAt, capacity);
+            intervals = Arrays.copyOf(intervals, capacity);
+            lastValues = Arrays.copyOf(lastValues, capacity);
+            variances = Arrays.copyOf(variances, capacity);
+            lastReadAt = Arrays.copyOf(lastReadAt, capacity);
+        }
+        nextPollAt[slot] = now;
+        lastPolledAt[slot] = now;
+        lastValues[slot] = Float.NaN;
+        lastReadAt[slot] = Long.MIN_VALUE;
+        intervals[slot] = MAX_INTERVAL_MILLIS;
+        requestedRate += 1d / MAX_INTERVAL_MILLIS;
+        requestedWindowRate += 1d / windowIntervalMillis;
+    }
+
+    public int moteCount() {
+        return index.size();
+    }
+
+    /**
+     * Collects the motes due at {@code now} into {@code out} and provisionally reschedules
+     * them one interval later, so a failed poll is simply retried then.
+     *
+     * @return the number of motes written to {@code out}
+     */
+    public int pollDue(long now, int[] out) {
+        boolean nowInWindow = window.contains(now);
+        if (nowInWindow && !inWindow) {
+            // entering the window: nobody may sleep through the start of it
+            for (int s = 0; s < index.size(); s++) {
+                nextPollAt[s] = Math.min(nextPollAt[s], lastPolledAt[s] + windowIntervalMillis);
+            }
+        }
+        inWindow = nowInWindow;
+
+        int n = 0;
+        for (int s = 0; s < index.size() && n < out.length; s++) {
+            if (nextPollAt[s] <= now) {
+                out[n++] = index.moteAt(s);
+                lastPolledAt[s] = now;
+                nextPollAt[s] = now + effectiveInterval(s);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Feeds the value read for {@code mote} by the poll made at {@code now} and reschedules it.
+     */
+    public void onReading(int mote, float value, long now) {
+        int s = index.slotOf(mote);
+        if (s < 0 || Float.isNaN(value)) {
+            return;
+        }
+        float last = lastValues[s];
+        lastValues[s] = value;
+        lastReadAt[s] = now;
+        if (!Float.isNaN(last)) {
+            double change = value - last;
+            variances[s] = (1 - ALPHA) * variances[s] + ALPHA * change * change;
+        }
+        reschedule(s, now);
+    }
+
+    /**
+     * Reports that the poll of {@code mote} made at {@code now} completed. If it brought no
+     * reading (e.g. a 304), the value is taken as unchanged.
+     */
+    public void onPolled(int mote, long now) {
+        int s = index.slotOf(mote);
+        if (s < 0 || lastReadAt[s] == now) {
+            return;
+        }
+        lastReadAt[s] = now;
+        variances[s] = (1 - ALPHA) * variances[s];
+        reschedule(s, now);
+    }
+
+    /** Earliest time any mote is due, or {@link Long#MAX_VALUE} if none is registered. */
+    public long nextPollTime() {
+        long next = Long.MAX_VALUE;
+        for (int s = 0; s < index.size(); s++) {
+            next = Math.min(next, nextPollAt[s]);
+        }
+        return next;
+    }
+
+    /** Current interval of {@code mote}, or -1 if unknown. */
+    public long intervalOf(int mote) {
+        int s = index.slotOf(mote);
+        return s < 0 ? -1 : effectiveInterval(s);
+    }
+
+    private void reschedule(int s, long now) {
+        long interval = baseInterval(variances[s]);
+        long previous = intervals[s];
+        requestedRate += 1d / interval - 1d / previous;
+        requestedWindowRate += 1d / Math.min(interval, windowIntervalMillis)
+                - 1d / Math.min(previous, windowIntervalMillis);
+        intervals[s] = interval;
+        lastPolledAt[s] = now;
+        nextPollAt[s] = now + effectiveInterval(s);
+    }
+
+    private long baseInterval(double variance) {
+        double interval = MAX_INTERVAL_MILLIS / (1 + Math.sqrt(variance) / changeScale);
+        return Math.max(MIN_INTERVAL_MILLIS, (long) interval);
+    }
+
+    private long effectiveInterval(int s) {
+        long interval = intervals[s];
+        if (inWindow) {
+            interval = Math.min(interval, windowIntervalMillis);
+        }
+        double stretch = (inWindow ? requestedWindowRate : requestedRate) / budgetPerMilli;
+        if (stretch > 1) {
+            interval = (long) (interval * stretch);
+        }
+        return Math.min(interval, MAX_INTERVAL_MILLIS);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.amio.schedule;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Same local time range every day, or on some days of the week, e.g. 19:00 to 07:00. A range
+ * whose end is before its start wraps past midnight and belongs to the day it starts on.
+ */
+public final class DailyWindow implements MonitoringWindow {
+
+    private final Set<DayOfWeek> days;
+    private final int startMinute;
+    private final int endMinute;
+    private final ZoneId zone;
+
+    /**
+     * @param startMinute first monitored minute of the day, 0..1439
+     * @param endMinute   first minute after the window, 0..1439, or 1440 for midnight
+     */
+    public DailyWindow(int startMinute, int endMinute, ZoneId zone) {
+        this(EnumSet.allOf(DayOfWeek.class), startMinute, endMinute, zone);
+    }
+
+    /** A window open only on {@code days}, e.g. Monday to Friday. */
+    public DailyWindow(Set<DayOfWeek> days, int startMinute, int endMinute, ZoneId zone) {
+        if (startMinute < 0 || startMinute >= 1440 || endMinute < 0 || endMinute > 1440) {
+            throw new IllegalArgumentException("Start must be in 0..1439, end in 0..1440");
+        }
+        this.days = days.isEmpty() ? EnumSet.noneOf(DayOfWeek.class) : EnumSet.copyOf(days);
+        this.startMinute = startMinute;
+        this.endMinute = endMinute;
+        this.zone = zone;
+    }
+
+    @Override
+    public boolean contains(long epochMillis) {
+        ZonedDateTime time = Instant.ofEpochMilli(epochMillis).atZone(zone);
+        int minute = time.getHour() * 60 + time.getMinute();
+        DayOfWeek day = time.getDayOfWeek();
+        if (startMinute <= endMinute) {
+            return minute >= startMinute && minute < endMinute && days.contains(day);
+        }
+        if (minute >= startMinute) {
+            return days.contains(day);
+        }
+        return minute < endMinute && days.contains(day.minus(1));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DailyWindow)) {
+            return false;
+        }
+        DailyWindow other = (DailyWindow) o;
+        return startMinute == other.startMinute && endMinute == other.endMinute
+                && days.equals(other.days) && zone.equals(other.zone);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((days.hashCode() * 31 + startMinute) * 31 + endMinute) * 31 + zone.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return days + String.format(Locale.ROOT, " %02d:%02d-%02d:%02d ", startMinute / 60,
+                startMinute % 60, endMinute / 60, endMinute % 60) + zone;
+    }
+}
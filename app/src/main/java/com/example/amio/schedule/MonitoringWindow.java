@@ -0,0 +1,11 @@
+package com.example.amio.schedule;
+
+/**
+ * Tells whether an instant falls inside a period during which lights are being monitored.
+ */
+public interface MonitoringWindow {
+
+    MonitoringWindow ALWAYS = epochMillis -> true;
+
+    boolean contains(long epochMillis);
+}
@@ -0,0 +1,205 @@
+package com.example.amio.schedule;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A weekly schedule compiled into one bit per local minute of the week, plus a table of
+ * holidays, so that {@link #contains} is a few arithmetic operations and two bit tests
+ * instead of calendar arithmetic: no allocation, O(1), and safe to share between threads.
+ *
+ * <p>Windows are added day by day and quiet hours removed the same way; a range whose end is
+ * before its start wraps past midnight, and a Sunday night range runs into Monday morning.
+ * On a holiday the minutes of that date follow the schedule of another day, Sunday unless
+ * {@link Builder#holidaysLike} says otherwise.
+ *
+ * <p>Local time comes from the zone offset, cached for the stretch between two transitions of
+ * the zone and looked up again only when a timestamp falls outside it. Around a DST change
+ * the schedule follows the wall clock: a skipped hour never happens and a repeated one is
+ * inside the window both times.
+ */
+public final class WeekCalendar implements MonitoringWindow {
+
+    private static final long MINUTE = 60_000L;
+    private static final long DAY = 1440 * MINUTE;
+    private static final int MINUTES_PER_WEEK = 7 * 1440;
+
+    private final long[] bits;
+    private final long firstHoliday;
+    private final long[] holidays;
+    private final int holidayDay;
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private volatile Offset offset;
+
+    private WeekCalendar(Builder builder) {
+        this.bits = builder.bits.clone();
+        this.zone = builder.zone;
+        this.rules = zone.getRules();
+        this.holidayDay = builder.holidaysLike.ordinal();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (long day : builder.holidays) {
+            first = Math.min(first, day);
+            last = Math.max(last, day);
+        }
+        this.firstHoliday = first;
+        this.holidays = new long[first > last ? 0 : (int) ((last - first) / 64) + 1];
+        for (long day : builder.holidays) {
+            long i = day - first;
+            holidays[(int) (i >>> 6)] |= 1L << i;
+        }
+        this.offset = offsetAt(0);
+    }
+
+    @Override
+    public boolean contains(long epochMillis) {
+        Offset o = offset;
+        if (epochMillis < o.from || epochMillis >= o.until) {
+            o = offsetAt(epochMillis);
+            offset = o;
+        }
+        long local = epochMillis + o.millis;
+        long day = Math.floorDiv(local, DAY);
+        int minute = (int) (Math.floorMod(local, DAY) / MINUTE);
+        // 1970-01-01 was a Thursday, day 3 of a week starting on Monday
+        int weekday = isHoliday(day) ? holidayDay : (int) Math.floorMod(day + 3, 7L);
+        return isSet(bits, weekday * 1440 + minute);
+    }
+
+    /** Whether {@code date} is one of the calendar's holidays. */
+    public boolean isHoliday(LocalDate date) {
+        return isHoliday(date.toEpochDay());
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WeekCalendar)) {
+            return false;
+        }
+        WeekCalendar other = (WeekCalendar) o;
+        return Arrays.equals(bits, other.bits) && firstHoliday == other.firstHoliday
+                && Arrays.equals(holidays, other.holidays) && holidayDay == other.holidayDay
+                && zone.equals(other.zone);
+    }
+
+    @Override
+    public int hashCode() {
+        return (Arrays.hashCode(bits) * 31 + Arrays.hashCode(holidays)) * 31 + zone.hashCode();
+    }
+
+    /** Collects windows, quiet hours and holidays; reusable after {@link #build}. */
+    public static final class Builder {
+
+        private final ZoneId zone;
+        private final long[] bits = new long[(MINUTES_PER_WEEK + 63) / 64];
+        private final Set<Long> holidays = new HashSet<>();
+        private DayOfWeek holidaysLike = DayOfWeek.SUNDAY;
+
+        public Builder(ZoneId zone) {
+            this.zone = zone;
+        }
+
+        /**
+         * Opens the window on {@code days} from {@code startMinute}, 0..1439, to
+         * {@code endMinute}, 0..1440, exclusive; equal minutes open the whole day.
+         */
+        public Builder add(Set<DayOfWeek> days, int startMinute, int endMinute) {
+            return set(days, startMinute, endMinute, true);
+        }
+
+        /** Closes the window on {@code days} over the range, e.g. for quiet hours. */
+        public Builder remove(Set<DayOfWeek> days, int startMinute, int endMinute) {
+            return set(days, startMinute, endMinute, false);
+        }
+
+        /** Adds every minute of another calendar's week, ignoring its holidays. */
+        public Builder add(WeekCalendar calendar) {
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] |= calendar.bits[i];
+            }
+            return this;
+        }
+
+        public Builder holidays(Collection<LocalDate> dates) {
+            for (LocalDate date : dates) {
+                holidays.add(date.toEpochDay());
+            }
+            return this;
+        }
+
+        /** Day whose schedule holidays follow; Sunday by default. */
+        public Builder holidaysLike(DayOfWeek day) {
+            holidaysLike = day;
+            return this;
+        }
+
+        public WeekCalendar build() {
+            return new WeekCalendar(this);
+        }
+
+        private Builder set(Set<DayOfWeek> days, int startMinute, int endMinute, boolean on) {
+            if (startMinute < 0 || startMinute >= 1440 || endMinute < 0 || endMinute > 1440) {
+                throw new IllegalArgumentException("Start must be in 0..1439, end in 0..1440");
+            }
+            int length = Math.floorMod(endMinute - startMinute - 1, 1440) + 1;
+            for (DayOfWeek day : days) {
+                int first = (day.getValue() - 1) * 1440 + startMinute;
+                for (int m = first; m < first + length; m++) {
+                    int minute = m % MINUTES_PER_WEEK;
+                    if (on) {
+                        bits[minute >>> 6] |= 1L << minute;
+                    } else {
+                        bits[minute >>> 6] &= ~(1L << minute);
+                    }
+                }
+            }
+            return this;
+        }
+    }
+
+    /** A zone offset and the stretch of time it holds for. */
+    private static final class Offset {
+
+        final long millis;
+        final long from;
+        final long until;
+
+        Offset(long millis, long from, long until) {
+            this.millis = millis;
+            this.from = from;
+            this.until = until;
+        }
+    }
+
+    private Offset offsetAt(long epochMillis) {
+        Instant instant = Instant.ofEpochMilli(epochMillis);
+        long millis = rules.getOffset(instant).getTotalSeconds() * 1000L;
+        ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        return new Offset(millis,
+                previous == null ? Long.MIN_VALUE : previous.getInstant().toEpochMilli(),
+                next == null ? Long.MAX_VALUE : next.getInstant().toEpochMilli());
+    }
+
+    private boolean isHoliday(long epochDay) {
+        long i = epochDay - firstHoliday;
+        return i >= 0 && i < (long) holidays.length * 64 && isSet(holidays, i);
+    }
+
+    private static boolean isSet(long[] bits, long i) {
+        return (bits[(int) (i >>> 6)] & (1L << i)) != 0;
+    }
+}
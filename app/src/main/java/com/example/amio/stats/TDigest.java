@@ -0,0 +1,228 @@
+package com.example.amio.stats;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch after Dunning's merging t-digest: values are kept as weighted
+ * centroids, small near both tails and larger in the middle under the {@code k1} scale
+ * function, so extreme quantiles such as p95 and p99 stay accurate while the digest holds
+ * at most about {@code compression} centroids whatever the number of values. Digests of
+ * disjoint parts of a stream {@link #add(TDigest) merge} into a digest of the whole.
+ *
+ * <p>New values go to a buffer that is sorted and folded into the centroids when full, so
+ * adding is amortised O(log compression). Arrays start small and grow to their bound with
+ * the first few hundred values, so many small digests stay cheap; after that nothing is
+ * allocated. Not thread-safe.
+ */
+public final class TDigest {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final double compression;
+    private final int maxCapacity;
+    private double[] means = new double[INITIAL_CAPACITY];
+    private double[] weights = new double[INITIAL_CAPACITY];
+    private int centroids;
+    private double[] bufferMeans = new double[INITIAL_CAPACITY];
+    private double[] bufferWeights = new double[INITIAL_CAPACITY];
+    private int buffered;
+    // scratch for merging the centroids with the buffer
+    private double[] sortMeans = new double[0];
+    private double[] sortWeights = new double[0];
+    private double total;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("compression must be >= 10");
+        }
+        this.compression = compression;
+        // k1 keeps about compression centroids; the slack covers singletons at the tails
+        this.maxCapacity = (int) (2 * compression) + 16;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, double weight) {
+        if (buffered == bufferMeans.length) {
+            if (buffered < maxCapacity) {
+                int capacity = Math.min(maxCapacity, buffered * 2);
+                bufferMeans = Arrays.copyOf(bufferMeans, capacity);
+                bufferWeights = Arrays.copyOf(bufferWeights, capacity);
+            } else {
+                merge();
+            }
+        }
+        bufferMeans[buffered] = value;
+        bufferWeights[buffered] = weight;
+        buffered++;
+        total += weight;
+        if (!(value >= min)) {
+            min = value;
+        }
+        if (!(value <= max)) {
+            max = value;
+        }
+    }
+
+    /** Adds every value {@code other} summarises; {@code other} is left unchanged. */
+    public void add(TDigest other) {
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        for (int i = 0; i < other.buffered; i++) {
+            add(other.bufferMeans[i], other.bufferWeights[i]);
+        }
+        // centroid means lie inside the range, so widen to the true extremes
+        if (other.total > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    /** Estimated value below which a fraction {@code q} of the weight lies; NaN if empty. */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("q must be in [0, 1]");
+        }
+        if (buffered > 0) {
+            merge();
+        }
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+        double index = q * total;
+        double half = weights[0] / 2;
+        if (index < half) {
+            return min + (means[0] - min) * (index / half);
+        }
+        // walk the centroid centres, interpolating between neighbours
+        double cumulative = half;
+        for (int i = 0; i < centroids - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if (cumulative + step > index) {
+                double t = (index - cumulative) / step;
+                return means[i] + t * (means[i + 1] - means[i]);
+            }
+            cumulative += step;
+        }
+        int last = centroids - 1;
+        double t = Math.min(1, (index - cumulative) / (weights[last] / 2));
+        return means[last] + t * (max - means[last]);
+    }
+
+    /** Total weight added. */
+    public double size() {
+        return total;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    public int centroidCount() {
+        if (buffered > 0) {
+            merge();
+        }
+        return centroids;
+    }
+
+    /** Forgets every value, keeping the arrays. */
+    public void reset() {
+        centroids = 0;
+        buffered = 0;
+        total = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+
+    private void merge() {
+        int n = centroids + buffered;
+        if (sortMeans.length < n) {
+            sortMeans = new double[n];
+            sortWeights = new double[n];
+        }
+        if (means.length < n) {
+            int capacity = Math.min(maxCapacity, n);
+            means = Arrays.copyOf(means, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        System.arraycopy(means, 0, sortMeans, 0, centroids);
+        System.arraycopy(weights, 0, sortWeights, 0, centroids);
+        System.arraycopy(bufferMeans, 0, sortMeans, centroids, buffered);
+        System.arraycopy(bufferWeights, 0, sortWeights, centroids, buffered);
+        sort(n);
+
+        int out = 0;
+        means[0] = sortMeans[0];
+        weights[0] = sortWeights[0];
+        double before = 0;
+        for (int i = 1; i < n; i++) {
+            double proposed = weights[out] + sortWeights[i];
+            if (k(before + proposed) - k(before) <= 1) {
+                weights[out] = proposed;
+                means[out] += (sortMeans[i] - means[out]) * sortWeights[i] / proposed;
+            } else {
+                before += weights[out];
+                out++;
+                means[out] = sortMeans[i];
+                weights[out] = sortWeights[i];
+            }
+        }
+        centroids = out + 1;
+        buffered = 0;
+    }
+
+    /** The k1 scale function of the weight up to {@code cumulative}. */
+    private double k(double cumulative) {
+        double q = Math.min(1, cumulative / total);
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    /** Heapsorts the first {@code n} scratch entries by mean, in place. */
+    private void sort(int n) {
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && sortMeans[child + 1] > sortMeans[child]) {
+                child++;
+            }
+            if (sortMeans[i] >= sortMeans[child]) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double mean = sortMeans[i];
+        sortMeans[i] = sortMeans[j];
+        sortMeans[j] = mean;
+        double weight = sortWeights[i];
+        sortWeights[i] = sortWeights[j];
+        sortWeights[j] = weight;
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.amio.stats;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+import com.example.amio.data.SensorDictionary;
+
+import java.util.Arrays;
+
+/**
+ * Rolling statistics of every mote of one label over several sliding windows at once, such
+ * as the last 5, 30 and 120 minutes, updated reading by reading instead of recomputed.
+ * A window of length {@code W} ends at the mote's newest reading {@code t} and holds the
+ * readings in {@code (t - W, t]}.
+ *
+ * <p>The windows of a mote share its storage: one ring of the last {@code readingsPerMote}
+ * readings, and one ring of quantile panes, each a {@link TDigest} of {@code paneMillis}
+ * of readings. On top of those, each window only keeps the position of its oldest reading,
+ * Welford moments that readings are added to on arrival and removed from on expiry, and
+ * two monotonic deques of positions whose fronts are its minimum and maximum. Each reading
+ * costs amortised O(windows) work. A quantile merges the panes the window overlaps, so it
+ * may include up to one pane of readings older than the window.
+ *
+ * <p>A reading pushed out of the ring before its window expires it is expired early, so
+ * {@code readingsPerMote} should cover the longest window. Motes are found by their dense id
+ * in a {@link SensorDictionary}, shared with the rest of ingestion or private to the stats.
+ * Readings of other labels, and readings not newer than a mote's newest, are ignored.
+ * Thread-safe.
+ */
+public final class WindowStats implements SensorBatchListener {
+
+    private final String label;
+    private final long[] windowMillis;
+    private final int readingsPerMote;
+    private final long paneMillis;
+    private final int paneCount;
+    private final double compression;
+
+    private final SensorDictionary motes;
+    // by dictionary id; null for motes not reported to these stats
+    private Series[] series = new Series[16];
+    // ids of the motes reported so far, in order of first report
+    private int[] reported = new int[16];
+    private int moteCount;
+    private final TDigest merged;
+
+    /**
+     * @param windowMillis the window lengths, queried by their index in this array
+     * @param compression  accuracy of the quantile panes, see {@link TDigest}
+     */
+    public WindowStats(String label, long[] windowMillis, int readingsPerMote, long paneMillis,
+                       double compression) {
+        this(label, windowMillis, readingsPerMote, paneMillis, compression,
+                new SensorDictionary(null));
+    }
+
+    /**
+     * @param motes the ingest dictionary whose dense mote ids index the series, so consumers
+     *              fed from one sink share a single id per mote
+     */
+    public WindowStats(String label, long[] windowMillis, int readingsPerMote, long paneMillis,
+                       double compression, SensorDictionary motes) {
+        if (windowMillis.length == 0 || readingsPerMote < 1 || paneMillis < 1) {
+            throw new IllegalArgumentException("Need windows, readings and panes");
+        }
+        this.label = label;
+        this.windowMillis = windowMillis.clone();
+        this.readingsPerMote = readingsPerMote;
+        this.paneMillis = paneMillis;
+        long longest = 0;
+        for (long window : windowMillis) {
+            longest = Math.max(longest, window);
+        }
+        this.paneCount = (int) (longest / paneMillis) + 2;
+        this.compression = compression;
+        this.motes = motes;
+        this.merged = new TDigest(compression);
+    }
+
+    @Override
+    public synchronized void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            seriesFor(batch.mote(i)).add(batch.timestamp(i), batch.value(i));
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int windowCount() {
+        return windowMillis.length;
+    }
+
+    /** Readings of {@code mote} in window {@code window}; 0 for a mote never seen. */
+    public synchronized int count(int mote, int window) {
+        Series s = series(mote);
+        return s == null ? 0 : s.counts[window];
+    }
+
+    /** Mean of the window, or NaN if it is empty. */
+    public synchronized double mean(int mote, int window) {
+        Series s = series(mote);
+        return s == null || s.counts[window] == 0 ? Double.NaN : s.means[window];
+    }
+
+    /** Sample variance of the window, or NaN with fewer than two readings. */
+    public synchronized double variance(int mote, int window) {
+        Series s = series(mote);
+        if (s == null || s.counts[window] < 2) {
+            return Double.NaN;
+        }
+        return Math.max(0, s.m2[window]) / (s.counts[window] - 1);
+    }
+
+    /** Smallest value in the window, or NaN if it is empty. */
+    public synchronized float min(int mote, int window) {
+        Series s = series(mote);
+        return s == null || s.counts[window] == 0 ? Float.NaN : s.front(s.minDeques, window);
+    }
+
+    /** Largest value in the window, or NaN if it is empty. */
+    public synchronized float max(int mote, int window) {
+        Series s = series(mote);
+        return s == null || s.counts[window] == 0 ? Float.NaN : s.front(s.maxDeques, window);
+    }
+
+    /** Estimated {@code q} quantile of the window, such as 0.95; NaN if it is empty. */
+    public synchronized double quantile(int mote, int window, double q) {
+        Series s = series(mote);
+        if (s == null || s.counts[window] == 0) {
+            return Double.NaN;
+        }
+        merged.reset();
+        long newest = s.newest;
+        long first = Math.floorDiv(newest - windowMillis[window] + 1, paneMillis);
+        long last = Math.floorDiv(newest, paneMillis);
+        for (long pane = first; pane <= last; pane++) {
+            int slot = (int) Math.floorMod(pane, (long) paneCount);
+            if (s.paneIndexes[slot] == pane) {
+                merged.add(s.panes[slot]);
+            }
+        }
+        return merged.quantile(q);
+    }
+
+    public synchronized int moteCount() {
+        return moteCount;
+    }
+
+    /** Mote in slot {@code 0..moteCount()-1}, in order of first report. */
+    public synchronized int moteAt(int slot) {
+        return motes.moteAt(reported[slot]);
+    }
+
+    /** One mote's readings and the state of each of its windows. */
+    private final class Series {
+
+        // shared by every window: readings by sequence number, modulo readingsPerMote
+        private final long[] timestamps = new long[readingsPerMote];
+        private final float[] values = new float[readingsPerMote];
+        private long written;
+        private long newest = Long.MIN_VALUE;
+
+        // per window
+        private final long[] heads = new long[windowMillis.length];
+        private final int[] counts = new int[windowMillis.length];
+        private final double[] means = new double[windowMillis.length];
+        private final double[] m2 = new double[windowMillis.length];
+        private final Deques minDeques = new Deques();
+        private final Deques maxDeques = new Deques();
+
+        // shared quantile panes
+        private final TDigest[] panes = new TDigest[paneCount];
+        private final long[] paneIndexes = new long[paneCount];
+
+        Series() {
+            Arrays.fill(paneIndexes, Long.MIN_VALUE);
+        }
+
+        void add(long timestamp, float value) {
+            if (timestamp <= newest) {
+                return;
+            }
+            long seq = written;
+            for (int w = 0; w < windowMillis.length; w++) {
+                // the ring slot is about to be reused: expire its reading first
+                while (counts[w] > 0 && heads[w] <= seq - readingsPerMote) {
+                    expire(w);
+                }
+            }
+            int slot = (int) (seq % readingsPerMote);
+            timestamps[slot] = timestamp;
+            values[slot] = value;
+            written = seq + 1;
+            newest = timestamp;
+
+            for (int w = 0; w < windowMillis.length; w++) {
+                if (counts[w] == 0) {
+                    heads[w] = seq;
+                }
+                counts[w]++;
+                double delta = value - means[w];
+                means[w] += delta / counts[w];
+                m2[w] += delta * (value - means[w]);
+                minDeques.push(w, seq, value, true);
+                maxDeques.push(w, seq, value, false);
+                long cutoff = timestamp - windowMillis[w];
+                while (timestamps[(int) (heads[w] % readingsPerMote)] <= cutoff) {
+                    expire(w);
+                }
+            }
+
+            long pane = Math.floorDiv(timestamp, paneMillis);
+            int p = (int) Math.floorMod(pane, (long) paneCount);
+            if (panes[p] == null) {
+                panes[p] = new TDigest(compression);
+            }
+            if (paneIndexes[p] != pane) {
+                panes[p].reset();
+                paneIndexes[p] = pane;
+            }
+            panes[p].add(value);
+        }
+
+        /** Removes the oldest reading of window {@code w} (inverse Welford update). */
+        private void expire(int w) {
+            long seq = heads[w];
+            float value = values[(int) (seq % readingsPerMote)];
+            counts[w]--;
+            if (counts[w] == 0) {
+                means[w] = 0;
+                m2[w] = 0;
+            } else {
+                double delta = value - means[w];
+                means[w] -= delta / counts[w];
+                m2[w] -= delta * (value - means[w]);
+            }
+            minDeques.expire(w, seq);
+            maxDeques.expire(w, seq);
+            heads[w] = seq + 1;
+        }
+
+        float front(Deques deques, int w) {
+            return values[(int) (deques.front(w) % readingsPerMote)];
+        }
+
+        /**
+         * One monotonic deque of sequence numbers per window, as a ring: values along it
+         * only increase (for minimums) or only decrease (for maximums), so the front is the
+         * window's extreme and each reading is pushed and popped at most once.
+         */
+        private final class Deques {
+
+            private final long[][] seqs = new long[windowMillis.length][readingsPerMote];
+            private final int[] heads = new int[windowMillis.length];
+            private final int[] sizes = new int[windowMillis.length];
+
+            void push(int w, long seq, float value, boolean forMin) {
+                long[] ring = seqs[w];
+                while (sizes[w] > 0) {
+                    int back = (heads[w] + sizes[w] - 1) % readingsPerMote;
+                    float backValue = values[(int) (ring[back] % readingsPerMote)];
+                    if (forMin ? backValue < value : backValue > value) {
+                        break;
+                    }
+                    sizes[w]--;
+                }
+                ring[(heads[w] + sizes[w]) % readingsPerMote] = seq;
+                sizes[w]++;
+            }
+
+            void expire(int w, long seq) {
+                if (sizes[w] > 0 && seqs[w][heads[w]] == seq) {
+                    heads[w] = (heads[w] + 1) % readingsPerMote;
+                    sizes[w]--;
+                }
+            }
+
+            long front(int w) {
+                return seqs[w][heads[w]];
+            }
+        }
+    }
+
+    private Series series(int mote) {
+        int id = motes.moteIdOf(mote);
+        return id < 0 || id >= series.length ? null : series[id];
+    }
+
+    private Series seriesFor(int mote) {
+        int id = motes.moteId(mote);
+        if (id >= series.length) {
+            series = Arrays.copyOf(series, Math.max(id + 1, series.length * 2));
+        }
+        if (series[id] == null) {
+            series[id] = new Series();
+            if (moteCount == reported.length) {
+                reported = Arrays.copyOf(reported, moteCount * 2);
+            }
+            reported[moteCount++] = id;
+        }
+        return series[id];
+    }
+}
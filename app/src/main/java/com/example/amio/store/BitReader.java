@@ -0,0 +1,63 @@
+package com.example.amio.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Big-endian bit reader over a region of a {@link ByteBuffer}, read with absolute gets so the
+ * buffer's own position is left alone. Works the same over heap and mapped buffers.
+ */
+final class BitReader {
+
+    private ByteBuffer buf;
+    private int position; // next byte to load
+    private int end;
+    private long accumulator;
+    private int available; // bits left in the accumulator, from the top
+
+    void reset(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.position = offset;
+        this.end = offset + length;
+        this.accumulator = 0;
+        this.available = 0;
+    }
+
+    /** Reads {@code n} bits, 0 <= n <= 64; past the end of the region zeros are read. */
+    long read(int n) {
+        if (n == 0) {
+            return 0;
+        }
+        if (n <= available) {
+            long value = accumulator >>> (64 - n);
+            accumulator = n == 64 ? 0 : accumulator << n;
+            available -= n;
+            return value;
+        }
+        long high = available == 0 ? 0 : accumulator >>> (64 - available);
+        int missing = n - available;
+        refill();
+        long low = accumulator >>> (64 - missing);
+        accumulator = missing == 64 ? 0 : accumulator << missing;
+        available -= missing;
+        return missing == 64 ? low : (high << missing) | low;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+
+    /** Loads up to 8 fresh bytes into an empty accumulator. */
+    private void refill() {
+        long word = 0;
+        int loaded = 0;
+        while (loaded < 8) {
+            word <<= 8;
+            if (position < end) {
+                word |= buf.get(position++) & 0xff;
+            }
+            loaded++;
+        }
+        accumulator = word;
+        available = 64;
+    }
+}
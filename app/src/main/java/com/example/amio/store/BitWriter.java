@@ -0,0 +1,76 @@
+package com.example.amio.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable big-endian bit buffer. Bits are packed into a 64-bit accumulator and spilled to
+ * the byte array a whole word at a time.
+ */
+final class BitWriter {
+
+    private byte[] bytes = new byte[256];
+    private int byteCount;
+    private long accumulator;
+    private int accumulated; // bits held in the accumulator, 0..63
+
+    void reset() {
+        byteCount = 0;
+        accumulator = 0;
+        accumulated = 0;
+    }
+
+    /** Writes the low {@code n} bits of {@code value}, most significant first; 0 <= n <= 64. */
+    void write(long value, int n) {
+        if (n == 0) {
+            return;
+        }
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int free = 64 - accumulated;
+        if (n < free) {
+            accumulator = (accumulator << n) | value;
+            accumulated += n;
+            return;
+        }
+        // fill the accumulator, spill it, keep the rest
+        int rest = n - free;
+        long word = free == 64 ? value >>> rest : (accumulator << free) | (value >>> rest);
+        spill(word);
+        accumulator = rest == 0 ? 0 : value & ((1L << rest) - 1);
+        accumulated = rest;
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /** Bits written so far. */
+    long bitLength() {
+        return byteCount * 8L + accumulated;
+    }
+
+    /** Bytes needed for the bits written so far, the last one zero-padded. */
+    int byteLength() {
+        return byteCount + (accumulated + 7) / 8;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, byteCount);
+        long tail = accumulator;
+        for (int shift = accumulated - 8; shift > -8; shift -= 8) {
+            out.write((int) (shift >= 0 ? tail >>> shift : tail << -shift));
+        }
+    }
+
+    private void spill(long word) {
+        if (byteCount + 8 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[byteCount++] = (byte) (word >>> shift);
+        }
+    }
+}
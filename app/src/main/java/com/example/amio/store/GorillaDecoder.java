@@ -0,0 +1,109 @@
+package com.example.amio.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming decoder for one chunk written by {@link GorillaEncoder}: readings come out one at
+ * a time through {@link #next()}, with no allocation. Reusable across chunks.
+ */
+public final class GorillaDecoder {
+
+    private final BitReader bits = new BitReader();
+    private int count;
+    private int read;
+    private long timestamp;
+    private long delta;
+    private int valueBits;
+    private int leading;
+    private int trailing;
+
+    /**
+     * Starts decoding the chunk whose header begins at {@code offset} in {@code buf}.
+     *
+     * @return the offset just past the chunk
+     */
+    public int reset(ByteBuffer buf, int offset) {
+        count = buf.getInt(offset + 16);
+        int bodyLength = buf.getInt(offset + 20);
+        bits.reset(buf, offset + GorillaEncoder.HEADER_BYTES, bodyLength);
+        read = 0;
+        delta = 0;
+        return offset + GorillaEncoder.HEADER_BYTES + bodyLength;
+    }
+
+    /** Advances to the next reading; false once the chunk is exhausted. */
+    public boolean next() {
+        if (read == count) {
+            return false;
+        }
+        if (read == 0) {
+            timestamp = bits.read(64);
+            valueBits = (int) bits.read(32);
+        } else {
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+            valueBits ^= readXor();
+        }
+        read++;
+        return true;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public float value() {
+        return Float.intBitsToFloat(valueBits);
+    }
+
+    /** Readings in the chunk, decoded or not. */
+    public int count() {
+        return count;
+    }
+
+    static long firstTimestamp(ByteBuffer buf, int offset) {
+        return buf.getLong(offset);
+    }
+
+    static long lastTimestamp(ByteBuffer buf, int offset) {
+        return buf.getLong(offset + 8);
+    }
+
+    static int chunkLength(ByteBuffer buf, int offset) {
+        return GorillaEncoder.HEADER_BYTES + buf.getInt(offset + 20);
+    }
+
+    private long readDeltaOfDelta() {
+        if (!bits.readBit()) {
+            return 0;
+        }
+        if (!bits.readBit()) {
+            return signed(bits.read(7), 7);
+        }
+        if (!bits.readBit()) {
+            return signed(bits.read(9), 9);
+        }
+        if (!bits.readBit()) {
+            return signed(bits.read(12), 12);
+        }
+        if (!bits.readBit()) {
+            return signed(bits.read(32), 32);
+        }
+        return bits.read(64);
+    }
+
+    private int readXor() {
+        if (!bits.readBit()) {
+            return 0;
+        }
+        if (bits.readBit()) {
+            leading = (int) bits.read(5);
+            trailing = 32 - leading - ((int) bits.read(5) + 1);
+        }
+        return (int) bits.read(32 - leading - trailing) << trailing;
+    }
+
+    private static long signed(long value, int width) {
+        return (value << (64 - width)) >> (64 - width);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.amio.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a sequence of chunks written by {@link GorillaSeriesWriter} from a region of a
+ * {@link ByteBuffer}, heap or mapped. {@link #seek(long)} skips whole chunks by their header
+ * timestamps and decodes only the chunk containing the target time.
+ */
+public final class GorillaSeriesReader {
+
+    private final GorillaDecoder decoder = new GorillaDecoder();
+    private ByteBuffer buf;
+    private int start;
+    private int end;
+    private int nextChunk;
+    private boolean inChunk;
+    private boolean pending;
+
+    public GorillaSeriesReader(ByteBuffer buf, int offset, int length) {
+        reset(buf, offset, length);
+    }
+
+    public void reset(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.start = offset;
+        this.end = offset + length;
+        rewind();
+    }
+
+    /** Goes back to before the first reading. */
+    public void rewind() {
+        nextChunk = start;
+        inChunk = false;
+        pending = false;
+    }
+
+    /** Positions the reader so that {@link #next()} returns the first reading at or after {@code timestamp}. */
+    public void seek(long timestamp) {
+        rewind();
+        while (nextChunk < end && GorillaDecoder.lastTimestamp(buf, nextChunk) < timestamp) {
+            nextChunk += GorillaDecoder.chunkLength(buf, nextChunk);
+        }
+        while (advance()) {
+            if (decoder.timestamp() >= timestamp) {
+                pending = true;
+                return;
+            }
+        }
+    }
+
+    public boolean next() {
+        if (pending) {
+            pending = false;
+            return true;
+        }
+        return advance();
+    }
+
+    public long timestamp() {
+        return decoder.timestamp();
+    }
+
+    public float value() {
+        return decoder.value();
+    }
+
+    private boolean advance() {
+        while (true) {
+            if (inChunk && decoder.next()) {
+                return true;
+            }
+            if (nextChunk >= end) {
+                inChunk = false;
+                return false;
+            }
+            nextChunk = decoder.reset(buf, nextChunk);
+            inChunk = true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.amio.store;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes one mote's readings as a sequence of {@link GorillaEncoder} chunks, each covering
+ * one {@code chunkMillis}-aligned period. A chunk is written once a reading falls into the
+ * next period, or on {@link #flush()}.
+ *
+ * <p>No store writes this format yet: {@link SegmentHistoryStore} keeps its segments as
+ * fixed-width records, which its appends and binary-searched scans of a mapped file rely on.
+ * The codec ships as a library, for exports and a later sealed-segment format.
+ */
+public final class GorillaSeriesWriter implements Flushable, Closeable {
+
+    public static final long DEFAULT_CHUNK_MILLIS = 24 * 60 * 60_000L;
+
+    private final OutputStream out;
+    private final long chunkMillis;
+    private final GorillaEncoder encoder = new GorillaEncoder();
+    private long period;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    public GorillaSeriesWriter(OutputStream out) {
+        this(out, DEFAULT_CHUNK_MILLIS);
+    }
+
+    public GorillaSeriesWriter(OutputStream out, long chunkMillis) {
+        this.out = out;
+        this.chunkMillis = chunkMillis;
+    }
+
+    /**
+     * Appends a reading; timestamps must be strictly increasing, across chunks too, or
+     * {@link GorillaSeriesReader#seek(long)} would skip readings.
+     */
+    public void append(long timestamp, float value) throws IOException {
+        if (timestamp <= lastTimestamp) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " not after "
+                    + lastTimestamp);
+        }
+        if (!encoder.isEmpty() && Math.floorDiv(timestamp, chunkMillis) != period) {
+            writeChunk();
+        }
+        if (encoder.isEmpty()) {
+            period = Math.floorDiv(timestamp, chunkMillis);
+        }
+        encoder.add(timestamp, value);
+        lastTimestamp = timestamp;
+    }
+
+    /** Writes the open chunk, if any; later readings start a new one. */
+    @Override
+    public void flush() throws IOException {
+        if (!encoder.isEmpty()) {
+            writeChunk();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void writeChunk() throws IOException {
+        encoder.writeTo(out);
+        encoder.reset();
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact, compressed export of a {@link HistoryStore} for backup and device transfer: the
+ * hourly rollups of every mote of one label, plus small named configuration blobs, and no
+ * raw readings. Readings the store still holds raw are folded into hours on the way out, so
+ * a restored store has the same hourly history as the original, only coarser.
+ *
+ * <p>The stream is deflated and laid out column by column within each mote (hour deltas,
+ * then minimums, maximums and so on), which keeps similar values together for the
+ * compressor. Both directions stream one mote at a time, so memory does not grow with the
+ * number of motes.
+ */
+public final class HistorySnapshot {
+
+    private static final int MAGIC = 0x414d534e; // "AMSN"
+    private static final int VERSION = 1;
+
+    private HistorySnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of {@code label} in {@code store} and {@code config} to {@code out},
+     * which is finished but not closed. Reads each mote's raw readings in one scan.
+     */
+    public static void write(HistoryStore store, String label, Map<String, byte[]> config,
+                             OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 8192);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflated));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(config.size());
+            for (Map.Entry<String, byte[]> entry : config.entrySet()) {
+                data.writeUTF(entry.getKey());
+                data.writeInt(entry.getValue().length);
+                data.write(entry.getValue());
+            }
+
+            data.writeUTF(label);
+            int[] motes = store.motes(label);
+            data.writeInt(motes.length);
+            RollupSlice rollups = new RollupSlice();
+            SensorBatch raw = new SensorBatch();
+            for (int mote : motes) {
+                store.scanRollups(label, mote, 0, Long.MAX_VALUE, rollups);
+                store.scan(label, mote, 0, Long.MAX_VALUE, raw);
+                HourFolder hours = new HourFolder((start, low, high, total, count, last, ts) -> {
+                    if (!rollups.isEmpty() && rollups.start(rollups.size() - 1) == start) {
+                        rollups.mergeLast(low, high, total, count, last);
+                    } else {
+                        rollups.add(start, low, high, total, count, last);
+                    }
+                });
+                for (int i = 0; i < raw.size(); i++) {
+                    hours.visit(raw.timestamp(i), raw.value(i));
+                }
+                hours.finish();
+                data.writeInt(mote);
+                writeColumns(rollups, data);
+            }
+            data.flush();
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads a snapshot from {@code in}, appending its rollups to {@code store} one mote at a
+     * time, and returns its configuration blobs.
+     *
+     * @throws IOException if the stream is not a snapshot, is truncated or cannot be stored
+     */
+    public static Map<String, byte[]> read(InputStream in, HistoryStore store) throws IOException {
+        DataInputStream data = new DataInputStream(
+                new BufferedInputStream(new InflaterInputStream(in)));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a history snapshot");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        Map<String, byte[]> config = new LinkedHashMap<>();
+        int entries = data.readInt();
+        for (int i = 0; i < entries; i++) {
+            String name = data.readUTF();
+            byte[] value = new byte[data.readInt()];
+            data.readFully(value);
+            config.put(name, value);
+        }
+
+        String label = data.readUTF();
+        int motes = data.readInt();
+        RollupSlice rollups = new RollupSlice();
+        for (int m = 0; m < motes; m++) {
+            int mote = data.readInt();
+            readColumns(data, rollups);
+            store.appendRollups(label, mote, rollups);
+        }
+        return config;
+    }
+
+    private static void writeColumns(RollupSlice rollups, DataOutputStream out)
+            throws IOException {
+        int n = rollups.size();
+        out.writeInt(n);
+        long hour = Resolution.HOUR.millis();
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            // mostly 1: consecutive hours
+            out.writeInt((int) (rollups.start(i) / hour - previous));
+            previous = rollups.start(i) / hour;
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeFloat(rollups.min(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeFloat(rollups.max(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeFloat(rollups.last(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeDouble(rollups.sum(i));
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeInt(rollups.count(i));
+        }
+    }
+
+    private static void readColumns(DataInputStream in, RollupSlice out) throws IOException {
+        int n = in.readInt();
+        long hour = Resolution.HOUR.millis();
+        long[] starts = new long[n];
+        float[] mins = new float[n];
+        float[] maxes = new float[n];
+        float[] lasts = new float[n];
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += in.readInt();
+            starts[i] = previous * hour;
+        }
+        for (int i = 0; i < n; i++) {
+            mins[i] = in.readFloat();
+        }
+        for (int i = 0; i < n; i++) {
+            maxes[i] = in.readFloat();
+        }
+        for (int i = 0; i < n; i++) {
+            lasts[i] = in.readFloat();
+        }
+        double[] sums = new double[n];
+        for (int i = 0; i < n; i++) {
+            sums[i] = in.readDouble();
+        }
+        out.reset(Resolution.HOUR);
+        for (int i = 0; i < n; i++) {
+            out.add(starts[i], mins[i], maxes[i], sums[i], in.readInt(), lasts[i]);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Durable history of readings, keyed by {@code (mote, label, timestamp)}.
+ *
+ * <p>Implementations do disk I/O on the calling thread: call them from ingestion or
+ * background threads, never from the main thread.
+ */
+public interface HistoryStore extends Closeable {
+
+    /**
+     * Stores the readings of {@code batch}. Readings already stored are ignored, so a batch
+     * replayed after a crash is stored once; append-only implementations also ignore a
+     * reading older than the newest one held for its mote.
+     */
+    void append(SensorBatch batch) throws IOException;
+
+    /**
+     * Replaces the contents of {@code out} with the readings of {@code mote} under
+     * {@code label} with {@code from <= timestamp < to}, oldest first.
+     *
+     * @return the number of readings found
+     */
+    int scan(String label, int mote, long from, long to, SensorBatch out) throws IOException;
+
+    /**
+     * Replaces the contents of {@code out} with the hourly rollups of {@code mote} under
+     * {@code label} starting in {@code [from, to)}, oldest first. Rollups hold the readings
+     * {@link #compact} has removed.
+     *
+     * @return the number of rollups found
+     */
+    int scanRollups(String label, int mote, long from, long to, RollupSlice out) throws IOException;
+
+    /** The motes with readings or rollups under {@code label}, in ascending order. */
+    int[] motes(String label) throws IOException;
+
+    /**
+     * Stores the hourly {@code rollups} of {@code mote} under {@code label}, as when restoring
+     * a snapshot into an empty store. They are kept as if {@link #compact} had made them.
+     */
+    void appendRollups(String label, int mote, RollupSlice rollups) throws IOException;
+
+    /**
+     * Does one bounded step of retention work: folds readings older than {@code rawCutoff}
+     * into hourly rollups and removes them, drops rollups older than {@code rollupCutoff}, and
+     * gives freed space back to the file system. A step touches about {@code maxRows} rows,
+     * so callers can interleave steps with pauses to cap the I/O rate.
+     *
+     * @return approximate bytes read and written by the step; 0 once nothing is left to do
+     */
+    long compact(long rawCutoff, long rollupCutoff, int maxRows) throws IOException;
+}
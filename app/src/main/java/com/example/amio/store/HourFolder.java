@@ -0,0 +1,61 @@
+package com.example.amio.store;
+
+import java.io.IOException;
+
+/**
+ * Folds one mote's readings, oldest first, into hourly rollups, handing each hour to a
+ * {@link Sink} once a reading from a later hour arrives or {@link #finish()} is called.
+ */
+final class HourFolder implements Segment.ReadingVisitor {
+
+    interface Sink {
+        void rollup(long start, float low, float high, double total, int count, float last,
+                    long lastTimestamp) throws IOException;
+    }
+
+    private final Sink sink;
+    private long hour = Long.MIN_VALUE;
+    private float low;
+    private float high;
+    private double total;
+    private int count;
+    private float last;
+    private long lastTimestamp;
+    private int folded;
+
+    HourFolder(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void visit(long timestamp, float value) throws IOException {
+        long start = Resolution.HOUR.bucketStart(timestamp);
+        if (start != hour || count == 0) {
+            finish();
+            hour = start;
+            low = value;
+            high = value;
+            total = 0;
+        }
+        low = Math.min(low, value);
+        high = Math.max(high, value);
+        total += value;
+        count++;
+        last = value;
+        lastTimestamp = timestamp;
+        folded++;
+    }
+
+    /** Hands over the hour in progress, if any. */
+    void finish() throws IOException {
+        if (count > 0) {
+            sink.rollup(hour, low, high, total, count, last, lastTimestamp);
+            count = 0;
+        }
+    }
+
+    /** Readings visited so far. */
+    int folded() {
+        return folded;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.amio.store;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting background I/O to a number of bytes per second. Work is charged
+ * after it is done, since its cost is only known then: a charge that overdraws the bucket
+ * blocks until the debt has been paid back at the configured rate. Up to one second of
+ * unused budget accumulates as burst.
+ *
+ * <p>Thread-safe; concurrent callers share the budget.
+ */
+public final class IoBudget {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long bytesPerSecond;
+    private final LongSupplier nanoClock;
+
+    // guarded by this
+    private double available;
+    private long refilledAt;
+    private long charged;
+    private long throttledNanos;
+
+    public IoBudget(long bytesPerSecond) {
+        this(bytesPerSecond, System::nanoTime);
+    }
+
+    IoBudget(long bytesPerSecond, LongSupplier nanoClock) {
+        if (bytesPerSecond < 1) {
+            throw new IllegalArgumentException("bytesPerSecond must be >= 1");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanoClock = nanoClock;
+        this.available = bytesPerSecond;
+        this.refilledAt = nanoClock.getAsLong();
+    }
+
+    /** Charges {@code bytes} of completed I/O, sleeping while the budget is overdrawn. */
+    public void charge(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            available -= bytes;
+            charged += bytes;
+            waitNanos = available < 0 ? (long) (-available * NANOS_PER_SECOND / bytesPerSecond) : 0;
+            throttledNanos += waitNanos;
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** Total bytes charged. */
+    public synchronized long getChargedBytes() {
+        return charged;
+    }
+
+    /** Total time callers were made to sleep. */
+    public synchronized long getThrottledNanos() {
+        return throttledNanos;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        available = Math.min(bytesPerSecond,
+                available + (now - refilledAt) * (double) bytesPerSecond / NANOS_PER_SECOND);
+        refilledAt = now;
+    }
+}
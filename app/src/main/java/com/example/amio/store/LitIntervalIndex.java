@@ -0,0 +1,280 @@
+package com.example.amio.store;
+
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Intervals during which each mote of one label saw its room lit, derived from readings as
+ * they arrive, so "which rooms were lit between t1 and t2" never rescans raw history.
+ *
+ * <p>A mote is lit from its first reading at or above {@code litLux} until its first reading
+ * below it. A silence longer than {@code maxGapMillis} ends the interval just after the last
+ * lit reading, since nothing is known about the gap. A mote's intervals are disjoint and
+ * ordered, so each is kept as two sorted arrays and a window query is a binary search per
+ * mote: {@link #litMotes} is O(motes x log intervals), independent of how many readings
+ * the window covers.
+ *
+ * <p>Closed intervals are appended to {@code file}, if given, as {@code [int mote][long
+ * start][long end]} records and read back on first use; an interval still open when the
+ * process dies is lost. Readings not newer than a mote's last one are ignored. Does file I/O
+ * on the calling thread, so call it from background threads; I/O failures surface as
+ * {@link UncheckedIOException}. Thread-safe.
+ */
+public final class LitIntervalIndex implements SensorBatchListener, Closeable {
+
+    public static final long DEFAULT_MAX_GAP_MILLIS = 15 * 60_000L;
+
+    private static final int RECORD_BYTES = 4 + 8 + 8;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final String label;
+    private final float litLux;
+    private final long maxGapMillis;
+    private final File file;
+
+    private final MoteIndex motes = new MoteIndex();
+    private Intervals[] intervals = new Intervals[16];
+    private boolean loaded;
+    private DataOutputStream log;
+
+    public LitIntervalIndex(String label, float litLux, long maxGapMillis, File file) {
+        this.label = label;
+        this.litLux = litLux;
+        this.maxGapMillis = maxGapMillis;
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        load();
+        for (int i = 0; i < batch.size(); i++) {
+            intervalsFor(batch.mote(i)).add(batch.timestamp(i), batch.value(i));
+        }
+        flushLog();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Writes into {@code out} the motes lit at any moment in {@code [from, to)}, in order of
+     * first report. {@code out} must have room for {@link #moteCount()} motes.
+     *
+     * @return the number of motes written
+     */
+    public synchronized int litMotes(long from, long to, int[] out) {
+        load();
+        int n = 0;
+        for (int slot = 0; slot < motes.size(); slot++) {
+            if (intervals[slot].overlaps(from, to)) {
+                out[n++] = motes.moteAt(slot);
+            }
+        }
+        return n;
+    }
+
+    /** Milliseconds of {@code [from, to)} during which {@code mote} was lit. */
+    public synchronized long litMillis(int mote, long from, long to) {
+        load();
+        int slot = motes.slotOf(mote);
+        return slot < 0 ? 0 : intervals[slot].litMillis(from, to);
+    }
+
+    /** Closed intervals held for {@code mote}. */
+    public synchronized int intervalCount(int mote) {
+        load();
+        int slot = motes.slotOf(mote);
+        return slot < 0 ? 0 : intervals[slot].size;
+    }
+
+    public synchronized int moteCount() {
+        load();
+        return motes.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /** One mote's closed intervals {@code [start, end)} and the one it may have open. */
+    private final class Intervals {
+
+        private final int mote;
+        private long[] starts = new long[8];
+        private long[] ends = new long[8];
+        private int size;
+        private long openStart = NONE;
+        private long lastLit = NONE;
+        private long lastTimestamp = NONE;
+
+        Intervals(int mote) {
+            this.mote = mote;
+        }
+
+        void add(long timestamp, float value) {
+            if (timestamp <= lastTimestamp) {
+                return;
+            }
+            if (openStart != NONE && timestamp - lastLit > maxGapMillis) {
+                close(lastLit + 1);
+            }
+            if (value >= litLux) {
+                if (openStart == NONE) {
+                    openStart = timestamp;
+                }
+                lastLit = timestamp;
+            } else if (openStart != NONE) {
+                close(timestamp);
+            }
+            lastTimestamp = timestamp;
+        }
+
+        /** Appends an interval after every one held. */
+        void append(long start, long end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+            lastTimestamp = Math.max(lastTimestamp, end - 1);
+        }
+
+        boolean overlaps(long from, long to) {
+            if (openStart != NONE && openStart < to && lastLit >= from) {
+                return true;
+            }
+            int i = firstEndingAfter(from);
+            return i < size && starts[i] < to;
+        }
+
+        long litMillis(long from, long to) {
+            long total = 0;
+            for (int i = firstEndingAfter(from); i < size && starts[i] < to; i++) {
+                total += Math.min(ends[i], to) - Math.max(starts[i], from);
+            }
+            if (openStart != NONE && openStart < to && lastLit >= from) {
+                total += Math.min(lastLit + 1, to) - Math.max(openStart, from);
+            }
+            return total;
+        }
+
+        private void close(long end) {
+            append(openStart, end);
+            writeLog(mote, openStart, end);
+            openStart = NONE;
+        }
+
+        /** Index of the first interval ending after {@code from}; ends are sorted. */
+        private int firstEndingAfter(long from) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid] <= from) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private Intervals intervalsFor(int mote) {
+        int slot = motes.slotOf(mote);
+        if (slot < 0) {
+            slot = motes.add(mote);
+            if (slot == intervals.length) {
+                intervals = Arrays.copyOf(intervals, slot * 2);
+            }
+            intervals[slot] = new Intervals(mote);
+        }
+        return intervals[slot];
+    }
+
+    /** Reads back the persisted intervals; a torn last record is ignored. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file == null || !file.exists()) {
+            return;
+        }
+        long intact = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int mote = in.readInt();
+                long start = in.readLong();
+                long end = in.readLong();
+                intervalsFor(mote).append(start, end);
+                intact += RECORD_BYTES;
+            }
+        } catch (EOFException e) {
+            // end of log
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+        if (intact != file.length()) {
+            // drop the torn record so the next append starts on a record boundary
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(intact);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot repair " + file, e);
+            }
+        }
+    }
+
+    private void writeLog(int mote, long start, long end) {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (log == null) {
+                log = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            log.writeInt(mote);
+            log.writeLong(start);
+            log.writeLong(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + file, e);
+        }
+    }
+
+    private void flushLog() {
+        if (log != null) {
+            try {
+                log.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.amio.store;
+
+/**
+ * Fixed-capacity history of one mote in two parallel primitive arrays: 12 bytes per reading
+ * and no object per reading. Appends are O(1) and overwrite the oldest reading once full;
+ * range queries binary-search the timestamps, which are kept strictly increasing.
+ *
+ * <p>One writer thread, any number of readers. A {@link Snapshot} reads straight from the
+ * arrays without copying; readings appended after it was taken are not part of it, and
+ * {@link Snapshot#isValid()} tells whether the writer has since overwritten any of its slots.
+ */
+public final class MoteRingBuffer {
+
+    private final long[] timestamps;
+    private final float[] values;
+    private final int capacity;
+
+    /** Total readings ever appended; written after the slot, so readers see complete ones. */
+    private volatile long written;
+
+    public MoteRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity];
+    }
+
+    /**
+     * Appends a reading newer than every reading held.
+     *
+     * @return false, and nothing is stored, if {@code timestamp} is not newer
+     */
+    public boolean append(long timestamp, float value) {
+        long n = written;
+        if (n > 0 && timestamp <= timestamps[slot(n - 1)]) {
+            return false;
+        }
+        int slot = slot(n);
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        written = n + 1;
+        return true;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    /** Timestamp of the newest reading, or {@link Long#MIN_VALUE} if empty. */
+    public long newestTimestamp() {
+        long n = written;
+        return n == 0 ? Long.MIN_VALUE : timestamps[slot(n - 1)];
+    }
+
+    /** All readings currently held, oldest first. */
+    public Snapshot snapshot(Snapshot reuse) {
+        long n = written;
+        Snapshot s = reuse != null ? reuse : new Snapshot();
+        s.init(this, n - size(n), n);
+        return s;
+    }
+
+    /** Readings with {@code from <= timestamp < to}, oldest first. */
+    public Snapshot range(long from, long to, Snapshot reuse) {
+        long n = written;
+        long first = n - size(n);
+        Snapshot s = reuse != null ? reuse : new Snapshot();
+        s.init(this, lowerBound(first, n, from), lowerBound(first, n, to));
+        return s;
+    }
+
+    /** First sequence number in {@code [lo, hi)} whose timestamp is >= {@code timestamp}. */
+    private long lowerBound(long lo, long hi, long timestamp) {
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (timestamps[slot(mid)] < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int size(long n) {
+        return (int) Math.min(n, capacity);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * View of a run of consecutive readings, addressed by position {@code 0..size()-1} or
+     * walked with {@link #next()}. Reusable: pass it back to {@link #snapshot} or
+     * {@link #range} to avoid allocating one per query.
+     */
+    public static final class Snapshot {
+
+        private MoteRingBuffer buffer;
+        private long start;
+        private long end;
+        private long cursor;
+
+        void init(MoteRingBuffer buffer, long start, long end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.cursor = start - 1;
+        }
+
+        public int size() {
+            return (int) (end - start);
+        }
+
+        public long timestamp(int i) {
+            return buffer.timestamps[buffer.slot(start + i)];
+        }
+
+        public float value(int i) {
+            return buffer.values[buffer.slot(start + i)];
+        }
+
+        /** Moves to the next reading; false once past the last one. */
+        public boolean next() {
+            return ++cursor < end;
+        }
+
+        /** Timestamp at the cursor. */
+        public long timestamp() {
+            return buffer.timestamps[buffer.slot(cursor)];
+        }
+
+        /** Value at the cursor. */
+        public float value() {
+            return buffer.values[buffer.slot(cursor)];
+        }
+
+        /** Rewinds the cursor to before the first reading. */
+        public void rewind() {
+            cursor = start - 1;
+        }
+
+        /**
+         * True if none of the readings has been overwritten since the snapshot was taken.
+         * Check it after reading: values read before a false result may mix old and new.
+         */
+        public boolean isValid() {
+            return buffer.written - buffer.capacity <= start;
+        }
+    }
+}
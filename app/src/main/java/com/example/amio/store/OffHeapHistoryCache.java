@@ -0,0 +1,408 @@
+package com.example.amio.store;
+
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Recent history of every mote publishing one label, kept outside the Java heap so that a
+ * large cache adds nothing for the garbage collector to copy or walk. Readings live in
+ * direct {@link ByteBuffer} slabs cut into fixed-size slots of {@code slotReadings} records
+ * {@code [long timestamp][float value]} in native byte order; each mote owns a chain of
+ * slots, oldest first, and the heap only holds a few ints per slot.
+ *
+ * <p>A mote's slots older than {@code retainMillis} before its newest reading are recycled as
+ * it grows. Slabs are allocated on demand up to {@code budgetBytes} of native memory; past
+ * that, a new slot is taken from whichever mote holds the oldest one, and a mote that finds
+ * every other one down to a single slot is not cached. Readings of other labels, and
+ * readings not newer than what a mote already holds, are ignored.
+ *
+ * <p>Batches are appended from one ingestion thread at a time. {@link #range} may be called
+ * from any thread: the {@link Window} it returns reads straight from the slabs, or hands out
+ * the slab memory itself through {@link Window#records}, without copying. A window stays
+ * readable while the cache moves on; {@link Window#isValid()} tells whether any of its slots
+ * has since been recycled.
+ */
+public final class OffHeapHistoryCache implements SensorBatchListener {
+
+    public static final int RECORD_BYTES = 8 + 4;
+
+    private static final int MAX_SLAB_BYTES = 1 << 20;
+    private static final int NONE = -1;
+
+    private final String label;
+    private final long retainMillis;
+    private final int slotReadings;
+    private final int slotBytes;
+    private final int slotsPerSlab;
+    private final int maxSlabs;
+
+    private final MoteIndex motes = new MoteIndex();
+    private Chain[] chains = new Chain[16];
+
+    private ByteBuffer[] slabs = new ByteBuffer[0];
+    // per slot, indexed by slot id
+    private int[] fill = new int[0];
+    private int[] generation = new int[0];
+    private long[] newest = new long[0];
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+
+    public OffHeapHistoryCache(String label, long retainMillis, int slotReadings,
+                               long budgetBytes) {
+        if (slotReadings < 1) {
+            throw new IllegalArgumentException("slotReadings must be >= 1");
+        }
+        this.label = label;
+        this.retainMillis = retainMillis;
+        this.slotReadings = slotReadings;
+        this.slotBytes = slotReadings * RECORD_BYTES;
+        this.slotsPerSlab = (int) Math.max(1, Math.min(MAX_SLAB_BYTES, budgetBytes) / slotBytes);
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE / slotsPerSlab,
+                budgetBytes / ((long) slotsPerSlab * slotBytes));
+        if (maxSlabs < 1) {
+            throw new IllegalArgumentException("budgetBytes below one slot of " + slotBytes
+                    + " bytes");
+        }
+    }
+
+    @Override
+    public synchronized void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            append(chainFor(batch.mote(i)), batch.timestamp(i), batch.value(i));
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Fills {@code reuse}, or a new window, with the readings of {@code mote} with
+     * {@code from <= timestamp < to}, oldest first; empty if the mote has never reported.
+     */
+    public synchronized Window range(int mote, long from, long to, Window reuse) {
+        Window window = reuse != null ? reuse : new Window();
+        window.init(this);
+        int m = motes.slotOf(mote);
+        if (m < 0) {
+            return window;
+        }
+        Chain chain = chains[m];
+        for (int k = 0; k < chain.size; k++) {
+            int slot = chain.slot(k);
+            int count = fill[slot];
+            if (count == 0 || newest[slot] < from) {
+                continue;
+            }
+            int first = lowerBound(slot, count, from);
+            int end = lowerBound(slot, count, to);
+            if (first < end) {
+                window.add(slot, generation[slot], first, end);
+            }
+            if (end < count) {
+                break;
+            }
+        }
+        return window;
+    }
+
+    public synchronized int moteCount() {
+        return motes.size();
+    }
+
+    /** Mote in slot {@code 0..moteCount()-1}, in order of first report. */
+    public synchronized int moteAt(int slot) {
+        return motes.moteAt(slot);
+    }
+
+    /** Native memory held by the slabs allocated so far. */
+    public synchronized long allocatedBytes() {
+        return (long) slabs.length * slotsPerSlab * slotBytes;
+    }
+
+    /**
+     * A run of one mote's readings, spread over one or more slots. Read it by position with
+     * {@link #next()}, or hand slot memory to a renderer with {@link #records}. Reusable:
+     * pass it back to {@link #range} to avoid allocating one per query. Not thread-safe.
+     */
+    public static final class Window {
+
+        private OffHeapHistoryCache cache;
+        private int[] slots = new int[4];
+        private int[] generations = new int[4];
+        private int[] firsts = new int[4];
+        private int[] ends = new int[4];
+        private int parts;
+        private int size;
+        private ByteBuffer[] views = new ByteBuffer[0];
+        private int part;
+        private int offset;
+
+        public int size() {
+            return size;
+        }
+
+        /** Runs of consecutive records, at most one per slot. */
+        public int partCount() {
+            return parts;
+        }
+
+        /**
+         * The records of run {@code k} as a read-only view of the slab, positioned on the
+         * first record and limited after the last, in native byte order. The view is shared
+         * by the runs of a slab: use it before asking for the next one.
+         */
+        public ByteBuffer records(int k) {
+            OffHeapHistoryCache c = cache;
+            int slab = slots[k] / c.slotsPerSlab;
+            if (views.length < c.slabs.length) {
+                views = Arrays.copyOf(views, c.slabs.length);
+            }
+            if (views[slab] == null) {
+                views[slab] = c.slabs[slab].asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+            }
+            int base = c.slotOffset(slots[k]);
+            ByteBuffer view = views[slab];
+            view.limit(base + ends[k] * RECORD_BYTES);
+            view.position(base + firsts[k] * RECORD_BYTES);
+            return view;
+        }
+
+        /** Moves to the next reading; false once past the last one. */
+        public boolean next() {
+            if (part >= parts) {
+                return false;
+            }
+            if (offset < 0) {
+                offset = firsts[part];
+            } else if (++offset >= ends[part]) {
+                if (++part >= parts) {
+                    return false;
+                }
+                offset = firsts[part];
+            }
+            return true;
+        }
+
+        /** Timestamp at the cursor. */
+        public long timestamp() {
+            return cache.slabs[slots[part] / cache.slotsPerSlab]
+                    .getLong(cache.slotOffset(slots[part]) + offset * RECORD_BYTES);
+        }
+
+        /** Value at the cursor. */
+        public float value() {
+            return cache.slabs[slots[part] / cache.slotsPerSlab]
+                    .getFloat(cache.slotOffset(slots[part]) + offset * RECORD_BYTES + 8);
+        }
+
+        /** Rewinds the cursor to before the first reading. */
+        public void rewind() {
+            part = 0;
+            offset = -1;
+        }
+
+        /**
+         * True if none of the window's slots has been recycled since it was taken. Check it
+         * after reading: values read before a false result may belong to another mote.
+         */
+        public boolean isValid() {
+            synchronized (cache) {
+                for (int k = 0; k < parts; k++) {
+                    if (cache.generation[slots[k]] != generations[k]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        void init(OffHeapHistoryCache cache) {
+            if (this.cache != cache) {
+                views = new ByteBuffer[0];
+            }
+            this.cache = cache;
+            parts = 0;
+            size = 0;
+            rewind();
+        }
+
+        void add(int slot, int generation, int first, int end) {
+            if (parts == slots.length) {
+                slots = Arrays.copyOf(slots, parts * 2);
+                generations = Arrays.copyOf(generations, parts * 2);
+                firsts = Arrays.copyOf(firsts, parts * 2);
+                ends = Arrays.copyOf(ends, parts * 2);
+            }
+            slots[parts] = slot;
+            generations[parts] = generation;
+            firsts[parts] = first;
+            ends[parts] = end;
+            parts++;
+            size += end - first;
+        }
+    }
+
+    /** One mote's slots, oldest first, as a ring of slot ids. */
+    private static final class Chain {
+
+        private int[] ring = new int[4];
+        private int head;
+        private int size;
+        private long newest = Long.MIN_VALUE;
+
+        int slot(int k) {
+            return ring[(head + k) % ring.length];
+        }
+
+        int oldest() {
+            return ring[head];
+        }
+
+        int tail() {
+            return size == 0 ? NONE : slot(size - 1);
+        }
+
+        void push(int slot) {
+            if (size == ring.length) {
+                int[] grown = new int[size * 2];
+                for (int k = 0; k < size; k++) {
+                    grown[k] = slot(k);
+                }
+                ring = grown;
+                head = 0;
+            }
+            ring[(head + size) % ring.length] = slot;
+            size++;
+        }
+
+        int pollOldest() {
+            int slot = ring[head];
+            head = (head + 1) % ring.length;
+            size--;
+            return slot;
+        }
+    }
+
+    private void append(Chain chain, long timestamp, float value) {
+        if (timestamp <= chain.newest) {
+            return;
+        }
+        int slot = chain.tail();
+        if (slot == NONE || fill[slot] == slotReadings) {
+            // recycle this mote's own expired slots before taking anyone else's
+            while (chain.size > 0 && newest[chain.oldest()] < timestamp - retainMillis) {
+                release(chain.pollOldest());
+            }
+            slot = takeSlot(chain);
+            if (slot == NONE) {
+                return;
+            }
+            chain.push(slot);
+        }
+        int offset = slotOffset(slot) + fill[slot] * RECORD_BYTES;
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        slab.putLong(offset, timestamp);
+        slab.putFloat(offset + 8, value);
+        fill[slot]++;
+        newest[slot] = timestamp;
+        chain.newest = timestamp;
+    }
+
+    /**
+     * A free slot, a slot of a new slab, or failing both the oldest slot of any mote; none if
+     * every other mote is down to the one slot it writes into.
+     */
+    private int takeSlot(Chain taker) {
+        if (freeCount == 0 && slabs.length < maxSlabs) {
+            addSlab();
+        }
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        Chain victim = null;
+        for (int m = 0; m < motes.size(); m++) {
+            Chain chain = chains[m];
+            // a mote keeps the slot it is writing into
+            if (chain.size > (chain == taker ? 0 : 1)
+                    && (victim == null || newest[chain.oldest()] < newest[victim.oldest()])) {
+                victim = chain;
+            }
+        }
+        if (victim == null) {
+            return NONE;
+        }
+        int slot = victim.pollOldest();
+        recycle(slot);
+        return slot;
+    }
+
+    private void release(int slot) {
+        recycle(slot);
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void recycle(int slot) {
+        fill[slot] = 0;
+        newest[slot] = Long.MIN_VALUE;
+        generation[slot]++;
+    }
+
+    private void addSlab() {
+        int first = slabs.length * slotsPerSlab;
+        int total = first + slotsPerSlab;
+        slabs = Arrays.copyOf(slabs, slabs.length + 1);
+        slabs[slabs.length - 1] = ByteBuffer.allocateDirect(slotsPerSlab * slotBytes)
+                .order(ByteOrder.nativeOrder());
+        fill = Arrays.copyOf(fill, total);
+        generation = Arrays.copyOf(generation, total);
+        newest = Arrays.copyOf(newest, total);
+        freeSlots = Arrays.copyOf(freeSlots, total);
+        // pushed in reverse so slots are handed out in address order
+        for (int slot = total - 1; slot >= first; slot--) {
+            newest[slot] = Long.MIN_VALUE;
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    private Chain chainFor(int mote) {
+        int m = motes.slotOf(mote);
+        if (m < 0) {
+            m = motes.add(mote);
+            if (m == chains.length) {
+                chains = Arrays.copyOf(chains, m * 2);
+            }
+            chains[m] = new Chain();
+        }
+        return chains[m];
+    }
+
+    private int slotOffset(int slot) {
+        return (slot % slotsPerSlab) * slotBytes;
+    }
+
+    /** First record of {@code slot} below {@code count} whose timestamp is >= {@code ts}. */
+    private int lowerBound(int slot, int count, long timestamp) {
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int base = slotOffset(slot);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (slab.getLong(base + mid * RECORD_BYTES) < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
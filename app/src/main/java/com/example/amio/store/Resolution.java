@@ -0,0 +1,61 @@
+package com.example.amio.store;
+
+/**
+ * Bucket widths kept by {@link RollupEngine}, finest first, each with the number of buckets
+ * retained per mote. Buckets are aligned to multiples of their width since the epoch, so
+ * {@link #DAY} buckets are UTC days.
+ */
+public enum Resolution {
+
+    /** Twelve hours of minutes: one monitoring night. */
+    MINUTE(60_000L, 720),
+    /** A week of quarter hours. */
+    QUARTER_HOUR(15 * 60_000L, 7 * 96),
+    /** Sixty days of hours. */
+    HOUR(60 * 60_000L, 60 * 24),
+    /** A bit over a year of days. */
+    DAY(24 * 60 * 60_000L, 400);
+
+    private final long millis;
+    private final int retainedBuckets;
+
+    Resolution(long millis, int retainedBuckets) {
+        this.millis = millis;
+        this.retainedBuckets = retainedBuckets;
+    }
+
+    public long millis() {
+        return millis;
+    }
+
+    public int retainedBuckets() {
+        return retainedBuckets;
+    }
+
+    /** Start of the bucket holding {@code timestamp}. */
+    public long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, millis) * millis;
+    }
+
+    /**
+     * The resolution to draw {@code [from, to)} {@code pixels} wide: the coarsest one that
+     * still gives at least one bucket per pixel, among those retaining a span at least as long
+     * as the range. If none is fine enough, the finest one that spans the range.
+     */
+    public static Resolution forPixels(long from, long to, int pixels) {
+        Resolution[] all = values();
+        Resolution best = all[all.length - 1];
+        // finer resolutions retain shorter spans, so stop at the first that can't hold the range
+        for (int i = all.length - 1; i >= 0 && to - from <= all[i].span(); i--) {
+            best = all[i];
+            if ((to - from) / best.millis >= pixels) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private long span() {
+        return millis * retainedBuckets;
+    }
+}
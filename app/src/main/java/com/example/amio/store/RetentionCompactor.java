@@ -0,0 +1,57 @@
+package com.example.amio.store;
+
+import java.io.IOException;
+
+/**
+ * Enforces history retention in the background: readings older than the raw retention are
+ * folded into hourly rollups and removed, and rollups older than the rollup retention are
+ * dropped. Work is done in small {@link HistoryStore#compact} steps, each charged to an
+ * {@link IoBudget}, so a large backlog is worked off at a steady rate instead of in one burst
+ * that would compete with ingestion and the UI for the storage device.
+ */
+public final class RetentionCompactor {
+
+    /** Rows touched per step, small enough that a step holds the write lock only briefly. */
+    public static final int STEP_ROWS = 512;
+
+    private final HistoryStore store;
+    private final IoBudget budget;
+    private final long rawRetentionMillis;
+    private final long rollupRetentionMillis;
+    private volatile boolean stopped;
+
+    public RetentionCompactor(HistoryStore store, IoBudget budget, long rawRetentionMillis,
+                              long rollupRetentionMillis) {
+        if (rollupRetentionMillis < rawRetentionMillis) {
+            throw new IllegalArgumentException("Rollups must be kept at least as long as readings");
+        }
+        this.store = store;
+        this.budget = budget;
+        this.rawRetentionMillis = rawRetentionMillis;
+        this.rollupRetentionMillis = rollupRetentionMillis;
+    }
+
+    /**
+     * Compacts on the calling thread until nothing is left to do or {@link #stop()} is called.
+     *
+     * @param now the time retention is measured from, in epoch milliseconds
+     * @return true if compaction completed, false if it was stopped first
+     */
+    public boolean run(long now) throws IOException, InterruptedException {
+        long rawCutoff = now - rawRetentionMillis;
+        long rollupCutoff = now - rollupRetentionMillis;
+        while (!stopped) {
+            long bytes = store.compact(rawCutoff, rollupCutoff, STEP_ROWS);
+            if (bytes == 0) {
+                return true;
+            }
+            budget.charge(bytes);
+        }
+        return false;
+    }
+
+    /** Makes {@link #run} return after its current step; callable from any thread. */
+    public void stop() {
+        stopped = true;
+    }
+}
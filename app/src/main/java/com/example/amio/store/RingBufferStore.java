@@ -0,0 +1,76 @@
+package com.example.amio.store;
+
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.util.Arrays;
+
+/**
+ * In-memory recent history of every mote publishing one label, one {@link MoteRingBuffer}
+ * per mote. Readings of other labels, and readings not newer than what a mote already
+ * holds, are ignored.
+ *
+ * <p>Batches are appended from one ingestion thread at a time; {@link #buffer(int)} and the
+ * returned buffers may be read from any thread.
+ */
+public final class RingBufferStore implements SensorBatchListener {
+
+    private final String label;
+    private final int capacityPerMote;
+    private final MoteIndex motes = new MoteIndex();
+    private MoteRingBuffer[] buffers = new MoteRingBuffer[16];
+
+    public RingBufferStore(String label, int capacityPerMote) {
+        this.label = label;
+        this.capacityPerMote = capacityPerMote;
+    }
+
+    @Override
+    public void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        int lastMote = 0;
+        MoteRingBuffer buffer = null;
+        for (int i = 0; i < batch.size(); i++) {
+            int mote = batch.mote(i);
+            if (buffer == null || mote != lastMote) {
+                buffer = bufferForAppend(mote);
+                lastMote = mote;
+            }
+            buffer.append(batch.timestamp(i), batch.value(i));
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** History of {@code mote}, or null if it has never reported. */
+    public synchronized MoteRingBuffer buffer(int mote) {
+        int slot = motes.slotOf(mote);
+        return slot < 0 ? null : buffers[slot];
+    }
+
+    public synchronized int moteCount() {
+        return motes.size();
+    }
+
+    /** Mote in slot {@code 0..moteCount()-1}, in order of first report. */
+    public synchronized int moteAt(int slot) {
+        return motes.moteAt(slot);
+    }
+
+    private synchronized MoteRingBuffer bufferForAppend(int mote) {
+        int slot = motes.slotOf(mote);
+        if (slot < 0) {
+            slot = motes.add(mote);
+            if (slot == buffers.length) {
+                buffers = Arrays.copyOf(buffers, slot * 2);
+            }
+            buffers[slot] = new MoteRingBuffer(capacityPerMote);
+        }
+        return buffers[slot];
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.amio.store;
+
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Keeps min, max, sum, count and last of every mote publishing one label at each
+ * {@link Resolution}, updated as readings arrive, so a chart of a month never touches raw
+ * readings: {@link #query(int, long, long, int, RollupSlice)} picks the coarsest resolution
+ * that still fills the requested width, so the work grows with the width of the chart
+ * rather than with the time range.
+ *
+ * <p>Each reading costs one O(1) bucket update per resolution. Batches are added from one
+ * ingestion thread at a time; queries may run on any thread and never see a half-updated
+ * bucket.
+ *
+ * <p>Buckets live on the heap only. Given the {@link HistoryStore}, the first batch refills
+ * them from it, on the ingestion thread: the raw readings it holds feed every resolution and
+ * its hourly rollups the hour and day ones, which is all they can be split into. A reading
+ * the store already held then is skipped if a batch delivers it again, as the journal does
+ * after a crash.
+ */
+public final class RollupEngine implements SensorBatchListener {
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+    private static final long REBUILD_CHUNK_MILLIS = 7 * Resolution.DAY.millis();
+
+    private final String label;
+    private final HistoryStore store;
+    private final MoteIndex motes = new MoteIndex();
+    private RollupSeries[][] series = new RollupSeries[16][];
+    // ingestion thread only
+    private long[] rebuiltUntil = new long[16];
+    private boolean rebuilt;
+
+    /** An engine starting empty. */
+    public RollupEngine(String label) {
+        this(label, null);
+    }
+
+    /** An engine refilled from {@code store} on the first batch. */
+    public RollupEngine(String label, HistoryStore store) {
+        this.label = label;
+        this.store = store;
+        this.rebuilt = store == null;
+    }
+
+    /**
+     * @throws UncheckedIOException if refilling from the store fails; the next batch retries
+     */
+    @Override
+    public void onBatch(SensorBatch batch) {
+        if (batch.getLabel() != null && !batch.getLabel().equals(label)) {
+            return;
+        }
+        if (!rebuilt) {
+            try {
+                rebuild(System.currentTimeMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot rebuild rollups of " + label, e);
+            }
+            rebuilt = true;
+        }
+        int i = 0;
+        while (i < batch.size()) {
+            int mote = batch.mote(i);
+            int slot = slotForAppend(mote);
+            RollupSeries[] rollups = seriesAt(slot);
+            long skipUntil = rebuiltUntil[slot];
+            synchronized (rollups) {
+                for (; i < batch.size() && batch.mote(i) == mote; i++) {
+                    long timestamp = batch.timestamp(i);
+                    if (timestamp <= skipUntil) {
+                        continue;
+                    }
+                    float value = batch.value(i);
+                    for (RollupSeries s : rollups) {
+                        s.add(timestamp, value);
+                    }
+                }
+            }
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Fills {@code out} with the buckets of {@code mote} overlapping {@code [from, to)} at the
+     * resolution chosen by {@link Resolution#forPixels} for a chart {@code pixels} wide.
+     *
+     * @return the resolution used
+     */
+    public Resolution query(int mote, long from, long to, int pixels, RollupSlice out) {
+        Resolution resolution = Resolution.forPixels(from, to, pixels);
+        query(mote, resolution, from, to, out);
+        return resolution;
+    }
+
+    /** Fills {@code out} with the buckets of {@code mote} overlapping {@code [from, to)}. */
+    public void query(int mote, Resolution resolution, long from, long to, RollupSlice out) {
+        out.reset(resolution);
+        RollupSeries[] rollups = series(mote);
+        if (rollups == null || from >= to) {
+            return;
+        }
+        synchronized (rollups) {
+            rollups[resolution.ordinal()].copy(from, to, out);
+        }
+    }
+
+    public synchronized int moteCount() {
+        return motes.size();
+    }
+
+    /** Mote in slot {@code 0..moteCount()-1}, in order of first report. */
+    public synchronized int moteAt(int slot) {
+        return motes.moteAt(slot);
+    }
+
+    private synchronized RollupSeries[] series(int mote) {
+        int slot = motes.slotOf(mote);
+        return slot < 0 ? null : series[slot];
+    }
+
+    private synchronized int slotForAppend(int mote) {
+        int slot = motes.slotOf(mote);
+        if (slot < 0) {
+            slot = motes.add(mote);
+            if (slot == series.length) {
+                series = Arrays.copyOf(series, slot * 2);
+                rebuiltUntil = Arrays.copyOf(rebuiltUntil, slot * 2);
+            }
+            series[slot] = newSeries();
+            rebuiltUntil[slot] = Long.MIN_VALUE;
+        }
+        return slot;
+    }
+
+    private synchronized RollupSeries[] seriesAt(int slot) {
+        return series[slot];
+    }
+
+    private synchronized void replace(int slot, RollupSeries[] rollups) {
+        series[slot] = rollups;
+    }
+
+    private static RollupSeries[] newSeries() {
+        RollupSeries[] rollups = new RollupSeries[RESOLUTIONS.length];
+        for (Resolution r : RESOLUTIONS) {
+            rollups[r.ordinal()] = new RollupSeries(r);
+        }
+        return rollups;
+    }
+
+    /**
+     * Refills every mote of the store with what it holds back to the oldest day bucket kept.
+     * Each mote is built aside and swapped in whole, so a failed rebuild can simply run again.
+     */
+    private void rebuild(long now) throws IOException {
+        Resolution day = Resolution.DAY;
+        long from = day.bucketStart(now) - (day.retainedBuckets() - 1) * day.millis();
+        RollupSlice hours = new RollupSlice();
+        SensorBatch readings = new SensorBatch();
+        for (int mote : store.motes(label)) {
+            RollupSeries[] rollups = newSeries();
+            long until = Long.MIN_VALUE;
+            store.scanRollups(label, mote, from, Long.MAX_VALUE, hours);
+            for (int h = 0; h < hours.size(); h++) {
+                for (Resolution r : RESOLUTIONS) {
+                    if (r.millis() >= Resolution.HOUR.millis()) {
+                        rollups[r.ordinal()].add(hours.start(h), hours.min(h), hours.max(h),
+                                hours.sum(h), hours.count(h), hours.last(h));
+                    }
+                }
+                until = Math.max(until, hours.start(h) + Resolution.HOUR.millis() - 1);
+            }
+            // compaction removes the readings it folds, so these never overlap the rollups
+            for (long start = from; start < Long.MAX_VALUE; ) {
+                long end = start < now ? Math.min(now, start + REBUILD_CHUNK_MILLIS)
+                        : Long.MAX_VALUE;
+                store.scan(label, mote, start, end, readings);
+                for (int i = 0; i < readings.size(); i++) {
+                    for (RollupSeries s : rollups) {
+                        s.add(readings.timestamp(i), readings.value(i));
+                    }
+                    until = Math.max(until, readings.timestamp(i));
+                }
+                start = end;
+            }
+            int slot = slotForAppend(mote);
+            replace(slot, rollups);
+            rebuiltUntil[slot] = until;
+        }
+    }
+}
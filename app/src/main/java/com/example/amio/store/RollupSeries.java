@@ -0,0 +1,92 @@
+package com.example.amio.store;
+
+import java.util.Arrays;
+
+/**
+ * Buckets of one mote at one {@link Resolution}, direct-mapped: bucket number {@code n} lives
+ * in slot {@code n % capacity}, so updates and lookups are O(1) and gaps in reporting cost
+ * nothing. A reading older than what its slot now holds has aged out and is dropped.
+ *
+ * <p>Not thread-safe.
+ */
+final class RollupSeries {
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Resolution resolution;
+    private final int capacity;
+    private final long[] starts;
+    private final float[] mins;
+    private final float[] maxes;
+    private final float[] lasts;
+    private final double[] sums;
+    private final int[] counts;
+    /** Offset of the newest reading from the bucket start, so late readings don't win last. */
+    private final int[] lastOffsets;
+
+    RollupSeries(Resolution resolution) {
+        this.resolution = resolution;
+        this.capacity = resolution.retainedBuckets();
+        starts = new long[capacity];
+        Arrays.fill(starts, NONE);
+        mins = new float[capacity];
+        maxes = new float[capacity];
+        lasts = new float[capacity];
+        sums = new double[capacity];
+        counts = new int[capacity];
+        lastOffsets = new int[capacity];
+    }
+
+    void add(long timestamp, float value) {
+        add(timestamp, value, value, value, 1, value);
+    }
+
+    /**
+     * Folds a summary of {@code count} readings, the newest at {@code timestamp}, into the
+     * bucket holding {@code timestamp}; used to refill coarse buckets from stored rollups.
+     */
+    void add(long timestamp, float min, float max, double sum, int count, float last) {
+        long start = resolution.bucketStart(timestamp);
+        int slot = slot(start);
+        int offset = (int) (timestamp - start);
+        if (starts[slot] != start) {
+            if (starts[slot] > start) {
+                return;
+            }
+            starts[slot] = start;
+            mins[slot] = min;
+            maxes[slot] = max;
+            lasts[slot] = last;
+            sums[slot] = sum;
+            counts[slot] = count;
+            lastOffsets[slot] = offset;
+            return;
+        }
+        mins[slot] = Math.min(mins[slot], min);
+        maxes[slot] = Math.max(maxes[slot], max);
+        sums[slot] += sum;
+        counts[slot] += count;
+        if (offset >= lastOffsets[slot]) {
+            lasts[slot] = last;
+            lastOffsets[slot] = offset;
+        }
+    }
+
+    /** Appends the held buckets overlapping {@code [from, to)} to {@code out}, oldest first. */
+    void copy(long from, long to, RollupSlice out) {
+        long millis = resolution.millis();
+        long first = resolution.bucketStart(from);
+        // nothing older than capacity buckets before the last one asked for can still be held
+        long oldest = resolution.bucketStart(to - 1) - (capacity - 1) * millis;
+        for (long start = Math.max(first, oldest); start < to; start += millis) {
+            int slot = slot(start);
+            if (starts[slot] == start) {
+                out.add(start, mins[slot], maxes[slot], sums[slot], counts[slot], lasts[slot]);
+            }
+        }
+    }
+
+    private int slot(long bucketStart) {
+        return (int) Math.floorMod(bucketStart / resolution.millis(), (long) capacity);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.amio.store;
+
+import java.util.Arrays;
+
+/**
+ * Result of a {@link RollupEngine} query: the non-empty buckets of one mote in a time range,
+ * oldest first, in parallel primitive arrays. Reusable: pass it back to the next query to
+ * avoid allocating.
+ */
+public final class RollupSlice {
+
+    private Resolution resolution = Resolution.MINUTE;
+    private long[] starts = new long[64];
+    private float[] mins = new float[64];
+    private float[] maxes = new float[64];
+    private float[] lasts = new float[64];
+    private double[] sums = new double[64];
+    private int[] counts = new int[64];
+    private int size;
+
+    public Resolution resolution() {
+        return resolution;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Start of bucket {@code i}; it covers {@code resolution().millis()} from there. */
+    public long start(int i) {
+        return starts[i];
+    }
+
+    public float min(int i) {
+        return mins[i];
+    }
+
+    public float max(int i) {
+        return maxes[i];
+    }
+
+    public double sum(int i) {
+        return sums[i];
+    }
+
+    public int count(int i) {
+        return counts[i];
+    }
+
+    /** Value of the newest reading in bucket {@code i}. */
+    public float last(int i) {
+        return lasts[i];
+    }
+
+    public double mean(int i) {
+        return sums[i] / counts[i];
+    }
+
+    void reset(Resolution resolution) {
+        this.resolution = resolution;
+        size = 0;
+    }
+
+    void add(long start, float min, float max, double sum, int count, float last) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxes = Arrays.copyOf(maxes, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        starts[size] = start;
+        mins[size] = min;
+        maxes[size] = max;
+        sums[size] = sum;
+        counts[size] = count;
+        lasts[size] = last;
+        size++;
+    }
+
+    /** Folds another bucket with the same start, and newer readings, into the last one. */
+    void mergeLast(float min, float max, double sum, int count, float last) {
+        int i = size - 1;
+        mins[i] = Math.min(mins[i], min);
+        maxes[i] = Math.max(maxes[i], max);
+        sums[i] += sum;
+        counts[i] += count;
+        lasts[i] = last;
+    }
+}
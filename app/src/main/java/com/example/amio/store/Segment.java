@@ -0,0 +1,251 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * One append-only segment file of a mote's readings, {@code <start>.seg}, holding fixed-size
+ * records {@code [long timestamp][float value]} in strictly increasing timestamp order, and
+ * its sparse index {@code <start>.idx}: the timestamp of every {@value #INDEX_INTERVAL}th
+ * record.
+ *
+ * <p>Scans read the data file through a read-only mapping, remapped only when the file has
+ * grown, and find their first record with the in-memory copy of the index, touching one page
+ * of data to get there. A torn record left by a crash is cut off on open and an index that
+ * does not match the data is rebuilt.
+ *
+ * <p>Not thread-safe.
+ */
+final class Segment implements Closeable {
+
+    static final int RECORD_BYTES = 12;
+    static final int INDEX_INTERVAL = 128;
+
+    static final String DATA_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private final File dataFile;
+    private final File indexFile;
+    private final long start;
+    private final ByteBuffer pending = ByteBuffer.allocate(256 * RECORD_BYTES);
+
+    private RandomAccessFile data;
+    private RandomAccessFile index;
+    private long records;
+    private long[] sparse = new long[16];
+    private int sparseSize;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private MappedByteBuffer map;
+    private long mappedRecords;
+
+    private Segment(File dir, long start) {
+        this.start = start;
+        this.dataFile = new File(dir, start + DATA_SUFFIX);
+        this.indexFile = new File(dir, start + INDEX_SUFFIX);
+    }
+
+    /** Opens, or creates, the segment starting at {@code start} in {@code dir}. */
+    static Segment open(File dir, long start) throws IOException {
+        Segment segment = new Segment(dir, start);
+        try {
+            segment.recover();
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    long start() {
+        return start;
+    }
+
+    long records() {
+        return records + pending.position() / RECORD_BYTES;
+    }
+
+    /** Timestamp of the newest record, or {@link Long#MIN_VALUE} if empty. */
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /** Bytes on disk, index included. */
+    long byteLength() {
+        return records * RECORD_BYTES + (long) sparseSize * 8;
+    }
+
+    /** Buffers a record newer than every one held; {@link #flush()} writes it out. */
+    void append(long timestamp, float value) throws IOException {
+        if (!pending.hasRemaining()) {
+            flush();
+        }
+        if (records() % INDEX_INTERVAL == 0) {
+            addSparse(timestamp);
+        }
+        pending.putLong(timestamp);
+        pending.putFloat(value);
+        lastTimestamp = timestamp;
+    }
+
+    /** Writes buffered records and their index entries to the page cache. */
+    void flush() throws IOException {
+        if (pending.position() == 0) {
+            return;
+        }
+        pending.flip();
+        FileChannel channel = data.getChannel();
+        long position = records * RECORD_BYTES;
+        while (pending.hasRemaining()) {
+            position += channel.write(pending, position);
+        }
+        records = position / RECORD_BYTES;
+        pending.clear();
+        writeIndex();
+    }
+
+    /**
+     * Adds the readings with {@code from <= timestamp < to} to {@code out} as readings of
+     * {@code mote}, oldest first. Buffered records must have been flushed.
+     */
+    void scan(long from, long to, int mote, SensorBatch out) throws IOException {
+        if (records == 0 || from > lastTimestamp || to <= firstTimestamp()) {
+            return;
+        }
+        MappedByteBuffer map = map();
+        // last index entry before from: the first match is within the next interval
+        int block = Arrays.binarySearch(sparse, 0, sparseSize, from);
+        block = block >= 0 ? block : Math.max(0, -block - 2);
+        long lo = (long) block * INDEX_INTERVAL;
+        long hi = Math.min(records, lo + INDEX_INTERVAL);
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (map.getLong((int) (mid * RECORD_BYTES)) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (long i = lo; i < records; i++) {
+            int offset = (int) (i * RECORD_BYTES);
+            long timestamp = map.getLong(offset);
+            if (timestamp >= to) {
+                break;
+            }
+            out.add(timestamp, map.getFloat(offset + 8), mote);
+        }
+    }
+
+    /** Calls {@code visitor} with every record, oldest first. Buffered records must be flushed. */
+    void forEach(ReadingVisitor visitor) throws IOException {
+        MappedByteBuffer map = map();
+        for (long i = 0; i < records; i++) {
+            int offset = (int) (i * RECORD_BYTES);
+            visitor.visit(map.getLong(offset), map.getFloat(offset + 8));
+        }
+    }
+
+    /** Closes and deletes the segment's files. */
+    void delete() throws IOException {
+        close();
+        if (!dataFile.delete() || (indexFile.exists() && !indexFile.delete())) {
+            throw new IOException("Cannot delete segment " + dataFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        map = null;
+        mappedRecords = 0;
+        try {
+            if (data != null) {
+                flush();
+                data.close();
+            }
+        } finally {
+            data = null;
+            if (index != null) {
+                index.close();
+                index = null;
+            }
+        }
+    }
+
+    interface ReadingVisitor {
+        void visit(long timestamp, float value) throws IOException;
+    }
+
+    private long firstTimestamp() {
+        return sparse[0];
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        if (map == null || mappedRecords != records) {
+            map = data.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_BYTES);
+            mappedRecords = records;
+        }
+        return map;
+    }
+
+    private void recover() throws IOException {
+        data = new RandomAccessFile(dataFile, "rw");
+        index = new RandomAccessFile(indexFile, "rw");
+        records = data.length() / RECORD_BYTES;
+        if (data.length() != records * RECORD_BYTES) {
+            data.setLength(records * RECORD_BYTES);
+        }
+        long entries = (records + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+        if (index.length() == entries * 8) {
+            sparse = new long[(int) Math.max(16, entries)];
+            ByteBuffer buf = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, entries * 8);
+            for (int i = 0; i < entries; i++) {
+                sparse[i] = buf.getLong(i * 8);
+            }
+            sparseSize = (int) entries;
+        } else {
+            index.setLength(0);
+            sparseSize = 0;
+            MappedByteBuffer map = map();
+            for (long i = 0; i < records; i += INDEX_INTERVAL) {
+                addSparse(map.getLong((int) (i * RECORD_BYTES)));
+            }
+            writeIndex();
+        }
+        if (records > 0) {
+            lastTimestamp = map().getLong((int) ((records - 1) * RECORD_BYTES));
+        }
+    }
+
+    private void addSparse(long timestamp) {
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, sparseSize * 2);
+        }
+        sparse[sparseSize++] = timestamp;
+    }
+
+    /** Appends the index entries not yet on disk. */
+    private void writeIndex() throws IOException {
+        long written = index.length() / 8;
+        if (written == sparseSize) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) (sparseSize - written) * 8);
+        for (long i = written; i < sparseSize; i++) {
+            buf.putLong(sparse[(int) i]);
+        }
+        buf.flip();
+        FileChannel channel = index.getChannel();
+        long position = written * 8;
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+}
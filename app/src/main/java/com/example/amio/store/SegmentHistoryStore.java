@@ -0,0 +1,569 @@
+package com.example.amio.store;
+
+import com.example.amio.data.MoteIndex;
+import com.example.amio.data.SensorBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link HistoryStore} over append-only {@link Segment} files, one directory per label and
+ * mote and one segment per {@code segmentMillis} of readings (a UTC day by default). A range
+ * scan maps the few segments it overlaps and reads records straight from the page cache, with
+ * no query planning, no B-tree and no copy through a cursor window.
+ *
+ * <p>Segments only grow at the end, so a reading not newer than the newest one already held
+ * for its mote is ignored, which also makes replaying a batch harmless. {@link #compact}
+ * works in whole files: a segment entirely older than the raw cutoff is folded into a
+ * {@code <start>.rol} file of hourly rollups, then deleted, and a rollup file entirely older
+ * than the rollup cutoff is deleted.
+ *
+ * <p>Each mote keeps its newest segment open for appends. Older segments are opened for scans
+ * and compaction, and stay open, mappings included, while among the {@code maxOpenSegments}
+ * most recently used; beyond that the least recently used is closed, so a long history
+ * neither exhausts file descriptors nor pins address space.
+ *
+ * <p>Thread-safe: each mote's files are guarded by their own lock, and an older segment is
+ * closed under its mote's lock only, never while another mote's is held.
+ */
+public final class SegmentHistoryStore implements HistoryStore {
+
+    public static final long DEFAULT_SEGMENT_MILLIS = 24 * 60 * 60_000L;
+    public static final int DEFAULT_MAX_OPEN_SEGMENTS = 16;
+
+    static final String ROLLUP_SUFFIX = ".rol";
+    private static final int ROLLUP_BYTES = 8 + 4 + 4 + 8 + 4 + 4;
+
+    private final File dir;
+    private final long segmentMillis;
+    private final int maxOpenSegments;
+    private final Map<String, LabelDir> labels = new HashMap<>();
+    /** Open segments other than the newest of their mote, least recently used first. */
+    private final LinkedHashMap<OpenSegment, Boolean> openOlder =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    public SegmentHistoryStore(File dir) {
+        this(dir, DEFAULT_SEGMENT_MILLIS);
+    }
+
+    public SegmentHistoryStore(File dir, long segmentMillis) {
+        this(dir, segmentMillis, DEFAULT_MAX_OPEN_SEGMENTS);
+    }
+
+    public SegmentHistoryStore(File dir, long segmentMillis, int maxOpenSegments) {
+        if (segmentMillis % Resolution.HOUR.millis() != 0) {
+            throw new IllegalArgumentException("Segments must span whole hours");
+        }
+        if (maxOpenSegments < 0) {
+            throw new IllegalArgumentException("maxOpenSegments must be >= 0");
+        }
+        this.dir = dir;
+        this.segmentMillis = segmentMillis;
+        this.maxOpenSegments = maxOpenSegments;
+    }
+
+    @Override
+    public void append(SensorBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        LabelDir label = label(batch.getLabel() != null ? batch.getLabel() : "");
+        int i = 0;
+        while (i < batch.size()) {
+            int mote = batch.mote(i);
+            MoteFiles files = label.files(mote);
+            synchronized (files) {
+                for (; i < batch.size() && batch.mote(i) == mote; i++) {
+                    files.append(batch.timestamp(i), batch.value(i));
+                }
+                files.flush();
+            }
+        }
+        closeLeastRecentlyUsed();
+    }
+
+    @Override
+    public int scan(String label, int mote, long from, long to, SensorBatch out) throws IOException {
+        out.clear();
+        out.setLabel(label);
+        MoteFiles files = label(label).files(mote);
+        synchronized (files) {
+            files.scan(from, to, mote, out);
+        }
+        closeLeastRecentlyUsed();
+        return out.size();
+    }
+
+    @Override
+    public int scanRollups(String label, int mote, long from, long to, RollupSlice out)
+            throws IOException {
+        out.reset(Resolution.HOUR);
+        MoteFiles files = label(label).files(mote);
+        synchronized (files) {
+            files.scanRollups(from, to, out);
+        }
+        return out.size();
+    }
+
+    @Override
+    public int[] motes(String label) {
+        String[] names = label(label).dir.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] motes = new int[names.length];
+        int n = 0;
+        for (String name : names) {
+            try {
+                motes[n] = Integer.parseInt(name);
+                n++;
+            } catch (NumberFormatException e) {
+                // not ours
+            }
+        }
+        motes = Arrays.copyOf(motes, n);
+        Arrays.sort(motes);
+        return motes;
+    }
+
+    /** Appends to the rollup files; rollups must be newer than any the mote already has. */
+    @Override
+    public void appendRollups(String label, int mote, RollupSlice rollups) throws IOException {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        MoteFiles files = label(label).files(mote);
+        synchronized (files) {
+            files.appendRollups(rollups);
+        }
+    }
+
+    /** Folds or deletes at most one file; {@code maxRows} does not apply to whole files. */
+    @Override
+    public long compact(long rawCutoff, long rollupCutoff, int maxRows) throws IOException {
+        String[] labelDirs = dir.list();
+        if (labelDirs == null) {
+            return 0;
+        }
+        Arrays.sort(labelDirs);
+        for (String labelDir : labelDirs) {
+            String[] moteDirs = new File(dir, labelDir).list();
+            if (moteDirs == null) {
+                continue;
+            }
+            Arrays.sort(moteDirs);
+            for (String moteDir : moteDirs) {
+                int mote;
+                try {
+                    mote = Integer.parseInt(moteDir);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                MoteFiles files = labelDir(labelDir).files(mote);
+                long bytes;
+                synchronized (files) {
+                    bytes = files.compact(rawCutoff, rollupCutoff);
+                }
+                closeLeastRecentlyUsed();
+                if (bytes > 0) {
+                    return bytes;
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        LabelDir[] all;
+        synchronized (this) {
+            all = labels.values().toArray(new LabelDir[0]);
+            labels.clear();
+        }
+        synchronized (openOlder) {
+            openOlder.clear();
+        }
+        IOException failure = null;
+        for (LabelDir label : all) {
+            for (MoteFiles files : label.all()) {
+                synchronized (files) {
+                    try {
+                        files.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Number of open segments other than the newest of their mote. */
+    int openOlderSegments() {
+        synchronized (openOlder) {
+            return openOlder.size();
+        }
+    }
+
+    private void touch(MoteFiles files, long start) {
+        synchronized (openOlder) {
+            openOlder.put(new OpenSegment(files, start), Boolean.TRUE);
+        }
+    }
+
+    private void forget(MoteFiles files, long start) {
+        synchronized (openOlder) {
+            openOlder.remove(new OpenSegment(files, start));
+        }
+    }
+
+    /** Closes older segments beyond the limit. Call without holding any mote's lock. */
+    private void closeLeastRecentlyUsed() throws IOException {
+        while (true) {
+            OpenSegment eldest;
+            synchronized (openOlder) {
+                if (openOlder.size() <= maxOpenSegments) {
+                    return;
+                }
+                Iterator<OpenSegment> it = openOlder.keySet().iterator();
+                eldest = it.next();
+                it.remove();
+            }
+            synchronized (eldest.files) {
+                eldest.files.closeOlder(eldest.start);
+            }
+        }
+    }
+
+    private LabelDir label(String label) {
+        try {
+            // "%" alone is never produced by the encoder, so it cannot clash with a real label
+            return labelDir(label.isEmpty() ? "%" : URLEncoder.encode(label, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private synchronized LabelDir labelDir(String name) {
+        LabelDir label = labels.get(name);
+        if (label == null) {
+            label = new LabelDir(new File(dir, name));
+            labels.put(name, label);
+        }
+        return label;
+    }
+
+    /** The motes of one label, each with its {@link MoteFiles}. */
+    private final class LabelDir {
+
+        private final File dir;
+        private final MoteIndex motes = new MoteIndex();
+        private MoteFiles[] files = new MoteFiles[16];
+
+        LabelDir(File dir) {
+            this.dir = dir;
+        }
+
+        synchronized MoteFiles files(int mote) {
+            int slot = motes.slotOf(mote);
+            if (slot < 0) {
+                slot = motes.add(mote);
+                if (slot == files.length) {
+                    files = Arrays.copyOf(files, slot * 2);
+                }
+                files[slot] = new MoteFiles(new File(dir, Integer.toString(mote)));
+            }
+            return files[slot];
+        }
+
+        synchronized MoteFiles[] all() {
+            return Arrays.copyOf(files, motes.size());
+        }
+    }
+
+    /**
+     * The segments and rollup files of one mote. Segments other than the newest are opened
+     * for a scan and stay open, so their mappings can be reused, until the store's LRU closes
+     * them. Guarded by its own lock.
+     */
+    private final class MoteFiles {
+
+        private final File dir;
+        private boolean loaded;
+        private long[] starts = new long[0];
+        private Segment[] segments = new Segment[0];
+        private long newest = Long.MIN_VALUE;
+
+        MoteFiles(File dir) {
+            this.dir = dir;
+        }
+
+        void append(long timestamp, float value) throws IOException {
+            load();
+            if (timestamp <= newest) {
+                return;
+            }
+            long start = Math.floorDiv(timestamp, segmentMillis) * segmentMillis;
+            Segment segment = starts.length > 0 && starts[starts.length - 1] == start
+                    ? segment(starts.length - 1) : addSegment(start);
+            segment.append(timestamp, value);
+            newest = timestamp;
+        }
+
+        void flush() throws IOException {
+            if (segments.length > 0 && segments[segments.length - 1] != null) {
+                segments[segments.length - 1].flush();
+            }
+        }
+
+        void scan(long from, long to, int mote, SensorBatch out) throws IOException {
+            load();
+            for (int i = firstOverlapping(from); i < starts.length && starts[i] < to; i++) {
+                segment(i).scan(from, to, mote, out);
+            }
+        }
+
+        void scanRollups(long from, long to, RollupSlice out) throws IOException {
+            long[] rollupStarts = list(ROLLUP_SUFFIX);
+            for (long start : rollupStarts) {
+                if (start + segmentMillis <= from || start >= to) {
+                    continue;
+                }
+                ByteBuffer buf = read(new File(dir, start + ROLLUP_SUFFIX));
+                for (int offset = 0; offset + ROLLUP_BYTES <= buf.limit(); offset += ROLLUP_BYTES) {
+                    long hour = buf.getLong(offset);
+                    if (hour >= from && hour < to) {
+                        out.add(hour, buf.getFloat(offset + 8), buf.getFloat(offset + 12),
+                                buf.getDouble(offset + 16), buf.getInt(offset + 24),
+                                buf.getFloat(offset + 28));
+                    }
+                }
+            }
+        }
+
+        void appendRollups(RollupSlice rollups) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(
+                    (int) (segmentMillis / Resolution.HOUR.millis()) * ROLLUP_BYTES);
+            int i = 0;
+            while (i < rollups.size()) {
+                // one rollup file per segment span, as fold() would have written it
+                long start = Math.floorDiv(rollups.start(i), segmentMillis) * segmentMillis;
+                buf.clear();
+                for (; i < rollups.size() && rollups.start(i) < start + segmentMillis; i++) {
+                    buf.putLong(rollups.start(i)).putFloat(rollups.min(i))
+                            .putFloat(rollups.max(i)).putDouble(rollups.sum(i))
+                            .putInt(rollups.count(i)).putFloat(rollups.last(i));
+                }
+                buf.flip();
+                File file = new File(dir, start + ROLLUP_SUFFIX);
+                try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                    FileChannel channel = out.getChannel();
+                    channel.position(channel.size());
+                    while (buf.hasRemaining()) {
+                        channel.write(buf);
+                    }
+                }
+            }
+        }
+
+        /** Folds the oldest expired segment or drops the oldest expired rollup file. */
+        long compact(long rawCutoff, long rollupCutoff) throws IOException {
+            load();
+            if (starts.length > 0 && starts[0] + segmentMillis <= rawCutoff
+                    && starts.length > 1) {
+                return fold(0);
+            }
+            for (long start : list(ROLLUP_SUFFIX)) {
+                if (start + segmentMillis <= rollupCutoff) {
+                    File file = new File(dir, start + ROLLUP_SUFFIX);
+                    long length = file.length();
+                    if (!file.delete()) {
+                        throw new IOException("Cannot delete " + file);
+                    }
+                    return Math.max(1, length);
+                }
+            }
+            return 0;
+        }
+
+        /** Closes the segment starting at {@code start}, unless it is now the newest. */
+        void closeOlder(long start) throws IOException {
+            int i = loaded ? Arrays.binarySearch(starts, start) : -1;
+            if (i >= 0 && i < starts.length - 1 && segments[i] != null) {
+                Segment segment = segments[i];
+                segments[i] = null;
+                segment.close();
+            }
+        }
+
+        void close() throws IOException {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] != null) {
+                    segments[i].close();
+                    segments[i] = null;
+                }
+            }
+            loaded = false;
+        }
+
+        /**
+         * Writes the hourly rollups of segment {@code i} and deletes it. The newest segment is
+         * never folded, so appends never have to recreate it.
+         */
+        private long fold(int i) throws IOException {
+            Segment segment = segment(i);
+            long bytes = segment.byteLength();
+            ByteBuffer rollups = ByteBuffer.allocate(
+                    (int) (segmentMillis / Resolution.HOUR.millis()) * ROLLUP_BYTES);
+            HourFolder hours = new HourFolder((start, low, high, total, count, last, lastTs) ->
+                    rollups.putLong(start).putFloat(low).putFloat(high).putDouble(total)
+                            .putInt(count).putFloat(last));
+            segment.forEach(hours);
+            hours.finish();
+            rollups.flip();
+            File file = new File(dir, segment.start() + ROLLUP_SUFFIX);
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(0);
+                FileChannel channel = out.getChannel();
+                while (rollups.hasRemaining()) {
+                    channel.write(rollups);
+                }
+                // the rollups must be durable before the readings they replace go away
+                channel.force(true);
+            }
+            bytes += file.length();
+            segment.delete();
+            forget(this, segment.start());
+            starts = remove(starts, i);
+            Segment[] remaining = new Segment[segments.length - 1];
+            System.arraycopy(segments, 0, remaining, 0, i);
+            System.arraycopy(segments, i + 1, remaining, i, remaining.length - i);
+            segments = remaining;
+            return bytes;
+        }
+
+        private void load() throws IOException {
+            if (loaded) {
+                return;
+            }
+            starts = list(Segment.DATA_SUFFIX);
+            segments = new Segment[starts.length];
+            newest = starts.length > 0 ? segment(starts.length - 1).lastTimestamp() : Long.MIN_VALUE;
+            loaded = true;
+        }
+
+        private Segment segment(int i) throws IOException {
+            if (segments[i] == null) {
+                segments[i] = Segment.open(dir, starts[i]);
+            }
+            if (i < starts.length - 1) {
+                touch(this, starts[i]);
+            }
+            return segments[i];
+        }
+
+        private Segment addSegment(long start) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            Segment segment = Segment.open(dir, start);
+            starts = Arrays.copyOf(starts, starts.length + 1);
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            starts[starts.length - 1] = start;
+            segments[segments.length - 1] = segment;
+            if (segments.length > 1 && segments[segments.length - 2] != null) {
+                // no longer the newest: the LRU may close it from now on
+                segments[segments.length - 2].flush();
+                touch(this, starts[starts.length - 2]);
+            }
+            return segment;
+        }
+
+        private int firstOverlapping(long from) {
+            int i = Arrays.binarySearch(starts, Math.floorDiv(from, segmentMillis) * segmentMillis);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        /** Sorted starts of the files in the mote's directory with {@code suffix}. */
+        private long[] list(String suffix) {
+            String[] names = dir.list();
+            if (names == null) {
+                return new long[0];
+            }
+            long[] found = new long[names.length];
+            int n = 0;
+            for (String name : names) {
+                if (name.endsWith(suffix)) {
+                    try {
+                        found[n++] = Long.parseLong(name.substring(0, name.length() - suffix.length()));
+                    } catch (NumberFormatException e) {
+                        // not ours
+                    }
+                }
+            }
+            found = Arrays.copyOf(found, n);
+            Arrays.sort(found);
+            return found;
+        }
+    }
+
+    /** Key of an open older segment in the LRU. */
+    private static final class OpenSegment {
+
+        final MoteFiles files;
+        final long start;
+
+        OpenSegment(MoteFiles files, long start) {
+            this.files = files;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof OpenSegment)) {
+                return false;
+            }
+            OpenSegment other = (OpenSegment) o;
+            return files == other.files && start == other.start;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(files) * 31 + Long.hashCode(start);
+        }
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            ByteBuffer buf = ByteBuffer.allocate((int) in.length());
+            FileChannel channel = in.getChannel();
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                // keep reading
+            }
+            buf.flip();
+            return buf;
+        }
+    }
+
+    private static long[] remove(long[] array, int i) {
+        long[] result = new long[array.length - 1];
+        System.arraycopy(array, 0, result, 0, i);
+        System.arraycopy(array, i + 1, result, i, result.length - i);
+        return result;
+    }
+}
@@ -0,0 +1,417 @@
+package com.example.amio.store;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.amio.data.SensorBatch;
+
+import java.io.IOException;
+
+/**
+ * {@link HistoryStore} over Android SQLite.
+ *
+ * <p>Readings live in a {@code WITHOUT ROWID} table whose primary key {@code (mote, label, ts)}
+ * is the table itself: a range scan of one mote walks a single B-tree in timestamp order and
+ * finds the value in the same leaf, with no separate index lookup. The database runs in WAL
+ * mode, so scans from other threads are not blocked by appends. Each {@link #append} is one
+ * transaction through a compiled insert statement reused for the life of the store.
+ *
+ * <p>{@link #compact} folds old readings into a {@code rollups} table keyed the same way, one
+ * series (mote and label) and a bounded number of rows per transaction, and returns freed
+ * pages to the file system with {@code incremental_vacuum} once a full pass finds nothing
+ * left to fold.
+ *
+ * <p>The database is opened on first use, on the calling thread.
+ */
+public final class SqliteHistoryStore implements HistoryStore {
+
+    private static final int VERSION = 2;
+
+    /** Rough bytes of page I/O to read, or delete, one reading or one rollup. */
+    private static final int READING_BYTES = 48;
+    private static final int ROLLUP_BYTES = 80;
+
+    private static final String CREATE_READINGS = "CREATE TABLE readings ("
+            + "mote INTEGER NOT NULL, "
+            + "label TEXT NOT NULL, "
+            + "ts INTEGER NOT NULL, "
+            + "value REAL NOT NULL, "
+            + "PRIMARY KEY (mote, label, ts)) WITHOUT ROWID";
+    private static final String CREATE_ROLLUPS = "CREATE TABLE rollups ("
+            + "mote INTEGER NOT NULL, "
+            + "label TEXT NOT NULL, "
+            + "start INTEGER NOT NULL, "
+            + "low REAL NOT NULL, "
+            + "high REAL NOT NULL, "
+            + "total REAL NOT NULL, "
+            + "count INTEGER NOT NULL, "
+            + "last REAL NOT NULL, "
+            + "last_ts INTEGER NOT NULL, "
+            + "PRIMARY KEY (mote, label, start)) WITHOUT ROWID";
+    private static final String INSERT =
+            "INSERT OR IGNORE INTO readings (mote, label, ts, value) VALUES (?, ?, ?, ?)";
+    private static final String SCAN = "SELECT ts, value FROM readings "
+            + "WHERE mote = ? AND label = ? AND ts >= ? AND ts < ? ORDER BY ts";
+    private static final String SCAN_ROLLUPS = "SELECT start, low, high, total, count, last "
+            + "FROM rollups WHERE mote = ? AND label = ? AND start >= ? AND start < ? "
+            + "ORDER BY start";
+    // both bound the same way, the merge running when the insert finds the hour present
+    private static final String ROLLUP_INSERT = "INSERT OR IGNORE INTO rollups "
+            + "(mote, label, start, low, high, total, count, last, last_ts) "
+            + "VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9)";
+    private static final String ROLLUP_MERGE = "UPDATE rollups SET "
+            + "low = min(low, ?4), high = max(high, ?5), total = total + ?6, "
+            + "count = count + ?7, last = CASE WHEN ?9 >= last_ts THEN ?8 ELSE last END, "
+            + "last_ts = max(last_ts, ?9) "
+            + "WHERE mote = ?1 AND label = ?2 AND start = ?3";
+    private static final String MOTES = "SELECT mote FROM readings WHERE label = ?1 "
+            + "UNION SELECT mote FROM rollups WHERE label = ?1 ORDER BY mote";
+    private static final String[] SERIES_TABLES = {"readings", "rollups"};
+
+    private final Helper helper;
+
+    // guarded by this
+    private SQLiteStatement insert;
+    private SQLiteStatement rollupInsert;
+    private SQLiteStatement rollupMerge;
+
+    // compaction position, guarded by this; a null label is before the first series
+    private int compactMote;
+    private String compactLabel;
+    private boolean onSeries;
+    private boolean passFoundWork;
+
+    /** @param name database file name, or null for an in-memory database */
+    public SqliteHistoryStore(Context context, String name) {
+        helper = new Helper(context, name);
+    }
+
+    @Override
+    public synchronized void append(SensorBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        String label = batch.getLabel() != null ? batch.getLabel() : "";
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            if (insert == null) {
+                insert = db.compileStatement(INSERT);
+            }
+            db.beginTransactionNonExclusive();
+            try {
+                insert.bindString(2, label);
+                for (int i = 0; i < batch.size(); i++) {
+                    insert.bindLong(1, batch.mote(i));
+                    insert.bindLong(3, batch.timestamp(i));
+                    insert.bindDouble(4, batch.value(i));
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Storing " + batch.size() + " readings failed", e);
+        }
+    }
+
+    @Override
+    public int scan(String label, int mote, long from, long to, SensorBatch out) throws IOException {
+        out.clear();
+        out.setLabel(label);
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(SCAN, new String[]{
+                Integer.toString(mote), label, Long.toString(from), Long.toString(to)})) {
+            while (cursor.moveToNext()) {
+                out.add(cursor.getLong(0), cursor.getFloat(1), mote);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Scanning mote " + mote + " failed", e);
+        }
+        return out.size();
+    }
+
+    @Override
+    public int scanRollups(String label, int mote, long from, long to, RollupSlice out)
+            throws IOException {
+        out.reset(Resolution.HOUR);
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(SCAN_ROLLUPS, new String[]{
+                Integer.toString(mote), label, Long.toString(from), Long.toString(to)})) {
+            while (cursor.moveToNext()) {
+                out.add(cursor.getLong(0), cursor.getFloat(1), cursor.getFloat(2),
+                        cursor.getDouble(3), cursor.getInt(4), cursor.getFloat(5));
+            }
+        } catch (SQLException e) {
+            throw new IOException("Scanning rollups of mote " + mote + " failed", e);
+        }
+        return out.size();
+    }
+
+    @Override
+    public int[] motes(String label) throws IOException {
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(MOTES, new String[]{label})) {
+            int[] motes = new int[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                motes[i] = cursor.getInt(0);
+            }
+            return motes;
+        } catch (SQLException e) {
+            throw new IOException("Listing motes of " + label + " failed", e);
+        }
+    }
+
+    /** Merges into any rollup already held for the same hour; one transaction per call. */
+    @Override
+    public synchronized void appendRollups(String label, int mote, RollupSlice rollups)
+            throws IOException {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            compileRollupStatements(db);
+            db.beginTransactionNonExclusive();
+            try {
+                for (int i = 0; i < rollups.size(); i++) {
+                    // the newest reading's own time is not kept; the end of the hour stands in
+                    writeRollup(mote, label, rollups.start(i), rollups.min(i), rollups.max(i),
+                            rollups.sum(i), rollups.count(i), rollups.last(i),
+                            rollups.start(i) + Resolution.HOUR.millis() - 1);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Storing " + rollups.size() + " rollups failed", e);
+        }
+    }
+
+    @Override
+    public synchronized long compact(long rawCutoff, long rollupCutoff, int maxRows)
+            throws IOException {
+        // whole hours only, so no rollup is ever built from part of an hour
+        rawCutoff = Resolution.HOUR.bucketStart(rawCutoff);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            while (true) {
+                if (!onSeries) {
+                    if (!nextSeries(db)) {
+                        compactLabel = null;
+                        if (!passFoundWork) {
+                            return vacuum(db, maxRows);
+                        }
+                        passFoundWork = false;
+                        continue;
+                    }
+                    onSeries = true;
+                }
+                long bytes = compactSeries(db, rawCutoff, rollupCutoff, maxRows);
+                if (bytes > 0) {
+                    passFoundWork = true;
+                    return bytes;
+                }
+                onSeries = false;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Compacting history failed", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (insert != null) {
+            insert.close();
+            insert = null;
+        }
+        if (rollupInsert != null) {
+            rollupInsert.close();
+            rollupMerge.close();
+            rollupInsert = null;
+            rollupMerge = null;
+        }
+        helper.close();
+    }
+
+    /**
+     * Folds up to about {@code maxRows} of the oldest readings of the current series into
+     * rollups, whole hours at a time, and expires its old rollups, in one transaction.
+     *
+     * @return 0 once the series has nothing left to do
+     */
+    private long compactSeries(SQLiteDatabase db, long rawCutoff, long rollupCutoff, int maxRows)
+            throws IOException {
+        String mote = Integer.toString(compactMote);
+        String cutoff = Long.toString(rawCutoff);
+        long bytes = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            int expired = db.delete("rollups", "mote = ? AND label = ? AND start < ?",
+                    new String[]{mote, compactLabel, Long.toString(rollupCutoff)});
+            bytes += (long) expired * ROLLUP_BYTES;
+
+            long first = longQuery(db, "SELECT min(ts) FROM readings "
+                    + "WHERE mote = ? AND label = ? AND ts < ?", mote, compactLabel, cutoff);
+            if (first != Long.MIN_VALUE) {
+                long end = longQuery(db, "SELECT ts FROM readings "
+                                + "WHERE mote = ? AND label = ? AND ts < ? ORDER BY ts LIMIT 1 OFFSET ?",
+                        mote, compactLabel, cutoff, Integer.toString(maxRows));
+                end = end == Long.MIN_VALUE ? rawCutoff : Resolution.HOUR.bucketStart(end);
+                long firstHour = Resolution.HOUR.bucketStart(first);
+                if (end <= firstHour) {
+                    // more than maxRows readings in one hour: fold the hour anyway
+                    end = firstHour + Resolution.HOUR.millis();
+                }
+                int folded = foldIntoRollups(db, mote, end);
+                db.delete("readings", "mote = ? AND label = ? AND ts < ?",
+                        new String[]{mote, compactLabel, Long.toString(end)});
+                bytes += 2L * folded * READING_BYTES;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return bytes;
+    }
+
+    /** Merges the readings of the current series older than {@code end} into rollups. */
+    private int foldIntoRollups(SQLiteDatabase db, String mote, long end) throws IOException {
+        compileRollupStatements(db);
+        HourFolder hours = new HourFolder((start, low, high, total, count, last, lastTs) ->
+                writeRollup(compactMote, compactLabel, start, low, high, total, count, last,
+                        lastTs));
+        try (Cursor cursor = db.rawQuery("SELECT ts, value FROM readings "
+                        + "WHERE mote = ? AND label = ? AND ts < ? ORDER BY ts",
+                new String[]{mote, compactLabel, Long.toString(end)})) {
+            while (cursor.moveToNext()) {
+                hours.visit(cursor.getLong(0), cursor.getFloat(1));
+            }
+        }
+        hours.finish();
+        return hours.folded();
+    }
+
+    private void writeRollup(int mote, String label, long start, float low, float high,
+                             double total, int count, float last, long lastTs) {
+        for (SQLiteStatement statement : new SQLiteStatement[]{rollupInsert, rollupMerge}) {
+            statement.bindLong(1, mote);
+            statement.bindString(2, label);
+            statement.bindLong(3, start);
+            statement.bindDouble(4, low);
+            statement.bindDouble(5, high);
+            statement.bindDouble(6, total);
+            statement.bindLong(7, count);
+            statement.bindDouble(8, last);
+            statement.bindLong(9, lastTs);
+            if (statement.executeUpdateDelete() > 0) {
+                return;
+            }
+        }
+    }
+
+    private void compileRollupStatements(SQLiteDatabase db) {
+        if (rollupInsert == null) {
+            rollupInsert = db.compileStatement(ROLLUP_INSERT);
+            rollupMerge = db.compileStatement(ROLLUP_MERGE);
+        }
+    }
+
+    /** Moves the compaction position to the next series in either table; false past the last. */
+    private boolean nextSeries(SQLiteDatabase db) {
+        boolean found = false;
+        int nextMote = 0;
+        String nextLabel = null;
+        for (String table : SERIES_TABLES) {
+            int mote = compactMote;
+            String label = null;
+            if (compactLabel != null) {
+                try (Cursor cursor = db.rawQuery("SELECT label FROM " + table
+                                + " WHERE mote = ? AND label > ? ORDER BY label LIMIT 1",
+                        new String[]{Integer.toString(compactMote), compactLabel})) {
+                    if (cursor.moveToNext()) {
+                        label = cursor.getString(0);
+                    }
+                }
+            }
+            if (label == null) {
+                String sql = "SELECT mote, label FROM " + table
+                        + (compactLabel != null ? " WHERE mote > ?" : "")
+                        + " ORDER BY mote, label LIMIT 1";
+                try (Cursor cursor = db.rawQuery(sql, compactLabel != null
+                        ? new String[]{Integer.toString(compactMote)} : null)) {
+                    if (cursor.moveToNext()) {
+                        mote = cursor.getInt(0);
+                        label = cursor.getString(1);
+                    }
+                }
+            }
+            if (label != null && (!found || mote < nextMote
+                    || (mote == nextMote && label.compareTo(nextLabel) < 0))) {
+                found = true;
+                nextMote = mote;
+                nextLabel = label;
+            }
+        }
+        if (found) {
+            compactMote = nextMote;
+            compactLabel = nextLabel;
+        }
+        return found;
+    }
+
+    /** Gives up to about {@code maxRows} readings' worth of free pages back to the file system. */
+    private long vacuum(SQLiteDatabase db, int maxRows) {
+        long free = longQuery(db, "PRAGMA freelist_count");
+        if (free <= 0) {
+            return 0;
+        }
+        long pageSize = db.getPageSize();
+        long pages = Math.min(free, Math.max(1, (long) maxRows * READING_BYTES / pageSize));
+        db.execSQL("PRAGMA incremental_vacuum(" + pages + ")");
+        if (longQuery(db, "PRAGMA freelist_count") == free) {
+            // not an incremental auto_vacuum database: nothing can be given back
+            return 0;
+        }
+        return 2 * pages * pageSize;
+    }
+
+    /** First column of the first row, or {@link Long#MIN_VALUE} if there is none or it is null. */
+    private static long longQuery(SQLiteDatabase db, String sql, String... args) {
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            return cursor.moveToNext() && !cursor.isNull(0) ? cursor.getLong(0) : Long.MIN_VALUE;
+        }
+    }
+
+    private static final class Helper extends SQLiteOpenHelper {
+
+        Helper(Context context, String name) {
+            super(context, name, null, VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // only takes effect on a new database, before the tables are created
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            // with WAL, NORMAL only risks the last transactions on power loss, which the
+            // ingest journal replays
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_READINGS);
+            db.execSQL(CREATE_ROLLUPS);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                db.execSQL(CREATE_ROLLUPS);
+            }
+        }
+    }
+}
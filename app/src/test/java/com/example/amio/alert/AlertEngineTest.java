@@ -0,0 +1,205 @@
+package com.example.amio.alert;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.schedule.DailyWindow;
+import com.example.amio.schedule.MonitoringWindow;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.DayOfWeek;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AlertEngineTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    private final List<String> alerts = new ArrayList<>();
+    private final AlertEngine.Listener recorder = (rule, mote, since, value) ->
+            alerts.add(rule.getName() + " " + mote + " @" + since / MINUTE + "+"
+                    + rule.getHoldMillis() / MINUTE);
+
+    @Test
+    public void rule_firesOnceAfterHoldingAndRearms() throws IOException {
+        AlertEngine engine = new AlertEngine(parse("bright: light1 > 250 for 3m -> x"),
+                recorder);
+        float[] lux = {300, 300, 100, 300, 300, 300, 300, 300, 100, 260, 260, 260, 260};
+        for (int m = 0; m < lux.length; m++) {
+            engine.accept("light1", 7, m * MINUTE, lux[m]);
+        }
+        // the first streak breaks at minute 2; the second fires at 6, the third at 12
+        assertEquals("[bright 7 @3+3, bright 7 @9+3]", alerts.toString());
+    }
+
+    @Test
+    public void rules_onlyTouchTheirMoteAndLabel() throws IOException {
+        AlertEngine engine = new AlertEngine(parse("one: light1@0.7 > 10 -> x\n"
+                + "all: light1 > 100 -> x\n"
+                + "hot: temperature > 30 -> x\n"), recorder);
+        engine.onBatch(batch("light1", 0, 50, 7, 8));
+        engine.onBatch(batch("light1", MINUTE, 500, 7, 8));
+        engine.onBatch(batch("humidity", 2 * MINUTE, 500, 7, 8));
+        engine.onBatch(batch("temperature", 3 * MINUTE, 35, 7));
+        // stale reading: ignored
+        engine.onBatch(batch("light1", 0, 5, 7));
+        assertEquals("[one 7 @0+0, all 7 @1+0, all 8 @1+0, hot 7 @3+0]", alerts.toString());
+        // 0.7 has its own rule and the any-mote one; 0.8 and temperature's 0.7 one each
+        assertEquals(4, engine.entryCount());
+        assertEquals(3, engine.ruleCount());
+    }
+
+    @Test
+    public void window_armsTheRuleAndBreaksTheStreak() {
+        // weekdays 19:00-23:00 UTC; 1970-01-05 was a Monday
+        MonitoringWindow evening = new DailyWindow(
+                EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), 19 * 60, 23 * 60,
+                ZoneOffset.UTC);
+        List<AlertRule> rules = new ArrayList<>();
+        rules.add(new AlertRule("evening", "light1", AlertRule.ANY_MOTE,
+                AlertRule.Comparison.ABOVE, 250, 10 * MINUTE, evening, "facilities"));
+        AlertEngine engine = new AlertEngine(rules, recorder);
+        long monday = 4 * 24 * HOUR;
+        for (long t = monday + 18 * HOUR; t < monday + 24 * HOUR; t += MINUTE) {
+            engine.accept("light1", 1, t, 300);
+        }
+        long saturday = monday + 5 * 24 * HOUR;
+        for (long t = saturday + 18 * HOUR; t < saturday + 24 * HOUR; t += MINUTE) {
+            engine.accept("light1", 1, t, 300);
+        }
+        // lit from 18:00 but only armed from 19:00; nothing on Saturday
+        assertEquals("[evening 1 @" + (monday + 19 * HOUR) / MINUTE + "+10]",
+                alerts.toString());
+    }
+
+    @Test
+    public void benchmark_tenThousandRulesOnAThousandMotes() {
+        int motes = 1000;
+        int minutes = 120;
+        String[] labels = {"light1", "temperature", "humidity", "battery_indicator"};
+        Random random = new Random(1);
+        MonitoringWindow[] windows = {
+                MonitoringWindow.ALWAYS,
+                new DailyWindow(19 * 60, 23 * 60, ZoneOffset.UTC),
+                new DailyWindow(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), 0, 1440,
+                        ZoneOffset.UTC),
+                new DailyWindow(22 * 60, 6 * 60, ZoneOffset.UTC),
+        };
+        List<AlertRule> rules = new ArrayList<>();
+        for (int r = 0; r < 10_000; r++) {
+            // a handful of any-mote rules per label, the rest on single motes
+            int mote = r < 8 ? AlertRule.ANY_MOTE : random.nextInt(motes);
+            rules.add(new AlertRule("r" + r, labels[r % labels.length], mote,
+                    AlertRule.Comparison.values()[random.nextInt(4)], random.nextInt(500),
+                    random.nextInt(30) * MINUTE, windows[random.nextInt(windows.length)], "x"));
+        }
+
+        SensorBatch[][] batches = new SensorBatch[minutes][labels.length];
+        for (int m = 0; m < minutes; m++) {
+            for (int l = 0; l < labels.length; l++) {
+                SensorBatch batch = new SensorBatch(motes);
+                batch.setLabel(labels[l]);
+                for (int mote = 0; mote < motes; mote++) {
+                    batch.add(20 * HOUR + m * MINUTE, random.nextInt(500), mote);
+                }
+                batches[m][l] = batch;
+            }
+        }
+        long readings = (long) minutes * labels.length * motes;
+
+        int[] fired = new int[1];
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        double best = 0;
+        AlertEngine engine = null;
+        for (int round = 0; round < 5; round++) {
+            fired[0] = 0;
+            engine = new AlertEngine(rules, (rule, mote, since, value) -> fired[0]++);
+            // first hour: every mote is seen, and the JIT warms up
+            for (int m = 0; m < minutes / 2; m++) {
+                for (SensorBatch batch : batches[m]) {
+                    engine.onBatch(batch);
+                }
+            }
+            long before = allocatedBytes(threads);
+            long start = System.nanoTime();
+            for (int m = minutes / 2; m < minutes; m++) {
+                for (SensorBatch batch : batches[m]) {
+                    engine.onBatch(batch);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = allocatedBytes(threads) - before;
+            best = Math.max(best, readings / 2 / seconds);
+        }
+
+        // the same rules interpreted one by one against every reading
+        double interpreted = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int matched = 0;
+            for (int m = minutes / 2; m < minutes / 2 + 6; m++) {
+                for (SensorBatch batch : batches[m]) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        for (AlertRule rule : rules) {
+                            if (rule.getLabel().equals(batch.getLabel())
+                                    && (rule.getMote() == AlertRule.ANY_MOTE
+                                    || rule.getMote() == batch.mote(i))
+                                    && rule.getComparison().test(batch.value(i),
+                                    rule.getThreshold())
+                                    && rule.getWindow().contains(batch.timestamp(i))) {
+                                matched++;
+                            }
+                        }
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            interpreted = Math.max(interpreted, 6L * labels.length * motes / seconds);
+            assertTrue(matched > 0);
+        }
+
+        System.out.println(String.format(Locale.ROOT,
+                "alert engine: %d rules, %d motes, %d entries: %.1f M readings/s compiled vs "
+                        + "%.3f M/s interpreted, %d alerts, %d bytes allocated in the last hour",
+                rules.size(), motes, engine.entryCount(), best / 1e6, interpreted / 1e6,
+                fired[0], allocated));
+        assertTrue(fired[0] > 0);
+        assertTrue(best > interpreted);
+        if (allocated >= 0) {
+            // only the windows' own answers, once a minute each
+            assertTrue(allocated < readings);
+        }
+    }
+
+    private static List<AlertRule> parse(String text) throws IOException {
+        return AlertRules.parse(new StringReader(text), ZoneOffset.UTC);
+    }
+
+    private static SensorBatch batch(String label, long timestamp, float value, int... motes) {
+        SensorBatch batch = new SensorBatch(motes.length);
+        batch.setLabel(label);
+        for (int mote : motes) {
+            batch.add(timestamp, value, mote);
+        }
+        return batch;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.amio.alert;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.schedule.MonitoringWindow;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertRulesTest {
+
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+
+    @Test
+    public void parse_readsEveryPart() throws IOException {
+        List<AlertRule> rules = parse("# evening checks\n"
+                + "\n"
+                + "evening-lights: light1 > 250 for 10m weekdays 19:00-23:00 -> facilities\n"
+                + "lab-dark: light1@9.138 <= 5 for 1h sat,sun -> security  # weekends only\n"
+                + "any-time: temperature >= 30 -> facilities\n");
+        assertEquals(3, rules.size());
+
+        AlertRule evening = rules.get(0);
+        assertEquals("evening-lights", evening.getName());
+        assertEquals("light1", evening.getLabel());
+        assertEquals(AlertRule.ANY_MOTE, evening.getMote());
+        assertEquals(AlertRule.Comparison.ABOVE, evening.getComparison());
+        assertEquals(250, evening.getThreshold(), 0);
+        assertEquals(10 * 60_000L, evening.getHoldMillis());
+        assertEquals("facilities", evening.getTarget());
+        // 2024-05-03 was a Friday
+        assertTrue(evening.getWindow().contains(at(2024, 5, 3, 19, 0)));
+        assertTrue(evening.getWindow().contains(at(2024, 5, 3, 22, 59)));
+        assertFalse(evening.getWindow().contains(at(2024, 5, 3, 23, 0)));
+        assertFalse(evening.getWindow().contains(at(2024, 5, 4, 20, 0)));
+
+        AlertRule dark = rules.get(1);
+        assertEquals(MoteId.pack("9.138"), dark.getMote());
+        assertEquals(AlertRule.Comparison.AT_MOST, dark.getComparison());
+        assertEquals(3_600_000L, dark.getHoldMillis());
+        assertTrue(dark.getWindow().contains(at(2024, 5, 4, 0, 0)));
+        assertTrue(dark.getWindow().contains(at(2024, 5, 5, 23, 59)));
+        assertFalse(dark.getWindow().contains(at(2024, 5, 6, 0, 0)));
+
+        AlertRule any = rules.get(2);
+        assertSame(MonitoringWindow.ALWAYS, any.getWindow());
+        assertEquals(0, any.getHoldMillis());
+    }
+
+    @Test
+    public void parse_wrapsDaysAndMidnight() throws IOException {
+        List<AlertRule> rules = parse("night: light1 > 100 fri-mon 22:00-06:00 -> security\n"
+                + "again: light1 > 200 fri-mon 22:00-06:00 -> facilities\n");
+        MonitoringWindow window = rules.get(0).getWindow();
+        // Monday night runs into Tuesday morning; Tuesday night is not armed
+        assertTrue(window.contains(at(2024, 5, 6, 23, 0)));
+        assertTrue(window.contains(at(2024, 5, 7, 5, 59)));
+        assertFalse(window.contains(at(2024, 5, 7, 23, 0)));
+        assertFalse(window.contains(at(2024, 5, 3, 5, 0)));
+        assertTrue(window.contains(at(2024, 5, 4, 5, 0)));
+        // equal schedules share one window
+        assertSame(window, rules.get(1).getWindow());
+    }
+
+    @Test
+    public void parse_disarmsWeekdayRulesOnHolidays() throws IOException {
+        // 2024-05-09 was Ascension Thursday
+        List<AlertRule> rules = AlertRules.parse(new StringReader(
+                "evening: light1 > 250 weekdays 19:00-23:00 -> facilities\n"
+                        + "sunday: light1 > 250 sun 19:00-23:00 -> facilities\n"), ZONE,
+                Arrays.asList(LocalDate.of(2024, 5, 9)));
+        assertTrue(rules.get(0).getWindow().contains(at(2024, 5, 8, 20, 0)));
+        assertFalse(rules.get(0).getWindow().contains(at(2024, 5, 9, 20, 0)));
+        assertTrue(rules.get(1).getWindow().contains(at(2024, 5, 9, 20, 0)));
+    }
+
+    @Test
+    public void parse_reportsTheBadLine() throws IOException {
+        String[] bad = {
+                "no-arrow: light1 > 5",
+                "bad-op: light1 => 5 -> x",
+                "bad-day: light1 > 5 someday -> x",
+                "bad-time: light1 > 5 25:00-26:00 -> x",
+                "bad-hold: light1 > 5 for 10y -> x",
+        };
+        for (String line : bad) {
+            try {
+                parse("ok: light1 > 5 -> x\n" + line + "\n");
+                fail(line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+            }
+        }
+    }
+
+    private static List<AlertRule> parse(String text) throws IOException {
+        return AlertRules.parse(new StringReader(text), ZONE);
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(ZONE).toInstant()
+                .toEpochMilli();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.amio.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SensorDictionaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ids_areDenseAndSurviveRestart() throws IOException {
+        File file = new File(folder.getRoot(), "dictionary.bin");
+        SensorDictionary dictionary = new SensorDictionary(file);
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        batch.add(1, 10f, MoteId.pack("9.138"));
+        batch.add(1, 10f, MoteId.pack("9.97"));
+        batch.add(2, 10f, MoteId.pack("9.138"));
+        dictionary.onBatch(batch);
+        assertEquals(1, dictionary.labelId("temperature"));
+
+        assertEquals(0, dictionary.labelIdOf("light1"));
+        assertEquals(0, dictionary.moteIdOf(MoteId.pack("9.138")));
+        assertEquals(1, dictionary.moteIdOf(MoteId.pack("9.97")));
+        assertEquals(SensorDictionary.NONE, dictionary.moteIdOf(MoteId.pack("9.1")));
+        assertEquals(2, dictionary.moteCount());
+        dictionary.close();
+
+        SensorDictionary reopened = new SensorDictionary(file);
+        assertEquals(1, reopened.moteIdOf(MoteId.pack("9.97")));
+        assertEquals(MoteId.pack("9.138"), reopened.moteAt(0));
+        assertEquals("temperature", reopened.labelAt(1));
+        assertEquals(2, reopened.moteId(MoteId.pack("9.1")));
+        reopened.close();
+    }
+
+    @Test
+    public void load_dropsTornRecord() throws IOException {
+        File file = new File(folder.getRoot(), "dictionary.bin");
+        SensorDictionary dictionary = new SensorDictionary(file);
+        dictionary.labelId("light1");
+        dictionary.moteId(7);
+        dictionary.moteId(8);
+        dictionary.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        SensorDictionary reopened = new SensorDictionary(file);
+        assertEquals(1, reopened.moteCount());
+        assertEquals(1, reopened.moteId(9));
+        reopened.close();
+        assertEquals(1, new SensorDictionary(file).moteIdOf(9));
+    }
+
+    @Test
+    public void readers_seeConsistentIdsWhileMotesAreAdded() throws InterruptedException {
+        SensorDictionary dictionary = new SensorDictionary(null);
+        int motes = 5_000;
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                int seen = 0;
+                while (seen < motes && failure.get() == null) {
+                    int count = dictionary.moteCount();
+                    for (int id = seen; id < count; id++) {
+                        int mote = dictionary.moteAt(id);
+                        if (mote != id * 31 || dictionary.moteIdOf(mote) != id) {
+                            failure.set("id " + id + " maps to mote " + mote);
+                        }
+                    }
+                    seen = count;
+                }
+            });
+            readers[r].start();
+        }
+        for (int i = 0; i < motes; i++) {
+            assertEquals(i, dictionary.moteId(i * 31));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+}
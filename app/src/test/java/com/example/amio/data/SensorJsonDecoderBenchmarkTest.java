@@ -0,0 +1,176 @@
+package com.example.amio.data;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link SensorJsonDecoder} against {@code org.json} and compares allocation and
+ * throughput of the two. Numbers are printed rather than asserted, except for allocation,
+ * where the streaming decoder must stay an order of magnitude below the tree.
+ */
+public class SensorJsonDecoderBenchmarkTest {
+
+    private static final int READINGS = 500;
+    private static final int POLLS = 2_000;
+
+    @Test
+    public void decode_matchesOrgJson() throws Exception {
+        byte[] payload = payload(READINGS);
+        SensorBatch batch = new SensorBatch();
+
+        assertEquals(READINGS, new SensorJsonDecoder().decode(payload, batch));
+
+        JSONArray data = new JSONObject(new String(payload, StandardCharsets.UTF_8)).getJSONArray("data");
+        assertEquals("light1", batch.getLabel());
+        for (int i = 0; i < READINGS; i++) {
+            JSONObject reading = data.getJSONObject(i);
+            assertEquals(reading.getLong("timestamp"), batch.timestamp(i));
+            assertEquals((float) reading.getDouble("value"), batch.value(i), 0f);
+            assertEquals(MoteId.pack(reading.getString("mote")), batch.mote(i));
+        }
+    }
+
+    @Test
+    public void decode_skipsUnknownFieldsAndHandlesOddNumbers() throws IOException {
+        String json = "{ \"meta\": {\"n\": [1, {\"x\": \"]\"}]}, \"data\": [ "
+                + "{\"extra\":null, \"timestamp\": 1700000000123, \"value\": -1.5e2,"
+                + " \"label\": \"temp\\\"x\", \"mote\": 12.7 } ] }";
+        SensorBatch batch = new SensorBatch(1);
+
+        new SensorJsonDecoder().decode(json.getBytes(StandardCharsets.UTF_8), batch);
+
+        assertEquals(1, batch.size());
+        assertEquals(1_700_000_000_123L, batch.timestamp(0));
+        assertEquals(-150f, batch.value(0), 0f);
+        assertEquals(MoteId.pack(12, 7), batch.mote(0));
+    }
+
+    @Test
+    public void decode_unescapesTheLabel() throws IOException {
+        SensorBatch batch = new SensorBatch(1);
+        SensorJsonDecoder decoder = new SensorJsonDecoder();
+        // escapes, then a raw UTF-8 e acute
+        decoder.decode(reading("temp\\\"x\\\\y\\/z\\t\\u00e9\\ud83d\\udca1 \u00e9"), batch);
+        assertEquals("temp\"x\\y/z\t\u00e9\ud83d\udca1 \u00e9", batch.getLabel());
+
+        // the same label, escaped differently, is kept rather than created again
+        String label = batch.getLabel();
+        decoder.decode(reading("temp\\u0022x\\\\y/z\\t\u00e9\\ud83d\\udca1 \\u00E9"), batch);
+        assertSame(label, batch.getLabel());
+        decoder.decode(reading("light1"), batch);
+        assertEquals("light1", batch.getLabel());
+
+        for (String bad : new String[] {"a\\x", "a\\u12", "a\\u12g4"}) {
+            try {
+                decoder.decode(reading(bad), batch);
+                fail(bad);
+            } catch (IOException expected) {
+                // not a JSON escape
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTruncatedPayload() throws IOException {
+        byte[] payload = payload(3);
+        new SensorJsonDecoder().decode(payload, 0, payload.length - 10, new SensorBatch());
+    }
+
+    @Test
+    public void streaming_vsTree() throws Exception {
+        byte[] payload = payload(READINGS);
+        SensorJsonDecoder decoder = new SensorJsonDecoder();
+        SensorBatch batch = new SensorBatch();
+
+        // warm-up
+        for (int i = 0; i < POLLS; i++) {
+            streamingPoll(decoder, payload, batch);
+            treePoll(payload);
+        }
+
+        long streamingBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < POLLS; i++) {
+            checksum += streamingPoll(decoder, payload, batch);
+        }
+        long streamingNanos = System.nanoTime() - start;
+        streamingBytes = allocatedBytes() - streamingBytes;
+
+        long treeBytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < POLLS; i++) {
+            checksum -= treePoll(payload);
+        }
+        long treeNanos = System.nanoTime() - start;
+        treeBytes = allocatedBytes() - treeBytes;
+
+        report("streaming", payload.length, streamingNanos, streamingBytes);
+        report("org.json ", payload.length, treeNanos, treeBytes);
+        assertEquals(0, checksum);
+        assertTrue(streamingBytes * 10 < treeBytes);
+    }
+
+    private static long streamingPoll(SensorJsonDecoder decoder, byte[] payload, SensorBatch batch)
+            throws IOException {
+        batch.clear();
+        decoder.decode(payload, batch);
+        long sum = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            sum += batch.timestamp(i) + batch.mote(i);
+        }
+        return sum;
+    }
+
+    private static long treePoll(byte[] payload) throws Exception {
+        JSONArray data = new JSONObject(new String(payload, StandardCharsets.UTF_8)).getJSONArray("data");
+        long sum = 0;
+        for (int i = 0; i < data.length(); i++) {
+            JSONObject reading = data.getJSONObject(i);
+            reading.getDouble("value");
+            reading.getString("label");
+            sum += reading.getLong("timestamp") + MoteId.pack(reading.getString("mote"));
+        }
+        return sum;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void report(String name, int payloadBytes, long nanos, long allocated) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "%s: %.1f MB/s, %.0f readings/s, %d bytes allocated per poll",
+                name, (double) payloadBytes * POLLS / seconds / 1e6,
+                (double) READINGS * POLLS / seconds, allocated / POLLS));
+    }
+
+    static byte[] payload(int readings) {
+        StringBuilder sb = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < readings; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format(Locale.ROOT,
+                    "{\"timestamp\":%d,\"label\":\"light1\",\"value\":%.2f,\"mote\":\"%d.%d\"}",
+                    1_700_000_000_000L + i * 1000L, 100 + (i * 37 % 400) / 3.0, 9 + i / 256, i % 256));
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** One reading labelled {@code label}, given as it appears between the JSON quotes. */
+    private static byte[] reading(String label) {
+        return ("{\"data\":[{\"timestamp\":1,\"label\":\"" + label
+                + "\",\"value\":2,\"mote\":\"9.138\"}]}").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.amio.detect;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChangeDetectorTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final float NOISE = 2;
+
+    private final List<String> shifts = new ArrayList<>();
+    private final List<Long> shiftTimes = new ArrayList<>();
+    private final ChangeDetector.Listener recorder = (mote, timestamp, baseline, value) -> {
+        shifts.add((value > baseline ? "up " : "down ") + mote + " @" + timestamp / MINUTE);
+        shiftTimes.add(timestamp);
+    };
+
+    @Test
+    public void step_isFlaggedOnceAndBecomesTheNewBaseline() {
+        ChangeDetector detector = new ChangeDetector("light1", 1, recorder);
+        Random random = new Random(1);
+        for (int m = 0; m < 400; m++) {
+            float level = m < 200 ? 300 : 80;
+            detector.accept(7, m * MINUTE, level + (float) random.nextGaussian() * NOISE);
+        }
+        assertEquals(1, shifts.size());
+        assertTrue(shifts.get(0), shifts.get(0).startsWith("down 7 @20"));
+        assertEquals(80, detector.baseline(7), 3);
+        assertEquals(NOISE, detector.sigma(7), 1);
+    }
+
+    @Test
+    public void spikes_andWarmup_raiseNothing() {
+        ChangeDetector detector = new ChangeDetector("light1", 1, recorder);
+        Random random = new Random(2);
+        for (int m = 0; m < 2000; m++) {
+            float value = 50 + (float) random.nextGaussian() * NOISE;
+            if (m % 100 == 50) {
+                value += 500; // a single glint
+            } else if (m % 100 == 75 || m % 100 == 76) {
+                value -= 40; // a two-reading shadow
+            }
+            detector.accept(3, m * MINUTE, value);
+        }
+        assertEquals("[]", shifts.toString());
+        assertEquals(50, detector.baseline(3), 1);
+    }
+
+    @Test
+    public void flatReadings_useTheSigmaFloor() {
+        ChangeDetector detector = new ChangeDetector("light1", 2, recorder);
+        for (int m = 0; m < 100; m++) {
+            // a dark room reads exactly 0, then flickers by a lux
+            detector.accept(1, m * MINUTE, m < 50 ? 0 : m % 2);
+        }
+        assertEquals("[]", shifts.toString());
+        assertEquals(2, detector.sigma(1), 1e-6);
+    }
+
+    @Test
+    public void batches_ignoreOtherLabelsAndStaleReadings() {
+        ChangeDetector detector = new ChangeDetector("light1", 1, recorder);
+        for (int m = 0; m < 40; m++) {
+            detector.onBatch(batch("light1", 5, m * MINUTE, 100 + m % 2));
+        }
+        detector.onBatch(batch("temperature", 5, 41 * MINUTE, 1000));
+        detector.onBatch(batch("light1", 5, 10 * MINUTE, 1000));
+        assertEquals(100.5, detector.baseline(5), 0.5);
+        assertEquals(1, detector.moteCount());
+        assertTrue(Float.isNaN(detector.baseline(6)));
+        for (int m = 41; m < 50; m++) {
+            detector.onBatch(batch("light1", 5, m * MINUTE, 1000));
+        }
+        assertEquals("[up 5 @44]", shifts.toString());
+    }
+
+    @Test
+    public void detectionDelay_onStepTraces() {
+        // delay, in readings after the step, for steps of 1 to 8 sigmas
+        StringBuilder report = new StringBuilder();
+        for (int sigmas = 1; sigmas <= 8; sigmas *= 2) {
+            long delays = 0;
+            int missed = 0;
+            int runs = 200;
+            for (int run = 0; run < runs; run++) {
+                Random random = new Random(run);
+                shiftTimes.clear();
+                ChangeDetector detector = new ChangeDetector("light1", 0.1f, recorder);
+                int step = 300;
+                for (int m = 0; m < step + 200; m++) {
+                    float level = 200 + (m >= step ? sigmas * NOISE : 0);
+                    detector.accept(1, m, level + (float) random.nextGaussian() * NOISE);
+                }
+                long first = shiftTimes.isEmpty() ? -1 : shiftTimes.get(0);
+                if (first < step) {
+                    missed++; // missed outright, or a false alarm before the step
+                } else {
+                    delays += first - step + 1;
+                }
+            }
+            double mean = (double) delays / (runs - missed);
+            report.append(String.format(Locale.ROOT, " %d sigma: %.1f (%d missed);",
+                    sigmas, mean, missed));
+            if (sigmas >= 2) {
+                // about threshold / (min(shift, threshold / 2) - slack), noise aside
+                double bound = ChangeDetector.DEFAULT_THRESHOLD
+                        / (Math.min(sigmas, ChangeDetector.DEFAULT_THRESHOLD / 2)
+                        - ChangeDetector.DEFAULT_SLACK);
+                assertTrue(sigmas + " sigmas: " + mean, mean <= bound * 1.5 + 1);
+                assertTrue(sigmas + " sigmas: " + missed, missed <= runs / 20);
+            }
+            assertTrue(mean >= 2);
+        }
+        System.out.println("change detector, readings to detect a step:" + report);
+    }
+
+    @Test
+    public void drift_slowIsAbsorbedFastIsFlagged() {
+        // 0.01 sigma per reading is under the default alpha * slack and absorbed; 0.1 is not
+        int runs = 50;
+        int slowAlarms = 0;
+        long fastDelays = 0;
+        int fastMissed = 0;
+        for (int run = 0; run < runs; run++) {
+            shiftTimes.clear();
+            driftTrace(run, 0.01);
+            slowAlarms += shiftTimes.size();
+            shiftTimes.clear();
+            driftTrace(run, 0.1);
+            if (shiftTimes.isEmpty() || shiftTimes.get(0) < 300) {
+                fastMissed++;
+            } else {
+                fastDelays += shiftTimes.get(0) - 300 + 1;
+            }
+        }
+        double fastDelay = (double) fastDelays / (runs - fastMissed);
+        System.out.println(String.format(Locale.ROOT,
+                "change detector, drift: %d alarms at 0.01 sigma/reading over %d readings, "
+                        + "0.1 sigma/reading flagged after %.1f readings (%d missed)",
+                slowAlarms, runs * 2000, fastDelay, fastMissed));
+        assertTrue("slow drift alarms: " + slowAlarms, slowAlarms <= runs / 5);
+        assertTrue("fast drift missed: " + fastMissed, fastMissed <= runs / 10);
+        assertTrue(fastDelay < 60);
+    }
+
+    @Test
+    public void falseAlarms_onStationaryNoise() {
+        Random random = new Random(42);
+        int motes = 100;
+        int readings = 10_000;
+        ChangeDetector detector = new ChangeDetector("light1", 0.1f, recorder);
+        for (int m = 0; m < readings; m++) {
+            for (int mote = 0; mote < motes; mote++) {
+                detector.accept(mote, m, 150 + (float) random.nextGaussian() * NOISE);
+            }
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "change detector: %d false alarms in %d stationary readings", shifts.size(),
+                motes * readings));
+        // well under one a day per mote at one reading a minute
+        assertTrue(shifts.size() * 1440L < (long) motes * readings);
+    }
+
+    @Test
+    public void benchmark_readingsPerSecond() {
+        int motes = 500;
+        int minutes = 1440;
+        Random random = new Random(3);
+        float[][] lux = new float[motes][minutes];
+        for (int mote = 0; mote < motes; mote++) {
+            float level = 20 + random.nextInt(300);
+            for (int m = 0; m < minutes; m++) {
+                if (random.nextInt(240) == 0) {
+                    level = 20 + random.nextInt(300);
+                }
+                lux[mote][m] = level + (float) random.nextGaussian() * NOISE;
+            }
+        }
+        int[] count = new int[1];
+        double best = 0;
+        for (int round = 0; round < 5; round++) {
+            count[0] = 0;
+            ChangeDetector detector = new ChangeDetector("light1", 1,
+                    (mote, timestamp, baseline, value) -> count[0]++);
+            long start = System.nanoTime();
+            for (int m = 0; m < minutes; m++) {
+                for (int mote = 0; mote < motes; mote++) {
+                    detector.accept(mote, m * MINUTE, lux[mote][m]);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            best = Math.max(best, motes * minutes / seconds);
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "change detector: %.1f M readings/s, %d shifts in a day of %d motes",
+                best / 1e6, count[0], motes));
+        assertTrue(count[0] > 0);
+    }
+
+    private void driftTrace(int seed, double sigmasPerReading) {
+        Random random = new Random(seed);
+        ChangeDetector detector = new ChangeDetector("light1", 0.1f, recorder);
+        for (int m = 0; m < 2000; m++) {
+            double level = 100 + (m >= 300 ? (m - 300) * sigmasPerReading * NOISE : 0);
+            detector.accept(1, m, (float) (level + random.nextGaussian() * NOISE));
+            if (sigmasPerReading > 0.05 && !shiftTimes.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private static SensorBatch batch(String label, int mote, long timestamp, float value) {
+        SensorBatch batch = new SensorBatch(1);
+        batch.setLabel(label);
+        batch.add(timestamp, value, mote);
+        return batch;
+    }
+}
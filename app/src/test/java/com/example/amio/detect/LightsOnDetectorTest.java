@@ -0,0 +1,176 @@
+package com.example.amio.detect;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorDictionary;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LightsOnDetectorTest {
+
+    private static final long MINUTE = 60_000L;
+
+    private final List<String> events = new ArrayList<>();
+    private final LightsOnDetector.Listener recorder = new LightsOnDetector.Listener() {
+        @Override
+        public void onLightsOn(int mote, long since, float lux) {
+            events.add("on " + mote + " @" + since / MINUTE);
+        }
+
+        @Override
+        public void onLightsOff(int mote, long since, float lux) {
+            events.add("off " + mote + " @" + since / MINUTE);
+        }
+    };
+
+    @Test
+    public void thresholds_needDwellAndIgnoreFlapping() {
+        LightsOnDetector detector = new LightsOnDetector("light1", 100, 50, 3 * MINUTE, 1000,
+                recorder);
+        float[] lux = {10, 120, 90, 110, 130, 60, 120, 40, 45, 20, 30, 20};
+        for (int m = 0; m < lux.length; m++) {
+            detector.accept(7, m * MINUTE, lux[m]);
+        }
+        // on from minute 1 (dwell reached at 4); 60 and 120 sit between the thresholds
+        // or cancel the pending off; off from minute 7 (dwell reached at 10)
+        assertEquals("[on 7 @1, off 7 @7]", events.toString());
+        assertFalse(detector.isOn(7));
+    }
+
+    @Test
+    public void sharedDictionary_onlyCountsTheMotesThisDetectorSaw() {
+        SensorDictionary dictionary = new SensorDictionary(null);
+        SensorBatch other = new SensorBatch(2);
+        other.setLabel("temperature");
+        other.add(0, 20, 3);
+        other.add(0, 21, 5);
+        dictionary.onBatch(other);
+        LightsOnDetector detector = new LightsOnDetector("light1", 100, 50, 0, 1000,
+                dictionary, recorder);
+
+        // mote 9 is new to the dictionary; mote 5 already has an id there
+        detector.accept(9, 0, 150);
+        detector.accept(5, 0, 150);
+        detector.accept(9, MINUTE, 10);
+        assertEquals(3, dictionary.moteCount());
+        assertEquals(2, detector.moteCount());
+        assertFalse(detector.isOn(3));
+        assertFalse(detector.isOn(9));
+        assertTrue(detector.isOn(5));
+        int[] lit = new int[detector.moteCount()];
+        assertEquals(1, detector.litMotes(lit));
+        assertEquals(5, lit[0]);
+        assertEquals("[on 9 @0, on 5 @0, off 9 @1]", events.toString());
+    }
+
+    @Test
+    public void pendingSwitch_isCancelledByTheOtherThreshold() {
+        LightsOnDetector detector = new LightsOnDetector("light1", 100, 50, 3 * MINUTE, 1000,
+                recorder);
+        float[] lux = {10, 120, 40, 120, 120, 120, 120};
+        for (int m = 0; m < lux.length; m++) {
+            detector.accept(7, m * MINUTE, lux[m]);
+        }
+        assertEquals("[on 7 @3]", events.toString());
+        assertTrue(detector.isOn(7));
+        int[] lit = new int[detector.moteCount()];
+        assertEquals(1, detector.litMotes(lit));
+        assertEquals(7, lit[0]);
+    }
+
+    @Test
+    public void jump_confirmsAtOnce() {
+        LightsOnDetector detector = new LightsOnDetector("light1", 100, 50, 10 * MINUTE, 150,
+                recorder);
+        detector.accept(3, 0, 5);
+        detector.accept(3, MINUTE, 320); // switch flipped on
+        detector.accept(3, 2 * MINUTE, 310);
+        detector.accept(3, 3 * MINUTE, 4); // and off
+        detector.accept(3, 3 * MINUTE, 400); // not newer: ignored
+        assertEquals("[on 3 @1, off 3 @3]", events.toString());
+    }
+
+    @Test
+    public void otherLabels_areIgnored() {
+        LightsOnDetector detector = new LightsOnDetector("light1", 100, 50, 0, 150, recorder);
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("temperature");
+        batch.add(0, 500, 1);
+        detector.onBatch(batch);
+        assertEquals(0, detector.moteCount());
+    }
+
+    /** 500 motes, a day of one reading a minute each, noisy with lights switching. */
+    @Test
+    public void benchmark_readingsPerSecond() {
+        int motes = 500;
+        int minutes = 1440;
+        int[] switches = new int[1];
+        LightsOnDetector detector = new LightsOnDetector("light1", 100, 50, 5 * MINUTE, 150,
+                new LightsOnDetector.Listener() {
+                    @Override
+                    public void onLightsOn(int mote, long since, float lux) {
+                        switches[0]++;
+                    }
+
+                    @Override
+                    public void onLightsOff(int mote, long since, float lux) {
+                        switches[0]++;
+                    }
+                });
+        Random random = new Random(21);
+        SensorBatch[] day = new SensorBatch[minutes];
+        for (int m = 0; m < minutes; m++) {
+            day[m] = new SensorBatch(motes);
+            day[m].setLabel("light1");
+            for (int mote = 0; mote < motes; mote++) {
+                boolean lit = (m / 60 + mote) % 24 >= 8 && (m / 60 + mote) % 24 < 18;
+                float lux = (lit ? 300 : 10) + (float) random.nextGaussian() * 30;
+                day[m].add(m * MINUTE, lux, mote);
+            }
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        double best = 0;
+        for (int round = 0; round < 5; round++) {
+            // the same day again, a day later
+            for (SensorBatch batch : day) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.set(i, batch.timestamp(i) + minutes * MINUTE, batch.value(i),
+                            batch.mote(i));
+                }
+            }
+            long bytesBefore = allocatedBytes(threads);
+            long t0 = System.nanoTime();
+            for (SensorBatch batch : day) {
+                detector.onBatch(batch);
+            }
+            long elapsed = System.nanoTime() - t0;
+            allocated = allocatedBytes(threads) - bytesBefore;
+            best = Math.max(best, (double) motes * minutes / (elapsed / 1e9));
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "lights-on detector: %.1f M readings/s, %d switches, %d bytes allocated "
+                        + "in the last day", best / 1e6, switches[0], allocated));
+        assertTrue(switches[0] > 0);
+        assertTrue(allocated < 1024); // -1 where the JVM cannot tell
+    }
+
+    /** Bytes allocated by this thread, or -1 if the JVM cannot tell. */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
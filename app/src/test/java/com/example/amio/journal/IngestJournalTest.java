@@ -0,0 +1,159 @@
+package com.example.amio.journal;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class IngestJournalTest {
+
+    private static final String LABEL = "light1";
+    private static final int READINGS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replay_returnsUncommittedBatchesAfterRestart() throws IOException {
+        File dir = folder.newFolder();
+        IngestJournal journal = IngestJournal.open(dir);
+        long first = journal.append(batch(0));
+        journal.append(batch(1));
+        journal.append(batch(2));
+        journal.commit(first);
+        // no close: the process is killed
+
+        List<SensorBatch> replayed = new ArrayList<>();
+        try (IngestJournal reopened = IngestJournal.open(dir)) {
+            assertEquals(2, reopened.replay(b -> replayed.add(copy(b))));
+        }
+
+        assertEquals(2, replayed.size());
+        assertSameReadings(batch(1), replayed.get(0));
+        assertSameReadings(batch(2), replayed.get(1));
+        try (IngestJournal reopened = IngestJournal.open(dir)) {
+            assertEquals(0, reopened.replay(b -> fail()));
+        }
+    }
+
+    @Test
+    public void replay_ignoresTornRecord() throws IOException {
+        File dir = folder.newFolder();
+        long end;
+        try (IngestJournal journal = IngestJournal.open(dir, 64 * 1024)) {
+            end = journal.append(batch(0));
+            journal.append(batch(1));
+        }
+        // the crash hit after the payload but before the second record was fully written
+        try (RandomAccessFile segment = new RandomAccessFile(dir.listFiles((d, n) -> n.endsWith(".seg"))[0], "rw")) {
+            segment.seek(end + 20);
+            segment.writeLong(-1);
+        }
+
+        List<SensorBatch> replayed = new ArrayList<>();
+        try (IngestJournal journal = IngestJournal.open(dir, 64 * 1024)) {
+            assertEquals(1, journal.replay(b -> replayed.add(copy(b))));
+            long next = journal.append(batch(3));
+            journal.commit(next);
+        }
+        assertSameReadings(batch(0), replayed.get(0));
+        try (IngestJournal journal = IngestJournal.open(dir, 64 * 1024)) {
+            assertEquals(0, journal.replay(b -> fail()));
+        }
+    }
+
+    @Test
+    public void segments_rollOverAndAreDroppedOnceCommitted() throws IOException {
+        File dir = folder.newFolder();
+        int segmentSize = 4 * 1024; // two batches per segment
+        long last = 0;
+        try (IngestJournal journal = IngestJournal.open(dir, segmentSize)) {
+            for (int i = 0; i < 10; i++) {
+                last = journal.append(batch(i));
+            }
+            assertEquals(5, segmentCount(dir));
+        }
+
+        List<SensorBatch> replayed = new ArrayList<>();
+        try (IngestJournal journal = IngestJournal.open(dir, segmentSize)) {
+            assertEquals(10, journal.replay(b -> replayed.add(copy(b))));
+            assertEquals(last, journal.committedOffset());
+        }
+        for (int i = 0; i < 10; i++) {
+            assertSameReadings(batch(i), replayed.get(i));
+        }
+        assertEquals(1, segmentCount(dir));
+    }
+
+    @Test
+    public void benchmark_appendLatencyAndReplayThroughput() throws IOException {
+        File dir = folder.newFolder();
+        int batches = 20_000;
+        SensorBatch batch = batch(0);
+        long[] latencies = new long[batches];
+        try (IngestJournal journal = IngestJournal.open(dir)) {
+            for (int i = 0; i < batches; i++) {
+                long start = System.nanoTime();
+                journal.append(batch);
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(latencies);
+
+        long[] readings = new long[1];
+        long start = System.nanoTime();
+        try (IngestJournal journal = IngestJournal.open(dir)) {
+            assertEquals(batches, journal.replay(b -> readings[0] += b.size()));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format(Locale.ROOT,
+                "journal: append p50 %.1f us, p99 %.1f us per %d readings; replay %.0f readings/s",
+                latencies[batches / 2] / 1e3, latencies[batches * 99 / 100] / 1e3, READINGS,
+                readings[0] / seconds));
+        assertEquals((long) batches * READINGS, readings[0]);
+    }
+
+    private static SensorBatch batch(int n) {
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel(LABEL);
+        for (int i = 0; i < READINGS; i++) {
+            batch.add(1_700_000_000_000L + n * 100_000L + i * 1000L, n + i / 4f, 0x9008a + i % 3);
+        }
+        return batch;
+    }
+
+    private static SensorBatch copy(SensorBatch batch) {
+        SensorBatch copy = new SensorBatch();
+        copy.setLabel(batch.getLabel());
+        for (int i = 0; i < batch.size(); i++) {
+            copy.add(batch.timestamp(i), batch.value(i), batch.mote(i));
+        }
+        return copy;
+    }
+
+    private static void assertSameReadings(SensorBatch expected, SensorBatch actual) {
+        assertEquals(expected.getLabel(), actual.getLabel());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.timestamp(i), actual.timestamp(i));
+            assertEquals(expected.value(i), actual.value(i), 0f);
+            assertEquals(expected.mote(i), actual.mote(i));
+        }
+    }
+
+    private static int segmentCount(File dir) {
+        return dir.listFiles((d, n) -> n.endsWith(".seg")).length;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.amio.journal;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class JournaledListenerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Long> processed = new ArrayList<>();
+    private int failures;
+
+    @Test
+    public void failedBatch_isReplayedBeforeTheNextOne() throws IOException {
+        File dir = folder.newFolder();
+        failures = 1;
+        try (JournaledListener listener = new JournaledListener(dir, this::process)) {
+            try {
+                listener.onBatch(batch(1));
+                fail();
+            } catch (UncheckedIOException expected) {
+                // the store is down
+            }
+            listener.onBatch(batch(2));
+            listener.onBatch(batch(3));
+        }
+        assertEquals("[1, 2, 3]", processed.toString());
+        // everything was committed: nothing left for the next process
+        try (IngestJournal journal = IngestJournal.open(dir)) {
+            assertEquals(0, journal.replay(b -> fail()));
+        }
+    }
+
+    @Test
+    public void repeatedFailures_neverCommitPastTheFailedBatch() throws IOException {
+        File dir = folder.newFolder();
+        failures = 3;
+        try (JournaledListener listener = new JournaledListener(dir, this::process)) {
+            for (long n = 1; n <= 3; n++) {
+                try {
+                    listener.onBatch(batch(n));
+                    fail();
+                } catch (UncheckedIOException expected) {
+                    // batch 1 keeps failing, on its own and replayed
+                }
+            }
+        }
+        assertEquals("[]", processed.toString());
+
+        // the next process replays all three, in order
+        try (JournaledListener listener = new JournaledListener(dir, this::process)) {
+            listener.onBatch(batch(4));
+        }
+        assertEquals("[1, 2, 3, 4]", processed.toString());
+    }
+
+    private void process(SensorBatch batch) {
+        if (failures > 0) {
+            failures--;
+            throw new UncheckedIOException(new IOException("disk full"));
+        }
+        processed.add(batch.timestamp(0));
+    }
+
+    private static SensorBatch batch(long n) {
+        SensorBatch batch = new SensorBatch(1);
+        batch.setLabel("light1");
+        batch.add(n, n, 7);
+        return batch;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backfill against the stand-in server with 20 ms injected latency per request.
+ */
+public class BackfillEngineTest {
+
+    private static final String LABEL = "light1";
+    private static final int MOTES = 10;
+    private static final int HISTORY = 3600; // one hour, one reading per second
+    private static final long CHUNK_MILLIS = 5 * 60_000;
+    private static final long FROM = StubSensorServer.BASE_TIME;
+    private static final long TO = StubSensorServer.timestamp(HISTORY);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubSensorServer server;
+    private SensorClient client;
+    private int[] motes;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubSensorServer();
+        server.setLatencyMillis(20);
+        client = new SensorClient(server.baseUrl());
+        motes = new int[MOTES];
+        for (int i = 0; i < MOTES; i++) {
+            motes[i] = MoteId.pack(StubSensorServer.mote(i));
+            server.advance(StubSensorServer.mote(i), HISTORY - 1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void backfill_deliversEveryReadingInOrder() throws IOException {
+        Map<Integer, Long> lastSeen = new HashMap<>();
+        try (BackfillEngine engine = newEngine("a", 8, 4)) {
+            long delivered = engine.backfill(LABEL, motes, FROM, TO, batch -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    long previous = lastSeen.getOrDefault(batch.mote(i), Long.MIN_VALUE);
+                    assertTrue(batch.timestamp(i) > previous);
+                    lastSeen.put(batch.mote(i), batch.timestamp(i));
+                }
+            });
+
+            assertEquals((long) MOTES * HISTORY, delivered);
+            assertEquals(MOTES * HISTORY / 300, server.requestCount());
+        }
+    }
+
+    @Test
+    public void backfill_resumesAfterLastDeliveredChunk() throws IOException {
+        File progress = new File(folder.getRoot(), "progress.bin");
+        int[] received = new int[1];
+        try (BackfillEngine engine = new BackfillEngine(client, new CursorStore(progress), 4, 4,
+                CHUNK_MILLIS)) {
+            engine.backfill(LABEL, motes, FROM, TO, batch -> {
+                if (received[0] >= HISTORY * 3) {
+                    throw new IllegalStateException("process killed");
+                }
+                received[0] += batch.size();
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("process killed", e.getCause().getMessage());
+        }
+        int firstRunRequests = server.requestCount();
+
+        // a fresh engine and store, as after a restart
+        try (BackfillEngine engine = new BackfillEngine(client, new CursorStore(progress), 4, 4,
+                CHUNK_MILLIS)) {
+            received[0] += engine.backfill(LABEL, motes, FROM, TO, batch -> { });
+        }
+
+        assertEquals(MOTES * HISTORY, received[0]);
+        int chunks = MOTES * HISTORY / 300;
+        assertTrue(server.requestCount() - firstRunRequests < chunks);
+    }
+
+    @Test
+    public void serverErrors_areRetriedButClientErrorsAreNot() throws IOException {
+        int[] one = {motes[0]};
+        try (BackfillEngine engine = new BackfillEngine(client, progressStore("retry"), 1, 1,
+                CHUNK_MILLIS, 1)) {
+            server.setFaultStatus(404);
+            try {
+                engine.backfill(LABEL, one, FROM, TO, batch -> { });
+                fail();
+            } catch (IOException expected) {
+                // not found: the next attempt would be too
+            }
+            assertEquals(1, server.requestCount());
+
+            server.setFaultStatus(503);
+            try {
+                engine.backfill(LABEL, one, FROM, TO, batch -> { });
+                fail();
+            } catch (IOException expected) {
+                // still unavailable after the last attempt
+            }
+            assertEquals(4, server.requestCount());
+        }
+    }
+
+    @Test
+    public void chunksAhead_boundsWhatIsFetchedPastAStalledDelivery() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (BackfillEngine engine = new BackfillEngine(client, progressStore("ahead"), 4, 4,
+                CHUNK_MILLIS, 2)) {
+            Thread sink = new Thread(() -> {
+                try {
+                    engine.backfill(LABEL, new int[]{motes[0]}, FROM, TO, batch -> {
+                        stalled.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            sink.start();
+            assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            // the first chunk is stuck in the sink: only one more may have been fetched
+            assertEquals(2, server.requestCount());
+            release.countDown();
+            sink.join(10_000);
+            assertEquals(HISTORY / 300, server.requestCount());
+        }
+    }
+
+    @Test
+    public void catchUp_backfillsStaleMotesAndMovesTheirSyncCursors() throws IOException {
+        CursorStore cursors = progressStore("catch-up");
+        long recent = StubSensorServer.timestamp(HISTORY - 10);
+        SyncCursor fresh = cursors.get(CursorStore.key(LABEL, StubSensorServer.mote(0)));
+        cursors.advance(fresh, recent);
+        SyncCursor behind = cursors.get(CursorStore.key(LABEL, StubSensorServer.mote(1)));
+        cursors.advance(behind, StubSensorServer.timestamp(HISTORY / 2));
+
+        int[] received = new int[1];
+        int requests = server.requestCount();
+        try (BackfillEngine engine = new BackfillEngine(client, cursors, 4, 4, CHUNK_MILLIS)) {
+            long delivered = engine.catchUp(LABEL, motes, MOTES, cursors, TO, 60_000, TO - FROM,
+                    batch -> {
+                        assertNotEquals(motes[0], batch.mote(0));
+                        received[0] += batch.size();
+                    });
+            assertEquals(received[0], delivered);
+        }
+        // mote 0 is recent; mote 1 gets the half it is missing, the others everything
+        assertEquals((MOTES - 2) * HISTORY + HISTORY / 2 - 1, received[0]);
+        // mote 1's range starts after its sync cursor: its first half is not fetched again
+        int chunks = (int) ((TO - FROM) / CHUNK_MILLIS);
+        assertEquals((MOTES - 2) * chunks + chunks / 2, server.requestCount() - requests);
+        assertEquals(recent, fresh.getHighWaterMark());
+        assertEquals(StubSensorServer.timestamp(HISTORY - 1), behind.getHighWaterMark());
+        SyncCursor other = cursors.get(CursorStore.key(LABEL, StubSensorServer.mote(5)));
+        assertEquals(StubSensorServer.timestamp(HISTORY - 1), other.getHighWaterMark());
+    }
+
+    @Test
+    public void throughput_sequentialVsParallel() throws IOException {
+        double sequential = measure("seq", 1, 1);
+        double parallel = measure("par", 8, 4);
+
+        System.out.println(String.format(Locale.ROOT,
+                "backfill: sequential %.0f readings/s, 4 per host %.0f readings/s",
+                sequential, parallel));
+        assertTrue(parallel > sequential);
+    }
+
+    private double measure(String name, int threads, int perHost) throws IOException {
+        try (BackfillEngine engine = newEngine(name, threads, perHost)) {
+            long start = System.nanoTime();
+            long delivered = engine.backfill(LABEL, motes, FROM, TO, batch -> { });
+            return delivered / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private BackfillEngine newEngine(String name, int threads, int perHost) {
+        return new BackfillEngine(client, progressStore(name), threads, perHost, CHUNK_MILLIS);
+    }
+
+    private CursorStore progressStore(String name) {
+        return new CursorStore(new File(folder.getRoot(), name + ".bin"));
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.amio.net;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private final long[] now = {1_000_000};
+
+    @Test
+    public void opensAfterThreshold_andRejectsUntilBackoffElapses() throws IOException {
+        CircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < 2; i++) {
+            breaker.onFailure(breaker.acquire("e"));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(breaker.acquire("e"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            breaker.acquire("e");
+            fail();
+        } catch (CircuitOpenException e) {
+            assertTrue(e.getRetryAfterMillis() >= 50 && e.getRetryAfterMillis() <= 100);
+        }
+        now[0] += 100;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void halfOpen_letsOneProbeThrough() throws IOException {
+        CircuitBreaker breaker = openBreaker();
+        now[0] += 100;
+
+        CircuitBreaker.Permit probe = breaker.acquire("e");
+        try {
+            breaker.acquire("e");
+            fail();
+        } catch (CircuitOpenException e) {
+            assertEquals(0, e.getRetryAfterMillis());
+        }
+        breaker.onSuccess(probe);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getProbeCount());
+        assertEquals(100, breaker.getOpenMillis());
+        breaker.acquire("e");
+    }
+
+    @Test
+    public void failedProbes_backOffExponentiallyUpToTheCap() throws IOException {
+        CircuitBreaker breaker = openBreaker();
+        long previousCap = 100;
+        for (int i = 0; i < 8; i++) {
+            now[0] += 1_000;
+            breaker.onFailure(breaker.acquire("e"));
+            long cap = Math.min(1_000, previousCap * 2);
+            try {
+                breaker.acquire("e");
+                fail();
+            } catch (CircuitOpenException e) {
+                assertTrue(e.getRetryAfterMillis() >= cap / 2);
+                assertTrue(e.getRetryAfterMillis() <= cap);
+            }
+            previousCap = cap;
+        }
+        assertEquals(1, breaker.getOpenCount());
+        assertEquals(8, breaker.getProbeCount());
+        assertEquals(8_000, breaker.getOpenMillis());
+    }
+
+    @Test
+    public void stragglerSuccess_doesNotCloseTheCircuitOrResetTheBackoff() throws IOException {
+        CircuitBreaker breaker = newBreaker();
+        CircuitBreaker.Permit straggler = breaker.acquire("e");
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(breaker.acquire("e"));
+        }
+        breaker.onSuccess(straggler);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // the failed probe doubles the backoff: nothing reset the count of openings
+        now[0] += 100;
+        CircuitBreaker.Permit probe = breaker.acquire("e");
+        breaker.onFailure(probe);
+        breaker.onSuccess(probe); // recorded twice: ignored
+        try {
+            breaker.acquire("e");
+            fail();
+        } catch (CircuitOpenException e) {
+            assertTrue(e.getRetryAfterMillis() >= 100);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void stragglerFailure_isNotTakenForTheProbe() throws IOException {
+        CircuitBreaker breaker = newBreaker();
+        CircuitBreaker.Permit straggler = breaker.acquire("e");
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(breaker.acquire("e"));
+        }
+        now[0] += 100;
+        CircuitBreaker.Permit probe = breaker.acquire("e");
+        breaker.onFailure(straggler);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire("e");
+            fail();
+        } catch (CircuitOpenException e) {
+            assertEquals(0, e.getRetryAfterMillis()); // the probe is still in flight
+        }
+
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+        // nor does it count against the closed circuit
+        breaker.onFailure(straggler);
+        breaker.onFailure(breaker.acquire("e"));
+        breaker.onFailure(breaker.acquire("e"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void outage_againstFaultyServer() throws Exception {
+        StubSensorServer server = new StubSensorServer();
+        SensorClient client = new SensorClient(server.baseUrl(), 1, 2_000,
+                () -> new CircuitBreaker(3, 100, 1_000));
+        try {
+            SensorBatch batch = new SensorBatch();
+            String path = SensorPaths.last("light1", "9.138");
+            assertEquals(200, client.fetchBatch(path, batch));
+
+            // a caller retrying every 10 ms through a 3 s outage
+            server.setFaultStatus(503);
+            int before = server.requestCount();
+            int attempts = 0;
+            long end = System.currentTimeMillis() + 3_000;
+            while (System.currentTimeMillis() < end) {
+                attempts++;
+                try {
+                    client.fetchBatch(path, batch);
+                } catch (CircuitOpenException expected) {
+                    // rejected without a request
+                }
+                Thread.sleep(10);
+            }
+            int wasted = server.requestCount() - before;
+
+            server.setFaultStatus(0);
+            CircuitBreaker breaker = client.getBreakers().get("light1/last");
+            long deadline = System.currentTimeMillis() + 2_000;
+            int status = 0;
+            while (status != 200 && System.currentTimeMillis() < deadline) {
+                try {
+                    status = client.fetchBatch(path, batch);
+                } catch (CircuitOpenException e) {
+                    Thread.sleep(e.getRetryAfterMillis() + 1);
+                }
+            }
+
+            System.out.println(String.format(Locale.ROOT,
+                    "breaker: %d attempts, %d reached the server, %d rejected, open %d ms, "
+                            + "%d probes, mean probe %.2f ms",
+                    attempts, wasted, breaker.getRejectedCount(), breaker.getOpenMillis(),
+                    breaker.getProbeCount(), breaker.getMeanProbeLatencyNanos() / 1e6));
+            assertEquals(200, status);
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertTrue(wasted * 10 < attempts);
+            assertEquals(1, client.getBreakers().size());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void uncheckedFailure_releasesTheProbe() throws Exception {
+        StubSensorServer server = new StubSensorServer();
+        CircuitBreaker breaker = openBreaker();
+        SensorClient client = new SensorClient(server.baseUrl(), 1, 2_000, () -> breaker);
+        try {
+            now[0] += 100;
+            // a header value the connection refuses: thrown after the probe was admitted
+            SyncCursor cursor = new SyncCursor(0, "\"v1\"\r\nX-Evil: 1", null);
+            try {
+                client.fetchBatch(SensorPaths.last("light1", "9.138"), cursor, new SensorBatch());
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // recorded as a failed probe
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            assertEquals(1, breaker.getProbeCount());
+
+            now[0] += 1_000;
+            assertEquals(200, client.fetchBatch(SensorPaths.last("light1", "9.138"),
+                    new SensorBatch()));
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void endpointOf_dropsMoteAndQuery() {
+        assertEquals("light1/last", SensorClient.endpointOf("light1/last"));
+        assertEquals("light1/last", SensorClient.endpointOf("light1/last/9.138?since=5"));
+        assertEquals("light1/range", SensorClient.endpointOf("light1/range/9.138?from=1&to=2"));
+    }
+
+    private CircuitBreaker newBreaker() {
+        return new CircuitBreaker(3, 100, 1_000, () -> now[0], new Random(42));
+    }
+
+    private CircuitBreaker openBreaker() throws CircuitOpenException {
+        CircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(breaker.acquire("e"));
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Delta sync against the stand-in server, reporting bytes transferred and decode CPU per
+ * poll cycle next to a client re-downloading the whole window every time.
+ */
+public class DeltaSyncTest {
+
+    private static final int MOTES = 50;
+    private static final int WINDOW = 20;
+    private static final int CYCLES = 20;
+    private static final String LABEL = "light1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubSensorServer server;
+    private SensorClient client;
+    private File cursorFile;
+    private int[] motes;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubSensorServer();
+        server.setWindow(WINDOW);
+        client = new SensorClient(server.baseUrl());
+        cursorFile = new File(folder.getRoot(), "cursors.bin");
+        motes = new int[MOTES];
+        for (int i = 0; i < MOTES; i++) {
+            String mote = StubSensorServer.mote(i);
+            motes[i] = MoteId.pack(mote);
+            server.advance(mote, WINDOW - 1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void unchangedMotes_cost304AndNoDecoding() throws IOException {
+        DeltaSync sync = new DeltaSync(client, new CursorStore(cursorFile), LABEL);
+        SensorBatch batch = new SensorBatch();
+
+        sync.poll(motes, MOTES, batch);
+        sync.commit();
+        assertEquals(MOTES * WINDOW, batch.size());
+
+        server.advance(StubSensorServer.mote(3), 2);
+        long decodeBefore = client.getDecodeNanos();
+        sync.poll(motes, MOTES, batch);
+
+        assertEquals(2, batch.size());
+        assertEquals(motes[3], batch.mote(0));
+        assertEquals(StubSensorServer.timestamp(WINDOW), batch.timestamp(0));
+        assertEquals(StubSensorServer.timestamp(WINDOW + 1), batch.timestamp(1));
+        assertEquals(MOTES - 1, client.getNotModifiedCount());
+        assertTrue(client.getDecodeNanos() > decodeBefore);
+    }
+
+    @Test
+    public void lastModifiedAlone_isEnoughFor304() throws IOException {
+        String path = SensorPaths.since(LABEL, StubSensorServer.mote(0), 0);
+        SensorBatch batch = new SensorBatch();
+        SyncCursor cursor = new SyncCursor();
+        assertEquals(200, client.fetchBatch(path, cursor, batch));
+        cursor.commit();
+        String lastModified = cursor.getLastModified();
+        assertNotNull(lastModified);
+
+        SyncCursor withoutEtag = new SyncCursor(cursor.getHighWaterMark(), null, lastModified);
+        assertEquals(304, client.fetchBatch(path, withoutEtag, batch));
+        server.advance(StubSensorServer.mote(0), 1);
+        assertEquals(200, client.fetchBatch(path, withoutEtag, batch));
+        assertEquals(1, batch.size());
+    }
+
+    @Test
+    public void cursors_surviveRestart() throws IOException {
+        SensorBatch batch = new SensorBatch();
+        DeltaSync first = new DeltaSync(client, new CursorStore(cursorFile), LABEL);
+        first.poll(motes, MOTES, batch);
+        first.commit();
+
+        server.advance(StubSensorServer.mote(7), 1);
+        new DeltaSync(client, new CursorStore(cursorFile), LABEL).poll(motes, MOTES, batch);
+
+        assertEquals(1, batch.size());
+        assertEquals(motes[7], batch.mote(0));
+        assertEquals(MOTES - 1, client.getNotModifiedCount());
+    }
+
+    @Test
+    public void uncommittedPoll_isFetchedAgain() throws IOException {
+        SensorBatch batch = new SensorBatch();
+        DeltaSync sync = new DeltaSync(client, new CursorStore(cursorFile), LABEL);
+        sync.poll(motes, MOTES, batch);
+        // the listener failed: nothing committed, so the next poll asks again
+        sync.poll(motes, MOTES, batch);
+        assertEquals(MOTES * WINDOW, batch.size());
+        assertEquals(0, client.getNotModifiedCount());
+
+        // the process died before committing: same after a restart
+        new DeltaSync(client, new CursorStore(cursorFile), LABEL).poll(motes, MOTES, batch);
+        assertEquals(MOTES * WINDOW, batch.size());
+
+        sync.commit();
+        sync.poll(motes, MOTES, batch);
+        assertTrue(batch.isEmpty());
+        assertEquals(MOTES, client.getNotModifiedCount());
+    }
+
+    @Test
+    public void commitDelivered_coversReadingsFetchedOutsideAPoll() throws IOException {
+        // a discovery pass: the latest readings of every mote, handed over in one batch
+        SensorBatch discovery = new SensorBatch();
+        SensorBatch last = new SensorBatch();
+        for (int i = 0; i < MOTES; i++) {
+            client.fetchBatch(SensorPaths.last(LABEL, StubSensorServer.mote(i)), last);
+            for (int j = 0; j < last.size(); j++) {
+                discovery.add(last.timestamp(j), last.value(j), last.mote(j));
+            }
+        }
+        new DeltaSync(client, new CursorStore(cursorFile), LABEL).commitDelivered(discovery);
+
+        // saved: the first poll after a restart asks only for what is newer
+        server.advance(StubSensorServer.mote(4), 1);
+        SensorBatch batch = new SensorBatch();
+        new DeltaSync(client, new CursorStore(cursorFile), LABEL).poll(motes, MOTES, batch);
+        assertEquals(1, batch.size());
+        assertEquals(motes[4], batch.mote(0));
+        assertEquals(StubSensorServer.timestamp(WINDOW), batch.timestamp(0));
+    }
+
+    @Test
+    public void deltaCycles_vsFullWindow() throws IOException {
+        // every cycle, one mote in ten gets a new reading
+        DeltaSync sync = new DeltaSync(client, new CursorStore(cursorFile), LABEL);
+        SensorBatch batch = new SensorBatch();
+        sync.poll(motes, MOTES, batch);
+        sync.commit();
+
+        long bytes = client.getBytesReceived();
+        long decode = client.getDecodeNanos();
+        int readings = 0;
+        for (int c = 0; c < CYCLES; c++) {
+            advanceSome(c);
+            sync.poll(motes, MOTES, batch);
+            sync.commit();
+            readings += batch.size();
+        }
+        long deltaBytes = client.getBytesReceived() - bytes;
+        long deltaDecode = client.getDecodeNanos() - decode;
+
+        bytes = client.getBytesReceived();
+        decode = client.getDecodeNanos();
+        for (int c = 0; c < CYCLES; c++) {
+            advanceSome(c);
+            for (int i = 0; i < MOTES; i++) {
+                client.fetchBatch(SensorPaths.last(LABEL, StubSensorServer.mote(i)), batch);
+            }
+        }
+        long fullBytes = client.getBytesReceived() - bytes;
+        long fullDecode = client.getDecodeNanos() - decode;
+
+        System.out.println(String.format(Locale.ROOT,
+                "delta: %d bytes, %.1f us decode per cycle%nfull:  %d bytes, %.1f us decode per cycle",
+                deltaBytes / CYCLES, deltaDecode / 1e3 / CYCLES,
+                fullBytes / CYCLES, fullDecode / 1e3 / CYCLES));
+        assertEquals(CYCLES * MOTES / 10, readings);
+        assertTrue(deltaBytes * 2 < fullBytes);
+    }
+
+    private void advanceSome(int cycle) {
+        for (int i = cycle % 10; i < MOTES; i += 10) {
+            server.advance(StubSensorServer.mote(i), 1);
+        }
+    }
+}
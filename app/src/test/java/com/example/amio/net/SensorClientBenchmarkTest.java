@@ -0,0 +1,136 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares a pooled {@link SensorClient} pass against a naive one-connection-per-mote loop.
+ * Numbers are printed rather than asserted, as they depend on the host.
+ */
+public class SensorClientBenchmarkTest {
+
+    private static final int MOTES = 200;
+    private static final int ROUNDS = 5;
+
+    private StubSensorServer server;
+    private SensorClient client;
+    private List<String> paths;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubSensorServer();
+        client = new SensorClient(server.baseUrl());
+        paths = new ArrayList<>();
+        for (int i = 0; i < MOTES; i++) {
+            paths.add(SensorPaths.last("light1", StubSensorServer.mote(i)));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void fetchAll_decompressesGzipAndKeepsOrder() throws IOException {
+        List<SensorResponse> responses = client.fetchAll(paths);
+
+        assertEquals(MOTES, responses.size());
+        for (int i = 0; i < MOTES; i++) {
+            SensorResponse response = responses.get(i);
+            assertTrue(response.isSuccessful());
+            String body = new String(response.getBody(), StandardCharsets.UTF_8);
+            assertTrue(body, body.contains("\"mote\":\"" + StubSensorServer.mote(i) + "\""));
+        }
+    }
+
+    @Test
+    public void fetchBatch_decodesIntoReusedBatch() throws IOException {
+        SensorBatch batch = new SensorBatch();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, client.fetchBatch(paths.get(i), batch));
+            assertEquals(1, batch.size());
+            assertEquals("light1", batch.getLabel());
+            assertEquals(MoteId.pack(StubSensorServer.mote(i)), batch.mote(0));
+            assertEquals(StubSensorServer.VALUE, batch.value(0), 0f);
+        }
+    }
+
+    @Test
+    public void pooledPass_vsNaiveLoop() throws IOException {
+        // warm-up both paths
+        naivePass();
+        client.fetchAll(paths);
+
+        long[] naive = new long[MOTES * ROUNDS];
+        long naiveStart = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            System.arraycopy(naivePass(), 0, naive, r * MOTES, MOTES);
+        }
+        long naiveElapsed = System.nanoTime() - naiveStart;
+
+        long[] pooled = new long[MOTES * ROUNDS];
+        long pooledStart = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            List<SensorResponse> responses = client.fetchAll(paths);
+            for (int i = 0; i < MOTES; i++) {
+                pooled[r * MOTES + i] = responses.get(i).getLatencyNanos();
+            }
+        }
+        long pooledElapsed = System.nanoTime() - pooledStart;
+
+        report("naive ", naive, naiveElapsed);
+        report("pooled", pooled, pooledElapsed);
+        assertEquals(2 * MOTES + 2 * MOTES * ROUNDS, server.requestCount());
+    }
+
+    private long[] naivePass() throws IOException {
+        long[] latencies = new long[MOTES];
+        for (int i = 0; i < MOTES; i++) {
+            long start = System.nanoTime();
+            HttpURLConnection conn =
+                    (HttpURLConnection) new URL(server.baseUrl() + paths.get(i)).openConnection();
+            conn.setRequestProperty("Connection", "close");
+            try (InputStream in = conn.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+                assertEquals(200, conn.getResponseCode());
+            } finally {
+                conn.disconnect();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static void report(String name, long[] latencies, long elapsedNanos) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long p99 = sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        System.out.println(String.format(Locale.ROOT, "%s: %.0f req/s, p99 %.2f ms",
+                name, latencies.length / (elapsedNanos / 1e9), p99 / 1e6));
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorBatchListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming ingestion against the stand-in server emitting readings at a fixed rate, with
+ * detection latency compared to polling at a fixed interval.
+ */
+public class SensorStreamTest {
+
+    private static final String LABEL = "light1";
+    private static final int MOTES = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubSensorServer server;
+    private CursorStore cursors;
+    private int[] motes;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubSensorServer();
+        cursors = new CursorStore(new File(folder.getRoot(), "cursors.bin"));
+        motes = new int[MOTES];
+        for (int i = 0; i < MOTES; i++) {
+            motes[i] = MoteId.pack(StubSensorServer.mote(i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void stream_resumesAfterDropWithoutGapsOrDuplicates() throws Exception {
+        SensorStream stream = newStream();
+        List<Long> received = new ArrayList<>();
+
+        StreamThread first = new StreamThread(stream, received);
+        first.awaitOpen();
+        server.advance(StubSensorServer.mote(0), 3);
+        awaitSize(received, 3);
+        server.dropStreams();
+        assertTrue(first.awaitFailure() instanceof IOException);
+
+        server.advance(StubSensorServer.mote(0), 2); // published while disconnected
+        StreamThread second = new StreamThread(stream, received);
+        second.awaitOpen();
+        server.advance(StubSensorServer.mote(0), 1);
+        awaitSize(received, 6);
+        stream.close();
+        second.awaitFailure();
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(StubSensorServer.timestamp(i + 1), (long) received.get(i));
+        }
+        assertEquals(2, server.requestCount());
+    }
+
+    @Test
+    public void pollingFallback_fetchesOnlyWhatTheStreamMissed() throws Exception {
+        SensorStream stream = newStream();
+        List<Long> received = new ArrayList<>();
+        StreamThread thread = new StreamThread(stream, received);
+        thread.awaitOpen();
+        server.advance(StubSensorServer.mote(1), 5);
+        awaitSize(received, 5);
+
+        server.setStreamAvailable(false);
+        server.dropStreams();
+        thread.awaitFailure();
+        try {
+            stream.run(LABEL, () -> fail(), batch -> fail());
+            fail();
+        } catch (IOException expected) {
+            // 503: ingestion falls back to polling
+        }
+
+        server.advance(StubSensorServer.mote(1), 2);
+        SensorClient client = new SensorClient(server.baseUrl());
+        try {
+            SensorBatch batch = new SensorBatch();
+            new DeltaSync(client, cursors, LABEL).poll(new int[]{motes[1]}, 1, batch);
+            assertEquals(2, batch.size());
+            assertEquals(StubSensorServer.timestamp(6), batch.timestamp(0));
+            assertEquals(StubSensorServer.timestamp(7), batch.timestamp(1));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void reconnectedStream_dropsWhatThePollerDelivered() throws Exception {
+        SensorStream stream = newStream();
+        List<Long> received = new ArrayList<>();
+        StreamThread first = new StreamThread(stream, received);
+        first.awaitOpen();
+        server.advance(StubSensorServer.mote(0), 3);
+        awaitSize(received, 3);
+        server.dropStreams();
+        first.awaitFailure();
+
+        // polled while the stream was down, then replayed from Last-Event-ID on reconnect
+        server.advance(StubSensorServer.mote(0), 2);
+        SensorClient client = new SensorClient(server.baseUrl());
+        try {
+            DeltaSync sync = new DeltaSync(client, cursors, LABEL);
+            SensorBatch batch = new SensorBatch();
+            sync.poll(new int[]{motes[0]}, 1, batch);
+            assertEquals(2, batch.size());
+            sync.commit();
+        } finally {
+            client.close();
+        }
+        StreamThread second = new StreamThread(stream, received);
+        second.awaitOpen();
+        server.advance(StubSensorServer.mote(0), 1);
+        awaitSize(received, 4);
+        stream.close();
+        second.awaitFailure();
+
+        assertEquals(4, received.size());
+        assertEquals(StubSensorServer.timestamp(6), (long) received.get(3));
+    }
+
+    @Test
+    public void failedListener_leavesTheCursorBehind() throws Exception {
+        SensorStream stream = newStream();
+        StreamThread thread = new StreamThread(stream, batch -> {
+            throw new UncheckedIOException(new IOException("disk full"));
+        });
+        thread.awaitOpen();
+        server.advance(StubSensorServer.mote(2), 1);
+        assertTrue(thread.awaitFailure() instanceof UncheckedIOException);
+
+        SensorClient client = new SensorClient(server.baseUrl());
+        try {
+            SensorBatch batch = new SensorBatch();
+            new DeltaSync(client, cursors, LABEL).poll(new int[]{motes[2]}, 1, batch);
+            assertEquals(1, batch.size());
+            assertEquals(StubSensorServer.timestamp(1), batch.timestamp(0));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void detectionLatency_streamVsPolling() throws Exception {
+        int perSecond = 40;
+        long pollIntervalMillis = 500;
+        long durationMillis = 2_000;
+
+        SensorStream stream = newStream();
+        List<Long> latencies = new ArrayList<>();
+        int requests = server.requestCount();
+        StreamThread thread = new StreamThread(stream, batch -> recordLatencies(batch, latencies));
+        thread.awaitOpen();
+        server.emit(MOTES, perSecond);
+        Thread.sleep(durationMillis);
+        server.stopEmitting();
+        stream.close();
+        thread.awaitFailure();
+        int streamRequests = server.requestCount() - requests;
+        double streamLatency = mean(latencies);
+        int streamed = latencies.size();
+
+        latencies.clear();
+        SensorClient client = new SensorClient(server.baseUrl());
+        try {
+            DeltaSync sync = new DeltaSync(client, cursors, LABEL);
+            SensorBatch batch = new SensorBatch();
+            requests = server.requestCount();
+            server.emit(MOTES, perSecond);
+            long end = System.currentTimeMillis() + durationMillis;
+            while (System.currentTimeMillis() < end) {
+                Thread.sleep(pollIntervalMillis);
+                sync.poll(motes, MOTES, batch);
+                recordLatencies(batch, latencies);
+                sync.commit();
+            }
+            server.stopEmitting();
+        } finally {
+            client.close();
+        }
+        int pollRequests = server.requestCount() - requests;
+        double pollLatency = mean(latencies);
+
+        System.out.println(String.format(Locale.ROOT,
+                "stream: %d readings, mean latency %.1f ms, %d requests%n"
+                        + "poll every %d ms: %d readings, mean latency %.1f ms, %d requests",
+                streamed, streamLatency, streamRequests,
+                pollIntervalMillis, latencies.size(), pollLatency, pollRequests));
+        assertTrue(streamed > perSecond);
+        assertTrue(streamLatency * 4 < pollLatency);
+        assertTrue(streamRequests < pollRequests);
+    }
+
+    private SensorStream newStream() {
+        return new SensorStream(server.baseUrl(), cursors, 5_000, 5_000);
+    }
+
+    private void recordLatencies(SensorBatch batch, List<Long> latencies) {
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            Long emitted = server.emittedAtNanos(MoteId.toString(batch.mote(i)), batch.timestamp(i));
+            if (emitted != null) {
+                latencies.add(now - emitted);
+            }
+        }
+    }
+
+    private static double mean(List<Long> nanos) {
+        long sum = 0;
+        for (long n : nanos) {
+            sum += n;
+        }
+        return nanos.isEmpty() ? 0 : sum / 1e6 / nanos.size();
+    }
+
+    private static void awaitSize(List<Long> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (true) {
+            synchronized (list) {
+                if (list.size() >= size) {
+                    return;
+                }
+            }
+            assertTrue("timed out waiting for readings", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /** Runs {@link SensorStream#run} on its own thread until it fails. */
+    private static final class StreamThread extends Thread {
+
+        private final SensorStream stream;
+        private final SensorBatchListener listener;
+        private final CountDownLatch opened = new CountDownLatch(1);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        StreamThread(SensorStream stream, List<Long> timestamps) {
+            this(stream, batch -> {
+                synchronized (timestamps) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        timestamps.add(batch.timestamp(i));
+                    }
+                }
+            });
+        }
+
+        StreamThread(SensorStream stream, SensorBatchListener listener) {
+            this.stream = stream;
+            this.listener = listener;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                stream.run(LABEL, opened::countDown, listener);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }
+
+        void awaitOpen() throws InterruptedException {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+        }
+
+        Throwable awaitFailure() throws InterruptedException {
+            join(5_000);
+            assertFalse(isAlive());
+            return failure.get();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 32;
+
+    private StubSensorServer server;
+    private SensorClient client;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubSensorServer();
+        // long enough for every caller to arrive while the first request is in flight
+        server.setLatencyMillis(300);
+        client = new SensorClient(server.baseUrl());
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void concurrentReaders_shareOneUpstreamRequest() throws Exception {
+        CoalescingSensorReader reader = new CoalescingSensorReader(client);
+
+        List<SensorBatch> results = readConcurrently(reader, "9.138");
+
+        assertEquals(1, server.requestCount());
+        for (SensorBatch batch : results) {
+            assertSame(results.get(0), batch);
+        }
+        assertEquals(MoteId.pack("9.138"), results.get(0).mote(0));
+    }
+
+    @Test
+    public void distinctKeys_andLaterCalls_fetchAgain() throws Exception {
+        CoalescingSensorReader reader = new CoalescingSensorReader(client);
+
+        readConcurrently(reader, "9.138");
+        readConcurrently(reader, "9.139");
+        reader.latest("light1", "9.138");
+
+        assertEquals(3, server.requestCount());
+    }
+
+    @Test
+    public void failure_isSharedByAllWaiters() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(callers.submit(() -> flight.execute("k", () -> {
+                loads.incrementAndGet();
+                release.await();
+                throw new IOException("upstream down");
+            })));
+        }
+        while (flight.inFlightCount() == 0) {
+            Thread.yield();
+        }
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("upstream down", e.getCause().getMessage());
+            }
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, flight.inFlightCount());
+    }
+
+    private List<SensorBatch> readConcurrently(CoalescingSensorReader reader, String mote)
+            throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<SensorBatch>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(callers.submit(() -> {
+                start.await();
+                return reader.latest("light1", mote);
+            }));
+        }
+        start.countDown();
+        List<SensorBatch> results = new ArrayList<>();
+        for (Future<SensorBatch> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+}
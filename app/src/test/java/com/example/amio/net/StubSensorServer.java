@@ -0,0 +1,352 @@
+package com.example.amio.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the IoTLab REST endpoint, serving
+ * {@code /rest/data/1/<label>/last[/<mote>][?since=<ts>]} and
+ * {@code /rest/data/1/<label>/range/<mote>?from=<ts>&to=<ts>} and the server-sent event stream
+ * {@code /rest/data/1/<label>/stream}.
+ *
+ * <p>Each mote has a growing history, one reading per second starting at {@link #BASE_TIME}.
+ * A request returns the last {@code window} readings, only those after {@code since}, or
+ * those in {@code [from, to)}.
+ * For the conditional GETs of {@link DeltaSync}, responses carry an ETag and Last-Modified
+ * derived from the newest reading and honour {@code If-None-Match}, or without it
+ * {@code If-Modified-Since}.
+ *
+ * <p>Every reading appended by {@link #advance} is also pushed to open streams as soon as it
+ * exists, one event per wake-up with the position in the append log as its id.
+ * {@link #emit} appends readings at a fixed rate from a background thread.
+ */
+class StubSensorServer implements AutoCloseable {
+
+    static final String BASE_PATH = "/rest/data/1/";
+    static final long BASE_TIME = 1_700_000_000_000L;
+    static final float VALUE = 212.5f;
+
+    static {
+        // Without TCP_NODELAY the JDK server's separate header/body writes hit delayed ACKs
+        // (~40 ms per request) on kept-alive connections, which would hide the pooling gain.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final Map<String, AtomicInteger> readingCounts = new ConcurrentHashMap<>();
+    private final Map<String, Long> emittedAt = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService emitter = Executors.newSingleThreadScheduledExecutor();
+    private volatile int window = 1;
+    private volatile long latencyMillis;
+    private volatile boolean streamAvailable = true;
+    private volatile int faultStatus;
+
+    // append log pushed to streams, guarded by streamLock
+    private final Object streamLock = new Object();
+    private final List<String> logMotes = new ArrayList<>();
+    private final List<Long> logTimestamps = new ArrayList<>();
+    private int streamGeneration;
+    private ScheduledFuture<?> emission;
+
+    StubSensorServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext(BASE_PATH, this::handle);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    int requestCount() {
+        return requests.get();
+    }
+
+    int notModifiedCount() {
+        return notModified.get();
+    }
+
+    long bytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Number of readings returned when a request has no {@code since}. */
+    void setWindow(int window) {
+        this.window = window;
+    }
+
+    /** Delay added before every response. */
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /** Answers every non-stream request with {@code status}; 0 restores normal answers. */
+    void setFaultStatus(int status) {
+        this.faultStatus = status;
+    }
+
+    /** When false, stream requests are answered with 503. */
+    void setStreamAvailable(boolean available) {
+        this.streamAvailable = available;
+    }
+
+    /** Ends every open stream, as a dropped connection would. */
+    void dropStreams() {
+        synchronized (streamLock) {
+            streamGeneration++;
+            streamLock.notifyAll();
+        }
+    }
+
+    /** Appends {@code count} new readings to the history of {@code mote}. */
+    void advance(String mote, int count) {
+        synchronized (streamLock) {
+            int end = history(mote).addAndGet(count);
+            for (int i = end - count; i < end; i++) {
+                logMotes.add(mote);
+                logTimestamps.add(timestamp(i));
+            }
+            streamLock.notifyAll();
+        }
+    }
+
+    /**
+     * Appends {@code perSecond} readings per second, round-robin over the first {@code motes}
+     * motes, until {@link #stopEmitting()}.
+     */
+    void emit(int motes, int perSecond) {
+        stopEmitting();
+        AtomicInteger next = new AtomicInteger();
+        emission = emitter.scheduleAtFixedRate(() -> {
+            String mote = mote(next.getAndIncrement() % motes);
+            long now = System.nanoTime();
+            synchronized (streamLock) {
+                advance(mote, 1);
+                emittedAt.put(mote + "@" + timestamp(history(mote).get() - 1), now);
+            }
+        }, 0, 1_000_000_000L / perSecond, TimeUnit.NANOSECONDS);
+    }
+
+    void stopEmitting() {
+        if (emission != null) {
+            emission.cancel(false);
+            emission = null;
+        }
+    }
+
+    /** {@link System#nanoTime()} at which {@link #emit} appended a reading, or null. */
+    Long emittedAtNanos(String mote, long timestamp) {
+        return emittedAt.get(mote + "@" + timestamp);
+    }
+
+    @Override
+    public void close() {
+        emitter.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static String mote(int i) {
+        return (i / 256 + 1) + "." + (i % 256);
+    }
+
+    static long timestamp(int reading) {
+        return BASE_TIME + reading * 1000L;
+    }
+
+    private AtomicInteger history(String mote) {
+        return readingCounts.computeIfAbsent(mote, m -> new AtomicInteger(1));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String[] parts = exchange.getRequestURI().getPath().substring(BASE_PATH.length()).split("/");
+        String label = parts[0];
+        String mote = parts.length > 2 ? parts[2] : "9.138";
+        long since = Long.MIN_VALUE;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                String[] kv = param.split("=");
+                long value = Long.parseLong(kv[1]);
+                if (kv[0].equals("since")) {
+                    since = value;
+                } else if (kv[0].equals("from")) {
+                    from = value;
+                } else if (kv[0].equals("to")) {
+                    to = value;
+                }
+            }
+        }
+        if (parts.length > 1 && parts[1].equals("stream")) {
+            stream(exchange, label);
+            return;
+        }
+        int fault = faultStatus;
+        if (fault != 0) {
+            exchange.sendResponseHeaders(fault, -1);
+            exchange.close();
+            return;
+        }
+        boolean range = parts.length > 1 && parts[1].equals("range");
+
+        int count = history(mote).get();
+        long newest = timestamp(count - 1);
+        if (notModified(exchange, mote, newest)) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = Math.max(0, count - window); i < count; i++) {
+            timestamps.add(timestamp(i));
+        }
+        if (since != Long.MIN_VALUE || range) {
+            timestamps.clear();
+            for (int i = 0; i < count; i++) {
+                long t = timestamp(i);
+                if (range ? t >= from && t < to : t > since) {
+                    timestamps.add(t);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < timestamps.size(); i++) {
+            appendReading(sb, i, label, mote, timestamps.get(i));
+        }
+        byte[] body = sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream gz = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+                out.write(body);
+            }
+            body = gz.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        bytesSent.addAndGet(body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Sets the validators of {@code newest} and tells whether the request already has it. */
+    private static boolean notModified(HttpExchange exchange, String mote, long newest) {
+        String etag = "\"" + mote + "-" + newest + "\"";
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(newest).atZone(ZoneOffset.UTC));
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals(etag);
+        }
+        // readings fall on whole seconds, the precision of HTTP dates
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        return ifModifiedSince != null && newest <= ZonedDateTime.parse(ifModifiedSince,
+                DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    }
+
+    private void stream(HttpExchange exchange, String label) throws IOException {
+        if (!streamAvailable) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        int generation;
+        int position;
+        synchronized (streamLock) {
+            generation = streamGeneration;
+            position = lastEventId != null ? Integer.parseInt(lastEventId) : logMotes.size();
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                StringBuilder event = new StringBuilder();
+                synchronized (streamLock) {
+                    if (position == logMotes.size() && generation == streamGeneration) {
+                        try {
+                            streamLock.wait(1000);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (generation != streamGeneration) {
+                        return;
+                    }
+                    if (position < logMotes.size()) {
+                        event.append("data: {\"data\":[");
+                        for (int i = position; i < logMotes.size(); i++) {
+                            appendReading(event, i - position, label, logMotes.get(i),
+                                    logTimestamps.get(i));
+                        }
+                        position = logMotes.size();
+                        event.append("]}\nid: ").append(position).append("\n\n");
+                    } else {
+                        event.append(": ping\n\n");
+                    }
+                }
+                byte[] bytes = event.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                out.flush();
+                bytesSent.addAndGet(bytes.length);
+            }
+        }
+    }
+
+    private static void appendReading(StringBuilder sb, int index, String label, String mote,
+                                      long timestamp) {
+        if (index > 0) {
+            sb.append(',');
+        }
+        sb.append(String.format(Locale.ROOT,
+                "{\"timestamp\":%d,\"label\":\"%s\",\"value\":%.2f,\"mote\":\"%s\"}",
+                timestamp, label, VALUE, mote));
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.amio.net;
+
+import com.example.amio.data.MoteId;
+import com.example.amio.data.SensorBatchListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loopback senders against the listener, reporting packets/s and bytes allocated per packet
+ * on the receiving thread.
+ */
+public class UdpTelemetryListenerTest {
+
+    private static final String LABEL = "light1";
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private UdpTelemetryListener udp;
+    private DatagramChannel sender;
+    private InetSocketAddress target;
+    private Thread receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        udp = new UdpTelemetryListener(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        target = new InetSocketAddress(InetAddress.getLoopbackAddress(), udp.getLocalPort());
+        sender = DatagramChannel.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        udp.close();
+        if (receiver != null) {
+            receiver.join(5_000);
+        }
+        sender.close();
+    }
+
+    @Test
+    public void datagrams_decodeIntoBatches() throws Exception {
+        List<long[]> readings = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        startReceiver(batch -> {
+            synchronized (readings) {
+                for (int i = 0; i < batch.size(); i++) {
+                    readings.add(new long[]{batch.timestamp(i), (long) batch.value(i), batch.mote(i)});
+                    labels.add(batch.getLabel());
+                }
+            }
+        });
+        int mote = MoteId.pack("9.138");
+        send(packet(LABEL, 2, mote, 1000L, 5f));
+        send(packet("temperature", 1, mote, 3000L, 21f));
+        ByteBuffer bad = packet(LABEL, 1, mote, 4000L, 1f);
+        bad.put(0, (byte) 'X');
+        send(bad);
+        send(packet(LABEL, 1, mote, 5000L, 7f));
+
+        awaitSize(readings, 4);
+        Thread.sleep(50);
+        synchronized (readings) {
+            assertEquals(4, readings.size());
+            assertArrayEquals(new long[]{1000L, 5, mote}, readings.get(0));
+            assertArrayEquals(new long[]{1001L, 6, mote}, readings.get(1));
+            assertArrayEquals(new long[]{3000L, 21, mote}, readings.get(2));
+            assertArrayEquals(new long[]{5000L, 7, mote}, readings.get(3));
+            assertEquals(LABEL, labels.get(0));
+            assertEquals("temperature", labels.get(2));
+            assertEquals(LABEL, labels.get(3));
+        }
+        udp.close();
+        receiver.join(5_000);
+        assertEquals(3, udp.getPacketCount());
+        assertEquals(1, udp.getDroppedCount());
+    }
+
+    @Test
+    public void throughput_andAllocationPerPacket() throws Exception {
+        int packets = 200_000;
+        AtomicLong received = new AtomicLong();
+        long[] allocated = new long[2];
+        startReceiver(batch -> {
+            if (allocated[0] == 0) {
+                allocated[0] = allocatedBytes(); // after warm-up of the first batch
+            }
+            allocated[1] = allocatedBytes();
+            received.addAndGet(batch.size());
+        });
+
+        ByteBuffer[] motes = new ByteBuffer[64];
+        for (int i = 0; i < motes.length; i++) {
+            motes[i] = packet(LABEL, 1, MoteId.pack(StubSensorServer.mote(i)), 1000L, 300f);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            ByteBuffer packet = motes[i % motes.length];
+            packet.rewind();
+            sender.send(packet, target);
+            if (i % 1000 == 999) {
+                // keep within the socket buffer; loopback drops whatever overflows it
+                while (received.get() < i - 20_000) {
+                    Thread.yield();
+                }
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (received.get() < packets * 0.95 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long got = received.get();
+        double bytesPerPacket = (allocated[1] - allocated[0]) / (double) got;
+
+        System.out.println(String.format(Locale.ROOT,
+                "udp: %d of %d packets, %.0f packets/s, %.2f bytes allocated per packet",
+                got, packets, got / seconds, bytesPerPacket));
+        assertTrue(got / seconds > 10_000);
+        assertTrue(bytesPerPacket < 8);
+    }
+
+    private void startReceiver(SensorBatchListener listener) {
+        receiver = new Thread(() -> {
+            try {
+                udp.run(listener);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }, "udp-receiver");
+        receiver.start();
+    }
+
+    private void send(ByteBuffer packet) throws IOException {
+        packet.rewind();
+        sender.send(packet, target);
+    }
+
+    /** {@code count} readings of one mote, one second apart, the value growing by one. */
+    private static ByteBuffer packet(String label, int count, int mote, long timestamp, float value) {
+        byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(UdpTelemetryListener.HEADER_BYTES + labelBytes.length
+                + count * UdpTelemetryListener.READING_BYTES);
+        buf.putShort((short) UdpTelemetryListener.MAGIC);
+        buf.put((byte) UdpTelemetryListener.VERSION);
+        buf.put((byte) labelBytes.length);
+        buf.put(labelBytes);
+        buf.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            buf.putInt(mote);
+            buf.putLong(timestamp + i);
+            buf.putFloat(value + i);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (true) {
+            synchronized (list) {
+                if (list.size() >= size) {
+                    return;
+                }
+            }
+            assertTrue("timed out waiting for readings", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static long allocatedBytes() {
+        // the bean lookup allocates, so it is done once up front
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
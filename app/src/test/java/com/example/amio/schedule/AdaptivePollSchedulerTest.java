@@ -0,0 +1,211 @@
+package com.example.amio.schedule;
+
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePollSchedulerTest {
+
+    private static final long SECOND = 1_000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+
+    /** 19:00 to 07:00 UTC. */
+    private static final MonitoringWindow NIGHT = new DailyWindow(19 * 60, 7 * 60, ZoneOffset.UTC);
+
+    @Test
+    public void idleMote_backsOffToMaxOutsideWindow() {
+        AdaptivePollScheduler scheduler =
+                new AdaptivePollScheduler(epochMillis -> false, MINUTE, 10_000, 5);
+        scheduler.addMote(1, 0);
+
+        for (long t = 0; t < 10 * HOUR; t += MINUTE) {
+            scheduler.onReading(1, 12f, t);
+        }
+
+        assertEquals(AdaptivePollScheduler.MAX_INTERVAL_MILLIS, scheduler.intervalOf(1));
+    }
+
+    @Test
+    public void busyMote_isPolledAtMinInterval() {
+        AdaptivePollScheduler scheduler =
+                new AdaptivePollScheduler(epochMillis -> false, MINUTE, 10_000, 5);
+        scheduler.addMote(1, 0);
+
+        for (int i = 0; i < 20; i++) {
+            scheduler.onReading(1, i % 2 == 0 ? 0f : 1000f, i * SECOND);
+        }
+
+        assertEquals(AdaptivePollScheduler.MIN_INTERVAL_MILLIS, scheduler.intervalOf(1));
+    }
+
+    @Test
+    public void window_capsInterval() {
+        AdaptivePollScheduler scheduler =
+                new AdaptivePollScheduler(MonitoringWindow.ALWAYS, MINUTE, 10_000, 5);
+        scheduler.addMote(1, 0);
+        int[] due = new int[1];
+
+        assertEquals(1, scheduler.pollDue(0, due));
+        scheduler.onReading(1, 12f, 0);
+
+        assertEquals(MINUTE, scheduler.intervalOf(1));
+        assertEquals(MINUTE, scheduler.nextPollTime());
+    }
+
+    @Test
+    public void budget_stretchesAllIntervals() {
+        // 100 motes capped at 1 min would need 6000 polls/h; allow 600
+        AdaptivePollScheduler scheduler =
+                new AdaptivePollScheduler(MonitoringWindow.ALWAYS, MINUTE, 600, 5);
+        int[] due = new int[100];
+        for (int m = 0; m < 100; m++) {
+            scheduler.addMote(m, 0);
+        }
+        scheduler.pollDue(0, due);
+
+        assertEquals(10 * MINUTE, scheduler.intervalOf(0), SECOND);
+    }
+
+    /**
+     * Two simulated nights of 60 motes, with offices lit during the day and some left lit at
+     * night. Compares against a poller hitting every mote each minute: detection latency of
+     * the night events must stay the same for far fewer requests.
+     */
+    @Test
+    public void simulation_fewerRequestsAtEqualDetectionLatency() {
+        Building building = new Building(60, 2, new Random(42));
+
+        Result fixed = simulate(building, null);
+        Result adaptive = simulate(building,
+                new AdaptivePollScheduler(NIGHT, MINUTE, 60 * 60, 5));
+
+        System.out.println(String.format(Locale.ROOT,
+                "fixed:    %d requests, mean latency %.1f s over %d events%n"
+                        + "adaptive: %d requests, mean latency %.1f s over %d events",
+                fixed.requests, fixed.meanLatencySeconds(), fixed.detected,
+                adaptive.requests, adaptive.meanLatencySeconds(), adaptive.detected));
+        assertEquals(building.events, fixed.detected);
+        assertEquals(building.events, adaptive.detected);
+        assertTrue(adaptive.requests < fixed.requests * 0.75);
+        assertTrue(adaptive.meanLatencySeconds() <= fixed.meanLatencySeconds() * 1.15);
+    }
+
+    private static Result simulate(Building building, AdaptivePollScheduler scheduler) {
+        int motes = building.motes;
+        long[] nextFixedPoll = new long[motes];
+        boolean[] eventSeen = new boolean[building.eventStart.length];
+        int[] due = new int[motes];
+        Result result = new Result();
+        if (scheduler != null) {
+            for (int m = 0; m < motes; m++) {
+                scheduler.addMote(m, 0);
+            }
+        }
+
+        for (long now = 0; now < building.durationMillis; now += SECOND) {
+            int n;
+            if (scheduler == null) {
+                n = 0;
+                for (int m = 0; m < motes; m++) {
+                    if (nextFixedPoll[m] <= now) {
+                        due[n++] = m;
+                        nextFixedPoll[m] = now + MINUTE;
+                    }
+                }
+            } else {
+                n = scheduler.pollDue(now, due);
+            }
+            for (int i = 0; i < n; i++) {
+                int mote = due[i];
+                float value = building.valueAt(mote, now);
+                result.requests++;
+                if (scheduler != null) {
+                    scheduler.onReading(mote, value, now);
+                }
+                int event = building.eventAt(mote, now);
+                if (event >= 0 && !eventSeen[event] && value > Building.LIT_THRESHOLD) {
+                    eventSeen[event] = true;
+                    result.detected++;
+                    result.totalLatency += now - building.eventStart[event];
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Result {
+        long requests;
+        int detected;
+        long totalLatency;
+
+        double meanLatencySeconds() {
+            return detected == 0 ? 0 : totalLatency / 1000d / detected;
+        }
+    }
+
+    /**
+     * Light levels: dark (~5 lux) at night, lit (~300 lux) during office hours, plus
+     * night-time events where a room is left lit for 30 to 150 minutes. A few motes sit by a
+     * flickering sign and are noisy all the time.
+     */
+    private static final class Building {
+        static final float LIT_THRESHOLD = 150f;
+
+        final int motes;
+        final long durationMillis;
+        final int events;
+        final int[] eventMote;
+        final long[] eventStart;
+        final long[] eventEnd;
+        final boolean[] noisy;
+        final long seed;
+
+        Building(int motes, int days, Random random) {
+            this.motes = motes;
+            this.durationMillis = days * 24 * HOUR + 12 * HOUR;
+            this.seed = random.nextLong();
+            this.noisy = new boolean[motes];
+            for (int m = 0; m < motes; m += 10) {
+                noisy[m] = true;
+            }
+            events = motes / 2 * days;
+            eventMote = new int[events];
+            eventStart = new long[events];
+            eventEnd = new long[events];
+            for (int e = 0; e < events; e++) {
+                int day = e % days;
+                eventMote[e] = 1 + (e / days) * 2 % (motes - 1);
+                if (noisy[eventMote[e]]) {
+                    eventMote[e]++;
+                }
+                // between 20:00 and 04:00
+                eventStart[e] = day * 24 * HOUR + 20 * HOUR + (long) (random.nextDouble() * 8 * HOUR);
+                eventEnd[e] = eventStart[e] + 30 * MINUTE + (long) (random.nextDouble() * 120 * MINUTE);
+            }
+        }
+
+        int eventAt(int mote, long t) {
+            for (int e = 0; e < events; e++) {
+                if (eventMote[e] == mote && t >= eventStart[e] && t < eventEnd[e]) {
+                    return e;
+                }
+            }
+            return -1;
+        }
+
+        float valueAt(int mote, long t) {
+            long hash = (seed ^ mote * 0x9E3779B97F4A7C15L) + t / SECOND * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+            double noise = ((hash & 0xFFFF) / 65536d - 0.5) * 2;
+            long timeOfDay = t % (24 * HOUR);
+            boolean officeHours = timeOfDay >= 8 * HOUR && timeOfDay < 18 * HOUR;
+            float base = officeHours || eventAt(mote, t) >= 0 ? 300f : 5f;
+            return (float) (base + (noisy[mote] ? noise * 40 : noise));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.amio.schedule;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class WeekCalendarTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final ZoneId PARIS = ZoneId.of("Europe/Paris");
+    private static final Set<DayOfWeek> WEEKDAYS =
+            EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+    private static final Set<DayOfWeek> EVERY_DAY = EnumSet.allOf(DayOfWeek.class);
+
+    @Test
+    public void contains_agreesWithDailyWindowAcrossZonesAndYears() {
+        String[] zones = {"UTC", "Europe/Paris", "America/New_York", "Australia/Lord_Howe",
+                "Asia/Kolkata", "Pacific/Chatham"};
+        int[][] ranges = {{19 * 60, 23 * 60}, {22 * 60, 6 * 60}, {0, 1440}, {7 * 60 + 30, 8 * 60}};
+        Set<DayOfWeek> days = EnumSet.of(DayOfWeek.MONDAY, DayOfWeek.WEDNESDAY, DayOfWeek.SUNDAY);
+        Random random = new Random(1);
+        long from = LocalDate.of(2020, 1, 1).toEpochDay() * 1440 * MINUTE;
+        long span = 8 * 365 * 1440 * MINUTE;
+        for (String name : zones) {
+            ZoneId zone = ZoneId.of(name);
+            for (int[] range : ranges) {
+                for (Set<DayOfWeek> set : Arrays.asList(EVERY_DAY, WEEKDAYS, days)) {
+                    DailyWindow daily = new DailyWindow(set, range[0], range[1], zone);
+                    WeekCalendar calendar = new WeekCalendar.Builder(zone)
+                            .add(set, range[0], range[1]).build();
+                    for (int i = 0; i < 20_000; i++) {
+                        // half random, half sweeping forward through the transitions
+                        long t = i % 2 == 0 ? from + (long) (random.nextDouble() * span)
+                                : from + i * (span / 20_000);
+                        assertEquals(name + " " + set + " " + range[0] + " @" + t,
+                                daily.contains(t), calendar.contains(t));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dst_followsTheWallClock() {
+        WeekCalendar calendar = new WeekCalendar.Builder(PARIS)
+                .add(EVERY_DAY, 2 * 60, 3 * 60).build();
+        // spring forward, 2026-03-29: 02:00 to 03:00 does not exist
+        long before = at(2026, 3, 29, 1, 59, PARIS);
+        assertFalse(calendar.contains(before));
+        assertFalse(calendar.contains(before + MINUTE)); // 03:00 CEST
+        assertTrue(calendar.contains(at(2026, 3, 28, 2, 30, PARIS)));
+        // fall back, 2026-10-25: 02:00 to 03:00 happens twice, inside the window both times
+        long first = LocalDateTime.of(2026, 10, 25, 2, 0).atOffset(ZoneOffset.ofHours(2))
+                .toInstant().toEpochMilli();
+        int inside = 0;
+        for (long t = first - 30 * MINUTE; t < first + 150 * MINUTE; t += MINUTE) {
+            if (calendar.contains(t)) {
+                inside++;
+            }
+        }
+        assertEquals(120, inside);
+        // timestamps jumping back and forth across a transition
+        assertTrue(calendar.contains(first + 90 * MINUTE));
+        assertTrue(calendar.contains(first + 10 * MINUTE));
+        assertFalse(calendar.contains(at(2026, 10, 24, 3, 0, PARIS)));
+        assertTrue(calendar.contains(first + 70 * MINUTE));
+    }
+
+    @Test
+    public void quietHoursAndHolidays() {
+        // Ascension, Thursday 2026-05-14; Whit Monday, 2026-05-25
+        WeekCalendar calendar = new WeekCalendar.Builder(PARIS)
+                .add(WEEKDAYS, 8 * 60, 18 * 60)
+                .add(EnumSet.of(DayOfWeek.SUNDAY), 10 * 60, 12 * 60)
+                .remove(EVERY_DAY, 12 * 60, 13 * 60)
+                .holidays(Arrays.asList(LocalDate.of(2026, 5, 14), LocalDate.of(2026, 5, 25)))
+                .build();
+        assertTrue(calendar.contains(at(2026, 5, 13, 9, 0, PARIS)));
+        assertFalse(calendar.contains(at(2026, 5, 13, 12, 30, PARIS)));
+        assertTrue(calendar.contains(at(2026, 5, 13, 13, 0, PARIS)));
+        // holidays follow Sunday
+        assertFalse(calendar.contains(at(2026, 5, 14, 9, 0, PARIS)));
+        assertTrue(calendar.contains(at(2026, 5, 14, 11, 0, PARIS)));
+        assertTrue(calendar.isHoliday(LocalDate.of(2026, 5, 25)));
+        assertFalse(calendar.isHoliday(LocalDate.of(2026, 5, 15)));
+        assertFalse(calendar.contains(at(2026, 5, 25, 15, 0, PARIS)));
+        assertTrue(calendar.contains(at(2026, 5, 26, 15, 0, PARIS)));
+
+        WeekCalendar likeMonday = new WeekCalendar.Builder(PARIS)
+                .add(WEEKDAYS, 8 * 60, 18 * 60)
+                .holidays(Arrays.asList(LocalDate.of(2026, 5, 14)))
+                .holidaysLike(DayOfWeek.MONDAY)
+                .build();
+        assertTrue(likeMonday.contains(at(2026, 5, 14, 9, 0, PARIS)));
+        assertNotEquals(calendar, likeMonday);
+    }
+
+    @Test
+    public void wrapPastSunday_runsIntoMonday() {
+        WeekCalendar calendar = new WeekCalendar.Builder(ZoneOffset.UTC)
+                .add(EnumSet.of(DayOfWeek.SUNDAY), 22 * 60, 6 * 60).build();
+        // 2026-10-18 is a Sunday
+        assertTrue(calendar.contains(at(2026, 10, 18, 23, 0, ZoneOffset.UTC)));
+        assertTrue(calendar.contains(at(2026, 10, 19, 5, 59, ZoneOffset.UTC)));
+        assertFalse(calendar.contains(at(2026, 10, 19, 6, 0, ZoneOffset.UTC)));
+        assertFalse(calendar.contains(at(2026, 10, 18, 5, 0, ZoneOffset.UTC)));
+        assertEquals(calendar, new WeekCalendar.Builder(ZoneOffset.UTC)
+                .add(EnumSet.of(DayOfWeek.SUNDAY), 22 * 60, 24 * 60)
+                .add(EnumSet.of(DayOfWeek.MONDAY), 0, 6 * 60).build());
+    }
+
+    @Test
+    public void benchmark_lookupsPerSecond() {
+        DailyWindow daily = new DailyWindow(WEEKDAYS, 19 * 60, 23 * 60, PARIS);
+        WeekCalendar calendar = new WeekCalendar.Builder(PARIS)
+                .add(WEEKDAYS, 19 * 60, 23 * 60).build();
+        int lookups = 2_000_000;
+        long[] times = new long[lookups];
+        long start = at(2026, 10, 1, 0, 0, PARIS);
+        for (int i = 0; i < lookups; i++) {
+            // a reading every second for 23 days, across the end of DST
+            times[i] = start + i * 1000L;
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        double bestCalendar = 0;
+        double bestDaily = 0;
+        long allocated = 0;
+        for (int round = 0; round < 5; round++) {
+            long before = allocatedBytes(threads);
+            long begin = System.nanoTime();
+            int inside = 0;
+            for (long t : times) {
+                if (calendar.contains(t)) {
+                    inside++;
+                }
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            allocated = allocatedBytes(threads) - before;
+            bestCalendar = Math.max(bestCalendar, lookups / seconds);
+
+            begin = System.nanoTime();
+            for (long t : times) {
+                if (daily.contains(t)) {
+                    inside--;
+                }
+            }
+            seconds = (System.nanoTime() - begin) / 1e9;
+            bestDaily = Math.max(bestDaily, lookups / seconds);
+            assertEquals(0, inside);
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "week calendar: %.1f M lookups/s vs %.1f M/s with calendar arithmetic, "
+                        + "%d bytes allocated", bestCalendar / 1e6, bestDaily / 1e6, allocated));
+        assertTrue(bestCalendar > bestDaily);
+        if (allocated >= 0) {
+            // one offset lookup at the end of DST, none per reading
+            assertTrue(allocated < 10_000);
+        }
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute, ZoneId zone) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(zone).toInstant()
+                .toEpochMilli();
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
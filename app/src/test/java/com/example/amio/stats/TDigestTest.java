@@ -0,0 +1,79 @@
+package com.example.amio.stats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TDigestTest {
+
+    @Test
+    public void quantiles_trackExactOnesWithinTheirRank() {
+        Random random = new Random(4);
+        double[] values = new double[100_000];
+        TDigest digest = new TDigest(100);
+        for (int i = 0; i < values.length; i++) {
+            // skewed, like lux: mostly dark, a long lit tail
+            values[i] = Math.exp(random.nextGaussian() * 1.5);
+            digest.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : new double[]{0.01, 0.1, 0.5, 0.9, 0.95, 0.99, 0.999}) {
+            double estimate = digest.quantile(q);
+            double rank = rank(values, estimate);
+            assertEquals("q=" + q, q, rank, Math.max(0.002, q * (1 - q) * 0.03));
+        }
+        assertEquals(values[0], digest.quantile(0), 0);
+        assertEquals(values[values.length - 1], digest.quantile(1), 0);
+        assertTrue(digest.centroidCount() <= 110);
+    }
+
+    @Test
+    public void merge_ofPartsMatchesTheWhole() {
+        Random random = new Random(8);
+        TDigest whole = new TDigest(100);
+        TDigest merged = new TDigest(100);
+        for (int part = 0; part < 50; part++) {
+            TDigest digest = new TDigest(100);
+            for (int i = 0; i < 200; i++) {
+                double value = random.nextGaussian() * 10 + part;
+                digest.add(value);
+                whole.add(value);
+            }
+            merged.add(digest);
+        }
+        assertEquals(whole.size(), merged.size(), 0);
+        assertEquals(whole.min(), merged.min(), 0);
+        assertEquals(whole.max(), merged.max(), 0);
+        for (double q : new double[]{0.05, 0.5, 0.95}) {
+            assertEquals(whole.quantile(q), merged.quantile(q), 0.5);
+        }
+    }
+
+    @Test
+    public void empty_andReset() {
+        TDigest digest = new TDigest(50);
+        assertTrue(Double.isNaN(digest.quantile(0.5)));
+        digest.add(3);
+        assertEquals(3, digest.quantile(0.95), 0);
+        digest.reset();
+        assertEquals(0, digest.size(), 0);
+        assertTrue(Double.isNaN(digest.quantile(0.5)));
+    }
+
+    /** Fraction of {@code sorted} strictly below {@code value}, counting ties as half. */
+    private static double rank(double[] sorted, double value) {
+        int below = 0;
+        int equal = 0;
+        for (double v : sorted) {
+            if (v < value) {
+                below++;
+            } else if (v == value) {
+                equal++;
+            }
+        }
+        return (below + equal / 2.0) / sorted.length;
+    }
+}
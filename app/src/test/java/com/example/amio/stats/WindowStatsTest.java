@@ -0,0 +1,169 @@
+package com.example.amio.stats;
+
+import com.example.amio.data.SensorBatch;
+import com.example.amio.data.SensorDictionary;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WindowStatsTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long[] WINDOWS = {5 * MINUTE, 30 * MINUTE, 120 * MINUTE};
+
+    @Test
+    public void windows_matchBruteForceOnIrregularReadings() {
+        WindowStats stats = new WindowStats("light1", WINDOWS, 512, MINUTE, 100);
+        Random random = new Random(12);
+        int n = 3000;
+        long[] ts = new long[n];
+        float[] values = new float[n];
+        long t = 0;
+        for (int i = 0; i < n; i++) {
+            t += 1 + random.nextInt(40_000);
+            ts[i] = t;
+            values[i] = random.nextInt(5) == 0 ? 300 + random.nextInt(200) : random.nextInt(40);
+            SensorBatch batch = new SensorBatch(1);
+            batch.setLabel("light1");
+            batch.add(ts[i], values[i], 4);
+            stats.onBatch(batch);
+
+            if (i % 97 == 0 || i == n - 1) {
+                for (int w = 0; w < WINDOWS.length; w++) {
+                    check(stats, w, ts, values, i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sharedDictionary_listsMotesInOrderOfFirstReport() {
+        SensorDictionary dictionary = new SensorDictionary(null);
+        dictionary.moteId(11);
+        dictionary.moteId(12);
+        WindowStats stats = new WindowStats("light1", WINDOWS, 16, MINUTE, 50, dictionary);
+        SensorBatch batch = new SensorBatch(3);
+        batch.setLabel("light1");
+        batch.add(MINUTE, 5, 13);
+        batch.add(MINUTE, 6, 12);
+        batch.add(2 * MINUTE, 7, 13);
+        stats.onBatch(batch);
+
+        assertEquals(2, stats.moteCount());
+        assertEquals(13, stats.moteAt(0));
+        assertEquals(12, stats.moteAt(1));
+        assertEquals(2, stats.count(13, 0));
+        assertEquals(0, stats.count(11, 0));
+        assertTrue(Double.isNaN(stats.mean(11, 0)));
+    }
+
+    @Test
+    public void ringOverflow_expiresEarlyAndUnknownMotesAreEmpty() {
+        WindowStats stats = new WindowStats("light1", new long[]{60 * MINUTE}, 10, MINUTE, 50);
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        for (int m = 0; m < 30; m++) {
+            batch.add(m * MINUTE, m, 1);
+        }
+        stats.onBatch(batch);
+        assertEquals(10, stats.count(1, 0));
+        assertEquals(20f, stats.min(1, 0), 0f);
+        assertEquals(29f, stats.max(1, 0), 0f);
+        assertEquals(24.5, stats.mean(1, 0), 1e-9);
+
+        assertEquals(0, stats.count(2, 0));
+        assertTrue(Double.isNaN(stats.mean(2, 0)));
+        assertTrue(Float.isNaN(stats.max(2, 0)));
+        assertTrue(Double.isNaN(stats.quantile(2, 0, 0.95)));
+    }
+
+    /** 500 motes, a day of one reading a minute each, through 5, 30 and 120 minute windows. */
+    @Test
+    public void benchmark_throughput() {
+        int motes = 500;
+        int minutes = 1440;
+        WindowStats stats = new WindowStats("light1", WINDOWS, 128, MINUTE, 50);
+        Random random = new Random(2);
+        SensorBatch[] day = new SensorBatch[minutes];
+        for (int m = 0; m < minutes; m++) {
+            day[m] = new SensorBatch(motes);
+            day[m].setLabel("light1");
+            for (int mote = 0; mote < motes; mote++) {
+                day[m].add(m * MINUTE, 20 + (float) random.nextGaussian() * 5
+                        + ((m / 60 + mote) % 24 > 12 ? 300 : 0), mote);
+            }
+        }
+        long t0 = System.nanoTime();
+        for (SensorBatch batch : day) {
+            stats.onBatch(batch);
+        }
+        double ingestSeconds = (System.nanoTime() - t0) / 1e9;
+
+        double sink = 0;
+        t0 = System.nanoTime();
+        for (int round = 0; round < 10; round++) {
+            for (int mote = 0; mote < motes; mote++) {
+                for (int w = 0; w < WINDOWS.length; w++) {
+                    sink += stats.mean(mote, w) + stats.variance(mote, w) + stats.max(mote, w)
+                            + stats.quantile(mote, w, 0.95);
+                }
+            }
+        }
+        double queryMicros = (System.nanoTime() - t0) / 1e3 / (10.0 * motes * WINDOWS.length);
+        System.out.println(String.format(Locale.ROOT,
+                "window stats: %.2f M readings/s into 3 windows, %.1f us per window summary",
+                motes * minutes / ingestSeconds / 1e6, queryMicros));
+        assertFalse(Double.isNaN(sink));
+    }
+
+    private static void check(WindowStats stats, int w, long[] ts, float[] values, int newest) {
+        long cutoff = ts[newest] - WINDOWS[w];
+        int first = newest;
+        while (first > 0 && ts[first - 1] > cutoff) {
+            first--;
+        }
+        int count = newest - first + 1;
+        double sum = 0;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = first; i <= newest; i++) {
+            sum += values[i];
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        double mean = sum / count;
+        double squares = 0;
+        for (int i = first; i <= newest; i++) {
+            squares += (values[i] - mean) * (values[i] - mean);
+        }
+        assertEquals(count, stats.count(4, w));
+        assertEquals(mean, stats.mean(4, w), 1e-6);
+        if (count > 1) {
+            assertEquals(squares / (count - 1), stats.variance(4, w), 1e-6 * squares + 1e-6);
+        }
+        assertEquals(min, stats.min(4, w), 0f);
+        assertEquals(max, stats.max(4, w), 0f);
+
+        // the first pane may add older readings, back to the start of its minute
+        long paneStart = Math.floorDiv(cutoff + 1, MINUTE) * MINUTE;
+        int lo = first;
+        while (lo > 0 && ts[lo - 1] >= paneStart) {
+            lo--;
+        }
+        float[] window = Arrays.copyOfRange(values, first, newest + 1);
+        float[] wider = Arrays.copyOfRange(values, lo, newest + 1);
+        Arrays.sort(window);
+        Arrays.sort(wider);
+        double p95 = stats.quantile(4, w, 0.95);
+        double floor = Math.min(window[(int) (0.85 * (window.length - 1))],
+                wider[(int) (0.85 * (wider.length - 1))]);
+        assertTrue("p95 " + p95 + " below " + floor, p95 >= floor - 1e-6);
+        assertTrue("p95 " + p95 + " above " + wider[wider.length - 1],
+                p95 <= wider[wider.length - 1] + 1e-6);
+    }
+}
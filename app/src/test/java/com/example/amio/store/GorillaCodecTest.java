@@ -0,0 +1,147 @@
+package com.example.amio.store;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GorillaCodecTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final long MINUTE = 60_000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    @Test
+    public void roundTrip_preservesEveryBit() throws IOException {
+        long[] timestamps = {START, START + 1, START + 60_000, START + 60_001, START + 3_000_000_000L,
+                START + 3_000_000_100L, START + 3_000_000_050_000L, START + 3_000_000_050_001L};
+        float[] values = {0f, -0f, Float.NaN, Float.MAX_VALUE, Float.MIN_VALUE,
+                Float.NEGATIVE_INFINITY, 212.5f, 212.5f};
+        ByteBuffer encoded = encode(timestamps, values, Long.MAX_VALUE);
+
+        GorillaSeriesReader reader = new GorillaSeriesReader(encoded, 0, encoded.limit());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(reader.next());
+            assertEquals(timestamps[i], reader.timestamp());
+            assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(reader.value()));
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void seek_skipsToTheChunkHoldingTheTime() throws IOException {
+        int days = 30;
+        long[] timestamps = new long[days * 1440];
+        float[] values = new float[timestamps.length];
+        lightTrace(new Random(1), timestamps, values);
+        ByteBuffer encoded = encode(timestamps, values, DAY);
+
+        GorillaSeriesReader reader = new GorillaSeriesReader(encoded, 0, encoded.limit());
+        int target = 17 * 1440 + 321;
+        reader.seek(timestamps[target] - 1);
+        for (int i = target; i < target + 2000; i++) {
+            assertTrue(reader.next());
+            assertEquals(timestamps[i], reader.timestamp());
+            assertEquals(values[i], reader.value(), 0f);
+        }
+
+        reader.seek(timestamps[timestamps.length - 1] + 1);
+        assertFalse(reader.next());
+        reader.seek(0);
+        assertTrue(reader.next());
+        assertEquals(timestamps[0], reader.timestamp());
+    }
+
+    @Test
+    public void append_rejectsTimestampsGoingBackAcrossChunks() throws IOException {
+        GorillaSeriesWriter writer = new GorillaSeriesWriter(new ByteArrayOutputStream(), DAY);
+        writer.append(START + DAY, 1f);
+        writer.flush(); // the chunk is written: the encoder starts empty
+        try {
+            writer.append(START, 2f);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // would land in an earlier chunk than one already written
+        }
+        try {
+            writer.append(START + DAY, 2f);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // not after the last reading either
+        }
+        writer.append(START + DAY + 1, 2f);
+        writer.close();
+    }
+
+    @Test
+    public void benchmark_lightTrace() throws IOException {
+        int points = 90 * 1440; // three months, one reading a minute
+        long[] timestamps = new long[points];
+        float[] values = new float[points];
+        lightTrace(new Random(7), timestamps, values);
+
+        ByteBuffer encoded = null;
+        long encodeNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            encoded = encode(timestamps, values, DAY);
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+        }
+
+        GorillaSeriesReader reader = new GorillaSeriesReader(encoded, 0, encoded.limit());
+        long decodeNanos = Long.MAX_VALUE;
+        double checksum = 0;
+        for (int round = 0; round < 5; round++) {
+            reader.rewind();
+            long start = System.nanoTime();
+            while (reader.next()) {
+                checksum += reader.value();
+            }
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+        }
+
+        double bytesPerPoint = encoded.limit() / (double) points;
+        System.out.println(String.format(Locale.ROOT,
+                "gorilla: %.2f bytes/point (raw 12), encode %.1f M points/s, decode %.1f M points/s",
+                bytesPerPoint, points / (encodeNanos / 1e3), points / (decodeNanos / 1e3)));
+        assertTrue(checksum > 0);
+        assertTrue(bytesPerPoint < 4);
+    }
+
+    private static ByteBuffer encode(long[] timestamps, float[] values, long chunkMillis)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GorillaSeriesWriter writer = new GorillaSeriesWriter(out, chunkMillis);
+        for (int i = 0; i < timestamps.length; i++) {
+            writer.append(timestamps[i], values[i]);
+        }
+        writer.close();
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * One reading a minute with up to 300 ms of reporting jitter and the odd missed reading.
+     * The room is dark (2-8 lux) at night and lit (300-420 lux) in the evening and during
+     * working hours, with sensor noise of a few lux quantized to the 0.5 lux steps seen in
+     * IoTLab payloads.
+     */
+    private static void lightTrace(Random random, long[] timestamps, float[] values) {
+        long t = START;
+        float level = 4f;
+        for (int i = 0; i < timestamps.length; i++) {
+            t += MINUTE + (random.nextInt(100) == 0 ? MINUTE : 0);
+            timestamps[i] = t + random.nextInt(601) - 300;
+            int hour = (int) ((t / (60 * MINUTE)) % 24);
+            boolean lit = hour >= 8 && hour < 22;
+            float target = lit ? 360f : 4f;
+            level += (target - level) * 0.5f;
+            float noise = (float) random.nextGaussian() * (lit ? 3f : 0.5f);
+            values[i] = Math.max(0, Math.round((level + noise) * 2) / 2f);
+        }
+    }
+}
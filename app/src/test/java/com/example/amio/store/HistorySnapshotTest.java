@@ -0,0 +1,131 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+public class HistorySnapshotTest {
+
+    private static final long START = 1_699_920_000_000L; // a UTC midnight
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_keepsHourlyHistoryAndConfig() throws IOException {
+        SegmentHistoryStore store = new SegmentHistoryStore(folder.newFolder("from"));
+        for (int m = 0; m < 3 * 1440; m++) {
+            store.append(SegmentHistoryStoreTest.poll(m, 3));
+        }
+        // day one rolled up, days two and three still raw
+        while (store.compact(START + DAY, 0, RetentionCompactor.STEP_ROWS) > 0) {
+            // keep going
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistorySnapshot.write(store, "light1",
+                Collections.singletonMap("cursors", new byte[]{1, 2, 3}), out);
+        store.close();
+
+        SegmentHistoryStore restored = new SegmentHistoryStore(folder.newFolder("to"));
+        Map<String, byte[]> config = HistorySnapshot.read(
+                new ByteArrayInputStream(out.toByteArray()), restored);
+        assertArrayEquals(new byte[]{1, 2, 3}, config.get("cursors"));
+        assertArrayEquals(new int[]{0, 1, 2}, restored.motes("light1"));
+        assertEquals(0, restored.scan("light1", 2, 0, Long.MAX_VALUE, new SensorBatch()));
+
+        RollupSlice rollups = new RollupSlice();
+        assertEquals(72, restored.scanRollups("light1", 2, 0, Long.MAX_VALUE, rollups));
+        for (int h = 0; h < 72; h++) {
+            assertEquals(START + h * HOUR, rollups.start(h));
+            assertEquals(60, rollups.count(h));
+            assertEquals(SegmentHistoryStoreTest.value(h * 60 + 59, 2), rollups.last(h), 0f);
+            assertEquals(20f, rollups.min(h), 0f);
+            assertEquals(26f, rollups.max(h), 0f);
+        }
+        restored.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherStreams() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflated = new DeflaterOutputStream(out);
+        deflated.write(new byte[]{'P', 'K', 3, 4, 0, 0, 0, 1});
+        deflated.close();
+        HistorySnapshot.read(new ByteArrayInputStream(out.toByteArray()),
+                new SegmentHistoryStore(folder.getRoot()));
+    }
+
+    @Test
+    public void benchmark_snapshotSizeAndRestoreTime() throws IOException {
+        int motes = 50;
+        int days = 30;
+        File dir = folder.newFolder("bench");
+        SegmentHistoryStore store = new SegmentHistoryStore(dir);
+        // noisy office lighting, so the compressor gets no help from repeating values
+        Random random = new Random(3);
+        SensorBatch batch = new SensorBatch(motes);
+        batch.setLabel("light1");
+        for (int m = 0; m < days * 1440; m++) {
+            batch.clear();
+            boolean day = m % 1440 >= 8 * 60 && m % 1440 < 18 * 60;
+            for (int mote = 0; mote < motes; mote++) {
+                float lux = (day ? 300 : 4) + (float) random.nextGaussian() * (day ? 25 : 1);
+                batch.add(START + m * MINUTE, Math.round(lux * 10) / 10f, mote);
+            }
+            store.append(batch);
+        }
+        long rawBytes = du(dir);
+
+        long t0 = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistorySnapshot.write(store, "light1", Collections.<String, byte[]>emptyMap(), out);
+        double writeMillis = (System.nanoTime() - t0) / 1e6;
+        store.close();
+
+        SegmentHistoryStore restored = new SegmentHistoryStore(folder.newFolder("restored"));
+        t0 = System.nanoTime();
+        HistorySnapshot.read(new ByteArrayInputStream(out.toByteArray()), restored);
+        double restoreMillis = (System.nanoTime() - t0) / 1e6;
+        assertEquals(days * 24, restored.scanRollups("light1", motes - 1, 0, Long.MAX_VALUE,
+                new RollupSlice()));
+        restored.close();
+
+        System.out.println(String.format(Locale.ROOT,
+                "snapshot: %d motes x %d days, raw store %.1f MB, snapshot %.1f KB (%.0fx), "
+                        + "written in %.0f ms, restored in %.0f ms",
+                motes, days, rawBytes / 1e6, out.size() / 1e3, rawBytes / (double) out.size(),
+                writeMillis, restoreMillis));
+        assertTrue(out.size() * 20L < rawBytes);
+    }
+
+    private static long du(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long total = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                total += du(child);
+            }
+        }
+        return total;
+    }
+}
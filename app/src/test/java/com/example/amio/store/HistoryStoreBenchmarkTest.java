@@ -0,0 +1,86 @@
+package com.example.amio.store;
+
+import android.content.Context;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * A/B of the two {@link HistoryStore} backends on the same workload: a week of one reading a
+ * minute from 50 motes, then one-hour and one-day range scans from a freshly opened store.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class HistoryStoreBenchmarkTest {
+
+    private static final long START = 1_699_920_000_000L;
+    private static final long MINUTE = 60_000L;
+    private static final int MOTES = 50;
+    private static final int DAYS = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void benchmark_sqliteVersusSegments() throws IOException {
+        Context context = RuntimeEnvironment.getApplication();
+        String sqlite = run("sqlite", () -> new SqliteHistoryStore(context, "ab-test.db"));
+        String segments = run("segments", () -> new SegmentHistoryStore(folder.getRoot()));
+        context.deleteDatabase("ab-test.db");
+        System.out.println(sqlite);
+        System.out.println(segments);
+    }
+
+    private static String run(String name, Supplier<HistoryStore> open) throws IOException {
+        int minutes = DAYS * 1440;
+        HistoryStore store = open.get();
+        long start = System.nanoTime();
+        for (int m = 0; m < minutes; m++) {
+            store.append(SegmentHistoryStoreTest.poll(m, MOTES));
+        }
+        double insertsPerSecond = (double) minutes * MOTES / ((System.nanoTime() - start) / 1e9);
+        store.close();
+
+        HistoryStore reader = open.get();
+        Random random = new Random(9);
+        SensorBatch out = new SensorBatch();
+        long[] hour = new long[300];
+        long[] day = new long[100];
+        for (int i = 0; i < hour.length + day.length; i++) {
+            boolean isHour = i < hour.length;
+            int span = isHour ? 60 : 1440;
+            long from = START + random.nextInt(minutes - span) * MINUTE;
+            long t0 = System.nanoTime();
+            int found = reader.scan("light1", random.nextInt(MOTES), from, from + span * MINUTE, out);
+            long elapsed = System.nanoTime() - t0;
+            assertEquals(span, found);
+            if (isHour) {
+                hour[i] = elapsed;
+            } else {
+                day[i - hour.length] = elapsed;
+            }
+        }
+        reader.close();
+        Arrays.sort(hour);
+        Arrays.sort(day);
+        return String.format(Locale.ROOT,
+                "%s: %.0f inserts/s, 1 h scan p50 %.0f us p99 %.0f us, 1 day scan p50 %.0f us",
+                name, insertsPerSecond, hour[hour.length / 2] / 1e3,
+                hour[hour.length * 99 / 100] / 1e3, day[day.length / 2] / 1e3);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LitIntervalIndexTest {
+
+    private static final long START = 1_699_920_000_000L; // a UTC midnight
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void intervals_followThresholdAndGaps() {
+        LitIntervalIndex index = new LitIntervalIndex("light1", 100f, 10 * MINUTE, null);
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        // mote 1: lit 08:00 to 18:00; mote 2: lit from 20:00, then silent after 21:00
+        for (int m = 0; m < 24 * 60; m += 5) {
+            long t = START + m * MINUTE;
+            batch.add(t, m >= 8 * 60 && m < 18 * 60 ? 350f : 4f, 1);
+            if (m <= 21 * 60) {
+                batch.add(t, m >= 20 * 60 ? 350f : 4f, 2);
+            }
+        }
+        batch.add(START + 23 * HOUR, 4f, 2);
+        index.onBatch(batch);
+
+        assertEquals(10 * HOUR, index.litMillis(1, START, START + DAY));
+        assertEquals(HOUR + 1, index.litMillis(2, START, START + DAY));
+        assertEquals(1, index.intervalCount(1));
+        assertEquals(1, index.intervalCount(2));
+
+        int[] motes = new int[index.moteCount()];
+        assertEquals(1, index.litMotes(START + 17 * HOUR, START + 19 * HOUR, motes));
+        assertEquals(1, motes[0]);
+        assertEquals(2, index.litMotes(START + 17 * HOUR, START + 21 * HOUR, motes));
+        assertEquals(0, index.litMotes(START + 18 * HOUR, START + 20 * HOUR, motes));
+        assertEquals(0, index.litMotes(START + 22 * HOUR, START + DAY, motes));
+    }
+
+    @Test
+    public void openInterval_countsUpToItsLastReading() {
+        LitIntervalIndex index = new LitIntervalIndex("light1", 100f, 10 * MINUTE, null);
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        batch.add(START, 300f, 7);
+        batch.add(START + 5 * MINUTE, 300f, 7);
+        index.onBatch(batch);
+
+        int[] motes = new int[1];
+        assertEquals(1, index.litMotes(START + 5 * MINUTE, START + HOUR, motes));
+        assertEquals(0, index.litMotes(START + 6 * MINUTE, START + HOUR, motes));
+        assertEquals(0, index.intervalCount(7));
+        assertEquals(5 * MINUTE + 1, index.litMillis(7, START, START + HOUR));
+    }
+
+    @Test
+    public void closedIntervals_surviveRestartAndTornTail() throws IOException {
+        File file = new File(folder.getRoot(), "lit.bin");
+        LitIntervalIndex index = new LitIntervalIndex("light1", 100f, 30 * MINUTE, file);
+        feed(index, 3, 5);
+        int count = index.intervalCount(2);
+        long lit = index.litMillis(2, START, START + 5 * DAY);
+        index.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + 7); // a record cut short by a crash
+        }
+
+        LitIntervalIndex reopened = new LitIntervalIndex("light1", 100f, 30 * MINUTE, file);
+        assertEquals(count, reopened.intervalCount(2));
+        assertTrue(lit - reopened.litMillis(2, START, START + 5 * DAY) < DAY); // open one lost
+        assertEquals(0, file.length() % 20);
+        reopened.close();
+    }
+
+    @Test
+    public void benchmark_yearOf500Motes() {
+        int motes = 500;
+        int days = 365;
+        LitIntervalIndex index = new LitIntervalIndex("light1", 100f, 30 * MINUTE, null);
+        long ingestStart = System.nanoTime();
+        feed(index, motes, days);
+        double ingestSeconds = (System.nanoTime() - ingestStart) / 1e9;
+        long intervals = 0;
+        for (int mote = 0; mote < motes; mote++) {
+            intervals += index.intervalCount(mote);
+        }
+
+        Random random = new Random(11);
+        int[] out = new int[index.moteCount()];
+        long[] nanos = new long[2000];
+        long found = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            // overnight, 19:00 to 07:00, on a random night
+            long from = START + random.nextInt(days - 1) * DAY + 19 * HOUR;
+            long t0 = System.nanoTime();
+            found += index.litMotes(from, from + 12 * HOUR, out);
+            nanos[i] = System.nanoTime() - t0;
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format(Locale.ROOT,
+                "lit intervals: %d intervals from %d motes x %d days in %.1f s; overnight query "
+                        + "p50 %.0f us p99 %.0f us, %.1f motes lit on average",
+                intervals, motes, days, ingestSeconds, nanos[nanos.length / 2] / 1e3,
+                nanos[nanos.length * 99 / 100] / 1e3, found / (double) nanos.length));
+        assertTrue(found > 0);
+    }
+
+    /**
+     * One reading every 15 minutes, a day per batch: each office lit from about 08:00 to
+     * 18:00, and left lit all night about one night in twenty.
+     */
+    private static void feed(LitIntervalIndex index, int motes, int days) {
+        Random random = new Random(motes);
+        boolean[] leftOn = new boolean[motes];
+        SensorBatch batch = new SensorBatch(motes * 96);
+        batch.setLabel("light1");
+        for (int d = 0; d < days; d++) {
+            batch.clear();
+            for (int mote = 0; mote < motes; mote++) {
+                int on = 7 * 4 + random.nextInt(8);
+                int off = 17 * 4 + random.nextInt(8);
+                boolean nextLeftOn = random.nextInt(20) == 0;
+                for (int q = 0; q < 96; q++) {
+                    boolean lit = (q < on && leftOn[mote]) || (q >= on && q < off)
+                            || (q >= off && nextLeftOn);
+                    batch.add(START + d * DAY + q * 15 * MINUTE, lit ? 320f : 3f, mote);
+                }
+                leftOn[mote] = nextLeftOn;
+            }
+            index.onBatch(batch);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class MoteRingBufferTest {
+
+    private static final int MILLION = 1_000_000;
+
+    @Test
+    public void append_overwritesOldestOnceFull() {
+        MoteRingBuffer buffer = new MoteRingBuffer(4);
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(buffer.append(i * 10L, i));
+        }
+        assertFalse(buffer.append(60L, 0));
+        assertFalse(buffer.append(5L, 0));
+
+        MoteRingBuffer.Snapshot all = buffer.snapshot(null);
+        assertEquals(4, all.size());
+        int expected = 3;
+        while (all.next()) {
+            assertEquals(expected * 10L, all.timestamp());
+            assertEquals(expected, all.value(), 0f);
+            expected++;
+        }
+        assertEquals(7, expected);
+        assertEquals(60L, buffer.newestTimestamp());
+    }
+
+    @Test
+    public void range_binarySearchesAcrossTheWrap() {
+        MoteRingBuffer buffer = new MoteRingBuffer(100);
+        for (int i = 0; i < 250; i++) {
+            buffer.append(i * 1000L, i);
+        }
+        // readings 150..249 are held, the oldest at slot 50
+        MoteRingBuffer.Snapshot s = buffer.range(180_500L, 200_000L, null);
+        assertEquals(19, s.size());
+        assertEquals(181_000L, s.timestamp(0));
+        assertEquals(199_000L, s.timestamp(18));
+
+        assertEquals(100, buffer.range(0, Long.MAX_VALUE, s).size());
+        assertEquals(150_000L, s.timestamp(0));
+        assertEquals(0, buffer.range(300_000L, 400_000L, s).size());
+        assertEquals(0, buffer.range(10_000L, 20_000L, s).size());
+        assertEquals(1, buffer.range(249_000L, 249_001L, s).size());
+    }
+
+    @Test
+    public void snapshot_isInvalidatedOnlyByOverwrites() {
+        MoteRingBuffer buffer = new MoteRingBuffer(8);
+        for (int i = 0; i < 8; i++) {
+            buffer.append(i, i);
+        }
+        MoteRingBuffer.Snapshot newest = buffer.range(6, 8, null);
+        MoteRingBuffer.Snapshot oldest = buffer.range(0, 2, null);
+
+        buffer.append(8, 8);
+
+        assertFalse(oldest.isValid());
+        assertTrue(newest.isValid());
+        assertEquals(2, newest.size());
+        assertEquals(6L, newest.timestamp(0));
+    }
+
+    @Test
+    public void store_routesBatchesPerMote() {
+        RingBufferStore store = new RingBufferStore("light1", 16);
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        batch.add(1000L, 1f, 7);
+        batch.add(1000L, 2f, 9);
+        batch.add(2000L, 3f, 7);
+        store.onBatch(batch);
+        batch.setLabel("temperature");
+        store.onBatch(batch);
+
+        assertEquals(2, store.moteCount());
+        assertEquals(2, store.buffer(7).size());
+        assertEquals(1, store.buffer(9).size());
+        assertEquals(3f, store.buffer(7).range(2000L, 2001L, null).value(0), 0f);
+        assertNull(store.buffer(8));
+    }
+
+    @Test
+    public void retainedHeap_millionReadings_vsBoxedList() {
+        long base = usedHeap();
+        MoteRingBuffer ring = new MoteRingBuffer(MILLION);
+        for (int i = 0; i < MILLION; i++) {
+            ring.append(1_700_000_000_000L + i * 1000L, 200f + i % 500);
+        }
+        long ringBytes = usedHeap() - base;
+
+        base = usedHeap();
+        List<BoxedReading> boxed = new ArrayList<>();
+        for (int i = 0; i < MILLION; i++) {
+            boxed.add(new BoxedReading(1_700_000_000_000L + i * 1000L, 200f + i % 500));
+        }
+        long boxedBytes = usedHeap() - base;
+
+        System.out.println(String.format(Locale.ROOT,
+                "1M readings: ring buffer %.1f MB (%.1f B/reading), boxed list %.1f MB (%.1f B/reading)",
+                ringBytes / 1e6, ringBytes / (double) MILLION,
+                boxedBytes / 1e6, boxedBytes / (double) MILLION));
+        assertEquals(MILLION, ring.size());
+        assertEquals(MILLION, boxed.size());
+        assertTrue(ringBytes * 3 < boxedBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** The obvious object model: one object per reading, timestamp and value boxed. */
+    private static final class BoxedReading {
+        final Long timestamp;
+        final Float value;
+
+        BoxedReading(Long timestamp, Float value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class OffHeapHistoryCacheTest {
+
+    private static final long START = 1_699_920_000_000L;
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    @Test
+    public void range_readsAcrossSlotsAndRecyclesExpiredOnes() {
+        OffHeapHistoryCache cache = new OffHeapHistoryCache("light1", 2 * HOUR, 60, 1 << 20);
+        for (int m = 0; m < 5 * 60; m++) {
+            cache.onBatch(SegmentHistoryStoreTest.poll(m, 3));
+        }
+        cache.onBatch(SegmentHistoryStoreTest.poll(10, 3)); // replayed: ignored
+
+        OffHeapHistoryCache.Window window = cache.range(1, 0, Long.MAX_VALUE, null);
+        // the slot holding hour 2 is kept until a new slot is needed
+        assertEquals(3 * 60, window.size());
+        long expected = START + 2 * HOUR;
+        while (window.next()) {
+            assertEquals(expected, window.timestamp());
+            assertEquals(SegmentHistoryStoreTest.value((int) ((expected - START) / MINUTE), 1),
+                    window.value(), 0f);
+            expected += MINUTE;
+        }
+        assertTrue(window.isValid());
+
+        cache.range(2, START + 3 * HOUR + 30 * MINUTE, START + 4 * HOUR + 10 * MINUTE, window);
+        assertEquals(40, window.size());
+        assertEquals(2, window.partCount());
+        ByteBuffer records = window.records(1);
+        assertEquals(10 * OffHeapHistoryCache.RECORD_BYTES, records.remaining());
+        assertEquals(START + 4 * HOUR, records.getLong(records.position()));
+        assertTrue(records.isReadOnly());
+
+        assertEquals(0, cache.range(9, 0, Long.MAX_VALUE, window).size());
+        assertFalse(window.next());
+    }
+
+    @Test
+    public void budget_evictsTheOldestSlotOfAnyMote() {
+        // room for four slots of ten readings
+        OffHeapHistoryCache cache = new OffHeapHistoryCache("light1", Long.MAX_VALUE, 10,
+                4 * 10 * OffHeapHistoryCache.RECORD_BYTES);
+        for (int m = 0; m < 20; m++) {
+            cache.onBatch(SegmentHistoryStoreTest.poll(m, 2));
+        }
+        OffHeapHistoryCache.Window old = cache.range(0, 0, Long.MAX_VALUE, null);
+        assertEquals(20, old.size());
+        assertEquals(4 * 10 * OffHeapHistoryCache.RECORD_BYTES, cache.allocatedBytes());
+
+        cache.onBatch(SegmentHistoryStoreTest.poll(20, 2));
+        assertFalse(old.isValid());
+        OffHeapHistoryCache.Window window = cache.range(0, 0, Long.MAX_VALUE, null);
+        assertEquals(11, window.size());
+        assertTrue(window.next());
+        assertEquals(START + 10 * MINUTE, window.timestamp());
+        assertEquals(11, cache.range(1, 0, Long.MAX_VALUE, null).size());
+        assertEquals(4 * 10 * OffHeapHistoryCache.RECORD_BYTES, cache.allocatedBytes());
+    }
+
+    /**
+     * Two days of one reading a minute from 1000 motes, held on the heap in ring buffers and
+     * off it in the cache, then the same churn of short-lived garbage against each.
+     */
+    @Test
+    public void benchmark_gcPausesOnHeapVersusOffHeap() {
+        int motes = 1000;
+        int minutes = 2 * 1440;
+        String onHeap = run("ring buffers", motes, minutes,
+                new RingBufferStore("light1", minutes)::onBatch);
+        String offHeap = run("off-heap", motes, minutes, new OffHeapHistoryCache("light1",
+                48 * HOUR, 1440, (long) motes * minutes * 12 * 2)::onBatch);
+        System.out.println(onHeap);
+        System.out.println(offHeap);
+    }
+
+    private static String run(String name, int motes, int minutes, Consumer<SensorBatch> sink) {
+        System.gc();
+        long heapBefore = usedHeap();
+        SensorBatch batch = new SensorBatch(motes);
+        batch.setLabel("light1");
+        for (int m = 0; m < minutes; m++) {
+            batch.clear();
+            for (int mote = 0; mote < motes; mote++) {
+                batch.add(START + m * MINUTE, mote + m % 97, mote);
+            }
+            sink.accept(batch);
+        }
+        System.gc();
+        long retained = usedHeap() - heapBefore;
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long maxPause = 0;
+        List<byte[]> churn = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            long t0 = System.nanoTime();
+            churn.add(new byte[16 * 1024]);
+            if (churn.size() > 500) {
+                churn.clear();
+            }
+            maxPause = Math.max(maxPause, System.nanoTime() - t0);
+        }
+        long t0 = System.nanoTime();
+        System.gc();
+        double fullGcMillis = (System.nanoTime() - t0) / 1e6;
+        return String.format(Locale.ROOT,
+                "%s: %.1f MB retained on heap, churn %d GCs %d ms (worst stall %.1f ms), "
+                        + "full GC %.1f ms",
+                name, retained / 1e6, gcCount() - gcCount, gcMillis() - gcMillis,
+                maxPause / 1e6, fullGcMillis);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
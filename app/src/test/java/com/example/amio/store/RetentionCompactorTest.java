@@ -0,0 +1,133 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RetentionCompactorTest {
+
+    private static final long DAY = 24 * 60 * 60_000L;
+
+    @Test
+    public void ioBudget_allowsOneSecondOfBurstThenPacesToTheRate() throws InterruptedException {
+        AtomicLong clock = new AtomicLong();
+        IoBudget budget = new IoBudget(1000, clock::get);
+
+        long start = System.nanoTime();
+        budget.charge(1000);
+        assertEquals(0, budget.getThrottledNanos());
+        clock.addAndGet(500_000_000L); // half a second refills 500 bytes
+        budget.charge(600);
+        assertEquals(100_000_000L, budget.getThrottledNanos());
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        assertEquals(1600, budget.getChargedBytes());
+    }
+
+    @Test
+    public void run_passesCutoffsAndStopsWhenStoreIsDone() throws Exception {
+        long now = 100 * DAY;
+        FakeStore store = new FakeStore(5, 1024);
+        RetentionCompactor compactor =
+                new RetentionCompactor(store, new IoBudget(1 << 20), 30 * DAY, 365 * DAY);
+
+        assertTrue(compactor.run(now));
+        assertEquals(6, store.calls);
+        assertEquals(70 * DAY, store.rawCutoff);
+        assertEquals(-265 * DAY, store.rollupCutoff);
+        assertEquals(RetentionCompactor.STEP_ROWS, store.maxRows);
+    }
+
+    @Test
+    public void run_stopsAfterTheCurrentStep() throws Exception {
+        FakeStore store = new FakeStore(Integer.MAX_VALUE, 1024);
+        RetentionCompactor compactor =
+                new RetentionCompactor(store, new IoBudget(1 << 20), DAY, DAY);
+        store.onCompact = () -> {
+            if (store.calls == 3) {
+                compactor.stop();
+            }
+        };
+        assertFalse(compactor.run(10 * DAY));
+        assertEquals(3, store.calls);
+    }
+
+    @Test
+    public void benchmark_throttledBacklog() throws Exception {
+        int bytesPerSecond = 4 << 20;
+        FakeStore store = new FakeStore(1000, 6 << 10); // about 6 MB of backlog
+        IoBudget budget = new IoBudget(bytesPerSecond);
+        RetentionCompactor compactor = new RetentionCompactor(store, budget, DAY, DAY);
+
+        long start = System.nanoTime();
+        assertTrue(compactor.run(10 * DAY));
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // the first second of budget is burst, the rest is paced
+        double paced = (budget.getChargedBytes() - bytesPerSecond) / seconds;
+        System.out.println(String.format(Locale.ROOT,
+                "compaction: %.1f MB in %.2f s, %.2f MB/s after the burst against a %.2f MB/s "
+                        + "budget",
+                budget.getChargedBytes() / 1e6, seconds, paced / 1e6, bytesPerSecond / 1e6));
+        assertTrue(paced <= bytesPerSecond * 1.05);
+        assertTrue(paced > bytesPerSecond * 0.5);
+    }
+
+    /** Reports {@code steps} steps of work of {@code bytesPerStep} each, then none. */
+    private static final class FakeStore implements HistoryStore {
+
+        final int steps;
+        final long bytesPerStep;
+        Runnable onCompact = () -> { };
+        int calls;
+        long rawCutoff;
+        long rollupCutoff;
+        int maxRows;
+
+        FakeStore(int steps, long bytesPerStep) {
+            this.steps = steps;
+            this.bytesPerStep = bytesPerStep;
+        }
+
+        @Override
+        public long compact(long rawCutoff, long rollupCutoff, int maxRows) {
+            this.rawCutoff = rawCutoff;
+            this.rollupCutoff = rollupCutoff;
+            this.maxRows = maxRows;
+            calls++;
+            onCompact.run();
+            return calls <= steps ? bytesPerStep : 0;
+        }
+
+        @Override
+        public void append(SensorBatch batch) {
+        }
+
+        @Override
+        public int scan(String label, int mote, long from, long to, SensorBatch out) {
+            return 0;
+        }
+
+        @Override
+        public int scanRollups(String label, int mote, long from, long to, RollupSlice out) {
+            return 0;
+        }
+
+        @Override
+        public int[] motes(String label) {
+            return new int[0];
+        }
+
+        @Override
+        public void appendRollups(String label, int mote, RollupSlice rollups) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
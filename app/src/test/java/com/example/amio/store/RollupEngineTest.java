@@ -0,0 +1,179 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class RollupEngineTest {
+
+    private static final long START = 1_699_920_000_000L; // a UTC midnight
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void buckets_matchTheReadingsTheyCover() {
+        RollupEngine engine = new RollupEngine("light1");
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        // 20 minutes of mote 3, delivered with the newest reading first
+        for (int m = 19; m >= 0; m--) {
+            batch.add(START + m * MINUTE + 500, m, 3);
+        }
+        engine.onBatch(batch);
+
+        RollupSlice out = new RollupSlice();
+        engine.query(3, Resolution.QUARTER_HOUR, START, START + HOUR, out);
+        assertEquals(2, out.size());
+        assertEquals(START, out.start(0));
+        assertEquals(0f, out.min(0), 0f);
+        assertEquals(14f, out.max(0), 0f);
+        assertEquals(15, out.count(0));
+        assertEquals(105.0, out.sum(0), 0.0);
+        assertEquals(14f, out.last(0), 0f);
+        assertEquals(START + 15 * MINUTE, out.start(1));
+        assertEquals(5, out.count(1));
+        assertEquals(17.0, out.mean(1), 1e-9);
+
+        engine.query(3, Resolution.MINUTE, START + 5 * MINUTE, START + 7 * MINUTE, out);
+        assertEquals(2, out.size());
+        assertEquals(5f, out.last(0), 0f);
+
+        engine.query(4, Resolution.DAY, START, START + DAY, out);
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    public void oldBuckets_ageOut() {
+        RollupEngine engine = new RollupEngine("light1");
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        batch.add(START, 1f, 1);
+        batch.add(START + 2 * DAY, 2f, 1);
+        engine.onBatch(batch);
+        batch.clear();
+        batch.add(START + 1, 3f, 1); // older than 12 hours of minutes: dropped at that resolution
+        engine.onBatch(batch);
+
+        RollupSlice out = new RollupSlice();
+        engine.query(1, Resolution.MINUTE, START, START + 2 * DAY + HOUR, out);
+        assertEquals(1, out.size());
+        assertEquals(START + 2 * DAY, out.start(0));
+        engine.query(1, Resolution.HOUR, START, START + 3 * DAY, out);
+        assertEquals(2, out.size());
+        assertEquals(2, out.count(0));
+        assertEquals(3f, out.last(0), 0f);
+    }
+
+    @Test
+    public void firstBatch_rebuildsFromTheStore() throws IOException {
+        long base = Resolution.DAY.bucketStart(System.currentTimeMillis()) - 3 * DAY;
+        try (SegmentHistoryStore store = new SegmentHistoryStore(folder.getRoot())) {
+            // two days of mote 1, the first of them already compacted into hourly rollups
+            SensorBatch batch = new SensorBatch();
+            batch.setLabel("light1");
+            for (int m = 0; m < 2 * 1440; m++) {
+                batch.clear();
+                batch.add(base + m * MINUTE, m % 10, 1);
+                store.append(batch);
+            }
+            while (store.compact(base + DAY, 0, RetentionCompactor.STEP_ROWS) > 0) {
+                // until done
+            }
+
+            RollupEngine engine = new RollupEngine("light1", store);
+            batch.clear();
+            batch.add(base + DAY + 10 * MINUTE, 5f, 1); // replayed by the journal: stored already
+            batch.add(base + 2 * DAY + MINUTE, 9f, 1);
+            engine.onBatch(batch);
+
+            RollupSlice out = new RollupSlice();
+            engine.query(1, Resolution.DAY, base, base + 3 * DAY, out);
+            assertEquals(3, out.size());
+            assertEquals(1440, out.count(0));
+            assertEquals(1440, out.count(1));
+            assertEquals(1, out.count(2));
+            assertEquals(1440 / 10 * 45.0, out.sum(0), 0.0);
+            engine.query(1, Resolution.HOUR, base, base + DAY, out);
+            assertEquals(24, out.size());
+            assertEquals(9f, out.max(23), 0f);
+            engine.query(1, Resolution.QUARTER_HOUR, base + DAY, base + DAY + HOUR, out);
+            assertEquals(4, out.size());
+            assertEquals(15, out.count(0));
+            engine.query(1, Resolution.MINUTE, base + 2 * DAY, base + 2 * DAY + HOUR, out);
+            assertEquals(1, out.size());
+            assertEquals(9f, out.last(0), 0f);
+        }
+    }
+
+    @Test
+    public void forPixels_picksTheCoarsestResolutionFillingTheWidth() {
+        assertEquals(Resolution.MINUTE, Resolution.forPixels(START, START + HOUR, 800));
+        assertEquals(Resolution.QUARTER_HOUR, Resolution.forPixels(START, START + 7 * DAY, 600));
+        assertEquals(Resolution.HOUR, Resolution.forPixels(START, START + 40 * DAY, 800));
+        assertEquals(Resolution.DAY, Resolution.forPixels(START, START + 365 * DAY, 300));
+        // quarter hours would fill the width but only a week of them is kept
+        assertEquals(Resolution.HOUR, Resolution.forPixels(START, START + 14 * DAY, 1080));
+    }
+
+    @Test
+    public void benchmark_monthChartOf200Motes() {
+        int motes = 200;
+        int days = 30;
+        RollupEngine engine = new RollupEngine("light1");
+        SensorBatch batch = new SensorBatch(motes);
+        batch.setLabel("light1");
+        long ingestStart = System.nanoTime();
+        for (int m = 0; m < days * 1440; m++) {
+            batch.clear();
+            for (int mote = 0; mote < motes; mote++) {
+                long t = START + m * MINUTE;
+                boolean lit = (t / HOUR) % 24 >= 8 && (t / HOUR) % 24 < 22;
+                batch.add(t, lit ? 350 + mote % 7 : 4, mote);
+            }
+            engine.onBatch(batch);
+        }
+        long readings = (long) days * 1440 * motes;
+        double ingestNanosPerReading = (System.nanoTime() - ingestStart) / (double) readings;
+
+        long to = START + days * DAY;
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "rollups: ingest %.0f ns/reading;", ingestNanosPerReading));
+        RollupSlice out = new RollupSlice();
+        for (Resolution resolution : Resolution.values()) {
+            long[] nanos = new long[20];
+            for (int round = 0; round < nanos.length; round++) {
+                long t0 = System.nanoTime();
+                for (int mote = 0; mote < motes; mote++) {
+                    engine.query(mote, resolution, START, to, out);
+                }
+                nanos[round] = System.nanoTime() - t0;
+            }
+            Arrays.sort(nanos);
+            report.append(String.format(Locale.ROOT, " %s %d buckets/mote %.2f ms;",
+                    resolution, out.size(), nanos[nanos.length / 2] / 1e6));
+        }
+
+        Resolution picked = engine.query(0, START, to, 1080, out);
+        System.out.println(report + " 1080 px month picks " + picked);
+        assertEquals(Resolution.HOUR, picked);
+        assertEquals(days, countOf(engine, Resolution.DAY, to));
+    }
+
+    private static int countOf(RollupEngine engine, Resolution resolution, long to) {
+        RollupSlice out = new RollupSlice();
+        engine.query(0, resolution, START, to, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.amio.store;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SegmentHistoryStoreTest {
+
+    private static final long START = 1_699_920_000_000L; // a UTC midnight
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scan_readsAcrossSegmentsAndAfterReopen() throws IOException {
+        File dir = folder.getRoot();
+        SegmentHistoryStore store = new SegmentHistoryStore(dir);
+        for (int m = 0; m < 3 * 1440; m++) {
+            store.append(poll(m, 4));
+        }
+        store.append(poll(10, 4)); // replayed: ignored
+
+        SensorBatch out = new SensorBatch();
+        long from = START + DAY - 30 * MINUTE;
+        assertEquals(60, store.scan("light1", 2, from, from + HOUR, out));
+        assertEquals(from, out.timestamp(0));
+        assertEquals(value(1440 - 30, 2), out.value(0), 0f);
+        assertEquals(2, out.mote(59));
+        store.close();
+
+        SegmentHistoryStore reopened = new SegmentHistoryStore(dir);
+        assertEquals(3 * 1440, reopened.scan("light1", 3, 0, Long.MAX_VALUE, out));
+        for (int i = 1; i < out.size(); i++) {
+            assertEquals(out.timestamp(i - 1) + MINUTE, out.timestamp(i));
+        }
+        assertEquals(0, reopened.scan("light1", 9, 0, Long.MAX_VALUE, out));
+        reopened.append(poll(3 * 1440, 4));
+        assertEquals(3 * 1440 + 1, reopened.scan("light1", 3, 0, Long.MAX_VALUE, out));
+        reopened.close();
+    }
+
+    @Test
+    public void scan_keepsAtMostTheLimitOfOlderSegmentsOpen() throws IOException {
+        SegmentHistoryStore store = new SegmentHistoryStore(folder.getRoot(),
+                SegmentHistoryStore.DEFAULT_SEGMENT_MILLIS, 2);
+        for (int m = 0; m < 6 * 1440; m += 10) {
+            store.append(poll(m, 2));
+        }
+        // rolling over to a new day leaves the previous one open, up to the limit
+        assertEquals(2, store.openOlderSegments());
+
+        SensorBatch out = new SensorBatch();
+        for (int round = 0; round < 2; round++) {
+            for (int day = 0; day < 6; day++) {
+                assertEquals(144, store.scan("light1", 1, START + day * DAY,
+                        START + (day + 1) * DAY, out));
+                assertEquals(START + day * DAY, out.timestamp(0));
+                assertTrue(store.openOlderSegments() <= 2);
+            }
+        }
+        // closed segments reopen for a whole-history scan
+        assertEquals(6 * 144, store.scan("light1", 0, 0, Long.MAX_VALUE, out));
+        assertEquals(2, store.openOlderSegments());
+        store.close();
+        assertEquals(0, store.openOlderSegments());
+    }
+
+    @Test
+    public void open_dropsTornRecordAndRebuildsIndex() throws IOException {
+        File dir = folder.getRoot();
+        SegmentHistoryStore store = new SegmentHistoryStore(dir);
+        for (int m = 0; m < 1000; m++) {
+            store.append(poll(m, 1));
+        }
+        store.close();
+
+        File moteDir = new File(new File(dir, "light1"), "0");
+        try (RandomAccessFile data = new RandomAccessFile(new File(moteDir, START + ".seg"), "rw")) {
+            data.setLength(data.length() - 5);
+        }
+        assertTrue(new File(moteDir, START + ".idx").delete());
+
+        SegmentHistoryStore reopened = new SegmentHistoryStore(dir);
+        SensorBatch out = new SensorBatch();
+        assertEquals(999, reopened.scan("light1", 0, 0, Long.MAX_VALUE, out));
+        assertEquals(1, reopened.scan("light1", 0, START + 700 * MINUTE,
+                START + 700 * MINUTE + 1, out));
+        reopened.append(poll(999, 1));
+        assertEquals(1000, reopened.scan("light1", 0, 0, Long.MAX_VALUE, out));
+        reopened.close();
+    }
+
+    @Test
+    public void compact_foldsAndDeletesWholeFiles() throws IOException {
+        File dir = folder.getRoot();
+        SegmentHistoryStore store = new SegmentHistoryStore(dir);
+        for (int m = 0; m < 4 * 1440; m++) {
+            store.append(poll(m, 2));
+        }
+        long now = START + 4 * DAY;
+
+        int steps = 0;
+        while (store.compact(now - 2 * DAY, now - 3 * DAY, RetentionCompactor.STEP_ROWS) > 0) {
+            steps++;
+        }
+        // two days for each of two motes folded, then day one's rollups of both dropped
+        assertEquals(6, steps);
+        File moteDir = new File(new File(dir, "light1"), "1");
+        assertEquals(5, moteDir.list().length); // 2 segments and their indexes, 1 rollup file
+        SensorBatch out = new SensorBatch();
+        assertEquals(2 * 1440, store.scan("light1", 1, 0, Long.MAX_VALUE, out));
+        assertEquals(START + 2 * DAY, out.timestamp(0));
+
+        RollupSlice rollups = new RollupSlice();
+        assertEquals(24, store.scanRollups("light1", 1, 0, Long.MAX_VALUE, rollups));
+        assertEquals(START + DAY, rollups.start(0));
+        assertEquals(60, rollups.count(0));
+        assertEquals(value(1440 + 59, 1), rollups.last(0), 0f);
+        store.close();
+    }
+
+    @Test
+    public void benchmark_coldRangeScans() throws IOException {
+        File dir = folder.getRoot();
+        int motes = 50;
+        int days = 30;
+        SegmentHistoryStore store = new SegmentHistoryStore(dir);
+        long start = System.nanoTime();
+        for (int m = 0; m < days * 1440; m++) {
+            store.append(poll(m, motes));
+        }
+        double insertsPerSecond = days * 1440.0 * motes / ((System.nanoTime() - start) / 1e9);
+        store.close();
+
+        // a fresh store per round: nothing open, nothing mapped, only the OS page cache is warm
+        Random random = new Random(5);
+        SensorBatch out = new SensorBatch();
+        long[] nanos = new long[200];
+        for (int i = 0; i < nanos.length; i++) {
+            SegmentHistoryStore cold = new SegmentHistoryStore(dir);
+            long from = START + random.nextInt(days * 1440 - 60) * MINUTE;
+            long t0 = System.nanoTime();
+            int found = cold.scan("light1", random.nextInt(motes), from, from + HOUR, out);
+            nanos[i] = System.nanoTime() - t0;
+            assertEquals(60, found);
+            cold.close();
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format(Locale.ROOT,
+                "segments: %.0f inserts/s, cold 1 h scan p50 %.0f us p99 %.0f us",
+                insertsPerSecond, nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3));
+    }
+
+    /** One reading of each of {@code motes} motes, the {@code m}th minute after {@link #START}. */
+    static SensorBatch poll(int m, int motes) {
+        SensorBatch batch = new SensorBatch(motes);
+        batch.setLabel("light1");
+        for (int mote = 0; mote < motes; mote++) {
+            batch.add(START + m * MINUTE, value(m, mote), mote);
+        }
+        return batch;
+    }
+
+    static float value(int m, int mote) {
+        return mote * 10 + (m % 13) * 0.5f;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.amio.store;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.amio.data.SensorBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class SqliteHistoryStoreTest {
+
+    private static final long START = 1_699_999_200_000L; // on an hour boundary
+    private static final long MINUTE = 60_000L;
+    private static final int MOTES = 16;
+
+    private Context context;
+    private SqliteHistoryStore store;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        store = new SqliteHistoryStore(context, "history-test.db");
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        context.deleteDatabase("history-test.db");
+        context.deleteDatabase("naive-test.db");
+    }
+
+    @Test
+    public void scan_returnsOneMoteInTimeOrder() throws IOException {
+        SensorBatch batch = poll(0);
+        store.append(poll(2));
+        store.append(batch);
+        store.append(batch); // replayed batch: duplicates are ignored
+        store.append(poll(1));
+
+        SensorBatch out = new SensorBatch();
+        assertEquals(3, store.scan("light1", 5, START, START + 3 * MINUTE, out));
+        for (int i = 0; i < out.size(); i++) {
+            assertEquals(START + i * MINUTE, out.timestamp(i));
+            assertEquals(5, out.mote(i));
+            assertEquals(value(i, 5), out.value(i), 0f);
+        }
+        assertEquals(1, store.scan("light1", 5, START + MINUTE, START + 2 * MINUTE, out));
+        assertEquals(0, store.scan("temperature", 5, START, START + 3 * MINUTE, out));
+    }
+
+    @Test
+    public void compact_foldsOldReadingsIntoHourlyRollups() throws IOException {
+        for (int p = 0; p < 3 * 60; p++) {
+            store.append(poll(p));
+        }
+        long now = START + 2 * 60 * MINUTE + 30 * MINUTE;
+        long steps = 0;
+        while (store.compact(now - 60 * MINUTE, START, 100) > 0) {
+            steps++;
+        }
+        assertTrue(steps > 1);
+
+        // the cutoff is rounded down to the hour: the second hour is still raw
+        SensorBatch out = new SensorBatch();
+        assertEquals(60, store.scan("light1", 7, START, START + 120 * MINUTE, out));
+        assertEquals(START + 60 * MINUTE, out.timestamp(0));
+        RollupSlice rollups = new RollupSlice();
+        assertEquals(1, store.scanRollups("light1", 7, START, now, rollups));
+        assertEquals(60, rollups.count(0));
+        assertEquals(value(59, 7), rollups.last(0), 0f);
+        assertEquals(value(0, 7), rollups.min(0), 0f);
+        assertEquals(value(6, 7), rollups.max(0), 0f);
+
+        // rollups past their own retention go too
+        while (store.compact(now - 60 * MINUTE, START + 60 * MINUTE, 100) > 0) {
+            steps++;
+        }
+        assertEquals(0, store.scanRollups("light1", 7, START, now, rollups));
+    }
+
+    @Test
+    public void snapshot_restoresHourlyHistoryIntoAnEmptyStore() throws IOException {
+        for (int p = 0; p < 2 * 60; p++) {
+            store.append(poll(p));
+        }
+        while (store.compact(START + 60 * MINUTE, START, 100) > 0) {
+            // first hour folded, second hour still raw
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistorySnapshot.write(store, "light1", Collections.<String, byte[]>emptyMap(), out);
+
+        SqliteHistoryStore restored = new SqliteHistoryStore(context, null);
+        HistorySnapshot.read(new ByteArrayInputStream(out.toByteArray()), restored);
+        assertEquals(MOTES, restored.motes("light1").length);
+        RollupSlice rollups = new RollupSlice();
+        assertEquals(2, restored.scanRollups("light1", 7, 0, Long.MAX_VALUE, rollups));
+        assertEquals(START + 60 * MINUTE, rollups.start(1));
+        assertEquals(60, rollups.count(1));
+        assertEquals(value(119, 7), rollups.last(1), 0f);
+        restored.close();
+    }
+
+    @Test
+    public void benchmark_batchedInsertsAndRangeScans() throws IOException {
+        int polls = 2000;
+        SensorBatch[] batches = new SensorBatch[polls];
+        for (int p = 0; p < polls; p++) {
+            batches[p] = poll(p);
+        }
+
+        long start = System.nanoTime();
+        for (SensorBatch batch : batches) {
+            store.append(batch);
+        }
+        double batchedPerSecond = polls * MOTES / ((System.nanoTime() - start) / 1e9);
+
+        // baseline: one autocommitted insert per reading, as a naive listener would do it
+        int naivePolls = 200;
+        SQLiteDatabase naive = context.openOrCreateDatabase("naive-test.db", 0, null);
+        naive.execSQL("CREATE TABLE readings (mote INTEGER, label TEXT, ts INTEGER, value REAL)");
+        ContentValues row = new ContentValues();
+        start = System.nanoTime();
+        for (int p = 0; p < naivePolls; p++) {
+            SensorBatch batch = batches[p];
+            for (int i = 0; i < batch.size(); i++) {
+                row.put("mote", batch.mote(i));
+                row.put("label", batch.getLabel());
+                row.put("ts", batch.timestamp(i));
+                row.put("value", batch.value(i));
+                naive.insert("readings", null, row);
+            }
+        }
+        double naivePerSecond = naivePolls * MOTES / ((System.nanoTime() - start) / 1e9);
+        naive.close();
+
+        // one hour of one mote, anywhere in the history
+        Random random = new Random(3);
+        SensorBatch out = new SensorBatch();
+        long[] nanos = new long[500];
+        for (int i = 0; i < nanos.length; i++) {
+            long from = START + random.nextInt(polls - 60) * MINUTE;
+            long t0 = System.nanoTime();
+            int found = store.scan("light1", random.nextInt(MOTES), from, from + 60 * MINUTE, out);
+            nanos[i] = System.nanoTime() - t0;
+            assertEquals(60, found);
+        }
+        Arrays.sort(nanos);
+
+        System.out.println(String.format(Locale.ROOT,
+                "sqlite: %.0f inserts/s batched vs %.0f inserts/s single-row, "
+                        + "1 h scan p50 %.0f us p99 %.0f us",
+                batchedPerSecond, naivePerSecond,
+                nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3));
+        assertTrue(batchedPerSecond > naivePerSecond);
+    }
+
+    /** One poll of every mote, the {@code p}th minute after {@link #START}. */
+    private static SensorBatch poll(int p) {
+        SensorBatch batch = new SensorBatch();
+        batch.setLabel("light1");
+        for (int mote = 0; mote < MOTES; mote++) {
+            batch.add(START + p * MINUTE, value(p, mote), mote);
+        }
+        return batch;
+    }
+
+    private static float value(int p, int mote) {
+        return mote * 10 + (p % 7) * 0.5f;
+    }
+}